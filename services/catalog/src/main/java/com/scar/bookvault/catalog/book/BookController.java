@@ -27,6 +27,13 @@ public class BookController {
         return bookService.listPaged(PageRequest.of(page, size));
     }
 
+    // Keyset paging cho các job đọc toàn bộ catalog (vd: reindex của search)
+    @GetMapping("/after")
+    public List<Book> listAfter(@RequestParam(defaultValue = "0") Long afterId,
+                                @RequestParam(defaultValue = "500") int size) {
+        return bookService.listAfter(afterId, Math.min(Math.max(size, 1), 1000));
+    }
+
     @GetMapping("/{id}")
     public Book get(@PathVariable Long id) { return bookService.get(id); }
 
@@ -1,12 +1,16 @@
 package com.scar.bookvault.catalog.book;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface BookRepository extends JpaRepository<Book, Long> {
     Optional<Book> findByIsbn(String isbn);
     boolean existsByIsbn(String isbn);
+    // Keyset paging theo id, không dùng OFFSET
+    List<Book> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
 }
 
 
@@ -6,6 +6,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
 @Service
@@ -26,6 +27,10 @@ public class BookService {
         return bookRepository.findAll(pageable);
     }
 
+    public List<Book> listAfter(Long afterId, int size) {
+        return bookRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, size));
+    }
+
     public Book get(Long id) {
         return bookRepository.findById(id).orElseThrow();
     }
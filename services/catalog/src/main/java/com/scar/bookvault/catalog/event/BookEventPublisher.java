@@ -7,7 +7,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,7 +33,9 @@ public class BookEventPublisher {
             event.put("author", book.getAuthor());
             event.put("isbn", book.getIsbn());
             event.put("quantity", book.getQuantity());
-            event.put("timestamp", LocalDateTime.now().toString());
+            // Search uses updatedAt (UTC) as the document version, same as its reindex snapshot
+            event.put("updatedAt", book.getUpdatedAt().toInstant().toString());
+            event.put("timestamp", Instant.now().toString());
             
             String eventJson = objectMapper.writeValueAsString(event);
             kafkaTemplate.send("book.created", book.getId().toString(), eventJson);
@@ -55,7 +57,9 @@ public class BookEventPublisher {
             event.put("author", book.getAuthor());
             event.put("isbn", book.getIsbn());
             event.put("quantity", book.getQuantity());
-            event.put("timestamp", LocalDateTime.now().toString());
+            // Search uses updatedAt (UTC) as the document version, same as its reindex snapshot
+            event.put("updatedAt", book.getUpdatedAt().toInstant().toString());
+            event.put("timestamp", Instant.now().toString());
             
             String eventJson = objectMapper.writeValueAsString(event);
             kafkaTemplate.send("book.updated", book.getId().toString(), eventJson);
@@ -72,7 +76,7 @@ public class BookEventPublisher {
             Map<String, Object> event = new HashMap<>();
             event.put("eventType", "book.deleted");
             event.put("bookId", bookId);
-            event.put("timestamp", LocalDateTime.now().toString());
+            event.put("timestamp", Instant.now().toString());
             
             String eventJson = objectMapper.writeValueAsString(event);
             kafkaTemplate.send("book.deleted", bookId.toString(), eventJson);
@@ -83,4 +87,23 @@ public class BookEventPublisher {
             logger.error("Failed to publish book.deleted event for book ID: {}", bookId, e);
         }
     }
+    
+    public void publishRatingSummary(Long bookId, long ratingCount, Double ratingAverage) {
+        try {
+            Map<String, Object> event = new HashMap<>();
+            event.put("eventType", "book.rating.summary");
+            event.put("bookId", bookId);
+            event.put("ratingCount", ratingCount);
+            event.put("ratingAverage", ratingAverage);
+            event.put("timestamp", Instant.now().toString());
+            
+            String eventJson = objectMapper.writeValueAsString(event);
+            kafkaTemplate.send("book.rating.summary", bookId.toString(), eventJson);
+            
+            logger.info("Published book.rating.summary event for book ID: {}", bookId);
+            
+        } catch (Exception e) {
+            logger.error("Failed to publish book.rating.summary event for book ID: {}", bookId, e);
+        }
+    }
 }
\ No newline at end of file
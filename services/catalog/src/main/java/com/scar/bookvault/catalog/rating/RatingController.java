@@ -1,5 +1,6 @@
 package com.scar.bookvault.catalog.rating;
 
+import com.scar.bookvault.catalog.event.BookEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
@@ -9,8 +10,12 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/api/catalog/v1/books/{bookId}")
 public class RatingController {
     private final RatingRepository repository;
+    private final BookEventPublisher eventPublisher;
 
-    public RatingController(RatingRepository repository) { this.repository = repository; }
+    public RatingController(RatingRepository repository, BookEventPublisher eventPublisher) {
+        this.repository = repository;
+        this.eventPublisher = eventPublisher;
+    }
 
     public record CreateRatingRequest(Long userId, Integer points, String comment) {}
 
@@ -29,7 +34,10 @@ public class RatingController {
         r.setUserId(req.userId());
         r.setPoints(req.points());
         r.setComment(req.comment());
-        return repository.save(r);
+        Rating saved = repository.save(r);
+        // Search chỉ nhận số lượt và điểm trung bình, không cần join sang bảng ratings
+        eventPublisher.publishRatingSummary(bookId, repository.countByBookId(bookId), repository.averagePointsByBookId(bookId));
+        return saved;
     }
 }
 
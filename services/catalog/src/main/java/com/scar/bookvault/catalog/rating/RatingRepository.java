@@ -3,10 +3,12 @@ package com.scar.bookvault.catalog.rating;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 public interface RatingRepository extends JpaRepository<Rating, Long> {
     Page<Rating> findByBookId(Long bookId, Pageable pageable);
     long countByBookId(Long bookId);
+    @Query("select avg(r.points) from Rating r where r.bookId = :bookId")
     Double averagePointsByBookId(Long bookId);
 }
 
@@ -6,6 +6,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 
 import java.time.OffsetDateTime;
 import java.util.List;
@@ -13,6 +15,7 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -51,6 +54,19 @@ class BookServiceTest {
         verify(bookRepository).findAll();
     }
 
+    @Test
+    void shouldListBooksAfterIdUsingKeysetPaging() {
+        // Given
+        when(bookRepository.findByIdGreaterThanOrderByIdAsc(eq(0L), any(Pageable.class))).thenReturn(List.of(testBook));
+
+        // When
+        List<Book> result = bookService.listAfter(0L, 100);
+
+        // Then
+        assertEquals(1, result.size());
+        verify(bookRepository).findByIdGreaterThanOrderByIdAsc(0L, PageRequest.of(0, 100));
+    }
+
     @Test
     void shouldGetBookById() {
         // Given
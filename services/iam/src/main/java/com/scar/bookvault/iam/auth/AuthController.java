@@ -40,6 +40,7 @@ public class AuthController {
         userRepository.save(u);
         Map<String, Object> claims = new HashMap<>();
         claims.put("role", u.getRole());
+        claims.put("userId", u.getId());
         String token = jwtService.generateToken(u.getUsername(), claims);
         return Map.of("accessToken", token, "tokenType", "Bearer");
     }
@@ -52,6 +53,7 @@ public class AuthController {
         }
         Map<String, Object> claims = new HashMap<>();
         claims.put("role", u.getRole());
+        claims.put("userId", u.getId());
         String token = jwtService.generateToken(u.getUsername(), claims);
         return Map.of("accessToken", token, "tokenType", "Bearer");
     }
@@ -1,54 +1,191 @@
 package com.scar.bookvault.media.api;
 
+import com.scar.bookvault.media.service.CoverDerivatives;
+import com.scar.bookvault.media.service.MediaCache;
 import com.scar.bookvault.media.service.MediaService;
-import org.springframework.core.io.InputStreamResource;
+import com.scar.bookvault.media.service.StoredFile;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/media/v1")
 public class MediaController {
     private final MediaService mediaService;
+    private final MediaCache mediaCache;
+    private final CoverDerivatives coverDerivatives;
 
-    public MediaController(MediaService mediaService) {
+    public MediaController(MediaService mediaService, MediaCache mediaCache, CoverDerivatives coverDerivatives) {
         this.mediaService = mediaService;
+        this.mediaCache = mediaCache;
+        this.coverDerivatives = coverDerivatives;
     }
 
     @PostMapping("/upload")
     @ResponseStatus(HttpStatus.CREATED)
-    public Map<String, String> upload(@RequestParam("file") MultipartFile file) {
-        String fileName = mediaService.uploadFile(file);
+    public Map<String, String> upload(@RequestParam("file") MultipartFile file,
+                                      @RequestHeader(value = UploadController.CHECKSUM_HEADER, required = false) String sha256) {
+        String fileName = mediaService.uploadFile(file, sha256);
+        coverDerivatives.generateAsync(fileName, file.getContentType());
         return Map.of(
             "fileName", fileName,
             "url", mediaService.getFileUrl(fileName)
         );
     }
 
+    // Client gửi SHA-256 trước; nội dung đã có thì tạo tên mới mà không cần upload, 404 thì upload bình thường
+    @PostMapping("/files/by-hash")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Map<String, String> linkExisting(@RequestBody Map<String, String> request) {
+        String fileName = mediaService.linkExisting(request.get("sha256"), request.get("fileName"), request.get("contentType"))
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No stored content with this hash"));
+        coverDerivatives.generateAsync(fileName, request.get("contentType"));
+        return Map.of(
+            "fileName", fileName,
+            "url", mediaService.getFileUrl(fileName)
+        );
+    }
+
+    // Hỗ trợ Range một đoạn (206) để tải tiếp và tua media; nhiều đoạn thì trả cả file (200).
+    // Nội dung lấy từ cache trên đĩa (kiểm tra theo ETag vừa stat) hoặc stream từ MinIO, không qua heap.
+    // size=thumbnail|list|detail trả ảnh bìa thu nhỏ thay cho ảnh gốc.
     @GetMapping("/files/{fileName}")
-    public ResponseEntity<InputStreamResource> download(@PathVariable String fileName) {
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable String fileName,
+                                                          @RequestParam(value = "size", required = false) String variant,
+                                                          @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                                          @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) {
+        CoverDerivatives.Size derivative = variant == null ? null : CoverDerivatives.Size.parse(variant)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown size: " + variant));
+        StoredFile stat;
         try {
-            InputStream inputStream = mediaService.getFile(fileName);
-            InputStreamResource resource = new InputStreamResource(inputStream);
-            
-            return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+            stat = mediaService.statFile(fileName);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
+        // Ảnh thu nhỏ theo object lưu trữ của ảnh gốc, dùng chung cho mọi tên cùng nội dung
+        if (derivative != null) {
+            StoredFile scaled = statDerivative(fileName, stat, derivative);
+            if (scaled != null) {
+                stat = scaled;
+            }
+        }
+        String source = stat.objectName();
+        String objectEtag = stat.etag();
+        long size = stat.size();
+        String etag = "\"" + objectEtag + "\"";
+        
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        headers.setContentType(contentType(fileName, stat.contentType()));
+        headers.setETag(etag);
+        headers.setLastModified(stat.lastModified());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        
+        List<HttpRange> ranges;
+        try {
+            ranges = range == null || !ifRangeMatches(ifRange, etag, stat.lastModified()) ? List.of() : HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(size);
+        }
+        if (ranges.size() != 1) {
+            headers.setContentLength(size);
+            return ResponseEntity.ok().headers(headers).body(out -> {
+                if (size > 0) {
+                    mediaCache.copyTo(source, objectEtag, size, 0, size, out);
+                }
+            });
+        }
+        
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(size);
+            end = ranges.get(0).getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(size);
+        }
+        long length = end - start + 1;
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        headers.setContentLength(length);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+            .body(out -> mediaCache.copyTo(source, objectEtag, size, start, length, out));
     }
 
     @DeleteMapping("/files/{fileName}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public void delete(@PathVariable String fileName) {
-        mediaService.deleteFile(fileName);
+        // Cache và ảnh thu nhỏ theo object lưu trữ (blobs/{sha256}), không theo tên công khai; chỉ xóa
+        // khi không còn tên nào trỏ tới nội dung
+        mediaService.deleteFile(fileName).ifPresent(source -> {
+            mediaCache.invalidate(source);
+            coverDerivatives.delete(source);
+            for (CoverDerivatives.Size size : CoverDerivatives.Size.values()) {
+                mediaCache.invalidate(CoverDerivatives.objectName(source, size));
+            }
+        });
+    }
+
+    // Object upload trước khi có ảnh thu nhỏ thì tạo trên pool worker và chờ trong giới hạn; không tạo
+    // được (không phải ảnh, ảnh hỏng) hoặc chưa kịp xong thì null để trả ảnh gốc
+    private StoredFile statDerivative(String fileName, StoredFile original, CoverDerivatives.Size size) {
+        String derivativeName = CoverDerivatives.objectName(original.objectName(), size);
+        try {
+            return mediaService.statFile(derivativeName);
+        } catch (Exception e) {
+            // Chưa có, tạo bên dưới
+        }
+        try {
+            return coverDerivatives.awaitGenerated(fileName, original) ? mediaService.statFile(derivativeName) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> rangeNotSatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+            .build();
+    }
+    
+    // Content type lưu lúc upload; object cũ chỉ có application/octet-stream thì đoán theo tên file
+    static MediaType contentType(String fileName, String stored) {
+        if (stored != null && !stored.isBlank() && !MediaType.APPLICATION_OCTET_STREAM_VALUE.equals(stored)) {
+            try {
+                return MediaType.parseMediaType(stored);
+            } catch (IllegalArgumentException ignored) {
+                // Content type hỏng, đoán lại theo tên file
+            }
+        }
+        return MediaTypeFactory.getMediaType(fileName).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+    
+    // If-Range không khớp (file đã đổi) thì bỏ qua Range và trả cả file
+    static boolean ifRangeMatches(String ifRange, String etag, ZonedDateTime lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toInstant().equals(lastModified.toInstant().truncatedTo(ChronoUnit.SECONDS));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 }
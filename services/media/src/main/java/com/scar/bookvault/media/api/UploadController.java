@@ -0,0 +1,60 @@
+package com.scar.bookvault.media.api;
+
+import com.scar.bookvault.media.service.ChunkedUploadService;
+import com.scar.bookvault.media.service.ChunkedUploadService.Upload;
+import com.scar.bookvault.media.service.ChunkedUploadService.UploadedPart;
+import com.scar.bookvault.media.service.MediaService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+// Upload theo phần cho file lớn: POST /uploads (tùy chọn sha256 của cả file; nội dung đã có thì trả
+// fileName ngay), PUT /uploads/{id}/parts/{n} (body là byte thô của phần, tùy chọn header
+// X-Checksum-SHA256), POST /uploads/{id}/complete
+@RestController
+@RequestMapping("/api/media/v1/uploads")
+public class UploadController {
+    public static final String CHECKSUM_HEADER = "X-Checksum-SHA256";
+
+    private final ChunkedUploadService uploadService;
+    private final MediaService mediaService;
+
+    public UploadController(ChunkedUploadService uploadService, MediaService mediaService) {
+        this.uploadService = uploadService;
+        this.mediaService = mediaService;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Upload initiate(@RequestBody Map<String, String> request) {
+        return uploadService.initiate(request.get("fileName"), request.get("contentType"), request.get("sha256"));
+    }
+
+    // Đọc thẳng body của request, không qua multipart nên không bị spool ra đĩa
+    @PutMapping("/{uploadId}/parts/{partNumber}")
+    public UploadedPart uploadPart(@PathVariable String uploadId,
+                                   @PathVariable int partNumber,
+                                   @RequestHeader(value = CHECKSUM_HEADER, required = false) String sha256,
+                                   HttpServletRequest request) throws IOException {
+        return uploadService.uploadPart(uploadId, partNumber, request.getInputStream(), request.getContentLengthLong(), sha256);
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Map<String, String> complete(@PathVariable String uploadId) {
+        String fileName = uploadService.complete(uploadId);
+        return Map.of(
+            "fileName", fileName,
+            "url", mediaService.getFileUrl(fileName)
+        );
+    }
+
+    @DeleteMapping("/{uploadId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void abort(@PathVariable String uploadId) {
+        uploadService.abort(uploadId);
+    }
+}
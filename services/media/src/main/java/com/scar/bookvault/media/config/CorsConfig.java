@@ -12,6 +12,7 @@ public class CorsConfig implements WebMvcConfigurer {
                 .allowedOrigins("http://localhost:3000")
                 .allowedMethods("GET","POST","PUT","DELETE")
                 .allowedHeaders("*")
+                .exposedHeaders("Content-Range", "Accept-Ranges", "ETag")
                 .allowCredentials(true);
     }
 }
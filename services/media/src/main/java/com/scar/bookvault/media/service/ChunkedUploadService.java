@@ -0,0 +1,324 @@
+package com.scar.bookvault.media.service;
+
+import io.minio.ComposeSource;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Upload file lớn theo từng phần: initiate, upload các phần (song song, gửi lại được từng phần),
+ * rồi complete.
+ *
+ * Mỗi phần được ghi thành một object tạm uploads/{uploadId}/part-NNNNN, kèm SHA-256 tính khi
+ * stream. complete đọc lại các phần theo thứ tự để tính SHA-256 của cả file rồi lưu theo nội dung
+ * như MediaService: nội dung đã có thì chỉ tạo tên mới, chưa có thì các phần được ghép bằng
+ * composeObject (MinIO dùng multipart upload-part-copy phía server) thẳng vào blobs/{sha256}; sau
+ * đó object tạm bị xóa. Client biết trước SHA-256 của cả file thì gửi ở initiate: nội dung đã có thì
+ * không cần upload phần nào, chưa có thì hash được kiểm tra lại khi complete.
+ *
+ * Trạng thái upload chỉ nằm trong MinIO nên instance nào cũng nhận được phần tiếp theo. Upload bỏ
+ * dở quá abandoned-after bị dọn định kỳ.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    static final String PREFIX = "uploads/";
+    static final String MANIFEST = "upload";
+    static final String PART = "part-";
+    // Metadata của manifest
+    static final String ORIGINAL_NAME = "original-name";
+    static final String MIME_TYPE = "mime-type";
+    static final String SHA256 = "sha256";
+    // Giới hạn của S3/MinIO cho mỗi phần (trừ phần cuối) và số phần
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    public static final int MAX_PARTS = 10_000;
+
+    private final MinioClient minioClient;
+    private final MediaService mediaService;
+    private final String bucketName;
+    private final long maxPartSize;
+    private final Duration abandonedAfter;
+
+    // fileName khác null khi nội dung đã có và không cần upload (uploadId khi đó là null)
+    public record Upload(String uploadId, long minPartSize, long maxPartSize, String fileName) {
+    }
+
+    public record UploadedPart(int partNumber, long size, String sha256) {
+    }
+
+    public ChunkedUploadService(MinioClient minioClient,
+                                MediaService mediaService,
+                                @Value("${minio.bucket}") String bucketName,
+                                @Value("${media.uploads.max-part-size:64MB}") DataSize maxPartSize,
+                                @Value("${media.uploads.abandoned-after:24h}") Duration abandonedAfter) {
+        this.minioClient = minioClient;
+        this.mediaService = mediaService;
+        this.bucketName = bucketName;
+        this.maxPartSize = maxPartSize.toBytes();
+        this.abandonedAfter = abandonedAfter;
+    }
+
+    /**
+     * Bắt đầu upload. sha256 (hex, tùy chọn) là hash của cả file: nội dung đã có thì tạo tên mới và
+     * trả về ngay mà không tạo upload.
+     */
+    public Upload initiate(String originalFilename, String contentType, String sha256) {
+        if (originalFilename == null || originalFilename.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fileName is required");
+        }
+        Map<String, String> metadata = new HashMap<>();
+        if (sha256 != null) {
+            Optional<String> existing = mediaService.linkExisting(sha256, originalFilename, contentType);
+            if (existing.isPresent()) {
+                return new Upload(null, MIN_PART_SIZE, maxPartSize, existing.get());
+            }
+            metadata.put(SHA256, sha256.toLowerCase(Locale.ROOT));
+        }
+        String uploadId = UUID.randomUUID().toString();
+        metadata.put(ORIGINAL_NAME, originalFilename);
+        metadata.put(MIME_TYPE, contentType != null ? contentType : "application/octet-stream");
+        try {
+            minioClient.putObject(
+                PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(manifest(uploadId))
+                    .stream(new ByteArrayInputStream(new byte[0]), 0, -1)
+                    .userMetadata(metadata)
+                    .build()
+            );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to initiate upload: " + e.getMessage(), e);
+        }
+        return new Upload(uploadId, MIN_PART_SIZE, maxPartSize, null);
+    }
+
+    /**
+     * Ghi một phần. expectedSha256 (hex, tùy chọn) do client gửi; không khớp thì phần bị xóa và
+     * client phải gửi lại. Gửi lại cùng partNumber sẽ ghi đè phần cũ.
+     */
+    public UploadedPart uploadPart(String uploadId, int partNumber, InputStream body, long size, String expectedSha256) {
+        if (partNumber < 1 || partNumber > MAX_PARTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "partNumber must be between 1 and " + MAX_PARTS);
+        }
+        if (size < 0) {
+            throw new ResponseStatusException(HttpStatus.LENGTH_REQUIRED, "Content-Length is required");
+        }
+        if (size == 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Part is empty");
+        }
+        if (size > maxPartSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Part is larger than " + maxPartSize + " bytes");
+        }
+        requireUpload(uploadId);
+
+        String partName = part(uploadId, partNumber);
+        MessageDigest digest = MediaService.newDigest();
+        try {
+            minioClient.putObject(
+                PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(partName)
+                    .stream(new DigestInputStream(body, digest), size, -1)
+                    .build()
+            );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to upload part " + partNumber + ": " + e.getMessage(), e);
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+            remove(List.of(partName));
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Checksum mismatch for part " + partNumber + ": expected " + expectedSha256 + ", got " + sha256);
+        }
+        return new UploadedPart(partNumber, size, sha256);
+    }
+
+    /**
+     * Lưu các phần 1..N thành một file theo nội dung và dọn object tạm; trả về tên file.
+     */
+    public String complete(String uploadId) {
+        StatObjectResponse manifest = requireUpload(uploadId);
+        TreeMap<Integer, Item> parts = new TreeMap<>();
+        for (Item item : list(PREFIX + uploadId + "/")) {
+            String name = item.objectName().substring(PREFIX.length() + uploadId.length() + 1);
+            if (name.startsWith(PART)) {
+                parts.put(Integer.parseInt(name.substring(PART.length())), item);
+            }
+        }
+        if (parts.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Upload " + uploadId + " has no parts");
+        }
+        if (parts.lastKey() != parts.size()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Parts must be numbered 1.." + parts.lastKey() + " without gaps");
+        }
+        List<ComposeSource> sources = new ArrayList<>(parts.size());
+        for (Map.Entry<Integer, Item> part : parts.entrySet()) {
+            if (part.getKey() < parts.lastKey() && part.getValue().size() < MIN_PART_SIZE) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Part " + part.getKey() + " is smaller than " + MIN_PART_SIZE + " bytes; only the last part may be");
+            }
+            sources.add(ComposeSource.builder().bucket(bucketName).object(part.getValue().objectName()).build());
+        }
+
+        // SHA-256 không ghép được từ hash của từng phần nên các phần được đọc lại theo thứ tự
+        MessageDigest digest = MediaService.newDigest();
+        long size = 0;
+        for (Item part : parts.values()) {
+            try (InputStream in = mediaService.getFile(part.objectName(), 0, -1)) {
+                mediaService.update(digest, in);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read upload part: " + e.getMessage(), e);
+            }
+            size += part.size();
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        String expected = manifest.userMetadata().get(SHA256);
+        if (expected != null && !expected.equals(sha256)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Checksum mismatch: expected " + expected + ", got " + sha256);
+        }
+
+        String fileName = mediaService.storeParts(manifest.userMetadata().get(ORIGINAL_NAME), sha256, size,
+            manifest.userMetadata().getOrDefault(MIME_TYPE, "application/octet-stream"), sources);
+        abort(uploadId);
+        return fileName;
+    }
+
+    public void abort(String uploadId) {
+        requireValidId(uploadId);
+        List<String> names = new ArrayList<>();
+        for (Item item : list(PREFIX + uploadId + "/")) {
+            names.add(item.objectName());
+        }
+        remove(names);
+    }
+
+    // Xóa upload không có phần nào được ghi thêm trong abandoned-after
+    @Scheduled(fixedDelayString = "${media.uploads.cleanup-interval:1h}")
+    public void removeAbandoned() {
+        ZonedDateTime cutoff = ZonedDateTime.now().minus(abandonedAfter);
+        Map<String, ZonedDateTime> lastActivity = new HashMap<>();
+        Map<String, List<String>> objects = new HashMap<>();
+        for (Item item : list(PREFIX)) {
+            String rest = item.objectName().substring(PREFIX.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                continue;
+            }
+            String uploadId = rest.substring(0, slash);
+            lastActivity.merge(uploadId, item.lastModified(), (a, b) -> a.isAfter(b) ? a : b);
+            objects.computeIfAbsent(uploadId, id -> new ArrayList<>()).add(item.objectName());
+        }
+        int removed = 0;
+        for (Map.Entry<String, ZonedDateTime> upload : lastActivity.entrySet()) {
+            if (upload.getValue().isBefore(cutoff)) {
+                remove(objects.get(upload.getKey()));
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.info("Removed {} abandoned chunked uploads", removed);
+        }
+    }
+
+    private StatObjectResponse requireUpload(String uploadId) {
+        requireValidId(uploadId);
+        try {
+            return minioClient.statObject(
+                StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(manifest(uploadId))
+                    .build()
+            );
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown upload: " + uploadId);
+            }
+            throw new RuntimeException("Failed to read upload: " + e.getMessage(), e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read upload: " + e.getMessage(), e);
+        }
+    }
+
+    // uploadId là một phần của tên object nên phải đúng dạng UUID
+    private static void requireValidId(String uploadId) {
+        try {
+            UUID.fromString(uploadId);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown upload: " + uploadId);
+        }
+    }
+
+    private List<Item> list(String prefix) {
+        List<Item> items = new ArrayList<>();
+        try {
+            for (Result<Item> result : minioClient.listObjects(
+                    ListObjectsArgs.builder().bucket(bucketName).prefix(prefix).recursive(true).build())) {
+                items.add(result.get());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to list uploads: " + e.getMessage(), e);
+        }
+        return items;
+    }
+
+    private void remove(List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        List<DeleteObject> objects = names.stream().map(DeleteObject::new).toList();
+        try {
+            // removeObjects chỉ gửi request khi kết quả được duyệt
+            for (Result<DeleteError> result : minioClient.removeObjects(
+                    RemoveObjectsArgs.builder().bucket(bucketName).objects(objects).build())) {
+                DeleteError error = result.get();
+                logger.warn("Failed to remove {}: {}", error.objectName(), error.message());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to remove upload objects: " + e.getMessage(), e);
+        }
+    }
+
+    static String manifest(String uploadId) {
+        return PREFIX + uploadId + "/" + MANIFEST;
+    }
+
+    static String part(String uploadId, int partNumber) {
+        return String.format("%s%s/%s%05d", PREFIX, uploadId, PART, partNumber);
+    }
+}
@@ -0,0 +1,402 @@
+package com.scar.bookvault.media.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Ảnh bìa thu nhỏ theo các cỡ cố định (thumbnail, list, detail), nén JPEG, để trang danh mục không
+ * phải tải ảnh gốc độ phân giải đầy đủ.
+ *
+ * Ảnh thu nhỏ được tạo trên một pool worker giới hạn ngay sau khi upload, và lưu theo object lưu
+ * trữ của ảnh gốc (StoredFile.objectName) dưới derivatives/{size}/{object}.jpg, tức là theo blob với
+ * file lưu theo nội dung: mọi tên trỏ tới cùng nội dung dùng chung một bộ ảnh thu nhỏ, chỉ giải mã
+ * một lần. Object upload trước đây chưa có ảnh thu nhỏ thì được tạo khi có request đầu tiên, cũng
+ * trên pool đó, và request chỉ chờ tối đa request-timeout; các lần gọi đồng thời cho cùng một ảnh chỉ
+ * gây ra một lần tạo. Object không tạo được ảnh thu nhỏ (không phải ảnh, ảnh hỏng, quá lớn) được đánh
+ * dấu bằng object rỗng derivatives/none/{object} để không phải tải và giải mã lại ở mỗi request. Nội
+ * dung của một blob không bao giờ đổi, và object cũ có tên mới ở mỗi lần upload, nên ảnh thu nhỏ và
+ * marker không bao giờ cũ.
+ */
+@Service
+public class CoverDerivatives {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverDerivatives.class);
+
+    static final String PREFIX = "derivatives/";
+    static final String UNAVAILABLE = PREFIX + "none/";
+
+    public enum Size {
+        THUMBNAIL(160),
+        LIST(320),
+        DETAIL(800);
+
+        // Chiều rộng tối đa; chiều cao theo tỉ lệ ảnh gốc
+        final int width;
+
+        Size(int width) {
+            this.width = width;
+        }
+
+        public static Optional<Size> parse(String value) {
+            return Arrays.stream(values())
+                .filter(size -> size.name().equalsIgnoreCase(value))
+                .findFirst();
+        }
+    }
+
+    private final MinioClient minioClient;
+    private final MediaService mediaService;
+    private final String bucketName;
+    private final float quality;
+    private final long maxSourcePixels;
+    private final long requestTimeoutMillis;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter generated;
+    private final Counter rejected;
+    private final Counter timeouts;
+    private final Timer duration;
+
+    public CoverDerivatives(MinioClient minioClient,
+                            MediaService mediaService,
+                            MeterRegistry meterRegistry,
+                            @Value("${minio.bucket}") String bucketName,
+                            @Value("${media.derivatives.quality:0.8}") float quality,
+                            @Value("${media.derivatives.max-source-pixels:40000000}") long maxSourcePixels,
+                            @Value("${media.derivatives.workers:2}") int workers,
+                            @Value("${media.derivatives.queue-capacity:200}") int queueCapacity,
+                            @Value("${media.derivatives.request-timeout:2s}") Duration requestTimeout) {
+        this.minioClient = minioClient;
+        this.mediaService = mediaService;
+        this.bucketName = bucketName;
+        this.quality = quality;
+        this.maxSourcePixels = maxSourcePixels;
+        this.requestTimeoutMillis = requestTimeout.toMillis();
+        // Giải mã ảnh tốn CPU và bộ nhớ nên giới hạn cả số worker lẫn hàng đợi; hàng đợi đầy thì bỏ qua,
+        // ảnh sẽ được tạo khi có request sau
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name("cover-derivatives-", 0).daemon(true).factory());
+
+        this.generated = Counter.builder("media.derivatives.generated")
+            .description("Originals for which cover derivatives were generated")
+            .register(meterRegistry);
+        this.rejected = Counter.builder("media.derivatives.rejected")
+            .description("Derivative generations skipped because the worker queue was full")
+            .register(meterRegistry);
+        this.timeouts = Counter.builder("media.derivatives.timeouts")
+            .description("Requests that served the original because derivatives were not ready in time")
+            .register(meterRegistry);
+        this.duration = Timer.builder("media.derivatives.duration")
+            .description("Time to decode an original and write all of its derivatives")
+            .register(meterRegistry);
+    }
+
+    // source là object lưu trữ của ảnh gốc (StoredFile.objectName), không phải tên công khai
+    public static String objectName(String source, Size size) {
+        return PREFIX + size.name().toLowerCase(Locale.ROOT) + "/" + source + ".jpg";
+    }
+
+    static String unavailableMarker(String source) {
+        return UNAVAILABLE + source;
+    }
+
+    // Gọi sau khi upload; chỉ stat tên file, việc tạo không chặn request upload
+    public void generateAsync(String fileName, String contentType) {
+        if (!isImage(fileName, contentType)) {
+            return;
+        }
+        try {
+            submit(fileName, mediaService.statFile(fileName));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to schedule derivatives for {}: {}", fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Tạo ảnh thu nhỏ cho request đầu tiên của object chưa có chúng; request chỉ chờ tối đa
+     * request-timeout, quá hạn thì việc tạo vẫn tiếp tục trên worker. Trả về true nếu ảnh thu nhỏ đã
+     * có, false nếu object đã được đánh dấu không tạo được, chưa xong, hoặc pool đang đầy.
+     */
+    public boolean awaitGenerated(String fileName, StoredFile original) {
+        if (markedUnavailable(original.objectName())) {
+            return false;
+        }
+        try {
+            return submit(fileName, original).get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Các lần gọi đồng thời cho cùng một nội dung (kể cả qua các tên khác nhau) dùng chung một lần tạo
+    // trên pool worker
+    private CompletableFuture<Boolean> submit(String fileName, StoredFile original) {
+        String source = original.objectName();
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(source, mine);
+        if (running != null) {
+            return running;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    mine.complete(generate(fileName, original));
+                } catch (RuntimeException e) {
+                    mine.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(source, mine);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            inFlight.remove(source, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    /**
+     * Tạo mọi cỡ cho ảnh gốc trên thread gọi, trừ khi nội dung đã có ảnh thu nhỏ (tên khác cùng blob);
+     * trả về false nếu không phải ảnh đọc được. fileName chỉ dùng để đoán loại của object cũ.
+     */
+    boolean generate(String fileName, StoredFile original) {
+        if (exists(objectName(original.objectName(), Size.DETAIL))) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            boolean result = render(fileName, original);
+            duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to generate derivatives for {}: {}", fileName, e.getMessage());
+            throw e;
+        }
+    }
+
+    // Gọi khi object lưu trữ bị xóa (tên cuối cùng trỏ tới blob)
+    public void delete(String source) {
+        try {
+            for (Result<DeleteError> result : minioClient.removeObjects(
+                    RemoveObjectsArgs.builder()
+                        .bucket(bucketName)
+                        .objects(Stream.concat(
+                                Arrays.stream(Size.values()).map(size -> new DeleteObject(objectName(source, size))),
+                                Stream.of(new DeleteObject(unavailableMarker(source))))
+                            .toList())
+                        .build())) {
+                DeleteError error = result.get();
+                logger.warn("Failed to remove {}: {}", error.objectName(), error.message());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete derivatives: " + e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdownNow();
+    }
+
+    private boolean render(String fileName, StoredFile original) {
+        String source = original.objectName();
+        if (original.size() == 0 || !isImage(fileName, original.contentType())) {
+            markUnavailable(source);
+            return false;
+        }
+        BufferedImage image;
+        try (InputStream in = mediaService.getFile(source, 0, original.size())) {
+            image = decode(fileName, in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read original: " + e.getMessage(), e);
+        }
+        if (image == null) {
+            markUnavailable(source);
+            return false;
+        }
+
+        // DETAIL ghi cuối nên có DETAIL nghĩa là đủ mọi cỡ (xem generate)
+        for (Size size : Size.values()) {
+            byte[] jpeg = encode(scale(image, size.width), quality);
+            try {
+                minioClient.putObject(
+                    PutObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName(source, size))
+                        .stream(new ByteArrayInputStream(jpeg), jpeg.length, -1)
+                        .contentType(MediaType.IMAGE_JPEG_VALUE)
+                        .build()
+                );
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to store derivative: " + e.getMessage(), e);
+            }
+        }
+        generated.increment();
+        return true;
+    }
+
+    // Lỗi tạm thời (MinIO) không được đánh dấu, chỉ object chắc chắn không tạo được ảnh thu nhỏ
+    private void markUnavailable(String source) {
+        try {
+            minioClient.putObject(
+                PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(unavailableMarker(source))
+                    .stream(new ByteArrayInputStream(new byte[0]), 0, -1)
+                    .build()
+            );
+        } catch (Exception e) {
+            logger.warn("Failed to mark {} as having no derivatives: {}", source, e.getMessage());
+        }
+    }
+
+    private boolean markedUnavailable(String source) {
+        return exists(unavailableMarker(source));
+    }
+
+    // Không có object (hoặc không đọc được): coi như chưa có, thử tạo
+    private boolean exists(String objectName) {
+        try {
+            minioClient.statObject(
+                StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build()
+            );
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // Đọc kích thước từ header trước khi giải mã để ảnh quá lớn (hoặc ảnh "bom") không làm tràn heap
+    private BufferedImage decode(String fileName, InputStream in) throws IOException {
+        try (ImageInputStream image = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = image == null ? null : ImageIO.getImageReaders(image);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(image, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxSourcePixels) {
+                    logger.warn("Skipping derivatives for {}: {} pixels exceeds limit", fileName, pixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Thu nhỏ từng nửa một rồi mới về đúng cỡ: nội suy bilinear một bước từ ảnh rất lớn bị răng cưa.
+    // Không phóng to ảnh nhỏ hơn cỡ đích.
+    static BufferedImage scale(BufferedImage source, int maxWidth) {
+        int targetWidth = Math.min(maxWidth, source.getWidth());
+        int targetHeight = Math.max(1, (int) Math.round((double) source.getHeight() * targetWidth / source.getWidth()));
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            // Nền trắng cho ảnh trong suốt vì JPEG không có kênh alpha
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    static byte[] encode(BufferedImage image, float quality) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode derivative: " + e.getMessage(), e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    // Content type lúc upload, hoặc đoán theo tên file với object cũ chỉ có application/octet-stream
+    static boolean isImage(String fileName, String contentType) {
+        if (contentType != null && contentType.startsWith("image/")) {
+            return true;
+        }
+        return MediaTypeFactory.getMediaType(fileName)
+            .map(type -> "image".equals(type.getType()))
+            .orElse(false);
+    }
+}
@@ -0,0 +1,334 @@
+package com.scar.bookvault.media.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Cache trên đĩa cục bộ cho object hay được tải (ảnh bìa...), đứng trước MinIO.
+ *
+ * Mỗi bản cache gắn với ETag của object; controller đã stat object trước khi trả về nên ETag khác
+ * là bản cache bị bỏ và tải lại. Tổng dung lượng giới hạn bởi max-size, vượt thì bỏ bản ít được
+ * đọc gần đây nhất (LRU). Nhiều request cùng lúc cho một object chưa có trong cache chỉ gây ra một
+ * lần tải từ MinIO, các request còn lại chờ lần tải đó. Object lớn hơn max-object-size (video...)
+ * không được cache mà stream thẳng từ MinIO.
+ */
+@Service
+public class MediaCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCache.class);
+
+    static final String HIT = "hit";
+    static final String MISS = "miss";
+    // Chờ lần tải của request khác thay vì tự tải
+    static final String COALESCED = "coalesced";
+
+    private final MediaService mediaService;
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxObjectBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Thứ tự truy cập: phần tử đầu là bản ít được đọc gần đây nhất
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    // Chạy khi một request bắt đầu chờ lần tải của request khác (test dùng để biết các request đã đến)
+    volatile Runnable onCoalesce = () -> {
+    };
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter evictions;
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    record Entry(Path path, String etag, long size) {
+    }
+
+    public MediaCache(MediaService mediaService,
+                      MeterRegistry meterRegistry,
+                      @Value("${media.cache.enabled:true}") boolean enabled,
+                      @Value("${media.cache.directory:${java.io.tmpdir}/bookvault-media-cache}") Path directory,
+                      @Value("${media.cache.max-size:1GB}") DataSize maxSize,
+                      @Value("${media.cache.max-object-size:16MB}") DataSize maxObjectSize) {
+        this.mediaService = mediaService;
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxSize.toBytes();
+        this.maxObjectBytes = Math.min(maxObjectSize.toBytes(), maxBytes);
+
+        this.hits = requestCounter(meterRegistry, HIT);
+        this.misses = requestCounter(meterRegistry, MISS);
+        this.coalesced = requestCounter(meterRegistry, COALESCED);
+        this.evictions = Counter.builder("media.cache.evictions")
+            .description("Cached media objects evicted to stay under the size limit")
+            .register(meterRegistry);
+        FunctionCounter.builder("media.cache.bytes.saved", bytesSaved, AtomicLong::get)
+            .description("Bytes served from the local cache instead of MinIO")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("media.cache.size", this, MediaCache::totalBytes)
+            .description("Bytes of media currently held in the local cache")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("media.cache.hit.ratio", this, MediaCache::hitRatio)
+            .description("Share of cacheable downloads served without fetching from MinIO")
+            .register(meterRegistry);
+
+        if (enabled) {
+            prepareDirectory();
+        }
+    }
+
+    /**
+     * Chép đoạn [offset, offset + length) của object ra output, từ cache nếu có bản khớp etag.
+     * size và etag lấy từ lần stat ngay trước đó.
+     */
+    public void copyTo(String fileName, String etag, long size, long offset, long length, OutputStream out) throws IOException {
+        if (!enabled || size == 0 || size > maxObjectBytes) {
+            mediaService.copyTo(fileName, offset, length, out);
+            return;
+        }
+        FileChannel channel = open(fileName, etag);
+        if (channel != null) {
+            hits.increment();
+            bytesSaved.addAndGet(length);
+        } else {
+            channel = fillAndOpen(fileName, etag, size, length);
+        }
+        if (channel == null) {
+            // Lần tải chung thất bại hoặc bản vừa tải đã bị đẩy ra, đọc thẳng từ MinIO
+            mediaService.copyTo(fileName, offset, length, out);
+            return;
+        }
+        try (channel) {
+            transfer(channel, offset, length, out);
+        }
+    }
+
+    public void invalidate(String fileName) {
+        Entry removed;
+        lock.lock();
+        try {
+            removed = entries.remove(fileName);
+            if (removed != null) {
+                totalBytes -= removed.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (removed != null) {
+            delete(List.of(removed.path()));
+        }
+    }
+
+    public long totalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double hitRatio() {
+        double served = hits.count() + coalesced.count();
+        double total = served + misses.count();
+        return total == 0 ? 0 : served / total;
+    }
+
+    // Mở file cache khi còn giữ lock nên việc xóa lúc evict không làm hỏng lần đọc đang diễn ra:
+    // file đã mở vẫn đọc được sau khi bị xóa
+    private FileChannel open(String fileName, String etag) throws IOException {
+        Entry stale = null;
+        lock.lock();
+        try {
+            Entry entry = entries.get(fileName);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.etag().equals(etag)) {
+                try {
+                    return FileChannel.open(entry.path(), StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // File bị xóa từ bên ngoài, coi như chưa cache
+                }
+            }
+            stale = entries.remove(fileName);
+            totalBytes -= stale.size();
+        } finally {
+            lock.unlock();
+        }
+        delete(List.of(stale.path()));
+        return null;
+    }
+
+    private FileChannel fillAndOpen(String fileName, String etag, long size, long length) throws IOException {
+        String key = fileName + "\n" + etag;
+        CompletableFuture<Void> fill = new CompletableFuture<>();
+        CompletableFuture<Void> running = inFlight.putIfAbsent(key, fill);
+        if (running == null) {
+            misses.increment();
+            try {
+                admit(fileName, download(fileName, etag, size));
+                fill.complete(null);
+            } catch (IOException | RuntimeException e) {
+                // Giống các request đang chờ: không cache được thì caller đọc thẳng từ MinIO
+                logger.warn("Failed to cache {}: {}", fileName, e.getMessage());
+                fill.completeExceptionally(e);
+                return null;
+            } finally {
+                inFlight.remove(key, fill);
+            }
+        } else {
+            onCoalesce.run();
+            try {
+                running.join();
+            } catch (CompletionException e) {
+                return null;
+            }
+            FileChannel channel = open(fileName, etag);
+            if (channel != null) {
+                coalesced.increment();
+                bytesSaved.addAndGet(length);
+            }
+            return channel;
+        }
+        return open(fileName, etag);
+    }
+
+    private Entry download(String fileName, String etag, long size) throws IOException {
+        Path target = directory.resolve(fileKey(fileName, etag));
+        Path temp = Files.createTempFile(directory, "fill-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                mediaService.copyTo(fileName, 0, size, out);
+            }
+            if (Files.size(temp) != size) {
+                throw new EOFException("Expected " + size + " bytes for " + fileName + ", got " + Files.size(temp));
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return new Entry(target, etag, size);
+    }
+
+    private void admit(String fileName, Entry entry) {
+        List<Path> removed = new ArrayList<>();
+        lock.lock();
+        try {
+            Entry previous = entries.put(fileName, entry);
+            if (previous != null) {
+                totalBytes -= previous.size();
+                if (!previous.path().equals(entry.path())) {
+                    removed.add(previous.path());
+                }
+            }
+            totalBytes += entry.size();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Entry victim = eldest.next();
+                if (victim == entry) {
+                    continue;
+                }
+                eldest.remove();
+                totalBytes -= victim.size();
+                removed.add(victim.path());
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        delete(removed);
+    }
+
+    // Index chỉ nằm trong bộ nhớ nên file cache của lần chạy trước không dùng lại được
+    private void prepareDirectory() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                delete(files.filter(Files::isRegularFile).toList());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to prepare media cache directory: " + e.getMessage(), e);
+        }
+    }
+
+    private static void delete(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete cached media {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    // Output của servlet không phải socket channel nên transferTo không dùng được sendfile, nhưng
+    // vẫn chép theo từng khối nhỏ mà không đọc cả file vào heap
+    private static void transfer(FileChannel channel, long offset, long length, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new EOFException("Cached media ended at " + position + " of " + end);
+            }
+            position += transferred;
+        }
+    }
+
+    // Tên object có thể chứa ký tự không hợp lệ cho tên file nên dùng hash
+    static String fileKey(String fileName, String etag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest((fileName + "\n" + etag).getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("media.cache.requests")
+            .description("Cacheable media downloads by cache outcome")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+}
@@ -1,25 +1,93 @@
 package com.scar.bookvault.media.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.GetObjectArgs;
+import io.minio.ListObjectsArgs;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
-import io.minio.GetObjectArgs;
 import io.minio.RemoveObjectArgs;
-import io.minio.errors.MinioException;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
+/**
+ * Lưu file theo nội dung: nội dung nằm ở blobs/{sha256} và chỉ lưu một lần dù được upload bao
+ * nhiêu lần; mỗi lần upload có tên riêng, là object rỗng trỏ tới blob. Mỗi tên có một reference
+ * refs/{sha256}/{tên}, blob bị xóa khi reference cuối cùng bị xóa.
+ *
+ * Lock theo hash chỉ có hiệu lực trong một instance. Giữa các instance, việc xóa blob dựa vào thứ tự:
+ * upload ghi reference trước khi kiểm tra blob, còn xóa giữ một bản sao trash/{sha256}/... và kiểm
+ * tra lại reference sau khi xóa blob, thấy reference mới thì chép blob trở lại.
+ */
 @Service
 public class MediaService {
+    static final String BLOBS = "blobs/";
+    static final String REFS = "refs/";
+    static final String TRASH = "trash/";
+    // Metadata của object tên
+    static final String BLOB = "blob";
+    static final String SIZE = "size";
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+
     private final MinioClient minioClient;
     private final String bucketName;
+    private final int copyBufferSize;
+    // Upload và xóa cùng một hash phải tuần tự để đếm reference đúng
+    private final ReentrantLock[] locks = new ReentrantLock[64];
+
+    private final Counter stored;
+    private final Counter deduplicated;
+    private final Counter bytesDeduplicated;
 
-    public MediaService(MinioClient minioClient, @Value("${minio.bucket}") String bucketName) {
+    // Ghi nội dung vào blob khi nội dung chưa có trong MinIO
+    @FunctionalInterface
+    private interface BlobWriter {
+        void write(String blobName) throws Exception;
+    }
+
+    public MediaService(MinioClient minioClient,
+                        MeterRegistry meterRegistry,
+                        @Value("${minio.bucket}") String bucketName,
+                        @Value("${media.download.buffer-size:64KB}") DataSize copyBufferSize) {
         this.minioClient = minioClient;
         this.bucketName = bucketName;
+        this.copyBufferSize = (int) copyBufferSize.toBytes();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.stored = uploadCounter(meterRegistry, "stored");
+        this.deduplicated = uploadCounter(meterRegistry, "deduplicated");
+        this.bytesDeduplicated = Counter.builder("media.uploads.bytes.deduplicated")
+            .description("Bytes not written to MinIO because identical content was already stored")
+            .baseUnit("bytes")
+            .register(meterRegistry);
         initializeBucket();
     }
 
@@ -38,45 +106,284 @@ public class MediaService {
         }
     }
 
-    public String uploadFile(MultipartFile file) {
-        try {
-            String fileName = UUID.randomUUID().toString() + "-" + file.getOriginalFilename();
-            String contentType = file.getContentType();
+    /**
+     * Lưu file theo SHA-256 của nội dung. Spring đã nhận xong phần multipart nên băm bản cục bộ
+     * trước, và nội dung đã có trong MinIO thì không gửi lại. expectedSha256 (tùy chọn) do client
+     * gửi để kiểm tra toàn vẹn.
+     */
+    public String uploadFile(MultipartFile file, String expectedSha256) {
+        String sha256;
+        try (InputStream in = file.getInputStream()) {
+            sha256 = sha256(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to upload file: " + e.getMessage(), e);
+        }
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Checksum mismatch: expected " + expectedSha256 + ", got " + sha256);
+        }
+        String contentType = file.getContentType() != null ? file.getContentType() : "application/octet-stream";
+        return store(file.getOriginalFilename(), sha256, file.getSize(), contentType, blobName -> {
+            try (InputStream in = file.getInputStream()) {
+                minioClient.putObject(
+                    PutObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(blobName)
+                        .stream(in, file.getSize(), -1)
+                        .contentType(contentType)
+                        .build()
+                );
+            }
+        });
+    }
 
-            minioClient.putObject(
-                PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(fileName)
-                    .stream(file.getInputStream(), file.getSize(), -1)
-                    .contentType(contentType != null ? contentType : "application/octet-stream")
-                    .build()
-            );
+    /**
+     * Tạo tên mới trỏ tới nội dung đã có mà client không cần gửi lại; empty nếu chưa có nội dung
+     * với hash này, client phải upload bình thường.
+     */
+    public Optional<String> linkExisting(String sha256, String originalFilename, String contentType) {
+        if (sha256 == null || !SHA256_HEX.matcher(sha256).matches()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sha256 must be 64 hex characters");
+        }
+        if (originalFilename == null || originalFilename.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fileName is required");
+        }
+        String hash = sha256.toLowerCase(Locale.ROOT);
+        StatObjectResponse blob = statObject(blob(hash));
+        if (blob == null) {
+            return Optional.empty();
+        }
+        String type = contentType != null ? contentType : blob.contentType();
+        return Optional.ofNullable(store(originalFilename, hash, blob.size(), type, null));
+    }
+
+    /**
+     * Lưu nội dung đã được upload theo từng phần (ChunkedUploadService) với SHA-256 tính từ các phần
+     * theo thứ tự. Nội dung đã có thì các phần không được ghép; chưa có thì chúng được ghép phía server
+     * thẳng vào blobs/{sha256}.
+     */
+    String storeParts(String originalFilename, String sha256, long size, String contentType, List<ComposeSource> parts) {
+        return store(originalFilename, sha256, size, contentType, blobName -> minioClient.composeObject(
+            ComposeObjectArgs.builder()
+                .bucket(bucketName)
+                .object(blobName)
+                .sources(parts)
+                .headers(Map.of("Content-Type", contentType))
+                .build()
+        ));
+    }
 
+    // Ghi reference trước rồi mới kiểm tra blob, và xóa blob chỉ khi không còn reference nào, nên
+    // trong một instance không có lúc tên trỏ tới blob đã bị xóa. writer null (chỉ liên kết) mà blob
+    // vừa bị xóa thì trả về null.
+    private String store(String originalFilename, String sha256, long size, String contentType, BlobWriter writer) {
+        String fileName = newObjectName(originalFilename);
+        ReentrantLock lock = lockFor(sha256);
+        lock.lock();
+        try {
+            putEmpty(ref(sha256, fileName), Map.of());
+            try {
+                if (statObject(blob(sha256)) == null) {
+                    if (writer == null) {
+                        removeObject(ref(sha256, fileName));
+                        return null;
+                    }
+                    writer.write(blob(sha256));
+                    stored.increment();
+                } else {
+                    deduplicated.increment();
+                    bytesDeduplicated.increment(size);
+                }
+                putEmpty(fileName, Map.of(BLOB, sha256, SIZE, String.valueOf(size)), contentType);
+            } catch (Exception e) {
+                removeObject(ref(sha256, fileName));
+                throw e;
+            }
             return fileName;
         } catch (Exception e) {
             throw new RuntimeException("Failed to upload file: " + e.getMessage(), e);
+        } finally {
+            lock.unlock();
         }
     }
 
+    // Object được stream từ MinIO theo tên công khai
     public InputStream getFile(String fileName) {
+        return getFile(statFile(fileName).objectName(), 0, -1);
+    }
+
+    /**
+     * Kích thước, content type và ETag của file, không tải nội dung. Với file lưu theo nội dung, tên
+     * file là một object rỗng mang hash và kích thước trong metadata nên chỉ tốn một lần stat; ETag
+     * là SHA-256 của nội dung.
+     */
+    public StoredFile statFile(String fileName) {
+        StatObjectResponse stat;
         try {
-            return minioClient.getObject(
-                GetObjectArgs.builder()
+            stat = minioClient.statObject(
+                StatObjectArgs.builder()
                     .bucket(bucketName)
                     .object(fileName)
                     .build()
             );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to stat file: " + e.getMessage(), e);
+        }
+        String sha256 = stat.userMetadata().get(BLOB);
+        if (sha256 == null) {
+            return new StoredFile(fileName, stat.size(), stat.etag(), stat.contentType(), stat.lastModified());
+        }
+        return new StoredFile(blob(sha256), Long.parseLong(stat.userMetadata().get(SIZE)), sha256,
+            stat.contentType(), stat.lastModified());
+    }
+
+    // Ranged GET trên MinIO: chỉ đọc length byte bắt đầu từ offset của object lưu trữ
+    // (StoredFile.objectName); length âm là đọc đến hết
+    public InputStream getFile(String objectName, long offset, long length) {
+        try {
+            GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .offset(offset);
+            if (length >= 0) {
+                args.length(length);
+            }
+            return minioClient.getObject(args.build());
         } catch (Exception e) {
             throw new RuntimeException("Failed to get file: " + e.getMessage(), e);
         }
     }
 
-    public void deleteFile(String fileName) {
+    /**
+     * Chép một đoạn của object lưu trữ ra output qua bộ đệm cố định, nên file lớn không bao giờ
+     * nằm trọn trong heap.
+     */
+    public void copyTo(String objectName, long offset, long length, OutputStream out) throws IOException {
+        try (InputStream in = getFile(objectName, offset, length)) {
+            byte[] buffer = new byte[copyBufferSize];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Xóa tên; blob chỉ bị xóa khi tên cuối cùng trỏ tới nó bị xóa. Trả về object lưu trữ đã bị xóa
+     * (blob, hoặc chính object với file không lưu theo nội dung) để caller bỏ bản cache của nó; empty
+     * nếu nội dung vẫn còn được tên khác dùng.
+     */
+    public Optional<String> deleteFile(String fileName) {
+        StatObjectResponse stat = statObject(fileName);
+        String sha256 = stat != null ? stat.userMetadata().get(BLOB) : null;
+        if (sha256 == null) {
+            removeObject(fileName);
+            return Optional.of(fileName);
+        }
+        ReentrantLock lock = lockFor(sha256);
+        lock.lock();
+        try {
+            removeObject(fileName);
+            removeObject(ref(sha256, fileName));
+            return removeUnreferencedBlob(sha256) ? Optional.of(blob(sha256)) : Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Instance khác có thể ghi reference và thấy blob còn đó ngay sau lần kiểm tra đầu, nên blob được
+    // chép sang trash trước khi xóa và reference được kiểm tra lại sau khi xóa. Chép trở lại lỗi thì
+    // bản trong trash được giữ để khôi phục tay.
+    private boolean removeUnreferencedBlob(String sha256) {
+        if (hasReferences(sha256)) {
+            return false;
+        }
+        String trash = TRASH + sha256 + "/" + UUID.randomUUID();
+        copyObject(blob(sha256), trash);
+        removeObject(blob(sha256));
+        boolean referenced = hasReferences(sha256);
+        if (referenced) {
+            copyObject(trash, blob(sha256));
+        }
+        removeObject(trash);
+        return !referenced;
+    }
+
+    private boolean hasReferences(String sha256) {
+        try {
+            Iterator<Result<Item>> refs = minioClient.listObjects(
+                ListObjectsArgs.builder()
+                    .bucket(bucketName)
+                    .prefix(REFS + sha256 + "/")
+                    .maxKeys(1)
+                    .build()
+            ).iterator();
+            if (!refs.hasNext()) {
+                return false;
+            }
+            refs.next().get();
+            return true;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to list references: " + e.getMessage(), e);
+        }
+    }
+
+    // null nếu object không tồn tại
+    private StatObjectResponse statObject(String objectName) {
+        try {
+            return minioClient.statObject(
+                StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build()
+            );
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw new RuntimeException("Failed to stat file: " + e.getMessage(), e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to stat file: " + e.getMessage(), e);
+        }
+    }
+
+    private void putEmpty(String objectName, Map<String, String> metadata) throws Exception {
+        putEmpty(objectName, metadata, "application/octet-stream");
+    }
+
+    private void putEmpty(String objectName, Map<String, String> metadata, String contentType) throws Exception {
+        minioClient.putObject(
+            PutObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .stream(new ByteArrayInputStream(new byte[0]), 0, -1)
+                .contentType(contentType)
+                .userMetadata(metadata)
+                .build()
+        );
+    }
+
+    // Compose một nguồn là copy phía server, không giới hạn 5GB như copyObject
+    private void copyObject(String source, String target) {
+        try {
+            minioClient.composeObject(
+                ComposeObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(target)
+                    .sources(List.of(ComposeSource.builder().bucket(bucketName).object(source).build()))
+                    .build()
+            );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to copy " + source + " to " + target + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void removeObject(String objectName) {
         try {
             minioClient.removeObject(
                 RemoveObjectArgs.builder()
                     .bucket(bucketName)
-                    .object(fileName)
+                    .object(objectName)
                     .build()
             );
         } catch (Exception e) {
@@ -84,8 +391,54 @@ public class MediaService {
         }
     }
 
+    private ReentrantLock lockFor(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), locks.length)];
+    }
+
+    private String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, in);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Băm tiếp vào digest có sẵn, để nội dung nhiều phần được băm như một luồng
+    void update(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[copyBufferSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String blob(String sha256) {
+        return BLOBS + sha256;
+    }
+
+    static String ref(String sha256, String fileName) {
+        return REFS + sha256 + "/" + fileName;
+    }
+
+    static String newObjectName(String originalFilename) {
+        return UUID.randomUUID().toString() + "-" + originalFilename;
+    }
+
     public String getFileUrl(String fileName) {
         return "/api/media/v1/files/" + fileName;
     }
+
+    private static Counter uploadCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("media.uploads")
+            .description("Uploaded files by whether their content was new")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
 }
 
@@ -0,0 +1,10 @@
+package com.scar.bookvault.media.service;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Thông tin một file theo tên công khai. objectName là object thật chứa nội dung: blobs/{sha256}
+ * với file lưu theo nội dung, hoặc chính tên file với object cũ và ảnh thu nhỏ.
+ */
+public record StoredFile(String objectName, long size, String etag, String contentType, ZonedDateTime lastModified) {
+}
@@ -0,0 +1,224 @@
+package com.scar.bookvault.media.api;
+
+import com.scar.bookvault.media.service.CoverDerivatives;
+import com.scar.bookvault.media.service.MediaCache;
+import com.scar.bookvault.media.service.MediaService;
+import com.scar.bookvault.media.service.StoredFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class MediaControllerTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final ZonedDateTime MODIFIED = ZonedDateTime.of(2026, 1, 5, 8, 30, 0, 0, ZoneOffset.UTC);
+
+    private final MediaService mediaService = mock(MediaService.class);
+    private final CoverDerivatives coverDerivatives = mock(CoverDerivatives.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp(@TempDir Path cacheDirectory) throws Exception {
+        when(mediaService.statFile("cover.png"))
+            .thenReturn(new StoredFile("cover.png", CONTENT.length, "abc", "application/octet-stream", MODIFIED));
+        doAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            long length = invocation.getArgument(2);
+            invocation.<OutputStream>getArgument(3).write(CONTENT, (int) offset, (int) length);
+            return null;
+        }).when(mediaService).copyTo(eq("cover.png"), anyLong(), anyLong(), any());
+        MediaCache mediaCache = new MediaCache(mediaService, new SimpleMeterRegistry(), false, cacheDirectory,
+            DataSize.ofMegabytes(1), DataSize.ofKilobytes(64));
+        mockMvc = MockMvcBuilders.standaloneSetup(new MediaController(mediaService, mediaCache, coverDerivatives)).build();
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/cover.png").header(HttpHeaders.RANGE, "bytes=2-5"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+            .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+            .andExpect(content().contentType(MediaType.IMAGE_PNG))
+            .andExpect(content().string("2345"));
+        verify(mediaService).copyTo(eq("cover.png"), eq(2L), eq(4L), any());
+    }
+
+    @Test
+    void suffixRangeReadsTail() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/cover.png").header(HttpHeaders.RANGE, "bytes=-3"))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 7-9/10"))
+            .andExpect(content().string("789"));
+    }
+
+    @Test
+    void rangePastEndIsNotSatisfiable() throws Exception {
+        mockMvc.perform(get("/api/media/v1/files/cover.png").header(HttpHeaders.RANGE, "bytes=10-"))
+            .andExpect(status().isRequestedRangeNotSatisfiable())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+        verify(mediaService, never()).copyTo(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void staleIfRangeReturnsWholeFile() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/cover.png")
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, "\"old\""))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+            .andExpect(header().string(HttpHeaders.ETAG, "\"abc\""))
+            .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    void missingObjectIsNotFound() throws Exception {
+        when(mediaService.statFile("missing.png")).thenThrow(new RuntimeException("NoSuchKey"));
+
+        mockMvc.perform(get("/api/media/v1/files/missing.png"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void missingDerivativeIsGeneratedOnFirstRequest() throws Exception {
+        String thumbnail = CoverDerivatives.objectName("cover.png", CoverDerivatives.Size.THUMBNAIL);
+        when(mediaService.statFile(thumbnail))
+            .thenThrow(new RuntimeException("NoSuchKey"))
+            .thenReturn(new StoredFile(thumbnail, 4, "thumb", MediaType.IMAGE_JPEG_VALUE, MODIFIED));
+        when(coverDerivatives.awaitGenerated(eq("cover.png"), any())).thenReturn(true);
+
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/cover.png").param("size", "thumbnail"))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"thumb\""))
+            .andExpect(content().contentType(MediaType.IMAGE_JPEG));
+        verify(mediaService).copyTo(eq(thumbnail), eq(0L), eq(4L), any());
+    }
+
+    @Test
+    void nonImageFallsBackToOriginal() throws Exception {
+        when(mediaService.statFile(CoverDerivatives.objectName("cover.png", CoverDerivatives.Size.LIST)))
+            .thenThrow(new RuntimeException("NoSuchKey"));
+        when(coverDerivatives.awaitGenerated(eq("cover.png"), any())).thenReturn(false);
+
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/cover.png").param("size", "list"))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    void contentAddressedFileIsReadFromItsBlob() throws Exception {
+        String sha256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+        when(mediaService.statFile("shared.png"))
+            .thenReturn(new StoredFile("blobs/" + sha256, CONTENT.length, sha256, MediaType.IMAGE_PNG_VALUE, MODIFIED));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(3).write(CONTENT);
+            return null;
+        }).when(mediaService).copyTo(eq("blobs/" + sha256), anyLong(), anyLong(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/shared.png")).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"" + sha256 + "\""))
+            .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    void derivativeIsSharedByNamesWithTheSameContent() throws Exception {
+        String sha256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+        String thumbnail = CoverDerivatives.objectName("blobs/" + sha256, CoverDerivatives.Size.THUMBNAIL);
+        when(mediaService.statFile("shared.png"))
+            .thenReturn(new StoredFile("blobs/" + sha256, CONTENT.length, sha256, MediaType.IMAGE_PNG_VALUE, MODIFIED));
+        when(mediaService.statFile(thumbnail))
+            .thenReturn(new StoredFile(thumbnail, 4, "thumb", MediaType.IMAGE_JPEG_VALUE, MODIFIED));
+
+        MvcResult result = mockMvc.perform(get("/api/media/v1/files/shared.png").param("size", "thumbnail"))
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"thumb\""));
+        verify(coverDerivatives, never()).awaitGenerated(any(), any());
+    }
+
+    @Test
+    void derivativesAreKeptWhileOtherNamesUseTheContent() throws Exception {
+        when(mediaService.deleteFile("shared.png")).thenReturn(Optional.empty());
+
+        mockMvc.perform(delete("/api/media/v1/files/shared.png"))
+            .andExpect(status().isNoContent());
+        verify(coverDerivatives, never()).delete(any());
+    }
+
+    @Test
+    void lastNameDeletesDerivativesOfTheBlob() throws Exception {
+        when(mediaService.deleteFile("shared.png")).thenReturn(Optional.of("blobs/abc"));
+
+        mockMvc.perform(delete("/api/media/v1/files/shared.png"))
+            .andExpect(status().isNoContent());
+        verify(coverDerivatives).delete("blobs/abc");
+    }
+
+    @Test
+    void unknownHashAsksForUpload() throws Exception {
+        when(mediaService.linkExisting(any(), any(), any())).thenReturn(Optional.empty());
+
+        mockMvc.perform(post("/api/media/v1/files/by-hash")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"sha256\":\"" + "0".repeat(64) + "\",\"fileName\":\"cover.png\"}"))
+            .andExpect(status().isNotFound());
+        verify(coverDerivatives, never()).generateAsync(any(), any());
+    }
+
+    @Test
+    void unknownSizeIsRejected() throws Exception {
+        mockMvc.perform(get("/api/media/v1/files/cover.png").param("size", "huge"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void ifRangeAcceptsMatchingDate() {
+        assertTrue(MediaController.ifRangeMatches("Mon, 05 Jan 2026 08:30:00 GMT", "\"abc\"", MODIFIED));
+        assertFalse(MediaController.ifRangeMatches("Sun, 04 Jan 2026 08:30:00 GMT", "\"abc\"", MODIFIED));
+    }
+}
@@ -0,0 +1,167 @@
+package com.scar.bookvault.media.service;
+
+import io.minio.ComposeSource;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChunkedUploadServiceTest {
+
+    private static final String UPLOAD_ID = "7d5c4a8e-1f2b-4c3d-9e8f-0a1b2c3d4e5f";
+    private static final long MB = 1024 * 1024;
+    // SHA-256 của "part one" + "part two"
+    private static final String PARTS_SHA256 = "acfeb5e08b27494d601dec6b110e4aebb6127d572e3ed74794cba77e4dc108c0";
+
+    private final MinioClient minioClient = mock(MinioClient.class);
+    private final MediaService mediaService = mock(MediaService.class);
+    private final ChunkedUploadService service =
+        new ChunkedUploadService(minioClient, mediaService, "media", DataSize.ofMegabytes(64), Duration.ofHours(24));
+
+    @BeforeEach
+    void setUp() throws Exception {
+        manifest(Map.of("original-name", "scan.pdf", "mime-type", "application/pdf"));
+        when(minioClient.removeObjects(any(RemoveObjectsArgs.class))).thenReturn(List.of());
+        doAnswer(invocation -> {
+            invocation.<MessageDigest>getArgument(0).update(invocation.<InputStream>getArgument(1).readAllBytes());
+            return null;
+        }).when(mediaService).update(any(), any());
+    }
+
+    @Test
+    void partChecksumIsComputedWhileStreaming() throws Exception {
+        byte[] body = "part one".getBytes(StandardCharsets.UTF_8);
+
+        ChunkedUploadService.UploadedPart part = service.uploadPart(UPLOAD_ID, 1, new ByteArrayInputStream(body), body.length, null);
+
+        assertEquals("fed7f05c10bc95d597e6f8103228c4c10798b5f77215f718a854534da563dc9e", part.sha256());
+        ArgumentCaptor<PutObjectArgs> put = ArgumentCaptor.forClass(PutObjectArgs.class);
+        verify(minioClient).putObject(put.capture());
+        assertEquals(ChunkedUploadService.part(UPLOAD_ID, 1), put.getValue().object());
+    }
+
+    @Test
+    void checksumMismatchRemovesPart() {
+        byte[] body = "part one".getBytes(StandardCharsets.UTF_8);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+            () -> service.uploadPart(UPLOAD_ID, 1, new ByteArrayInputStream(body), body.length, "00"));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        verify(minioClient).removeObjects(any(RemoveObjectsArgs.class));
+    }
+
+    @Test
+    void completeStoresPartsInOrderByContentHash() throws Exception {
+        listParts(item(ChunkedUploadService.manifest(UPLOAD_ID), 0),
+            item(ChunkedUploadService.part(UPLOAD_ID, 2), 3 * MB),
+            item(ChunkedUploadService.part(UPLOAD_ID, 1), 5 * MB));
+        partContent(1, "part one");
+        partContent(2, "part two");
+        when(mediaService.storeParts(any(), any(), anyLong(), any(), anyList())).thenReturn("x-scan.pdf");
+
+        assertEquals("x-scan.pdf", service.complete(UPLOAD_ID));
+
+        ArgumentCaptor<List<ComposeSource>> sources = ArgumentCaptor.forClass(List.class);
+        verify(mediaService).storeParts(eq("scan.pdf"), eq(PARTS_SHA256), eq(8 * MB), eq("application/pdf"), sources.capture());
+        assertEquals(List.of(ChunkedUploadService.part(UPLOAD_ID, 1), ChunkedUploadService.part(UPLOAD_ID, 2)),
+            sources.getValue().stream().map(ComposeSource::object).toList());
+        verify(minioClient).removeObjects(any(RemoveObjectsArgs.class));
+    }
+
+    @Test
+    void completeRejectsContentNotMatchingDeclaredHash() throws Exception {
+        manifest(Map.of("original-name", "scan.pdf", "mime-type", "application/pdf", "sha256", "0".repeat(64)));
+        listParts(item(ChunkedUploadService.part(UPLOAD_ID, 1), 5 * MB), item(ChunkedUploadService.part(UPLOAD_ID, 2), 3 * MB));
+        partContent(1, "part one");
+        partContent(2, "part two");
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> service.complete(UPLOAD_ID));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        verify(mediaService, never()).storeParts(any(), any(), anyLong(), any(), anyList());
+    }
+
+    @Test
+    void knownContentIsLinkedWithoutUpload() throws Exception {
+        when(mediaService.linkExisting(PARTS_SHA256, "scan.pdf", "application/pdf")).thenReturn(Optional.of("x-scan.pdf"));
+
+        ChunkedUploadService.Upload upload = service.initiate("scan.pdf", "application/pdf", PARTS_SHA256);
+
+        assertEquals("x-scan.pdf", upload.fileName());
+        assertNull(upload.uploadId());
+        verify(minioClient, never()).putObject(any());
+    }
+
+    @Test
+    void completeRejectsMissingParts() {
+        listParts(item(ChunkedUploadService.part(UPLOAD_ID, 1), 5 * MB), item(ChunkedUploadService.part(UPLOAD_ID, 3), MB));
+
+        assertThrows(ResponseStatusException.class, () -> service.complete(UPLOAD_ID));
+    }
+
+    @Test
+    void completeRejectsSmallMiddlePart() {
+        listParts(item(ChunkedUploadService.part(UPLOAD_ID, 1), MB), item(ChunkedUploadService.part(UPLOAD_ID, 2), MB));
+
+        assertThrows(ResponseStatusException.class, () -> service.complete(UPLOAD_ID));
+    }
+
+    @Test
+    void malformedUploadIdIsUnknown() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> service.complete("../cover.png"));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+    }
+
+    private void manifest(Map<String, String> metadata) throws Exception {
+        StatObjectResponse manifest = mock(StatObjectResponse.class);
+        when(manifest.userMetadata()).thenReturn(metadata);
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(manifest);
+    }
+
+    private void partContent(int partNumber, String content) {
+        when(mediaService.getFile(ChunkedUploadService.part(UPLOAD_ID, partNumber), 0, -1))
+            .thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void listParts(Item... items) {
+        List<Result<Item>> results = Arrays.stream(items).map(Result::new).toList();
+        when(minioClient.listObjects(any(ListObjectsArgs.class))).thenReturn(results);
+    }
+
+    private static Item item(String name, long size) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.size()).thenReturn(size);
+        when(item.lastModified()).thenReturn(ZonedDateTime.now());
+        return item;
+    }
+}
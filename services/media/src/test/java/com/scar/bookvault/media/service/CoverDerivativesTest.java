@@ -0,0 +1,140 @@
+package com.scar.bookvault.media.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.StatObjectArgs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class CoverDerivativesTest {
+
+    private final MinioClient minioClient = mock(MinioClient.class);
+    private final MediaService mediaService = mock(MediaService.class);
+    private final CoverDerivatives derivatives =
+        new CoverDerivatives(minioClient, mediaService, new SimpleMeterRegistry(), "media", 0.8f, 40_000_000, 1, 4, Duration.ofSeconds(5));
+
+    @AfterEach
+    void tearDown() {
+        derivatives.stop();
+    }
+
+    @Test
+    void scaleKeepsAspectRatioAndNeverUpscales() {
+        BufferedImage large = CoverDerivatives.scale(new BufferedImage(2400, 3600, BufferedImage.TYPE_INT_ARGB), 320);
+        assertEquals(320, large.getWidth());
+        assertEquals(480, large.getHeight());
+
+        BufferedImage small = CoverDerivatives.scale(new BufferedImage(100, 150, BufferedImage.TYPE_INT_RGB), 320);
+        assertEquals(100, small.getWidth());
+        assertEquals(150, small.getHeight());
+    }
+
+    @Test
+    void transparentPixelsBecomeWhite() {
+        BufferedImage scaled = CoverDerivatives.scale(new BufferedImage(40, 40, BufferedImage.TYPE_INT_ARGB), 20);
+        assertEquals(0xFFFFFF, scaled.getRGB(10, 10) & 0xFFFFFF);
+    }
+
+    @Test
+    void generateStoresEverySizeAsJpeg() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenThrow(new RuntimeException("NoSuchKey"));
+        byte[] png = png(1600, 2400);
+        StoredFile original = original("cover.png", "image/png", png);
+
+        assertTrue(derivatives.generate("cover.png", original));
+
+        ArgumentCaptor<PutObjectArgs> puts = ArgumentCaptor.forClass(PutObjectArgs.class);
+        verify(minioClient, times(3)).putObject(puts.capture());
+        assertEquals(List.of(
+                CoverDerivatives.objectName("blobs/cover.png", CoverDerivatives.Size.THUMBNAIL),
+                CoverDerivatives.objectName("blobs/cover.png", CoverDerivatives.Size.LIST),
+                CoverDerivatives.objectName("blobs/cover.png", CoverDerivatives.Size.DETAIL)),
+            puts.getAllValues().stream().map(PutObjectArgs::object).toList());
+        for (PutObjectArgs put : puts.getAllValues()) {
+            assertEquals("image/jpeg", put.contentType());
+            assertTrue(put.objectSize() < png.length, "derivative should be smaller than the original");
+        }
+    }
+
+    @Test
+    void nonImageIsSkippedAndMarked() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenThrow(new RuntimeException("NoSuchKey"));
+        StoredFile original = original("book.pdf", "application/pdf", new byte[] {'%', 'P', 'D', 'F'});
+
+        assertFalse(derivatives.generate("book.pdf", original));
+        verify(mediaService, never()).getFile(any(), anyLong(), anyLong());
+        ArgumentCaptor<PutObjectArgs> puts = ArgumentCaptor.forClass(PutObjectArgs.class);
+        verify(minioClient).putObject(puts.capture());
+        assertEquals(CoverDerivatives.unavailableMarker("blobs/book.pdf"), puts.getValue().object());
+    }
+
+    @Test
+    void contentWithDerivativesIsNotDecodedAgainUnderAnotherName() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(null);
+        StoredFile original = original("copy.png", "image/png", png(400, 600));
+
+        assertTrue(derivatives.generate("copy.png", original));
+        verify(mediaService, never()).getFile(any(), anyLong(), anyLong());
+        verify(minioClient, never()).putObject(any());
+    }
+
+    @Test
+    void requestWaitsForGenerationOnWorkerPool() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenThrow(new RuntimeException("NoSuchKey"));
+        StoredFile original = original("cover.png", "image/png", png(400, 600));
+
+        assertTrue(derivatives.awaitGenerated("cover.png", original));
+        verify(minioClient, times(3)).putObject(any());
+    }
+
+    @Test
+    void markedObjectIsNotDecodedAgain() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(null);
+
+        StoredFile original = new StoredFile("blobs/book.pdf", 4, "etag", "application/pdf", ZonedDateTime.now());
+
+        assertFalse(derivatives.awaitGenerated("book.pdf", original));
+        verify(mediaService, never()).getFile(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    void imageTypeIsGuessedFromNameForOldObjects() {
+        assertTrue(CoverDerivatives.isImage("cover.jpg", "application/octet-stream"));
+        assertFalse(CoverDerivatives.isImage("book.pdf", "application/octet-stream"));
+    }
+
+    private StoredFile original(String fileName, String contentType, byte[] content) {
+        StoredFile original = new StoredFile("blobs/" + fileName, content.length, "etag", contentType, ZonedDateTime.now());
+        when(mediaService.statFile(fileName)).thenReturn(original);
+        when(mediaService.getFile("blobs/" + fileName, 0, content.length)).thenReturn(new ByteArrayInputStream(content));
+        return original;
+    }
+
+    // Ảnh có nhiễu để PNG không nén được quá nhỏ
+    private static byte[] png(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (int) ((x * 7919L + y * 104729L) & 0xFFFFFF));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,151 @@
+package com.scar.bookvault.media.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MediaCacheTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path directory;
+
+    private final MediaService mediaService = mock(MediaService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MediaCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        doAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            long length = invocation.getArgument(2);
+            invocation.<OutputStream>getArgument(3).write(CONTENT, (int) offset, (int) length);
+            return null;
+        }).when(mediaService).copyTo(anyString(), anyLong(), anyLong(), any());
+        cache = new MediaCache(mediaService, meterRegistry, true, directory, DataSize.ofBytes(25), DataSize.ofBytes(20));
+    }
+
+    @Test
+    void secondReadIsServedFromDisk() throws Exception {
+        assertEquals("0123456789", read("cover.png", "v1", 0, 10));
+        assertEquals("3456", read("cover.png", "v1", 3, 4));
+
+        verify(mediaService, times(1)).copyTo(eq("cover.png"), anyLong(), anyLong(), any());
+        assertEquals(1, meterRegistry.get("media.cache.requests").tag("result", MediaCache.HIT).counter().count());
+        assertEquals(4, meterRegistry.get("media.cache.bytes.saved").functionCounter().count());
+        assertEquals(0.5, meterRegistry.get("media.cache.hit.ratio").gauge().value());
+    }
+
+    @Test
+    void changedEtagRefetches() throws Exception {
+        read("cover.png", "v1", 0, 10);
+        read("cover.png", "v2", 0, 10);
+
+        verify(mediaService, times(2)).copyTo(eq("cover.png"), eq(0L), eq(10L), any());
+        assertEquals(10, cache.totalBytes());
+    }
+
+    @Test
+    void leastRecentlyReadIsEvicted() throws Exception {
+        read("a.png", "v1", 0, 10);
+        read("b.png", "v1", 0, 10);
+        read("a.png", "v1", 0, 10);
+        read("c.png", "v1", 0, 10);
+
+        assertEquals(20, cache.totalBytes());
+        read("a.png", "v1", 0, 10);
+        read("b.png", "v1", 0, 10);
+        verify(mediaService, times(1)).copyTo(eq("a.png"), anyLong(), anyLong(), any());
+        verify(mediaService, times(2)).copyTo(eq("b.png"), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void oversizedObjectsBypassCache() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.copyTo("video.mp4", "v1", 100, 0, 10, out);
+        cache.copyTo("video.mp4", "v1", 100, 0, 10, out);
+
+        verify(mediaService, times(2)).copyTo(eq("video.mp4"), anyLong(), anyLong(), any());
+        assertEquals(0, cache.totalBytes());
+    }
+
+    @Test
+    void concurrentMissesFetchOnce() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            fetching.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            invocation.<OutputStream>getArgument(3).write(CONTENT);
+            return null;
+        }).when(mediaService).copyTo(eq("new.png"), anyLong(), anyLong(), any());
+
+        int readers = 16;
+        CountDownLatch waiting = new CountDownLatch(readers - 1);
+        cache.onCoalesce = waiting::countDown;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                results.add(executor.submit(() -> read("new.png", "v1", 0, 10)));
+            }
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            // Mọi request còn lại đều đã đến chờ lần tải đang chạy
+            assertTrue(waiting.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("0123456789", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mediaService, times(1)).copyTo(eq("new.png"), anyLong(), anyLong(), any());
+        assertEquals(1, meterRegistry.get("media.cache.requests").tag("result", MediaCache.MISS).counter().count());
+    }
+
+    @Test
+    void failedFillFallsBackToMinio() throws Exception {
+        doThrow(new IOException("connection reset"))
+            .doAnswer(invocation -> {
+                invocation.<OutputStream>getArgument(3).write(CONTENT, 2, 4);
+                return null;
+            })
+            .when(mediaService).copyTo(eq("broken.png"), anyLong(), anyLong(), any());
+
+        assertEquals("2345", read("broken.png", "v1", 2, 4));
+
+        verify(mediaService).copyTo(eq("broken.png"), eq(0L), eq(10L), any());
+        verify(mediaService).copyTo(eq("broken.png"), eq(2L), eq(4L), any());
+        assertEquals(0, cache.totalBytes());
+    }
+
+    private String read(String fileName, String etag, long offset, long length) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.copyTo(fileName, etag, CONTENT.length, offset, length, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,200 @@
+package com.scar.bookvault.media.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class MediaServiceTest {
+
+    // SHA-256 của "cover"
+    private static final String SHA256 = "3fa405a8301ace34d11cf44a816080b8f0e49a48fbd048b8aef1543a8c58bdb6";
+    private static final MockMultipartFile COVER =
+        new MockMultipartFile("file", "cover.png", "image/png", "cover".getBytes(StandardCharsets.UTF_8));
+
+    private final MinioClient minioClient = mock(MinioClient.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MediaService mediaService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenThrow(noSuchKey());
+        mediaService = new MediaService(minioClient, meterRegistry, "media", DataSize.ofKilobytes(64));
+    }
+
+    @Test
+    void newContentIsStoredUnderItsHash() throws Exception {
+        String fileName = mediaService.uploadFile(COVER, null);
+
+        assertTrue(fileName.endsWith("-cover.png"));
+        assertEquals(List.of(MediaService.ref(SHA256, fileName), MediaService.blob(SHA256), fileName), putObjects());
+        assertEquals(1, meterRegistry.get("media.uploads").tag("result", "stored").counter().count());
+    }
+
+    @Test
+    void duplicateContentSkipsTheBlobUpload() throws Exception {
+        blobExists();
+
+        String fileName = mediaService.uploadFile(COVER, SHA256.toUpperCase());
+
+        assertEquals(List.of(MediaService.ref(SHA256, fileName), fileName), putObjects());
+        assertEquals(5, meterRegistry.get("media.uploads.bytes.deduplicated").counter().count());
+    }
+
+    @Test
+    void checksumMismatchIsRejectedBeforeStoring() throws Exception {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+            () -> mediaService.uploadFile(COVER, "0".repeat(64)));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        verify(minioClient, never()).putObject(any());
+    }
+
+    @Test
+    void linkingUnknownContentAsksForUpload() throws Exception {
+        assertTrue(mediaService.linkExisting(SHA256, "cover.png", null).isEmpty());
+        verify(minioClient, never()).putObject(any());
+    }
+
+    @Test
+    void linkingKnownContentCreatesNameWithoutBody() throws Exception {
+        blobExists();
+
+        String fileName = mediaService.linkExisting(SHA256, "cover.png", null).orElseThrow();
+
+        assertEquals(List.of(MediaService.ref(SHA256, fileName), fileName), putObjects());
+    }
+
+    @Test
+    void partsAreComposedIntoTheBlobOnlyForNewContent() throws Exception {
+        List<ComposeSource> parts = List.of(ComposeSource.builder().bucket("media").object("uploads/u/part-00001").build());
+
+        String first = mediaService.storeParts("scan.pdf", SHA256, 5, "application/pdf", parts);
+        blobExists();
+        String second = mediaService.storeParts("scan.pdf", SHA256, 5, "application/pdf", parts);
+
+        assertNotEquals(first, second);
+        assertEquals(List.of(MediaService.blob(SHA256)), composedObjects());
+        assertEquals(List.of(MediaService.ref(SHA256, first), first, MediaService.ref(SHA256, second), second), putObjects());
+    }
+
+    @Test
+    void blobOutlivesAllButTheLastReference() throws Exception {
+        name("a-cover.png");
+        references(mock(Item.class));
+
+        assertTrue(mediaService.deleteFile("a-cover.png").isEmpty());
+
+        assertEquals(List.of("a-cover.png", MediaService.ref(SHA256, "a-cover.png")), removedObjects());
+    }
+
+    @Test
+    void lastReferenceRemovesTheBlob() throws Exception {
+        name("a-cover.png");
+        references();
+
+        assertEquals(MediaService.blob(SHA256), mediaService.deleteFile("a-cover.png").orElseThrow());
+
+        List<String> removed = removedObjects();
+        assertEquals(List.of("a-cover.png", MediaService.ref(SHA256, "a-cover.png"), MediaService.blob(SHA256)),
+            removed.subList(0, 3));
+        assertTrue(removed.get(3).startsWith(MediaService.TRASH + SHA256 + "/"));
+        assertEquals(List.of(removed.get(3)), composedObjects());
+    }
+
+    @Test
+    void referenceAddedByAnotherInstanceRestoresTheBlob() throws Exception {
+        name("a-cover.png");
+        // Lần kiểm tra đầu chưa thấy reference, lần kiểm tra sau khi xóa blob thì thấy
+        when(minioClient.listObjects(any(ListObjectsArgs.class)))
+            .thenReturn(List.of())
+            .thenReturn(List.of(new Result<>(mock(Item.class))));
+
+        assertTrue(mediaService.deleteFile("a-cover.png").isEmpty());
+
+        List<String> composed = composedObjects();
+        assertTrue(composed.get(0).startsWith(MediaService.TRASH + SHA256 + "/"));
+        assertEquals(MediaService.blob(SHA256), composed.get(1));
+        assertEquals(composed.get(0), removedObjects().get(3));
+    }
+
+    @Test
+    void statResolvesNameToBlob() throws Exception {
+        name("a-cover.png");
+
+        StoredFile file = mediaService.statFile("a-cover.png");
+
+        assertEquals(MediaService.blob(SHA256), file.objectName());
+        assertEquals(5, file.size());
+        assertEquals(SHA256, file.etag());
+    }
+
+    private void blobExists() throws Exception {
+        StatObjectResponse blob = mock(StatObjectResponse.class);
+        when(blob.size()).thenReturn(5L);
+        when(blob.contentType()).thenReturn("image/png");
+        doReturn(blob).when(minioClient).statObject(argThat(args -> args != null && MediaService.blob(SHA256).equals(args.object())));
+    }
+
+    private void name(String fileName) throws Exception {
+        StatObjectResponse name = mock(StatObjectResponse.class);
+        when(name.userMetadata()).thenReturn(Map.of(MediaService.BLOB, SHA256, MediaService.SIZE, "5"));
+        when(name.contentType()).thenReturn("image/png");
+        doReturn(name).when(minioClient).statObject(argThat(args -> args != null && fileName.equals(args.object())));
+    }
+
+    private void references(Item... refs) {
+        List<Result<Item>> results = Arrays.stream(refs).map(Result::new).toList();
+        when(minioClient.listObjects(any(ListObjectsArgs.class))).thenReturn(results);
+    }
+
+    private List<String> putObjects() throws Exception {
+        ArgumentCaptor<PutObjectArgs> puts = ArgumentCaptor.forClass(PutObjectArgs.class);
+        verify(minioClient, atLeast(0)).putObject(puts.capture());
+        return puts.getAllValues().stream().map(PutObjectArgs::object).toList();
+    }
+
+    private List<String> composedObjects() throws Exception {
+        ArgumentCaptor<ComposeObjectArgs> composes = ArgumentCaptor.forClass(ComposeObjectArgs.class);
+        verify(minioClient, atLeast(0)).composeObject(composes.capture());
+        return composes.getAllValues().stream().map(ComposeObjectArgs::object).toList();
+    }
+
+    private List<String> removedObjects() throws Exception {
+        ArgumentCaptor<RemoveObjectArgs> removes = ArgumentCaptor.forClass(RemoveObjectArgs.class);
+        verify(minioClient, atLeast(0)).removeObject(removes.capture());
+        return removes.getAllValues().stream().map(RemoveObjectArgs::object).toList();
+    }
+
+    private static ErrorResponseException noSuchKey() {
+        return new ErrorResponseException(
+            new ErrorResponse("NoSuchKey", "The specified key does not exist.", "media", null, null, null, null),
+            null, null);
+    }
+}
@@ -0,0 +1,32 @@
+package com.scar.bookvault.notification.api;
+
+import com.scar.bookvault.notification.service.DeadLetterReplayer;
+import com.scar.bookvault.notification.service.DeadLetterReplayer.ReplayResult;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/api/notification/v1/dlq")
+public class DeadLetterController {
+    private static final int MAX_BATCH = 1000;
+
+    private final DeadLetterReplayer deadLetterReplayer;
+
+    public DeadLetterController(DeadLetterReplayer deadLetterReplayer) {
+        this.deadLetterReplayer = deadLetterReplayer;
+    }
+
+    // delivery: email đã hết lượt thử lại; events: event mà handler không xử lý được
+    @PostMapping("/{queue}/replay")
+    public ReplayResult replay(@PathVariable String queue, @RequestParam(defaultValue = "100") int max) {
+        if (max < 1 || max > MAX_BATCH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "max must be between 1 and " + MAX_BATCH);
+        }
+        return switch (queue) {
+            case "delivery" -> deadLetterReplayer.replayDeliveries(max);
+            case "events" -> deadLetterReplayer.replayEvents(max);
+            default -> throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown queue: " + queue);
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package com.scar.bookvault.notification.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Xác định người dùng của kết nối WebSocket từ access token do IAM cấp (RS256, claim userId), không
+ * tin userId do client tự gửi. Token hợp lệ thì userId được đặt vào attributes của session; thiếu,
+ * sai chữ ký hoặc hết hạn thì handshake bị từ chối với 401.
+ *
+ * Service không dùng Spring Security nên chữ ký được kiểm bằng public key cấu hình ở
+ * security.jwt.publicKeyPem (cùng key gateway dùng); chưa cấu hình key thì mọi kết nối bị từ chối.
+ */
+@Component
+public class JwtHandshakeInterceptor implements HandshakeInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtHandshakeInterceptor.class);
+
+    static final String USER_ID = "userId";
+
+    private final ObjectMapper objectMapper;
+    private final PublicKey publicKey;
+    private final Clock clock;
+
+    @Autowired
+    public JwtHandshakeInterceptor(ObjectMapper objectMapper, @Value("${security.jwt.publicKeyPem:}") String publicKeyPem) {
+        this(objectMapper, publicKeyPem, Clock.systemUTC());
+    }
+
+    JwtHandshakeInterceptor(ObjectMapper objectMapper, String publicKeyPem, Clock clock) {
+        this.objectMapper = objectMapper;
+        this.publicKey = publicKeyPem == null || publicKeyPem.isBlank() ? null : readPublicKeyFromPem(publicKeyPem);
+        this.clock = clock;
+        if (publicKey == null) {
+            logger.warn("security.jwt.publicKeyPem is not set, push WebSocket connections will be rejected");
+        }
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                                   Map<String, Object> attributes) {
+        Long userId = userId(token(request));
+        if (userId == null) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        attributes.put(USER_ID, userId);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                               Exception exception) {
+    }
+
+    // Trình duyệt không đặt được header cho WebSocket nên token cũng được nhận qua access_token (RFC 6750)
+    private static String token(ServerHttpRequest request) {
+        String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("access_token");
+    }
+
+    // userId của token hợp lệ, null nếu token thiếu, sai chữ ký, hết hạn hoặc không có claim userId
+    Long userId(String token) {
+        if (token == null || publicKey == null) {
+            return null;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            Map<?, ?> header = objectMapper.readValue(Base64.getUrlDecoder().decode(parts[0]), Map.class);
+            if (!"RS256".equals(header.get("alg"))) {
+                return null;
+            }
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(publicKey);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+                return null;
+            }
+            Map<?, ?> claims = objectMapper.readValue(Base64.getUrlDecoder().decode(parts[1]), Map.class);
+            if (!(claims.get("exp") instanceof Number exp) || exp.longValue() <= clock.instant().getEpochSecond()) {
+                return null;
+            }
+            return claims.get(USER_ID) instanceof Number id ? id.longValue() : null;
+        } catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static PublicKey readPublicKeyFromPem(String pem) {
+        try {
+            String clean = pem.replaceAll("-----BEGIN (.*)-----", "")
+                    .replaceAll("-----END (.*)-----", "")
+                    .replaceAll("\\s", "");
+            X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(clean));
+            return KeyFactory.getInstance("RSA").generatePublic(spec);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid public key", e);
+        }
+    }
+}
@@ -1,25 +1,46 @@
 package com.scar.bookvault.notification.api;
 
+import com.scar.bookvault.notification.service.NotificationHistory;
+import com.scar.bookvault.notification.service.NotificationPage;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.List;
+import java.util.Date;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/notification/v1/notifications")
 public class NotificationAdminController {
     private final MongoTemplate mongoTemplate;
+    private final NotificationHistory notificationHistory;
 
-    public NotificationAdminController(MongoTemplate mongoTemplate) { this.mongoTemplate = mongoTemplate; }
+    public NotificationAdminController(MongoTemplate mongoTemplate, NotificationHistory notificationHistory) {
+        this.mongoTemplate = mongoTemplate;
+        this.notificationHistory = notificationHistory;
+    }
 
+    // Trang tiếp theo: gửi lại nextCursor của trang trước
     @GetMapping
-    public List<Map> list() { return mongoTemplate.findAll(Map.class, "notifications"); }
+    public NotificationPage list(@RequestParam(required = false) Long userId,
+                                 @RequestParam(required = false) String email,
+                                 @RequestParam(required = false) String type,
+                                 @RequestParam(required = false) String cursor,
+                                 @RequestParam(required = false) Integer limit) {
+        try {
+            return notificationHistory.page(userId, email, type, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public Map create(@RequestBody Map doc) { return mongoTemplate.save(doc, "notifications"); }
+    public Map create(@RequestBody Map doc) {
+        doc.put("createdAt", new Date());
+        return mongoTemplate.save(doc, "notifications");
+    }
 
     @DeleteMapping("/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
@@ -28,4 +49,3 @@ public class NotificationAdminController {
         if (doc != null) mongoTemplate.remove(doc, "notifications");
     }
 }
-
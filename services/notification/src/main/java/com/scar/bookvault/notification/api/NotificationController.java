@@ -24,6 +24,6 @@ public class NotificationController {
         
         notificationService.sendEmailNotification(to, subject, body);
         
-        return Map.of("status", "sent", "to", to);
+        return Map.of("status", "queued", "to", to);
     }
 }
@@ -0,0 +1,33 @@
+package com.scar.bookvault.notification.api;
+
+import com.scar.bookvault.notification.service.NotificationPreferences;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/notification/v1/preferences")
+public class NotificationPreferencesController {
+    private final NotificationPreferences preferences;
+
+    public NotificationPreferencesController(NotificationPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    @GetMapping("/{userId}")
+    public Map<String, Object> get(@PathVariable Long userId) {
+        return Map.of("userId", userId, "digest", preferences.digestEnabled(userId));
+    }
+
+    // digest = true: gom thông báo thành một email mỗi cửa sổ thay vì gửi từng email
+    @PutMapping("/{userId}")
+    public Map<String, Object> update(@PathVariable Long userId, @RequestBody Map<String, Object> payload) {
+        if (!(payload.get("digest") instanceof Boolean digest)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "digest must be true or false");
+        }
+        preferences.setDigest(userId, digest);
+        return Map.of("userId", userId, "digest", digest);
+    }
+}
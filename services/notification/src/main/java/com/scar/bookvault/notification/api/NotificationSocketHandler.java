@@ -0,0 +1,56 @@
+package com.scar.bookvault.notification.api;
+
+import com.scar.bookvault.notification.service.PushGateway;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+
+/**
+ * Kênh WebSocket nhận thông báo in-app: client kết nối tới /api/notification/v1/ws kèm access token
+ * và nhận mỗi thông báo dưới dạng một text frame JSON. Client không cần gửi gì. Người dùng lấy từ
+ * token (xem JwtHandshakeInterceptor), không từ tham số của client.
+ */
+@Component
+public class NotificationSocketHandler extends AbstractWebSocketHandler {
+
+    private final PushGateway pushGateway;
+
+    public NotificationSocketHandler(PushGateway pushGateway) {
+        this.pushGateway = pushGateway;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        if (!(session.getAttributes().get(JwtHandshakeInterceptor.USER_ID) instanceof Long userId)) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Not authenticated"));
+            return;
+        }
+        pushGateway.register(userId, session);
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        pushGateway.touch(session);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        pushGateway.touch(session);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        pushGateway.unregister(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        pushGateway.unregister(session);
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.scar.bookvault.notification.config;
+
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
+
+// Listener của retry topic không dùng ack thủ công như listener chính: record được commit khi
+// xử lý xong hoặc khi đã được chuyển sang retry topic/DLT kế tiếp
+@Configuration
+public class KafkaRetryConfig {
+
+    public static final String RETRY_CONTAINER_FACTORY = "retryListenerContainerFactory";
+
+    @Bean(RETRY_CONTAINER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> retryListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(AckMode.RECORD);
+        factory.getContainerProperties().setAsyncAcks(false);
+        return factory;
+    }
+
+    // Retry topic và notification.delivery.dlt do @RetryableTopic tự tạo
+    @Bean
+    public NewTopic eventsDeadLetterTopic() {
+        return TopicBuilder.name(DeliveryFailurePublisher.EVENTS_DLT).partitions(1).build();
+    }
+}
@@ -0,0 +1,34 @@
+package com.scar.bookvault.notification.config;
+
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaAdmin;
+
+// Các topic loan.* có key là loanId (xem md/KAFKA_PARTITIONING.md). KafkaAdmin tạo topic còn thiếu và
+// tăng số partition của topic đã có; concurrency của listener không nên vượt số partition này.
+@Configuration
+public class KafkaTopicsConfig {
+
+    @Bean
+    public KafkaAdmin.NewTopics loanTopics(@Value("${notification.kafka.loan-partitions:6}") int partitions) {
+        return new KafkaAdmin.NewTopics(
+                loanTopic("loan.created", partitions),
+                loanTopic("loan.overdue", partitions),
+                loanTopic("loan.returned", partitions),
+                loanTopic("loan.due.reminder", partitions));
+    }
+
+    // Event replay từ notification.events.dlt, chỉ notification-service đọc (xem DeadLetterReplayer)
+    @Bean
+    public NewTopic eventsReplayTopic() {
+        return TopicBuilder.name(DeliveryFailurePublisher.EVENTS_REPLAY).partitions(1).build();
+    }
+
+    private static NewTopic loanTopic(String name, int partitions) {
+        return TopicBuilder.name(name).partitions(partitions).build();
+    }
+}
@@ -0,0 +1,41 @@
+package com.scar.bookvault.notification.config;
+
+import com.scar.bookvault.notification.api.JwtHandshakeInterceptor;
+import com.scar.bookvault.notification.api.NotificationSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final NotificationSocketHandler notificationSocketHandler;
+    private final JwtHandshakeInterceptor jwtHandshakeInterceptor;
+
+    public WebSocketConfig(NotificationSocketHandler notificationSocketHandler, JwtHandshakeInterceptor jwtHandshakeInterceptor) {
+        this.notificationSocketHandler = notificationSocketHandler;
+        this.jwtHandshakeInterceptor = jwtHandshakeInterceptor;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(notificationSocketHandler, "/api/notification/v1/ws")
+                .addInterceptors(jwtHandshakeInterceptor)
+                .setAllowedOrigins("http://localhost:3000");
+    }
+
+    // Client chỉ gửi pong, bộ đệm đọc nhỏ giúp giữ bộ nhớ mỗi kết nối thấp khi có hàng chục nghìn kết nối rảnh
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer(
+            @Value("${notification.push.max-incoming-message:1024}") int maxIncomingMessage) {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxIncomingMessage);
+        container.setMaxBinaryMessageBufferSize(maxIncomingMessage);
+        return container;
+    }
+}
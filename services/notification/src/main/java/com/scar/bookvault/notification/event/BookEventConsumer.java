@@ -1,24 +1,33 @@
 package com.scar.bookvault.notification.event;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
 import com.scar.bookvault.notification.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
 
 @Component
 public class BookEventConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(BookEventConsumer.class);
+
     private final EmailService emailService;
     private final ObjectMapper objectMapper;
+    private final DeliveryFailurePublisher failurePublisher;
 
-    public BookEventConsumer(EmailService emailService, ObjectMapper objectMapper) {
+    public BookEventConsumer(EmailService emailService, ObjectMapper objectMapper, DeliveryFailurePublisher failurePublisher) {
         this.emailService = emailService;
         this.objectMapper = objectMapper;
+        this.failurePublisher = failurePublisher;
     }
 
-    @KafkaListener(topics = "book.created", groupId = "notification-service")
-    public void handleBookCreated(String message) {
+    @KafkaListener(topics = "book.created", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.book-events:1}")
+    public void handleBookCreated(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             String title = (String) event.get("title");
@@ -34,14 +43,17 @@ public class BookEventConsumer {
             );
             
             // Send notification to admin or broadcast to all users
-            emailService.sendEmail("admin@bookvault.com", subject, body);
+            // Không ghi gì vào Mongo nên ack ngay khi SMTP hoặc retry topic đã nhận email
+            emailService.sendEmail("admin@bookvault.com", subject, body, ack::acknowledge, () -> {});
         } catch (Exception e) {
-            System.err.println("Error processing book.created event: " + e.getMessage());
+            logger.error("Error processing book.created event: {}", e.getMessage(), e);
+            failurePublisher.deadLetter("book.created", message, e, ack::acknowledge);
         }
     }
 
-    @KafkaListener(topics = "book.updated", groupId = "notification-service")
-    public void handleBookUpdated(String message) {
+    @KafkaListener(topics = "book.updated", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.book-events:1}")
+    public void handleBookUpdated(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             String title = (String) event.get("title");
@@ -56,9 +68,10 @@ public class BookEventConsumer {
                 title, author
             );
             
-            emailService.sendEmail("admin@bookvault.com", subject, body);
+            emailService.sendEmail("admin@bookvault.com", subject, body, ack::acknowledge, () -> {});
         } catch (Exception e) {
-            System.err.println("Error processing book.updated event: " + e.getMessage());
+            logger.error("Error processing book.updated event: {}", e.getMessage(), e);
+            failurePublisher.deadLetter("book.updated", message, e, ack::acknowledge);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.scar.bookvault.notification.event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.notification.config.KafkaRetryConfig;
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
+import com.scar.bookvault.notification.service.MailDispatcher;
+import com.scar.bookvault.notification.service.OutgoingEmail;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.DltHandler;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.retrytopic.TopicSuffixingStrategy;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thử lại các email mà MailDispatcher không gửi được.
+ *
+ * Mỗi lần thất bại, record được chuyển sang retry topic kế tiếp (notification.delivery.retry-0,
+ * -1, ...) với độ trễ tăng theo cấp số nhân; container của retry topic tạm dừng partition cho tới
+ * khi record đến hạn, nên không có thread nào ngủ và listener chính không bị ảnh hưởng. Hết số lần
+ * thử thì record vào notification.delivery.dlt, có thể replay qua DeadLetterController.
+ */
+@Component
+public class EmailDeliveryConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailDeliveryConsumer.class);
+
+    private final MailDispatcher mailDispatcher;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public EmailDeliveryConsumer(MailDispatcher mailDispatcher, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.mailDispatcher = mailDispatcher;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @RetryableTopic(
+            attempts = "${notification.retry.attempts:6}",
+            backoff = @Backoff(
+                    delayExpression = "${notification.retry.initial-delay:30000}",
+                    multiplierExpression = "${notification.retry.multiplier:4}",
+                    maxDelayExpression = "${notification.retry.max-delay:3600000}"),
+            retryTopicSuffix = ".retry",
+            dltTopicSuffix = ".dlt",
+            topicSuffixingStrategy = TopicSuffixingStrategy.SUFFIX_WITH_INDEX_VALUE,
+            exclude = {MailPreparationException.class, JsonProcessingException.class},
+            kafkaTemplate = "kafkaTemplate",
+            listenerContainerFactory = KafkaRetryConfig.RETRY_CONTAINER_FACTORY)
+    @KafkaListener(topics = DeliveryFailurePublisher.DELIVERY_TOPIC, groupId = "notification-service",
+            containerFactory = KafkaRetryConfig.RETRY_CONTAINER_FACTORY)
+    public void deliver(String message, @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) throws JsonProcessingException {
+        Map<String, Object> payload = objectMapper.readValue(message, Map.class);
+        String depth = String.valueOf(depth(topic));
+        try {
+            mailDispatcher.sendNow(new OutgoingEmail((String) payload.get("to"), (String) payload.get("subject"), (String) payload.get("body")));
+            record(payload, depth, "delivered");
+        } catch (RuntimeException e) {
+            record(payload, depth, "failed");
+            throw e;
+        }
+    }
+
+    @DltHandler
+    public void deadLetter(String message, @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
+        meterRegistry.counter("notification.retry.dead").increment();
+        logger.error("Email delivery exhausted its retries and was parked in {}", topic);
+    }
+
+    // Độ sâu: 0 là topic gốc, n là retry topic thứ n (hậu tố .retry-(n-1))
+    static int depth(String topic) {
+        int index = topic.lastIndexOf(".retry-");
+        if (index < 0) {
+            return 0;
+        }
+        return Integer.parseInt(topic.substring(index + ".retry-".length())) + 1;
+    }
+
+    // Tuổi tính từ lần gửi SMTP thất bại đầu tiên, không phải từ lúc record vào retry topic hiện tại
+    private void record(Map<String, Object> payload, String depth, String outcome) {
+        meterRegistry.counter("notification.retry", "depth", depth, "outcome", outcome).increment();
+        if (payload.get("firstFailedAt") instanceof Number firstFailedAt) {
+            Timer.builder("notification.retry.age")
+                    .description("Time since the first failed SMTP attempt")
+                    .tag("depth", depth)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(Math.max(0, System.currentTimeMillis() - firstFailedAt.longValue()), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.scar.bookvault.notification.event;
+
+import com.scar.bookvault.notification.service.DeadLetterReplayer;
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
+import com.scar.bookvault.notification.service.NotificationService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Xử lý lại event được replay từ notification.events.dlt.
+ *
+ * DeadLetterReplayer đưa event vào notification.events.replay kèm header topic gốc thay vì publish lại
+ * lên loan.* / book.*, nên chỉ service này thấy lại event. Handler được chọn theo topic gốc và tự
+ * ack hoặc đưa event trở lại DLT như khi đọc từ topic gốc.
+ */
+@Component
+public class EventReplayConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(EventReplayConsumer.class);
+
+    private final NotificationService notificationService;
+    private final BookEventConsumer bookEventConsumer;
+    private final DeliveryFailurePublisher failurePublisher;
+
+    public EventReplayConsumer(NotificationService notificationService, BookEventConsumer bookEventConsumer,
+                               DeliveryFailurePublisher failurePublisher) {
+        this.notificationService = notificationService;
+        this.bookEventConsumer = bookEventConsumer;
+        this.failurePublisher = failurePublisher;
+    }
+
+    @KafkaListener(topics = DeliveryFailurePublisher.EVENTS_REPLAY, groupId = "notification-service")
+    public void replay(ConsumerRecord<String, String> record, Acknowledgment ack) {
+        String originalTopic = DeadLetterReplayer.originalTopic(record);
+        String message = record.value();
+        switch (originalTopic == null ? "" : originalTopic) {
+            case "loan.created" -> notificationService.handleLoanCreated(message, ack);
+            case "loan.overdue" -> notificationService.handleLoanOverdue(message, ack);
+            case "loan.returned" -> notificationService.handleLoanReturned(message, ack);
+            case "loan.due.reminder" -> notificationService.handleLoanDueReminder(message, ack);
+            case "book.created" -> bookEventConsumer.handleBookCreated(message, ack);
+            case "book.updated" -> bookEventConsumer.handleBookUpdated(message, ack);
+            default -> {
+                logger.error("Replayed event has unknown original topic {}", originalTopic);
+                failurePublisher.deadLetter(originalTopic == null ? DeliveryFailurePublisher.EVENTS_REPLAY : originalTopic, message,
+                        new IllegalArgumentException("Unknown original topic " + originalTopic), ack::acknowledge);
+            }
+        }
+    }
+}
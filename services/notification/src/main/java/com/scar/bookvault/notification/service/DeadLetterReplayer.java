@@ -0,0 +1,182 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Đọc lại DLT theo lô và publish từng record vào topic của notification-service để xử lý lại.
+ *
+ * Không publish lại lên topic gốc (loan.*, book.*) vì các service khác cũng đọc các topic đó.
+ * Dùng consumer group riêng (notification-dlq-replay) nên vị trí đã replay được lưu trên broker;
+ * offset chỉ được commit tới record cuối cùng đã publish thành công trên từng partition.
+ */
+@Service
+public class DeadLetterReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterReplayer.class);
+
+    static final String REPLAY_GROUP = "notification-dlq-replay";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(2);
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    private final ConsumerFactory<Object, Object> consumerFactory;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public DeadLetterReplayer(ConsumerFactory<Object, Object> consumerFactory,
+                              KafkaTemplate<String, String> kafkaTemplate,
+                              MeterRegistry meterRegistry) {
+        this.consumerFactory = consumerFactory;
+        this.kafkaTemplate = kafkaTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public record ReplayResult(String topic, int replayed, long remaining) {
+    }
+
+    // Email hết lượt thử quay lại notification.delivery, số lần thử đếm lại từ đầu
+    public ReplayResult replayDeliveries(int max) {
+        return replay(DeliveryFailurePublisher.DELIVERY_DLT, DeliveryFailurePublisher.DELIVERY_TOPIC, false, max);
+    }
+
+    // Event lỗi của handler vào notification.events.replay kèm header topic gốc, EventReplayConsumer chọn handler theo header
+    public ReplayResult replayEvents(int max) {
+        return replay(DeliveryFailurePublisher.EVENTS_DLT, DeliveryFailurePublisher.EVENTS_REPLAY, true, max);
+    }
+
+    private synchronized ReplayResult replay(String dltTopic, String target, boolean keepOriginalTopic, int max) {
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        overrides.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        overrides.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Math.min(max, 500));
+        try (Consumer<Object, Object> consumer = consumerFactory.createConsumer(REPLAY_GROUP, "dlq-replay", null, overrides)) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : consumer.partitionsFor(dltTopic, Duration.ofSeconds(SEND_TIMEOUT_SECONDS))) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            if (partitions.isEmpty()) {
+                return new ReplayResult(dltTopic, 0, 0);
+            }
+            consumer.assign(partitions);
+
+            List<ConsumerRecord<Object, Object>> batch = new ArrayList<>();
+            while (batch.size() < max) {
+                var records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    break;
+                }
+                for (ConsumerRecord<Object, Object> record : records) {
+                    if (batch.size() < max) {
+                        batch.add(record);
+                    }
+                }
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> commits = publish(batch, target, keepOriginalTopic);
+            if (!commits.isEmpty()) {
+                consumer.commitSync(commits);
+            }
+            int replayed = countReplayed(batch, commits);
+            meterRegistry.counter("notification.dlq.replayed", "topic", dltTopic).increment(replayed);
+            return new ReplayResult(dltTopic, replayed, remaining(consumer, partitions));
+        }
+    }
+
+    // Dừng ở record lỗi đầu tiên của mỗi partition để không bỏ qua nó khi commit
+    private Map<TopicPartition, OffsetAndMetadata> publish(List<ConsumerRecord<Object, Object>> batch, String target,
+                                                           boolean keepOriginalTopic) {
+        List<CompletableFuture<SendResult<String, String>>> sends = new ArrayList<>(batch.size());
+        for (ConsumerRecord<Object, Object> record : batch) {
+            ProducerRecord<String, String> replayed = new ProducerRecord<>(target,
+                    record.key() == null ? null : record.key().toString(),
+                    record.value() == null ? null : record.value().toString());
+            if (keepOriginalTopic) {
+                String originalTopic = originalTopic(record);
+                if (originalTopic == null) {
+                    sends.add(CompletableFuture.failedFuture(new IllegalStateException("No original topic header")));
+                    continue;
+                }
+                replayed.headers().add(KafkaHeaders.DLT_ORIGINAL_TOPIC, originalTopic.getBytes(StandardCharsets.UTF_8));
+            }
+            sends.add(kafkaTemplate.send(replayed));
+        }
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        Set<TopicPartition> stopped = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            ConsumerRecord<Object, Object> record = batch.get(i);
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            if (stopped.contains(partition)) {
+                continue;
+            }
+            try {
+                sends.get(i).get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                commits.put(partition, new OffsetAndMetadata(record.offset() + 1));
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warn("Failed to replay {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), e.getMessage());
+                stopped.add(partition);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return commits;
+    }
+
+    private static int countReplayed(List<ConsumerRecord<Object, Object>> batch, Map<TopicPartition, OffsetAndMetadata> commits) {
+        int replayed = 0;
+        for (ConsumerRecord<Object, Object> record : batch) {
+            OffsetAndMetadata committed = commits.get(new TopicPartition(record.topic(), record.partition()));
+            if (committed != null && record.offset() < committed.offset()) {
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private static long remaining(Consumer<Object, Object> consumer, List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Set.copyOf(partitions));
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+        long remaining = 0;
+        for (TopicPartition partition : partitions) {
+            OffsetAndMetadata offset = committed.get(partition);
+            long position = offset != null ? offset.offset() : beginning.getOrDefault(partition, 0L);
+            remaining += Math.max(0, endOffsets.getOrDefault(partition, 0L) - position);
+        }
+        return remaining;
+    }
+
+    public static String originalTopic(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+}
@@ -0,0 +1,116 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Email đã được SendRateLimiter hẹn giờ, chờ tới lượt rồi mới đưa vào MailDispatcher.
+ *
+ * Số email chờ có giới hạn; khi đầy, defer chặn listener gọi tới như hàng đợi của MailDispatcher.
+ * Khi dừng, email còn chờ được chuyển sang retry topic; event gốc chỉ được ack khi email đã vào
+ * MailDispatcher rồi được giao (xem OutgoingEmail), hoặc khi retry topic đã nhận.
+ */
+@Component
+public class DeferredEmailQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeferredEmailQueue.class);
+
+    private final MailDispatcher mailDispatcher;
+    private final DelayQueue<Deferred> queue = new DelayQueue<>();
+    private final Semaphore capacity;
+    private final Timer delayTimer;
+    private final Thread releaser;
+    private volatile boolean running = true;
+
+    private record Deferred(OutgoingEmail email, long dueNanos) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Deferred) other).dueNanos);
+        }
+    }
+
+    public DeferredEmailQueue(MailDispatcher mailDispatcher,
+                              MeterRegistry meterRegistry,
+                              @Value("${notification.ratelimit.deferred-capacity:10000}") int capacity) {
+        this.mailDispatcher = mailDispatcher;
+        this.capacity = new Semaphore(capacity);
+        this.delayTimer = Timer.builder("notification.ratelimit.delay")
+                .description("Wait imposed on deferred emails by the send-rate limit")
+                .register(meterRegistry);
+        Gauge.builder("notification.ratelimit.deferred.queue", queue, DelayQueue::size)
+                .description("Emails waiting for their send slot")
+                .register(meterRegistry);
+
+        this.releaser = new Thread(this::run, "deferred-email");
+        releaser.start();
+    }
+
+    public void defer(OutgoingEmail email, long delayNanos) {
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to defer email", e);
+        }
+        if (!running) {
+            capacity.release();
+            throw new IllegalStateException("Deferred email queue is shutting down");
+        }
+        queue.put(new Deferred(email, System.nanoTime() + delayNanos));
+        delayTimer.record(delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Deferred deferred = queue.poll(1, TimeUnit.SECONDS);
+                if (deferred == null) {
+                    continue;
+                }
+                try {
+                    mailDispatcher.submit(deferred.email());
+                } catch (IllegalStateException e) {
+                    mailDispatcher.retryLater(deferred.email());
+                } finally {
+                    capacity.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        releaser.interrupt();
+        releaser.join(TimeUnit.SECONDS.toMillis(5));
+        List<Deferred> left = new ArrayList<>(queue);
+        queue.clear();
+        for (Deferred deferred : left) {
+            mailDispatcher.retryLater(deferred.email());
+        }
+        if (!left.isEmpty()) {
+            logger.info("Moved {} deferred emails to the retry topic on shutdown", left.size());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.scar.bookvault.notification.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Đưa thông báo thất bại ra khỏi luồng chính thay vì chỉ in lỗi.
+ *
+ * Email không gửi được qua SMTP được publish vào notification.delivery, nơi EmailDeliveryConsumer thử
+ * lại qua các retry topic có backoff tăng dần rồi tới notification.delivery.dlt. Event mà handler
+ * không xử lý được đi thẳng vào notification.events.dlt kèm topic gốc và lỗi; replay đưa chúng vào
+ * notification.events.replay của service này chứ không publish lại lên topic dùng chung.
+ */
+@Component
+public class DeliveryFailurePublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryFailurePublisher.class);
+
+    public static final String DELIVERY_TOPIC = "notification.delivery";
+    public static final String DELIVERY_DLT = DELIVERY_TOPIC + ".dlt";
+    public static final String EVENTS_DLT = "notification.events.dlt";
+    public static final String EVENTS_REPLAY = "notification.events.replay";
+
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public DeliveryFailurePublisher(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Publish email vào notification.delivery và chờ broker nhận. Key là người nhận để các lần thử của
+     * cùng một người nằm trên một partition. Lỗi ném IllegalStateException, để caller không ack event
+     * khi email chưa được lưu ở đâu cả.
+     */
+    public void retryEmail(OutgoingEmail email) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("to", email.to());
+        payload.put("subject", email.subject());
+        payload.put("body", email.body());
+        payload.put("firstFailedAt", System.currentTimeMillis());
+        try {
+            kafkaTemplate.send(DELIVERY_TOPIC, email.to(), objectMapper.writeValueAsString(payload))
+                    .get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (JsonProcessingException | ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Failed to queue email to " + email.to() + " for retry", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing email to " + email.to() + " for retry", e);
+        }
+    }
+
+    /**
+     * Ghi event lỗi vào notification.events.dlt; onPublished (thường là ack) chỉ chạy khi broker đã
+     * nhận, nên nếu Kafka cũng lỗi thì record gốc được giao lại thay vì mất.
+     */
+    public void deadLetter(String topic, String message, Exception cause, Runnable onPublished) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(EVENTS_DLT, message);
+        record.headers().add(KafkaHeaders.DLT_ORIGINAL_TOPIC, topic.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(KafkaHeaders.DLT_EXCEPTION_FQCN, cause.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        record.headers().add(KafkaHeaders.DLT_EXCEPTION_MESSAGE, String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+        kafkaTemplate.send(record).whenComplete((result, e) -> {
+            if (e != null) {
+                logger.error("Failed to dead-letter {} event: {}", topic, e.getMessage());
+                return;
+            }
+            meterRegistry.counter("notification.dead.letters", "topic", topic).increment();
+            onPublished.run();
+        });
+    }
+}
@@ -0,0 +1,245 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gom thông báo theo người nhận và gửi một email tổng hợp cho mỗi cửa sổ thời gian, cho những người
+ * dùng đã bật digest trong NotificationPreferences.
+ *
+ * Mỗi (email, cửa sổ) là một document trong notification_digests, cập nhật bằng upsert qua
+ * NotificationWriter nên event chỉ được ack khi đã nằm trong Mongo. Các event lặp lại cho cùng một
+ * khoản mượn (ví dụ loan.overdue phát lại mỗi giờ) ghi đè lên nhau thay vì thành nhiều dòng. Hết cửa
+ * sổ, job định kỳ nhận từng document, gửi một email và ghi một bản ghi lịch sử DIGEST; document chỉ
+ * bị xóa sau khi email đã được SMTP nhận và lịch sử đã được ghi. Mỗi upsert tăng version, nên dòng
+ * được ghi (từ buffer) sau khi document đã được nhận không bị xóa theo mà được gửi ở lần sau.
+ */
+@Service
+public class DigestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DigestService.class);
+
+    static final String COLLECTION = "notification_digests";
+    static final String DIGEST_TYPE = "DIGEST";
+
+    private final MongoTemplate mongoTemplate;
+    private final NotificationWriter notificationWriter;
+    private final EmailService emailService;
+    private final NotificationPreferences preferences;
+    private final Clock clock;
+    private final Duration window;
+    private final ZoneId zone;
+    private final Set<String> immediateTypes;
+    private final Duration claimTimeout;
+
+    private final Counter staged;
+    private final Counter sent;
+    private final DistributionSummary itemsPerDigest;
+
+    public DigestService(MongoTemplate mongoTemplate,
+                         NotificationWriter notificationWriter,
+                         EmailService emailService,
+                         NotificationPreferences preferences,
+                         MeterRegistry meterRegistry,
+                         @Value("${notification.digest.window:24h}") Duration window,
+                         @Value("${notification.digest.zone:Asia/Ho_Chi_Minh}") ZoneId zone,
+                         @Value("${notification.digest.immediate-types:LOAN_CREATED,EMAIL}") Set<String> immediateTypes,
+                         @Value("${notification.digest.claim-timeout:10m}") Duration claimTimeout) {
+        this(mongoTemplate, notificationWriter, emailService, preferences, meterRegistry, Clock.systemUTC(),
+                window, zone, immediateTypes, claimTimeout);
+    }
+
+    DigestService(MongoTemplate mongoTemplate, NotificationWriter notificationWriter, EmailService emailService,
+                  NotificationPreferences preferences, MeterRegistry meterRegistry, Clock clock, Duration window,
+                  ZoneId zone, Set<String> immediateTypes, Duration claimTimeout) {
+        if (window.isZero() || window.isNegative() || Duration.ofDays(1).toMillis() % window.toMillis() != 0) {
+            throw new IllegalArgumentException("notification.digest.window must divide a day evenly: " + window);
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.notificationWriter = notificationWriter;
+        this.emailService = emailService;
+        this.preferences = preferences;
+        this.clock = clock;
+        this.window = window;
+        this.zone = zone;
+        this.immediateTypes = immediateTypes;
+        this.claimTimeout = claimTimeout;
+
+        this.staged = Counter.builder("notification.digest.staged")
+                .description("Events added to a pending digest")
+                .register(meterRegistry);
+        this.sent = Counter.builder("notification.digest.sent")
+                .description("Digest emails sent")
+                .register(meterRegistry);
+        this.itemsPerDigest = DistributionSummary.builder("notification.digest.items")
+                .description("Distinct notifications combined into one digest email")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void ensureIndexes() {
+        mongoTemplate.indexOps(COLLECTION).ensureIndex(new Index().on("dueAt", Sort.Direction.ASC).named("dueAt"));
+    }
+
+    // Loại nằm trong immediate-types (mặc định LOAN_CREATED, EMAIL) luôn gửi ngay
+    public boolean accepts(String type, Long userId) {
+        return !immediateTypes.contains(type) && preferences.digestEnabled(userId);
+    }
+
+    /**
+     * Thêm thông báo vào digest của người nhận cho cửa sổ hiện tại. itemKey giống nhau thì ghi đè
+     * (giữ bản mới nhất); null thì mỗi lần là một dòng riêng.
+     */
+    public void stage(String type, Long userId, String email, String subject, String body, String itemKey, Runnable onDurable) {
+        Instant now = clock.instant();
+        Instant windowStart = windowStart(now);
+        String key = type + "-" + (itemKey != null ? itemKey : new ObjectId().toHexString());
+        Map<String, Object> item = new HashMap<>();
+        item.put("type", type);
+        item.put("subject", subject);
+        item.put("body", body);
+        item.put("createdAt", Date.from(now));
+
+        Update update = new Update()
+                .setOnInsert("email", email)
+                .setOnInsert("windowStart", Date.from(windowStart))
+                .setOnInsert("dueAt", Date.from(windowStart.plus(window)))
+                .set("items." + fieldName(key), item)
+                .inc("version", 1);
+        if (userId != null) {
+            update.setOnInsert("userId", userId);
+        }
+        notificationWriter.upsert(COLLECTION, Query.query(Criteria.where("_id").is(email + "|" + windowStart.toEpochMilli())), update, onDurable);
+        staged.increment();
+    }
+
+    // Nhận từng digest đã hết cửa sổ; claimedAt để nhiều instance không gửi trùng, quá claim-timeout thì nhận lại
+    @Scheduled(fixedDelayString = "${notification.digest.poll-interval:1m}")
+    public void sendDue() {
+        Map digest;
+        while ((digest = claimNext()) != null) {
+            try {
+                send(digest);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to send digest {}: {}", digest.get("_id"), e.getMessage());
+            }
+        }
+    }
+
+    Map claimNext() {
+        Date now = Date.from(clock.instant());
+        Query query = Query.query(new Criteria().andOperator(
+                Criteria.where("dueAt").lte(now),
+                new Criteria().orOperator(
+                        Criteria.where("claimedAt").exists(false),
+                        Criteria.where("claimedAt").lt(Date.from(clock.instant().minus(claimTimeout))))));
+        return mongoTemplate.findAndModify(query, new Update().set("claimedAt", now),
+                FindAndModifyOptions.options().returnNew(true), Map.class, COLLECTION);
+    }
+
+    // Lỗi gửi ném ra ngoài: document vẫn được giữ và được nhận lại sau claim-timeout
+    void send(Map digest) {
+        Object id = digest.get("_id");
+        Object version = digest.get("version");
+        String email = (String) digest.get("email");
+        List<Map.Entry<String, Map>> items = new ArrayList<>(((Map<String, Map>) digest.getOrDefault("items", Map.of())).entrySet());
+        items.sort(Comparator.comparing(item -> (Date) item.getValue().get("createdAt")));
+        if (items.isEmpty()) {
+            finish(id, version, items);
+            return;
+        }
+
+        String type;
+        String subject;
+        String body;
+        if (items.size() == 1) {
+            // Chỉ có một thông báo thì gửi nguyên bản, không bọc thành digest
+            Map item = items.get(0).getValue();
+            type = (String) item.get("type");
+            subject = (String) item.get("subject");
+            body = (String) item.get("body");
+        } else {
+            type = DIGEST_TYPE;
+            subject = "Your BookVault notifications (" + items.size() + ") - BookVault";
+            body = digestBody(items.stream().map(Map.Entry::getValue).toList());
+        }
+
+        emailService.sendNow(email, subject, body);
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("type", type);
+        if (digest.get("userId") != null) {
+            doc.put("userId", digest.get("userId"));
+        }
+        doc.put("email", email);
+        doc.put("subject", subject);
+        doc.put("body", body);
+        doc.put("itemCount", items.size());
+        doc.put("createdAt", Date.from(clock.instant()));
+        notificationWriter.write(doc, () -> finish(id, version, items));
+        sent.increment();
+        itemsPerDigest.record(items.size());
+    }
+
+    // Xóa document nếu không có dòng nào được ghi thêm từ lúc nhận; nếu có thì chỉ bỏ các dòng đã gửi
+    // (dòng cùng key bị ghi đè có createdAt khác nên được giữ) và trả document về để gửi ở lần poll sau
+    private void finish(Object id, Object version, List<Map.Entry<String, Map>> items) {
+        Query unchanged = Query.query(Criteria.where("_id").is(id).and("version").is(version));
+        if (mongoTemplate.remove(unchanged, COLLECTION).getDeletedCount() > 0) {
+            return;
+        }
+        for (Map.Entry<String, Map> item : items) {
+            String field = "items." + item.getKey();
+            Query sentItem = Query.query(Criteria.where("_id").is(id).and(field + ".createdAt").is(item.getValue().get("createdAt")));
+            mongoTemplate.updateFirst(sentItem, new Update().unset(field), COLLECTION);
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), new Update().unset("claimedAt"), COLLECTION);
+    }
+
+    static String digestBody(List<Map> items) {
+        StringBuilder body = new StringBuilder("Dear User,\n\nHere is a summary of your BookVault notifications:\n");
+        for (Map item : items) {
+            body.append("\n---------- ").append(item.get("subject")).append(" ----------\n\n")
+                    .append(item.get("body")).append('\n');
+        }
+        return body.toString();
+    }
+
+    // Cửa sổ tính từ nửa đêm theo zone, nên window 24h là một ngày theo giờ địa phương
+    Instant windowStart(Instant now) {
+        Instant midnight = now.atZone(zone).toLocalDate().atStartOfDay(zone).toInstant();
+        long windowMillis = window.toMillis();
+        return midnight.plusMillis((now.toEpochMilli() - midnight.toEpochMilli()) / windowMillis * windowMillis);
+    }
+
+    // Tên field Mongo không được chứa '.' hoặc bắt đầu bằng '$'
+    private static String fieldName(String key) {
+        return key.replace('.', '_').replace('$', '_');
+    }
+}
@@ -1,28 +1,69 @@
 package com.scar.bookvault.notification.service;
 
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.TimeUnit;
+
 @Service
 public class EmailService {
-    private final JavaMailSender mailSender;
+    private static final Logger logger = LoggerFactory.getLogger(EmailService.class);
+
+    private final MailDispatcher mailDispatcher;
+    private final DeliveryFailurePublisher failurePublisher;
+    private final SendRateLimiter rateLimiter;
+    private final DeferredEmailQueue deferredEmails;
 
-    public EmailService(JavaMailSender mailSender) {
-        this.mailSender = mailSender;
+    public EmailService(MailDispatcher mailDispatcher, DeliveryFailurePublisher failurePublisher,
+                        SendRateLimiter rateLimiter, DeferredEmailQueue deferredEmails) {
+        this.mailDispatcher = mailDispatcher;
+        this.failurePublisher = failurePublisher;
+        this.rateLimiter = rateLimiter;
+        this.deferredEmails = deferredEmails;
     }
 
     public void sendEmail(String to, String subject, String body) {
+        sendEmail(new OutgoingEmail(to, subject, body));
+    }
+
+    // onHandedOff chạy (thường trên thread khác) khi SMTP đã nhận email hoặc retry topic đã xác nhận, là lúc
+    // caller được ack event gốc; onLost khi không được cả hai (xem MailDispatcher.retryLater)
+    public void sendEmail(String to, String subject, String body, Runnable onHandedOff, Runnable onLost) {
+        sendEmail(new OutgoingEmail(to, subject, body, onHandedOff, onLost));
+    }
+
+    // Chỉ đưa vào hàng đợi của MailDispatcher; chặn khi hàng đợi đầy để listener gọi tới chậm lại theo SMTP.
+    // Vượt hạn mức gửi (chung hoặc theo domain) thì hẹn giờ gửi sau thay vì gửi ngay
+    private void sendEmail(OutgoingEmail email) {
+        String to = email.to();
         try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setTo(to);
-            message.setSubject(subject);
-            message.setText(body);
-            mailSender.send(message);
+            long delayNanos = rateLimiter.reserve(to);
+            if (delayNanos > 0) {
+                deferredEmails.defer(email, delayNanos);
+            } else {
+                mailDispatcher.submit(email);
+            }
         } catch (Exception e) {
-            // Log error but don't throw - notification failures shouldn't break the flow
-            System.err.println("Failed to send email to " + to + ": " + e.getMessage());
+            // Dispatcher đang dừng: chuyển sang retry topic thay vì làm mất email; retry topic cũng lỗi thì
+            // ném ra để listener không ack event
+            logger.warn("Failed to queue email to {}: {}", to, e.getMessage());
+            failurePublisher.retryEmail(email);
+            email.onHandedOff().run();
         }
     }
-}
 
+    // Gửi đồng bộ trên kết nối riêng, chờ tới lượt theo hạn mức gửi; lỗi ném ra để caller thử lại sau
+    public void sendNow(String to, String subject, String body) {
+        long delayNanos = rateLimiter.reserve(to);
+        if (delayNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to send email to " + to, e);
+            }
+        }
+        mailDispatcher.sendNow(new OutgoingEmail(to, subject, body));
+    }
+}
@@ -0,0 +1,186 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bỏ qua event đã xử lý, dựa trên idempotency key của event (loại, loanId, bước leo thang).
+ *
+ * Nguồn sự thật là collection notification_dedup (_id là key, TTL theo window). Bloom filter trong
+ * bộ nhớ đứng trước: key chưa từng thấy thì xử lý luôn mà không cần đọc; key có thể đã thấy thì đọc
+ * Mongo để xác nhận, nên false positive của Bloom filter không làm mất email. Mỗi thế hệ Bloom filter
+ * dài nửa window nên key không bao giờ được nhớ lâu hơn TTL trên Mongo; key của instance khác được
+ * nạp định kỳ.
+ *
+ * Key chỉ được ghi sau khi email đã được giao đi, qua bulk của NotificationWriter cùng đợt với bản
+ * ghi lịch sử, và Kafka chỉ được ack khi cả hai đã nằm trong Mongo. Tiến trình chết giữa hai bước
+ * thì event giao lại được gửi lần nữa (ít nhất một lần) thay vì bị bỏ qua.
+ *
+ * Từ lúc được nhận xử lý tới khi key nằm trong Mongo, key được giữ trong tập inFlight: bản sao tới
+ * trong khoảng đó (giao lại, hoặc event bị publish hai lần cách nhau vài ms) bị coi là trùng mà
+ * không cần Mongo, và hai thread không thể cùng nhận một key.
+ */
+@Component
+public class EventDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventDeduplicator.class);
+
+    static final String COLLECTION = "notification_dedup";
+
+    // Key được ghi trễ tối đa một lần flush sau createdAt, nạp chồng lên lần trước để không sót
+    private static final long REFRESH_OVERLAP_MILLIS = 60_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final NotificationWriter notificationWriter;
+    private final boolean enabled;
+    private final Duration window;
+    private final ExpiringBloomFilter seen;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile long loadedUntil;
+
+    private final Counter firstSeen;
+    private final Counter duplicates;
+    private final Counter falsePositives;
+
+    public EventDeduplicator(MongoTemplate mongoTemplate,
+                             NotificationWriter notificationWriter,
+                             MeterRegistry meterRegistry,
+                             @Value("${notification.dedup.enabled:true}") boolean enabled,
+                             @Value("${notification.dedup.window:7d}") Duration window,
+                             @Value("${notification.dedup.expected-keys:1000000}") long expectedKeys,
+                             @Value("${notification.dedup.false-positive-rate:0.001}") double falsePositiveRate) {
+        this.mongoTemplate = mongoTemplate;
+        this.notificationWriter = notificationWriter;
+        this.enabled = enabled;
+        this.window = window;
+        long now = System.currentTimeMillis();
+        // Hai thế hệ, mỗi thế hệ nửa window: key được nhớ từ nửa window tới đủ window, không quá TTL
+        this.seen = new ExpiringBloomFilter(expectedKeys, falsePositiveRate, window.toMillis() / 2, now);
+        this.loadedUntil = now - window.toMillis();
+
+        this.firstSeen = dedupCounter(meterRegistry, "new");
+        this.duplicates = dedupCounter(meterRegistry, "duplicate");
+        this.falsePositives = Counter.builder("notification.dedup.bloom.false.positives")
+                .description("Bloom filter hits that Mongo did not confirm")
+                .register(meterRegistry);
+    }
+
+    // Nạp key còn trong window vào Bloom filter để duplicate ngay sau khi khởi động vẫn bị phát hiện
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        mongoTemplate.indexOps(COLLECTION).ensureIndex(new Index().on("createdAt", Sort.Direction.ASC).named("createdAt_ttl").expire(window));
+        logger.info("Loaded {} idempotency keys into the dedup filter", loadRecent());
+    }
+
+    // Event bị giao lại cho instance khác sau rebalance: key do instance trước ghi phải có trong Bloom filter
+    @Scheduled(fixedDelayString = "${notification.dedup.refresh-interval:30s}",
+            initialDelayString = "${notification.dedup.refresh-interval:30s}")
+    public void refresh() {
+        if (enabled) {
+            loadRecent();
+        }
+    }
+
+    private long loadRecent() {
+        long now = System.currentTimeMillis();
+        Query recent = Query.query(Criteria.where("createdAt").gte(new Date(loadedUntil - REFRESH_OVERLAP_MILLIS)));
+        recent.fields().include("_id");
+        long loaded = 0;
+        try (CloseableIterator<Document> keys = mongoTemplate.stream(recent, Document.class, COLLECTION)) {
+            while (keys.hasNext()) {
+                seen.put(keys.next().get("_id").toString(), now);
+                loaded++;
+            }
+        }
+        loadedUntil = now;
+        return loaded;
+    }
+
+    /**
+     * true nếu key đã được xử lý hoặc đang được xử lý; chỉ đọc Mongo khi Bloom filter báo có thể đã
+     * thấy. false nghĩa là caller đã nhận key và phải gọi record hoặc release. key null thì luôn coi
+     * là mới.
+     */
+    public boolean alreadyProcessed(String key) {
+        if (!enabled || key == null) {
+            return false;
+        }
+        if (!inFlight.add(key)) {
+            duplicates.increment();
+            return true;
+        }
+        if (seen.mightContain(key, System.currentTimeMillis())) {
+            if (mongoTemplate.exists(Query.query(Criteria.where("_id").is(key)), COLLECTION)) {
+                inFlight.remove(key);
+                duplicates.increment();
+                return true;
+            }
+            falsePositives.increment();
+        }
+        firstSeen.increment();
+        return false;
+    }
+
+    // Event không giao được (sẽ vào DLT): bỏ key đã nhận để lần replay không bị coi là trùng
+    public void release(String key) {
+        if (key != null) {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Ghi nhận key sau khi event đã được giao đi. Key được đưa vào bulk của NotificationWriter; callback
+     * trả về dùng làm onDurable cho bản ghi của event, và onDurable chỉ chạy khi cả key lẫn bản ghi đó
+     * đã được ghi.
+     */
+    public Runnable record(String key, Runnable onDurable) {
+        if (!enabled || key == null) {
+            return onDurable;
+        }
+        long now = System.currentTimeMillis();
+        AtomicInteger remaining = new AtomicInteger(2);
+        Runnable bothDurable = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onDurable.run();
+            }
+        };
+        seen.put(key, now);
+        // Key rời inFlight khi đã nằm trong Mongo, từ đó bản sao được xác nhận qua Mongo
+        notificationWriter.upsert(COLLECTION, Query.query(Criteria.where("_id").is(key)),
+                new Update().setOnInsert("createdAt", new Date(now)), () -> {
+                    inFlight.remove(key);
+                    bothDurable.run();
+                });
+        return bothDurable;
+    }
+
+    private static Counter dedupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("notification.dedup")
+                .description("Notification events checked against the idempotency store")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
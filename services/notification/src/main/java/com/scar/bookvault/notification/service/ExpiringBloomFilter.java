@@ -0,0 +1,101 @@
+package com.scar.bookvault.notification.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter hai thế hệ: key được thêm vào thế hệ hiện tại, tra cứu trên cả hai; sau mỗi
+ * generationMillis thế hệ cũ bị bỏ, nên key được nhớ trong khoảng một đến hai thế hệ. Bit được set
+ * bằng CAS trên AtomicLongArray, không cần khóa.
+ */
+final class ExpiringBloomFilter {
+
+    private final int bits;
+    private final int hashes;
+    private final long generationMillis;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private record Generation(AtomicLongArray words, long startedAt) {
+    }
+
+    ExpiringBloomFilter(long expectedInsertions, double falsePositiveRate, long generationMillis, long nowMillis) {
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        this.generationMillis = generationMillis;
+        this.current = newGeneration(nowMillis);
+        this.previous = newGeneration(nowMillis);
+    }
+
+    boolean mightContain(String key, long nowMillis) {
+        rotateIfDue(nowMillis);
+        long hash = hash(key);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    void put(String key, long nowMillis) {
+        rotateIfDue(nowMillis);
+        long hash = hash(key);
+        AtomicLongArray words = current.words();
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            int bit = index(h1 + i * h2);
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            long value;
+            do {
+                value = words.get(word);
+                if ((value & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(word, value, value | mask));
+        }
+    }
+
+    private boolean contains(Generation generation, long hash) {
+        AtomicLongArray words = generation.words();
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotateIfDue(long nowMillis) {
+        if (nowMillis - current.startedAt() < generationMillis) {
+            return;
+        }
+        synchronized (this) {
+            if (nowMillis - current.startedAt() >= generationMillis) {
+                previous = current;
+                current = newGeneration(nowMillis);
+            }
+        }
+    }
+
+    private Generation newGeneration(long nowMillis) {
+        return new Generation(new AtomicLongArray((bits + 63) / 64), nowMillis);
+    }
+
+    private int index(int combined) {
+        return (combined & Integer.MAX_VALUE) % bits;
+    }
+
+    // FNV-1a 64 bit rồi trộn thêm (bước cuối của SplitMix64) để nửa trên và nửa dưới đủ độc lập cho double hashing
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
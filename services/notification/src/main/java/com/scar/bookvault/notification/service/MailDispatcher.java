@@ -0,0 +1,351 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Message;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gửi email bất đồng bộ qua một số kết nối SMTP giữ lâu.
+ *
+ * Listener Kafka chỉ đưa email vào hàng đợi có giới hạn; khi hàng đợi đầy, submit chờ cho tới khi
+ * có chỗ nên SMTP chậm sẽ làm chậm consumer thay vì làm đầy bộ nhớ. Mỗi worker giữ một Transport,
+ * lấy tối đa batch-size email mỗi lần và gửi tất cả trên cùng kết nối; kết nối được đóng sau
+ * idle-timeout không dùng và mở lại khi lỗi.
+ *
+ * Email chỉ được coi là đã giao (OutgoingEmail.onHandedOff, nơi caller ack event gốc) khi SMTP đã nhận
+ * hoặc retry topic đã xác nhận; email còn trong hàng đợi khi process chết thì event gốc chưa được ack
+ * và được Kafka giao lại.
+ */
+@Component
+public class MailDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailDispatcher.class);
+
+    static final String SENT = "sent";
+    static final String REJECTED = "rejected";
+    static final String FAILED = "failed";
+    static final String DROPPED = "dropped";
+
+    private static final long POLL_MILLIS = 200;
+    private static final long SHUTDOWN_SECONDS = 10;
+
+    private final JavaMailSenderImpl mailSender;
+    private final DeliveryFailurePublisher failurePublisher;
+    private final BlockingQueue<OutgoingEmail> queue;
+    private final int batchSize;
+    private final long idleTimeoutNanos;
+    private final InternetAddress from;
+    private final ExecutorService workers;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Counter connectionsOpened;
+    private volatile boolean running = true;
+
+    private final Map<String, Counter> statusCounters;
+    private final Timer enqueueTimer;
+    private final Timer sendTimer;
+    private final Timer deliveryTimer;
+    private final DistributionSummary batchSizes;
+
+    public MailDispatcher(JavaMailSenderImpl mailSender,
+                          DeliveryFailurePublisher failurePublisher,
+                          MeterRegistry meterRegistry,
+                          @Value("${notification.mail.queue-capacity:1000}") int queueCapacity,
+                          @Value("${notification.mail.connections:4}") int connections,
+                          @Value("${notification.mail.batch-size:50}") int batchSize,
+                          @Value("${notification.mail.idle-timeout:30s}") Duration idleTimeout,
+                          @Value("${notification.mail.from:}") String from) {
+        this.mailSender = mailSender;
+        this.failurePublisher = failurePublisher;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.from = parseFrom(from);
+
+        this.statusCounters = Map.of(
+                SENT, statusCounter(meterRegistry, SENT),
+                REJECTED, statusCounter(meterRegistry, REJECTED),
+                FAILED, statusCounter(meterRegistry, FAILED),
+                DROPPED, statusCounter(meterRegistry, DROPPED));
+        this.enqueueTimer = Timer.builder("notification.email.enqueue")
+                .description("Time the caller waited for room in the dispatch queue")
+                .register(meterRegistry);
+        this.sendTimer = Timer.builder("notification.email.send")
+                .description("SMTP time per message on an open connection")
+                .register(meterRegistry);
+        this.deliveryTimer = Timer.builder("notification.email.delivery")
+                .description("Time from submit to the SMTP server accepting the message")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("notification.email.batch.size")
+                .description("Messages sent per connection checkout")
+                .register(meterRegistry);
+        Gauge.builder("notification.email.queue.size", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("notification.email.queue.remaining", queue, BlockingQueue::remainingCapacity)
+                .register(meterRegistry);
+        Gauge.builder("notification.email.connections.open", openConnections, AtomicInteger::get)
+                .register(meterRegistry);
+        this.connectionsOpened = Counter.builder("notification.email.connections.opened")
+                .description("SMTP connections opened by the dispatcher workers")
+                .register(meterRegistry);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(connections,
+                r -> new Thread(r, "mail-dispatch-" + threadIndex.incrementAndGet()));
+        for (int i = 0; i < connections; i++) {
+            workers.execute(new Worker());
+        }
+    }
+
+    // Đưa email vào hàng đợi; chờ khi hàng đợi đầy (backpressure lên listener gọi tới).
+    // Ném lỗi khi email không vào được hàng đợi, để caller không ack một email chưa được nhận.
+    public void submit(OutgoingEmail email) {
+        long start = System.nanoTime();
+        boolean accepted = false;
+        try {
+            while (running && !accepted) {
+                accepted = queue.offer(email, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the mail queue", e);
+        } finally {
+            enqueueTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        // stop() bắt đầu ngay sau khi offer thành công: email chưa được worker lấy thì trả lại cho caller
+        if (!accepted || (!running && queue.remove(email))) {
+            throw new IllegalStateException("Mail dispatcher is shutting down");
+        }
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    // Dừng nhận email mới, gửi nốt hàng đợi trong tối đa SHUTDOWN_SECONDS, phần còn lại tính là dropped và
+    // được chuyển sang retry topic
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+            workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        }
+        List<OutgoingEmail> left = new ArrayList<>();
+        queue.drainTo(left);
+        if (!left.isEmpty()) {
+            statusCounters.get(DROPPED).increment(left.size());
+            logger.warn("Moving {} queued emails to the retry topic on shutdown", left.size());
+            left.forEach(this::retryLater);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private Transport transport;
+        private long lastUsedNanos;
+
+        @Override
+        public void run() {
+            List<OutgoingEmail> batch = new ArrayList<>(batchSize);
+            try {
+                while (running || !queue.isEmpty()) {
+                    OutgoingEmail first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (transport != null && System.nanoTime() - lastUsedNanos > idleTimeoutNanos) {
+                            close();
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    batchSizes.record(batch.size());
+                    for (OutgoingEmail email : batch) {
+                        record(email, send(email));
+                    }
+                    batch.clear();
+                    lastUsedNanos = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        // Thử lại một lần trên kết nối mới nếu kết nối hiện tại bị server đóng hoặc lỗi
+        private String send(OutgoingEmail email) {
+            MimeMessage message;
+            try {
+                message = toMimeMessage(email);
+            } catch (MessagingException e) {
+                logger.warn("Invalid email to {}: {}", email.to(), e.getMessage());
+                return REJECTED;
+            }
+            for (int attempt = 1; attempt <= 2; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    connected().sendMessage(message, message.getAllRecipients());
+                    sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    return SENT;
+                } catch (SendFailedException e) {
+                    // Server từ chối người nhận, gửi lại cũng vậy
+                    logger.warn("SMTP rejected email to {}: {}", email.to(), e.getMessage());
+                    return REJECTED;
+                } catch (MessagingException e) {
+                    logger.warn("Failed to send email to {} (attempt {}): {}", email.to(), attempt, e.getMessage());
+                    close();
+                }
+            }
+            return FAILED;
+        }
+
+        private Transport connected() throws MessagingException {
+            if (transport != null && transport.isConnected()) {
+                return transport;
+            }
+            close();
+            Transport opened = mailSender.getSession().getTransport(protocol());
+            opened.connect(mailSender.getHost(), mailSender.getPort(), blankToNull(mailSender.getUsername()),
+                    blankToNull(mailSender.getPassword()));
+            transport = opened;
+            openConnections.incrementAndGet();
+            connectionsOpened.increment();
+            return transport;
+        }
+
+        private void close() {
+            if (transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.debug("Error closing SMTP connection: {}", e.getMessage());
+            } finally {
+                transport = null;
+                openConnections.decrementAndGet();
+            }
+        }
+    }
+
+    // Lỗi kết nối/tạm thời được chuyển sang retry topic; bị từ chối thì gửi lại cũng vô ích nên cũng
+    // coi là đã giao xong
+    private void record(OutgoingEmail email, String status) {
+        statusCounters.get(status).increment();
+        if (FAILED.equals(status)) {
+            retryLater(email);
+            return;
+        }
+        if (SENT.equals(status)) {
+            deliveryTimer.record(System.nanoTime() - email.submittedAtNanos(), TimeUnit.NANOSECONDS);
+        }
+        complete(email.onHandedOff(), email);
+    }
+
+    // Event gốc chỉ được ack khi broker đã nhận email. Retry topic cũng lỗi thì event gốc không được ack:
+    // Kafka giao lại nó sau khi partition được gán lại hoặc service khởi động lại.
+    void retryLater(OutgoingEmail email) {
+        try {
+            failurePublisher.retryEmail(email);
+        } catch (IllegalStateException e) {
+            logger.error("Email to {} left unacknowledged for redelivery: {}", email.to(), e.getMessage());
+            complete(email.onLost(), email);
+            return;
+        }
+        complete(email.onHandedOff(), email);
+    }
+
+    // Callback của caller chạy trên thread worker; lỗi của nó không được làm dừng worker
+    static void complete(Runnable callback, OutgoingEmail email) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            logger.error("Completion of email to {} failed: {}", email.to(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gửi đồng bộ trên một kết nối riêng, dùng cho các lần thử lại từ retry topic. Lỗi tạo message
+     * ném MailPreparationException (không nên thử lại), lỗi gửi ném MailException khác.
+     */
+    public void sendNow(OutgoingEmail email) {
+        MimeMessage message;
+        try {
+            message = toMimeMessage(email);
+        } catch (MessagingException e) {
+            throw new MailPreparationException("Invalid email to " + email.to(), e);
+        }
+        mailSender.send(message);
+    }
+
+    private MimeMessage toMimeMessage(OutgoingEmail email) throws MessagingException {
+        Session session = mailSender.getSession();
+        MimeMessage message = new MimeMessage(session);
+        if (from != null) {
+            message.setFrom(from);
+        }
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(email.to(), true));
+        message.setSubject(email.subject(), StandardCharsets.UTF_8.name());
+        message.setText(email.body(), StandardCharsets.UTF_8.name());
+        message.setSentDate(new Date());
+        message.saveChanges();
+        return message;
+    }
+
+    private String protocol() {
+        return mailSender.getProtocol() != null ? mailSender.getProtocol() : JavaMailSenderImpl.DEFAULT_PROTOCOL;
+    }
+
+    private static Counter statusCounter(MeterRegistry meterRegistry, String status) {
+        return Counter.builder("notification.email")
+                .description("Emails handled by the dispatcher by final status")
+                .tag("status", status)
+                .register(meterRegistry);
+    }
+
+    private static InternetAddress parseFrom(String from) {
+        if (from == null || from.isBlank()) {
+            return null;
+        }
+        try {
+            return new InternetAddress(from, true);
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Invalid notification.mail.from: " + from, e);
+        }
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+}
@@ -0,0 +1,172 @@
+package com.scar.bookvault.notification.service;
+
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Lịch sử thông báo trong collection notifications.
+ *
+ * Mọi truy vấn sắp xếp theo (createdAt, _id) giảm dần và phân trang bằng cursor là (createdAt, _id)
+ * của phần tử cuối trang trước, nên mỗi trang chỉ quét đúng số phần tử trả về trên index tương ứng
+ * dù collection lớn đến đâu. Index và TTL được tạo khi khởi động.
+ */
+@Service
+public class NotificationHistory {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationHistory.class);
+
+    static final String TTL_INDEX = "createdAt_ttl";
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration retention;
+    private final int maxLimit;
+
+    public NotificationHistory(MongoTemplate mongoTemplate,
+                               @Value("${notification.history.retention:180d}") Duration retention,
+                               @Value("${notification.history.max-page-size:100}") int maxLimit) {
+        this.mongoTemplate = mongoTemplate;
+        this.retention = retention;
+        this.maxLimit = maxLimit;
+    }
+
+    @PostConstruct
+    void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps(NotificationWriter.COLLECTION);
+        for (String field : List.of("userId", "email", "type")) {
+            indexOps.ensureIndex(new Index()
+                    .on(field, Sort.Direction.ASC)
+                    .on("createdAt", Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC)
+                    .named(field + "_history"));
+        }
+        indexOps.ensureIndex(new Index()
+                .on("createdAt", Sort.Direction.DESC)
+                .on("_id", Sort.Direction.DESC)
+                .named("history"));
+        ensureTtl(indexOps);
+        convertLegacyCreatedAt();
+    }
+
+    // Đổi retention thì sửa expireAfterSeconds bằng collMod, vì ensureIndex với option khác sẽ lỗi
+    private void ensureTtl(IndexOperations indexOps) {
+        Optional<IndexInfo> existing = indexOps.getIndexInfo().stream()
+                .filter(info -> TTL_INDEX.equals(info.getName()))
+                .findFirst();
+        if (existing.isEmpty()) {
+            indexOps.ensureIndex(new Index().on("createdAt", Sort.Direction.ASC).named(TTL_INDEX).expire(retention));
+            return;
+        }
+        if (!existing.get().getExpireAfter().map(retention::equals).orElse(false)) {
+            mongoTemplate.executeCommand(new Document("collMod", NotificationWriter.COLLECTION)
+                    .append("index", new Document("name", TTL_INDEX).append("expireAfterSeconds", retention.toSeconds())));
+            logger.info("Notification retention changed to {}", retention);
+        }
+    }
+
+    // Bản ghi cũ lưu createdAt dạng chuỗi ISO: TTL bỏ qua và cursor không so sánh được, nên đổi sang Date
+    private void convertLegacyCreatedAt() {
+        long converted = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("createdAt").type(2)),
+                AggregationUpdate.update().set("createdAt").toValue(
+                        ConvertOperators.Convert.convertValueOf("createdAt").to("date").onErrorReturnValueOf("createdAt")),
+                NotificationWriter.COLLECTION).getModifiedCount();
+        if (converted > 0) {
+            logger.info("Converted createdAt of {} notifications to dates", converted);
+        }
+    }
+
+    /**
+     * Một trang lịch sử, mới nhất trước. Các filter null bị bỏ qua; cursor là nextCursor của trang trước.
+     */
+    public NotificationPage page(Long userId, String email, String type, String cursor, Integer limit) {
+        int size = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, maxLimit));
+        Criteria criteria = new Criteria();
+        List<Criteria> filters = new ArrayList<>();
+        if (userId != null) {
+            filters.add(Criteria.where("userId").is(userId));
+        }
+        if (email != null && !email.isBlank()) {
+            filters.add(Criteria.where("email").is(email));
+        }
+        if (type != null && !type.isBlank()) {
+            filters.add(Criteria.where("type").is(type));
+        }
+        if (cursor != null && !cursor.isBlank()) {
+            filters.add(after(Cursor.parse(cursor)));
+        }
+        if (!filters.isEmpty()) {
+            criteria.andOperator(filters);
+        }
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "createdAt", "_id"))
+                .limit(size + 1);
+
+        List<Map> docs = mongoTemplate.find(query, Map.class, NotificationWriter.COLLECTION);
+        String nextCursor = null;
+        if (docs.size() > size) {
+            docs = docs.subList(0, size);
+            Map last = docs.get(size - 1);
+            nextCursor = Cursor.of(last).toString();
+        }
+        List<Map<String, Object>> items = new ArrayList<>(docs.size());
+        for (Map doc : docs) {
+            Map<String, Object> item = new LinkedHashMap<>(doc);
+            item.put("_id", doc.get("_id").toString());
+            items.add(item);
+        }
+        return new NotificationPage(items, nextCursor);
+    }
+
+    // (createdAt, _id) < cursor theo thứ tự sắp xếp giảm dần
+    private static Criteria after(Cursor cursor) {
+        return new Criteria().orOperator(
+                Criteria.where("createdAt").lt(cursor.createdAt()),
+                Criteria.where("createdAt").is(cursor.createdAt()).and("_id").lt(cursor.id()));
+    }
+
+    record Cursor(Date createdAt, ObjectId id) {
+
+        // createdAt không phải Date (chuỗi không đổi được) thì dùng thời điểm trong ObjectId
+        static Cursor of(Map doc) {
+            ObjectId id = (ObjectId) doc.get("_id");
+            return new Cursor(doc.get("createdAt") instanceof Date date ? date : id.getDate(), id);
+        }
+
+        static Cursor parse(String value) {
+            int separator = value.indexOf('-');
+            try {
+                return new Cursor(new Date(Long.parseLong(value.substring(0, separator))), new ObjectId(value.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + value, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return createdAt.getTime() + "-" + id.toHexString();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.scar.bookvault.notification.service;
+
+import java.util.List;
+import java.util.Map;
+
+// nextCursor null khi đã tới trang cuối
+public record NotificationPage(List<Map<String, Object>> items, String nextCursor) {
+}
@@ -0,0 +1,84 @@
+package com.scar.bookvault.notification.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Tùy chọn nhận thông báo của từng người dùng trong collection notification_preferences (_id là userId).
+ *
+ * Mỗi event đều hỏi tùy chọn của người nhận nên kết quả được nhớ trong bộ nhớ tối đa cache-ttl;
+ * thay đổi qua instance này có hiệu lực ngay, ở instance khác sau tối đa cache-ttl.
+ */
+@Service
+public class NotificationPreferences {
+
+    static final String COLLECTION = "notification_preferences";
+
+    private final MongoTemplate mongoTemplate;
+    private final long cacheTtlNanos;
+    private final int maxCached;
+    private final LongSupplier nanoClock;
+    private final Map<Long, Cached> cache;
+
+    private record Cached(boolean digest, long loadedAtNanos) {
+    }
+
+    public NotificationPreferences(MongoTemplate mongoTemplate,
+                                   @Value("${notification.preferences.cache-ttl:1m}") Duration cacheTtl,
+                                   @Value("${notification.preferences.cache-size:100000}") int maxCached) {
+        this(mongoTemplate, cacheTtl, maxCached, System::nanoTime);
+    }
+
+    NotificationPreferences(MongoTemplate mongoTemplate, Duration cacheTtl, int maxCached, LongSupplier nanoClock) {
+        this.mongoTemplate = mongoTemplate;
+        this.cacheTtlNanos = cacheTtl.toNanos();
+        this.maxCached = maxCached;
+        this.nanoClock = nanoClock;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > NotificationPreferences.this.maxCached;
+            }
+        };
+    }
+
+    // Người dùng chưa có tùy chọn thì nhận từng email như trước
+    public boolean digestEnabled(Long userId) {
+        if (userId == null) {
+            return false;
+        }
+        long now = nanoClock.getAsLong();
+        synchronized (cache) {
+            Cached cached = cache.get(userId);
+            if (cached != null && now - cached.loadedAtNanos() < cacheTtlNanos) {
+                return cached.digest();
+            }
+        }
+        Map doc = mongoTemplate.findById(userId, Map.class, COLLECTION);
+        boolean digest = doc != null && Boolean.TRUE.equals(doc.get("digest"));
+        remember(userId, digest, now);
+        return digest;
+    }
+
+    public void setDigest(Long userId, boolean digest) {
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(userId)),
+                new Update().set("digest", digest).set("updatedAt", new Date()), COLLECTION);
+        remember(userId, digest, nanoClock.getAsLong());
+    }
+
+    private void remember(Long userId, boolean digest, long now) {
+        synchronized (cache) {
+            cache.put(userId, new Cached(digest, now));
+        }
+    }
+}
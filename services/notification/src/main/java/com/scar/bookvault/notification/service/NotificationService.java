@@ -1,28 +1,46 @@
 package com.scar.bookvault.notification.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.data.mongodb.core.MongoTemplate;
+import com.scar.bookvault.notification.service.NotificationTemplates.RenderedEmail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
-import java.time.OffsetDateTime;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 @Service
 public class NotificationService {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
+
     private final EmailService emailService;
     private final ObjectMapper objectMapper;
-    private final MongoTemplate mongoTemplate;
+    private final NotificationWriter notificationWriter;
+    private final DigestService digestService;
+    private final DeliveryFailurePublisher failurePublisher;
+    private final EventDeduplicator deduplicator;
+    private final PushGateway pushGateway;
+    private final NotificationTemplates templates;
 
-    public NotificationService(EmailService emailService, ObjectMapper objectMapper, MongoTemplate mongoTemplate) {
+    public NotificationService(EmailService emailService, ObjectMapper objectMapper, NotificationWriter notificationWriter,
+                               DigestService digestService, DeliveryFailurePublisher failurePublisher,
+                               EventDeduplicator deduplicator, PushGateway pushGateway, NotificationTemplates templates) {
         this.emailService = emailService;
         this.objectMapper = objectMapper;
-        this.mongoTemplate = mongoTemplate;
+        this.notificationWriter = notificationWriter;
+        this.digestService = digestService;
+        this.failurePublisher = failurePublisher;
+        this.deduplicator = deduplicator;
+        this.pushGateway = pushGateway;
+        this.templates = templates;
     }
 
-    @KafkaListener(topics = "loan.created", groupId = "notification-service")
-    public void handleLoanCreated(String message) {
+    @KafkaListener(topics = "loan.created", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.loan-created:3}")
+    public void handleLoanCreated(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             Long userId = Long.parseLong(event.get("userId").toString());
@@ -30,32 +48,20 @@ public class NotificationService {
             String bookTitle = (String) event.getOrDefault("bookTitle", "Unknown Book");
             String dueDate = (String) event.getOrDefault("dueDate", "Unknown");
             
-            String subject = "Loan Created Successfully - BookVault";
-            String body = String.format(
-                "Dear User,\n\n" +
-                "Your loan has been created successfully!\n\n" +
-                "Book: %s\n" +
-                "Due Date: %s\n\n" +
-                "Please return the book by the due date to avoid any fines.\n\n" +
-                "Thank you for using BookVault!",
-                bookTitle, dueDate
-            );
+            RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_CREATED, templates.locale(event.get("locale")),
+                    Map.of("bookTitle", bookTitle, "dueDate", dueDate));
             
-            emailService.sendEmail(email, subject, body);
-            Map<String, Object> doc = new HashMap<>();
-            doc.put("type", "LOAN_CREATED");
-            doc.put("email", email);
-            doc.put("subject", subject);
-            doc.put("body", body);
-            doc.put("createdAt", OffsetDateTime.now().toString());
-            mongoTemplate.save(doc, "notifications");
+            deliver("LOAN_CREATED", userId, email, rendered.subject(), rendered.body(), event.get("loanId"), null, ack);
         } catch (Exception e) {
-            System.err.println("Error processing loan.created event: " + e.getMessage());
+            logger.error("Error processing loan.created event: {}", e.getMessage(), e);
+            // Event không xử lý được vào DLT để replay sau; chỉ ack khi DLT đã nhận
+            failurePublisher.deadLetter("loan.created", message, e, ack::acknowledge);
         }
     }
 
-    @KafkaListener(topics = "loan.overdue", groupId = "notification-service")
-    public void handleLoanOverdue(String message) {
+    @KafkaListener(topics = "loan.overdue", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.loan-overdue:6}")
+    public void handleLoanOverdue(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             Long userId = Long.parseLong(event.get("userId").toString());
@@ -63,64 +69,39 @@ public class NotificationService {
             String bookTitle = (String) event.getOrDefault("bookTitle", "Unknown Book");
             Integer overdueDays = Integer.parseInt(event.getOrDefault("overdueDays", "0").toString());
             
-            String subject = "Loan Overdue Reminder - BookVault";
-            String body = String.format(
-                "Dear User,\n\n" +
-                "Your loan is overdue by %d days!\n\n" +
-                "Book: %s\n\n" +
-                "Please return the book as soon as possible to avoid additional fines.\n\n" +
-                "If you have already returned the book, please ignore this message.\n\n" +
-                "Thank you for using BookVault!",
-                overdueDays, bookTitle
-            );
+            RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_OVERDUE, templates.locale(event.get("locale")),
+                    Map.of("bookTitle", bookTitle, "overdueDays", overdueDays));
             
-            emailService.sendEmail(email, subject, body);
-            Map<String, Object> doc = new HashMap<>();
-            doc.put("type", "LOAN_OVERDUE");
-            doc.put("email", email);
-            doc.put("subject", subject);
-            doc.put("body", body);
-            doc.put("createdAt", OffsetDateTime.now().toString());
-            mongoTemplate.save(doc, "notifications");
+            // Mỗi mức quá hạn là một thông báo riêng
+            deliver("LOAN_OVERDUE", userId, email, rendered.subject(), rendered.body(), event.get("loanId"), overdueDays.toString(), ack);
         } catch (Exception e) {
-            System.err.println("Error processing loan.overdue event: " + e.getMessage());
+            logger.error("Error processing loan.overdue event: {}", e.getMessage(), e);
+            failurePublisher.deadLetter("loan.overdue", message, e, ack::acknowledge);
         }
     }
 
-    @KafkaListener(topics = "loan.returned", groupId = "notification-service")
-    public void handleLoanReturned(String message) {
+    @KafkaListener(topics = "loan.returned", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.loan-returned:3}")
+    public void handleLoanReturned(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             Long userId = Long.parseLong(event.get("userId").toString());
             String email = (String) event.getOrDefault("email", "user@example.com");
             String bookTitle = (String) event.getOrDefault("bookTitle", "Unknown Book");
             
-            String subject = "Book Returned Successfully - BookVault";
-            String body = String.format(
-                "Dear User,\n\n" +
-                "Thank you for returning the book!\n\n" +
-                "Book: %s\n\n" +
-                "Your loan has been completed successfully. We hope you enjoyed reading the book.\n\n" +
-                "Feel free to borrow more books from our library.\n\n" +
-                "Thank you for using BookVault!",
-                bookTitle
-            );
+            RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_RETURNED, templates.locale(event.get("locale")),
+                    Map.of("bookTitle", bookTitle));
             
-            emailService.sendEmail(email, subject, body);
-            Map<String, Object> doc = new HashMap<>();
-            doc.put("type", "LOAN_RETURNED");
-            doc.put("email", email);
-            doc.put("subject", subject);
-            doc.put("body", body);
-            doc.put("createdAt", OffsetDateTime.now().toString());
-            mongoTemplate.save(doc, "notifications");
+            deliver("LOAN_RETURNED", userId, email, rendered.subject(), rendered.body(), event.get("loanId"), null, ack);
         } catch (Exception e) {
-            System.err.println("Error processing loan.returned event: " + e.getMessage());
+            logger.error("Error processing loan.returned event: {}", e.getMessage(), e);
+            failurePublisher.deadLetter("loan.returned", message, e, ack::acknowledge);
         }
     }
 
-    @KafkaListener(topics = "loan.due.reminder", groupId = "notification-service")
-    public void handleLoanDueReminder(String message) {
+    @KafkaListener(topics = "loan.due.reminder", groupId = "notification-service",
+            concurrency = "${notification.kafka.concurrency.loan-due-reminder:3}")
+    public void handleLoanDueReminder(String message, Acknowledgment ack) {
         try {
             Map<String, Object> event = objectMapper.readValue(message, Map.class);
             Long userId = Long.parseLong(event.get("userId").toString());
@@ -129,39 +110,70 @@ public class NotificationService {
             String dueDate = (String) event.getOrDefault("dueDate", "Unknown");
             Integer daysUntilDue = Integer.parseInt(event.getOrDefault("daysUntilDue", "0").toString());
             
-            String subject = "Loan Due Reminder - BookVault";
-            String body = String.format(
-                "Dear User,\n\n" +
-                "This is a reminder that your loan is due in %d days.\n\n" +
-                "Book: %s\n" +
-                "Due Date: %s\n\n" +
-                "Please make sure to return the book on time to avoid any fines.\n\n" +
-                "If you need more time, please contact the library to extend your loan.\n\n" +
-                "Thank you for using BookVault!",
-                daysUntilDue, bookTitle, dueDate
-            );
+            RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_DUE_REMINDER, templates.locale(event.get("locale")),
+                    Map.of("bookTitle", bookTitle, "dueDate", dueDate, "daysUntilDue", daysUntilDue));
             
-            emailService.sendEmail(email, subject, body);
-            Map<String, Object> doc = new HashMap<>();
-            doc.put("type", "LOAN_DUE_REMINDER");
-            doc.put("email", email);
-            doc.put("subject", subject);
-            doc.put("body", body);
-            doc.put("createdAt", OffsetDateTime.now().toString());
-            mongoTemplate.save(doc, "notifications");
+            deliver("LOAN_DUE_REMINDER", userId, email, rendered.subject(), rendered.body(), event.get("loanId"), dueDate + ":" + daysUntilDue, ack);
         } catch (Exception e) {
-            System.err.println("Error processing loan.due.reminder event: " + e.getMessage());
+            logger.error("Error processing loan.due.reminder event: {}", e.getMessage(), e);
+            failurePublisher.deadLetter("loan.due.reminder", message, e, ack::acknowledge);
         }
     }
 
     public void sendEmailNotification(String to, String subject, String body) {
         emailService.sendEmail(to, subject, body);
+        notificationWriter.write(notificationDoc("EMAIL", null, to, subject, body));
+    }
+
+    // Offset chỉ được commit sau khi bản ghi (hoặc dòng trong digest) và idempotency key đã nằm trong Mongo,
+    // và với email gửi ngay, sau khi SMTP hoặc retry topic đã nhận email
+    private void deliver(String type, Long userId, String email, String subject, String body, Object loanId, String step,
+                         Acknowledgment ack) {
+        String key = eventKey(type, loanId, step);
+        if (deduplicator.alreadyProcessed(key)) {
+            ack.acknowledge();
+            return;
+        }
+        try {
+            // Thông báo in-app luôn được đẩy ngay, kể cả khi email của loại này đi theo digest
+            pushGateway.publish(userId, type, loanId, subject, body);
+            if (digestService.accepts(type, userId)) {
+                digestService.stage(type, userId, email, subject, body, loanId == null ? null : loanId.toString(),
+                        deduplicator.record(key, ack::acknowledge));
+                return;
+            }
+            // Key chỉ được ghi khi email đã rời hàng đợi trong bộ nhớ: event được giao lại sau khi process chết
+            // giữa chừng không bị coi là trùng. Email không giao được thì key được trả lại như khi vào DLT.
+            Map<String, Object> doc = notificationDoc(type, userId, email, subject, body);
+            emailService.sendEmail(email, subject, body,
+                    () -> notificationWriter.write(doc, deduplicator.record(key, ack::acknowledge)),
+                    () -> deduplicator.release(key));
+        } catch (RuntimeException e) {
+            // Event vào DLT trước khi key được ghi, nên lần replay không bị coi là trùng
+            deduplicator.release(key);
+            throw e;
+        }
+    }
+
+    // Event không có loanId thì không có danh tính ổn định, luôn được xử lý
+    static String eventKey(String type, Object loanId, String step) {
+        if (loanId == null) {
+            return null;
+        }
+        return step == null ? type + ":" + loanId : type + ":" + loanId + ":" + step;
+    }
+
+    private static Map<String, Object> notificationDoc(String type, Long userId, String email, String subject, String body) {
         Map<String, Object> doc = new HashMap<>();
-        doc.put("type", "EMAIL");
-        doc.put("email", to);
+        doc.put("type", type);
+        if (userId != null) {
+            doc.put("userId", userId);
+        }
+        doc.put("email", email);
         doc.put("subject", subject);
         doc.put("body", body);
-        doc.put("createdAt", OffsetDateTime.now().toString());
-        mongoTemplate.save(doc, "notifications");
+        // Kiểu Date để TTL index và sắp xếp theo thời gian hoạt động
+        doc.put("createdAt", new Date());
+        return doc;
     }
 }
@@ -0,0 +1,109 @@
+package com.scar.bookvault.notification.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Dựng tiêu đề và nội dung email thông báo từ template Thymeleaf trong templates/email/{locale}/.
+ *
+ * Mỗi template (theo loại và ngôn ngữ) được parse một lần lúc khởi động và giữ trong cache của
+ * TemplateEngine; mỗi lần render chỉ còn đánh giá biểu thức. Output được ghi vào bộ đệm riêng của
+ * từng thread, dùng lại giữa các lần render.
+ */
+@Component
+public class NotificationTemplates {
+
+    public static final String LOAN_CREATED = "loan-created";
+    public static final String LOAN_OVERDUE = "loan-overdue";
+    public static final String LOAN_RETURNED = "loan-returned";
+    public static final String LOAN_DUE_REMINDER = "loan-due-reminder";
+
+    static final List<String> TEMPLATES = List.of(LOAN_CREATED, LOAN_OVERDUE, LOAN_RETURNED, LOAN_DUE_REMINDER);
+    static final List<Locale> LOCALES = List.of(Locale.ENGLISH, Locale.forLanguageTag("vi"));
+
+    // Bộ đệm lớn bất thường không được giữ lại cho thread
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private final TemplateEngine engine;
+    private final ResourceBundleMessageSource subjects;
+    private final Locale defaultLocale;
+    private final ThreadLocal<StringWriter> buffers = ThreadLocal.withInitial(() -> new StringWriter(1024));
+
+    public record RenderedEmail(String subject, String body) {
+    }
+
+    public NotificationTemplates(@Value("${notification.templates.default-locale:en}") String defaultLocale) {
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/email/");
+        resolver.setSuffix(".txt");
+        resolver.setTemplateMode(TemplateMode.TEXT);
+        resolver.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resolver.setCacheable(true);
+        this.engine = new TemplateEngine();
+        engine.setTemplateResolver(resolver);
+
+        this.subjects = new ResourceBundleMessageSource();
+        subjects.setBasename("templates/email/subjects");
+        subjects.setDefaultEncoding(StandardCharsets.UTF_8.name());
+        subjects.setFallbackToSystemLocale(false);
+
+        this.defaultLocale = match(Locale.forLanguageTag(defaultLocale), Locale.ENGLISH);
+    }
+
+    // Parse sẵn mọi template để lần gửi đầu không chịu chi phí parse, và thiếu file thì lỗi ngay khi khởi động
+    @PostConstruct
+    void warmUp() {
+        for (Locale locale : LOCALES) {
+            for (String template : TEMPLATES) {
+                render(template, locale, Map.of());
+            }
+        }
+    }
+
+    public RenderedEmail render(String template, Locale locale, Map<String, Object> variables) {
+        Locale resolved = supported(locale);
+        StringWriter buffer = buffers.get();
+        buffer.getBuffer().setLength(0);
+        engine.process(resolved.getLanguage() + "/" + template, new Context(resolved, variables), buffer);
+        String body = buffer.toString();
+        if (buffer.getBuffer().capacity() > MAX_RETAINED_BUFFER) {
+            buffers.remove();
+        }
+        return new RenderedEmail(subjects.getMessage(template, null, resolved), body);
+    }
+
+    /**
+     * Ngôn ngữ của người nhận theo tag trong event (ví dụ "vi", "en-US"); không có hoặc chưa có
+     * template cho ngôn ngữ đó thì dùng ngôn ngữ mặc định.
+     */
+    public Locale locale(Object languageTag) {
+        return languageTag == null ? defaultLocale : supported(Locale.forLanguageTag(languageTag.toString()));
+    }
+
+    private Locale supported(Locale locale) {
+        return match(locale, defaultLocale);
+    }
+
+    private static Locale match(Locale locale, Locale fallback) {
+        if (locale != null) {
+            for (Locale candidate : LOCALES) {
+                if (candidate.getLanguage().equals(locale.getLanguage())) {
+                    return candidate;
+                }
+            }
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,280 @@
+package com.scar.bookvault.notification.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ghi document vào collection notifications (và upsert vào collection khác, như staging của digest)
+ * theo kiểu write-behind.
+ *
+ * Document được gom trong buffer có giới hạn và ghi bằng một bulk insert unordered khi đủ
+ * batch-size hoặc sau flush-interval kể từ document đầu tiên của batch. Callback onDurable (thường
+ * là ack Kafka) chỉ chạy khi insert của document đó đã thành công, nên offset không được commit
+ * trước khi dữ liệu nằm trong Mongo. Batch lỗi được giữ lại và thử lại; buffer đầy thì write chặn
+ * listener gọi tới.
+ */
+@Component
+public class NotificationWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationWriter.class);
+
+    static final String COLLECTION = "notifications";
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long OFFER_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final long SHUTDOWN_MILLIS = 10_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final BlockingQueue<Pending> buffer;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+    private final Counter retries;
+
+    // doc cho insert, query/update cho upsert
+    private record Pending(String collection, Map<String, Object> doc, Query query, Update update, Runnable onDurable) {
+    }
+
+    public NotificationWriter(MongoTemplate mongoTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${notification.store.batch-size:500}") int batchSize,
+                              @Value("${notification.store.flush-interval:200ms}") Duration flushInterval,
+                              @Value("${notification.store.buffer-capacity:5000}") int bufferCapacity) {
+        this.mongoTemplate = mongoTemplate;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+
+        this.flushTimer = Timer.builder("notification.store.flush")
+                .description("Bulk write of buffered notification operations")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("notification.store.batch.size")
+                .description("Operations per flush")
+                .register(meterRegistry);
+        this.retries = Counter.builder("notification.store.retries")
+                .description("Flushes retried after a failure")
+                .register(meterRegistry);
+        Gauge.builder("notification.store.buffer.size", buffer, BlockingQueue::size)
+                .register(meterRegistry);
+
+        this.flusher = new Thread(this::run, "notification-writer");
+        flusher.start();
+    }
+
+    /**
+     * Đưa document vào buffer; onDurable chạy trên thread flush sau khi document đã được ghi.
+     * Nếu writer đang dừng, document không được nhận và onDurable không bao giờ chạy, để Kafka
+     * giao lại record sau khi khởi động lại.
+     */
+    public void write(Map<String, Object> doc, Runnable onDurable) {
+        // _id gán trước để thử lại sau lỗi không rõ kết quả không tạo bản ghi trùng
+        doc.putIfAbsent("_id", new ObjectId());
+        if (!enqueue(new Pending(COLLECTION, doc, null, null, onDurable))) {
+            logger.warn("Notification writer is stopping, document {} not stored", doc.get("_id"));
+        }
+    }
+
+    public void write(Map<String, Object> doc) {
+        write(doc, () -> {
+        });
+    }
+
+    /**
+     * Upsert vào collection bất kỳ qua cùng buffer; update phải idempotent vì có thể được thử lại.
+     */
+    public void upsert(String collection, Query query, Update update, Runnable onDurable) {
+        if (!enqueue(new Pending(collection, null, query, update, onDurable))) {
+            logger.warn("Notification writer is stopping, upsert into {} not applied", collection);
+        }
+    }
+
+    private boolean enqueue(Pending pending) {
+        try {
+            while (running) {
+                if (buffer.offer(pending, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join(SHUTDOWN_MILLIS);
+        if (flusher.isAlive()) {
+            flusher.interrupt();
+            flusher.join(SHUTDOWN_MILLIS);
+        }
+        if (!buffer.isEmpty()) {
+            logger.warn("{} notification documents not stored on shutdown", buffer.size());
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !buffer.isEmpty()) {
+                fill(batch);
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Chờ document đầu tiên, sau đó gom thêm tới khi đủ batchSize hoặc hết flushInterval; khi đang dừng thì ghi ngay
+    private void fill(List<Pending> batch) throws InterruptedException {
+        Pending first = buffer.poll(OFFER_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                return;
+            }
+            // Chờ từng đoạn ngắn để stop() không phải đợi hết flushInterval
+            Pending next = buffer.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(OFFER_MILLIS)), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    // Thử lại tới khi thành công; khi đang dừng chỉ thử tới hết thời gian shutdown, phần còn lại không được ack
+    private void flush(List<Pending> batch) throws InterruptedException {
+        List<Pending> pending = new ArrayList<>(batch);
+        long backoff = 100;
+        long giveUpAt = Long.MAX_VALUE;
+        while (true) {
+            pending = insert(pending);
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (!running) {
+                giveUpAt = Math.min(giveUpAt, System.currentTimeMillis() + SHUTDOWN_MILLIS / 2);
+                if (System.currentTimeMillis() >= giveUpAt) {
+                    logger.warn("Giving up on {} notification documents during shutdown", pending.size());
+                    return;
+                }
+            }
+            retries.increment();
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    // Trả về những thao tác cần ghi lại
+    private List<Pending> insert(List<Pending> pending) {
+        Map<String, List<Pending>> byCollection = new LinkedHashMap<>();
+        for (Pending p : pending) {
+            byCollection.computeIfAbsent(p.collection(), c -> new ArrayList<>()).add(p);
+        }
+        batchSizes.record(pending.size());
+        long start = System.nanoTime();
+        List<Pending> retry = new ArrayList<>();
+        byCollection.forEach((collection, ops) -> retry.addAll(execute(collection, ops)));
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return retry;
+    }
+
+    // Một bulk unordered cho mỗi collection: các insert trước (một lệnh insert nhiều document), upsert sau
+    private List<Pending> execute(String collection, List<Pending> pending) {
+        List<Pending> ops = new ArrayList<>(pending.size());
+        List<Map<String, Object>> docs = new ArrayList<>();
+        for (Pending p : pending) {
+            if (p.update() == null) {
+                ops.add(p);
+                docs.add(p.doc());
+            }
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkMode.UNORDERED, collection);
+        if (!docs.isEmpty()) {
+            bulk.insert(docs);
+        }
+        for (Pending p : pending) {
+            if (p.update() != null) {
+                ops.add(p);
+                bulk.upsert(p.query(), p.update());
+            }
+        }
+
+        Set<Integer> failed = new HashSet<>();
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                // Insert trùng _id nghĩa là lần thử trước đã ghi; upsert trùng khóa thì chưa được áp dụng
+                if (error.getCode() != DUPLICATE_KEY || ops.get(error.getIndex()).update() != null) {
+                    failed.add(error.getIndex());
+                }
+            }
+            logger.warn("Bulk write of {} operations to {} had {} failures: {}", ops.size(), collection, failed.size(), e.getMessage());
+        } catch (DataAccessException e) {
+            logger.warn("Bulk write of {} operations to {} failed: {}", ops.size(), collection, e.getMessage());
+            return ops;
+        }
+
+        List<Pending> retry = new ArrayList<>(failed.size());
+        for (int i = 0; i < ops.size(); i++) {
+            Pending p = ops.get(i);
+            if (failed.contains(i)) {
+                retry.add(p);
+            } else {
+                acknowledge(p);
+            }
+        }
+        return retry;
+    }
+
+    private void acknowledge(Pending pending) {
+        try {
+            pending.onDurable().run();
+        } catch (RuntimeException e) {
+            logger.warn("Callback for write to {} failed: {}", pending.collection(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.scar.bookvault.notification.service;
+
+// Email chờ gửi trong hàng đợi của MailDispatcher; submittedAtNanos để đo độ trễ từ lúc nhận tới lúc gửi xong.
+// onHandedOff chạy khi email không còn chỉ nằm trong bộ nhớ của process: SMTP đã nhận (hoặc từ chối hẳn)
+// hoặc retry topic đã xác nhận; onLost chạy khi không được cả hai. Caller ack event gốc trong onHandedOff,
+// nên email còn trong hàng đợi lúc process dừng đột ngột được giao lại thay vì mất.
+public record OutgoingEmail(String to, String subject, String body, long submittedAtNanos,
+                            Runnable onHandedOff, Runnable onLost) {
+
+    private static final Runnable NONE = () -> {};
+
+    public OutgoingEmail(String to, String subject, String body) {
+        this(to, subject, body, NONE, NONE);
+    }
+
+    public OutgoingEmail(String to, String subject, String body, Runnable onHandedOff, Runnable onLost) {
+        this(to, subject, body, System.nanoTime(), onHandedOff, onLost);
+    }
+}
@@ -0,0 +1,144 @@
+package com.scar.bookvault.notification.service;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Một kết nối WebSocket cùng hàng đợi gửi có giới hạn của nó.
+ *
+ * offer không bao giờ chặn: hàng đợi đầy thì bỏ message cũ nhất. Mỗi lúc chỉ có một task trên
+ * executor gửi cho kết nối này (WebSocketSession không cho gửi đồng thời). Kết nối đang rảnh không
+ * giữ hàng đợi nào.
+ */
+final class PushConnection {
+
+    record Outbound(WebSocketMessage<?> message, long queuedAtNanos) {
+    }
+
+    interface SendListener {
+        void sent(Outbound outbound);
+    }
+
+    private final WebSocketSession session;
+    private final Long userId;
+    private final int capacity;
+    private final Executor executor;
+    private final SendListener listener;
+    private ArrayDeque<Outbound> pending;
+    private boolean draining;
+    private volatile long lastSeenNanos;
+
+    PushConnection(WebSocketSession session, Long userId, int capacity, Executor executor, SendListener listener) {
+        this.session = session;
+        this.userId = userId;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.listener = listener;
+        this.lastSeenNanos = System.nanoTime();
+    }
+
+    /**
+     * Đưa message vào hàng đợi; trả về true nếu phải bỏ một message cũ để có chỗ.
+     */
+    boolean offer(WebSocketMessage<?> message) {
+        boolean dropped = false;
+        boolean schedule = false;
+        synchronized (this) {
+            if (pending == null) {
+                pending = new ArrayDeque<>(Math.min(capacity, 4));
+            }
+            if (pending.size() >= capacity) {
+                pending.pollFirst();
+                dropped = true;
+            }
+            pending.addLast(new Outbound(message, System.nanoTime()));
+            if (!draining) {
+                draining = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Đang dừng: không còn ai gửi, bỏ hàng đợi
+                synchronized (this) {
+                    pending = null;
+                    draining = false;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    // Đang có frame chờ gửi thì không cần ping, và ping không được đẩy message thật ra khỏi hàng đợi
+    void ping(WebSocketMessage<?> ping) {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+        }
+        offer(ping);
+    }
+
+    void touch() {
+        lastSeenNanos = System.nanoTime();
+    }
+
+    long lastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    WebSocketSession session() {
+        return session;
+    }
+
+    Long userId() {
+        return userId;
+    }
+
+    void close(CloseStatus status) {
+        try {
+            executor.execute(() -> closeNow(status));
+        } catch (RejectedExecutionException e) {
+            closeNow(status);
+        }
+    }
+
+    private void closeNow(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException ignored) {
+            // Kết nối đã hỏng, không còn gì để đóng
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Outbound next;
+            synchronized (this) {
+                next = pending == null ? null : pending.pollFirst();
+                if (next == null) {
+                    pending = null;
+                    draining = false;
+                    return;
+                }
+            }
+            if (!session.isOpen()) {
+                continue;
+            }
+            try {
+                session.sendMessage(next.message());
+                listener.sent(next);
+            } catch (IOException | IllegalStateException e) {
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+    }
+}
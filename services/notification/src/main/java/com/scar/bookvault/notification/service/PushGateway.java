@@ -0,0 +1,181 @@
+package com.scar.bookvault.notification.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đẩy thông báo tới các kết nối WebSocket đang mở của người dùng trên node này.
+ *
+ * publish chỉ đưa message vào hàng đợi của từng kết nối và trả về ngay; việc gửi chạy trên virtual
+ * thread nên client chậm không giữ thread của listener Kafka, và kết nối rảnh không tốn thread nào.
+ * Heartbeat gửi ping định kỳ; kết nối không phản hồi sau stale-after bị đóng.
+ */
+@Component
+public class PushGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushGateway.class);
+
+    static final String QUEUED = "queued";
+    static final String DROPPED = "dropped";
+    static final String OFFLINE = "offline";
+
+    private static final PingMessage PING = new PingMessage(ByteBuffer.allocate(0));
+
+    private final ObjectMapper objectMapper;
+    private final int bufferCapacity;
+    private final long staleAfterNanos;
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, Set<PushConnection>> byUser = new ConcurrentHashMap<>();
+    private final Map<String, PushConnection> bySession = new ConcurrentHashMap<>();
+
+    private final Counter queued;
+    private final Counter dropped;
+    private final Counter offline;
+    private final Counter staleClosed;
+    private final Timer sendLatency;
+
+    public PushGateway(ObjectMapper objectMapper,
+                       MeterRegistry meterRegistry,
+                       @Value("${notification.push.buffer-capacity:32}") int bufferCapacity,
+                       @Value("${notification.push.stale-after:75s}") Duration staleAfter) {
+        this.objectMapper = objectMapper;
+        this.bufferCapacity = bufferCapacity;
+        this.staleAfterNanos = staleAfter.toNanos();
+
+        this.queued = pushCounter(meterRegistry, QUEUED);
+        this.dropped = pushCounter(meterRegistry, DROPPED);
+        this.offline = pushCounter(meterRegistry, OFFLINE);
+        this.staleClosed = Counter.builder("notification.push.stale.closed")
+                .description("WebSocket connections closed after missing heartbeats")
+                .register(meterRegistry);
+        this.sendLatency = Timer.builder("notification.push.latency")
+                .description("Time from publish to the frame being written to the connection")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("notification.push.connections", bySession, Map::size)
+                .description("Open in-app notification WebSocket connections")
+                .register(meterRegistry);
+        Gauge.builder("notification.push.users", byUser, Map::size)
+                .description("Users with at least one open WebSocket connection")
+                .register(meterRegistry);
+    }
+
+    public void register(Long userId, WebSocketSession session) {
+        PushConnection connection = new PushConnection(session, userId, bufferCapacity, senders, this::recordSent);
+        bySession.put(session.getId(), connection);
+        byUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(connection);
+    }
+
+    public void unregister(WebSocketSession session) {
+        PushConnection connection = bySession.remove(session.getId());
+        if (connection == null) {
+            return;
+        }
+        byUser.computeIfPresent(connection.userId(), (id, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+
+    // Mọi frame client gửi (pong, text) đều chứng tỏ kết nối còn sống
+    public void touch(WebSocketSession session) {
+        PushConnection connection = bySession.get(session.getId());
+        if (connection != null) {
+            connection.touch();
+        }
+    }
+
+    /**
+     * Gửi thông báo tới mọi kết nối của userId; không chặn. Người dùng không có kết nối trên node
+     * này thì bỏ qua.
+     */
+    public void publish(Long userId, String type, Object loanId, String subject, String body) {
+        Set<PushConnection> connections = userId == null ? null : byUser.get(userId);
+        if (connections == null || connections.isEmpty()) {
+            offline.increment();
+            return;
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("type", type);
+        payload.put("loanId", loanId);
+        payload.put("subject", subject);
+        payload.put("body", body);
+        payload.put("createdAt", System.currentTimeMillis());
+        TextMessage message;
+        try {
+            message = new TextMessage(objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            logger.warn("Could not serialize push notification {} for user {}", type, userId, e);
+            return;
+        }
+        for (PushConnection connection : connections) {
+            (connection.offer(message) ? dropped : queued).increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${notification.push.heartbeat-interval:25s}")
+    public void heartbeat() {
+        long now = System.nanoTime();
+        for (PushConnection connection : bySession.values()) {
+            if (now - connection.lastSeenNanos() > staleAfterNanos) {
+                unregister(connection.session());
+                connection.close(CloseStatus.SESSION_NOT_RELIABLE);
+                staleClosed.increment();
+            } else {
+                connection.ping(PING);
+            }
+        }
+    }
+
+    public int connections() {
+        return bySession.size();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (PushConnection connection : bySession.values()) {
+            connection.close(CloseStatus.GOING_AWAY);
+        }
+        bySession.clear();
+        byUser.clear();
+        senders.shutdown();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void recordSent(PushConnection.Outbound sent) {
+        if (sent.message() != PING) {
+            sendLatency.record(System.nanoTime() - sent.queuedAtNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static Counter pushCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("notification.push.messages")
+                .description("In-app notifications offered to WebSocket connections")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
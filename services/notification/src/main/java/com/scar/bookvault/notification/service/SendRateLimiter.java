@@ -0,0 +1,125 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Giới hạn tốc độ gửi SMTP: một bucket chung và một bucket cho mỗi domain người nhận.
+ *
+ * reserve giữ chỗ trên cả hai bucket tại cùng một thời điểm gửi (lượt sớm nhất mà cả hai đều còn
+ * token) và trả về thời gian phải chờ, nên email vượt hạn mức được hẹn giờ gửi thay vì bị từ chối,
+ * và các email bị hoãn không tranh nhau token khi tới giờ. Bucket của domain đã đầy lại (không còn
+ * hoạt động) được dọn định kỳ.
+ */
+@Component
+public class SendRateLimiter {
+
+    static final String GLOBAL = "global";
+    static final String DOMAIN = "domain";
+
+    private final boolean enabled;
+    private final double domainPerSecond;
+    private final int domainBurst;
+    private final LongSupplier nanoClock;
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> domains = new ConcurrentHashMap<>();
+
+    private final Counter deferredByGlobal;
+    private final Counter deferredByDomain;
+    private final MultiGauge domainAvailable;
+
+    public SendRateLimiter(MeterRegistry meterRegistry,
+                           @Value("${notification.ratelimit.enabled:true}") boolean enabled,
+                           @Value("${notification.ratelimit.global-per-second:20}") double globalPerSecond,
+                           @Value("${notification.ratelimit.global-burst:50}") int globalBurst,
+                           @Value("${notification.ratelimit.domain-per-second:5}") double domainPerSecond,
+                           @Value("${notification.ratelimit.domain-burst:20}") int domainBurst) {
+        this(meterRegistry, enabled, globalPerSecond, globalBurst, domainPerSecond, domainBurst, System::nanoTime);
+    }
+
+    SendRateLimiter(MeterRegistry meterRegistry, boolean enabled, double globalPerSecond, int globalBurst,
+                    double domainPerSecond, int domainBurst, LongSupplier nanoClock) {
+        this.enabled = enabled;
+        this.domainPerSecond = domainPerSecond;
+        this.domainBurst = domainBurst;
+        this.nanoClock = nanoClock;
+        this.global = new TokenBucket(globalPerSecond, globalBurst, nanoClock.getAsLong());
+
+        this.deferredByGlobal = deferredCounter(meterRegistry, GLOBAL);
+        this.deferredByDomain = deferredCounter(meterRegistry, DOMAIN);
+        Gauge.builder("notification.ratelimit.available", this, limiter -> limiter.global.available(limiter.nanoClock.getAsLong()))
+                .description("Tokens left in the send-rate bucket, negative when sends are booked ahead")
+                .tags("bucket", GLOBAL)
+                .register(meterRegistry);
+        Gauge.builder("notification.ratelimit.domains", domains, Map::size)
+                .description("Recipient domains with an active bucket")
+                .register(meterRegistry);
+        this.domainAvailable = MultiGauge.builder("notification.ratelimit.domain.available")
+                .description("Tokens left in the bucket of each active recipient domain")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Giữ chỗ gửi một email tới recipient; trả về số nano phải chờ trước khi gửi (0 là gửi ngay).
+     */
+    public long reserve(String recipient) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = nanoClock.getAsLong();
+        TokenBucket domainBucket = domains.computeIfAbsent(domain(recipient), d -> new TokenBucket(domainPerSecond, domainBurst, now));
+        TokenBucket.Reservation domainSlot = domainBucket.reserveAt(now);
+        long domainWait = domainSlot.sendAt() - now;
+        // Token chung phải được giữ đúng lúc email thật sự được gửi, không phải lúc hẹn giờ
+        TokenBucket.Reservation globalSlot = global.reserveAt(domainSlot.sendAt());
+        while (globalSlot.sendAt() > domainSlot.sendAt()) {
+            // Bucket chung đẩy lượt gửi ra sau: trả chỗ domain và giữ lại tại lượt đó
+            domainBucket.cancel(domainSlot);
+            domainSlot = domainBucket.reserveAt(globalSlot.sendAt());
+            if (domainSlot.sendAt() > globalSlot.sendAt()) {
+                global.cancel(globalSlot);
+                globalSlot = global.reserveAt(domainSlot.sendAt());
+            }
+        }
+        long wait = domainSlot.sendAt() - now;
+        if (wait > 0) {
+            (wait > domainWait ? deferredByGlobal : deferredByDomain).increment();
+        }
+        return wait;
+    }
+
+    // Bucket đầy lại thì giống hệt bucket mới, bỏ đi để map không lớn theo số domain từng gặp
+    @Scheduled(fixedDelayString = "${notification.ratelimit.cleanup-interval:1m}")
+    public void evictIdleDomains() {
+        long now = nanoClock.getAsLong();
+        domains.entrySet().removeIf(entry -> entry.getValue().isFull(now));
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(domains.size());
+        domains.forEach((domain, bucket) -> rows.add(MultiGauge.Row.of(Tags.of("domain", domain), bucket.available(now))));
+        domainAvailable.register(rows, true);
+    }
+
+    static String domain(String recipient) {
+        int at = recipient == null ? -1 : recipient.lastIndexOf('@');
+        return at < 0 ? "" : recipient.substring(at + 1).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Counter deferredCounter(MeterRegistry meterRegistry, String limit) {
+        return Counter.builder("notification.ratelimit.deferred")
+                .description("Emails delayed by the send-rate limit, by the bucket that imposed the wait")
+                .tag("limit", limit)
+                .register(meterRegistry);
+    }
+}
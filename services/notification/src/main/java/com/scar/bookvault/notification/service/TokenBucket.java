@@ -0,0 +1,58 @@
+package com.scar.bookvault.notification.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket không khóa theo kiểu GCRA: thay vì đếm token, chỉ lưu thời điểm (nanoTime) mà bucket
+ * sẽ đầy trở lại, cập nhật bằng một CAS. Mỗi lần reserve đẩy mốc đó thêm một interval; phần vượt quá
+ * sức chứa burst chính là thời gian phải chờ trước khi được gửi.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(double perSecond, int burst, long nowNanos) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.fullAt = new AtomicLong(nowNanos - burstNanos);
+    }
+
+    /**
+     * Chỗ đã giữ: sendAt là thời điểm sớm nhất được gửi, previous/next là mốc đầy lại trước và sau
+     * khi giữ để cancel có thể trả lại đúng token này.
+     */
+    record Reservation(long previous, long next, long sendAt) {
+    }
+
+    // Giữ chỗ một token; trả về số nano phải chờ tới lượt (0 là gửi ngay)
+    long reserve(long nowNanos) {
+        return reserveAt(nowNanos).sendAt() - nowNanos;
+    }
+
+    // Giữ chỗ một token để gửi không sớm hơn atNanos (có thể ở tương lai)
+    Reservation reserveAt(long atNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, atNanos) + intervalNanos;
+            if (fullAt.compareAndSet(current, next)) {
+                return new Reservation(current, next, atNanos + Math.max(0, next - atNanos - burstNanos));
+            }
+        }
+    }
+
+    // Trả lại token nếu chưa ai giữ chỗ sau nó; ngược lại token vẫn bị giữ (chỉ phí chỗ, không vượt hạn mức)
+    boolean cancel(Reservation reservation) {
+        return fullAt.compareAndSet(reservation.next(), reservation.previous());
+    }
+
+    // Số token còn lại ngay lúc này, âm khi đã có chỗ giữ trước cho tương lai
+    double available(long nowNanos) {
+        return (double) (burstNanos - Math.max(0, fullAt.get() - nowNanos)) / intervalNanos;
+    }
+
+    boolean isFull(long nowNanos) {
+        return fullAt.get() <= nowNanos;
+    }
+}
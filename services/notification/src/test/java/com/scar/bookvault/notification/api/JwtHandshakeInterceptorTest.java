@@ -0,0 +1,120 @@
+package com.scar.bookvault.notification.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtHandshakeInterceptorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Instant NOW = Instant.parse("2026-01-10T00:00:00Z");
+
+    private final KeyPair keys = keyPair();
+    private final JwtHandshakeInterceptor interceptor =
+            new JwtHandshakeInterceptor(MAPPER, publicKeyPem(keys), Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void userComesFromTokenNotFromQueryParam() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/notification/v1/ws");
+        request.setQueryString("userId=99");
+        request.addHeader("Authorization", "Bearer " + token(keys, 7L, NOW.plusSeconds(60)));
+        Map<String, Object> attributes = new HashMap<>();
+
+        assertTrue(interceptor.beforeHandshake(new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(new MockHttpServletResponse()), null, attributes));
+        assertEquals(7L, attributes.get(JwtHandshakeInterceptor.USER_ID));
+    }
+
+    @Test
+    void tokenIsAcceptedFromAccessTokenParam() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/notification/v1/ws");
+        request.setQueryString("access_token=" + token(keys, 7L, NOW.plusSeconds(60)));
+        Map<String, Object> attributes = new HashMap<>();
+
+        assertTrue(interceptor.beforeHandshake(new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(new MockHttpServletResponse()), null, attributes));
+        assertEquals(7L, attributes.get(JwtHandshakeInterceptor.USER_ID));
+    }
+
+    @Test
+    void handshakeWithoutTokenIsRejected() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/notification/v1/ws");
+        request.setQueryString("userId=7");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.beforeHandshake(new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(response), null, new HashMap<>()));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), response.getStatus());
+    }
+
+    @Test
+    void invalidTokensAreRejected() throws Exception {
+        assertNull(interceptor.userId(token(keyPair(), 7L, NOW.plusSeconds(60))));
+        assertNull(interceptor.userId(token(keys, 7L, NOW.minusSeconds(1))));
+        assertNull(interceptor.userId(token(keys, null, NOW.plusSeconds(60))));
+        assertNull(interceptor.userId("not-a-token"));
+
+        String[] parts = token(keys, 7L, NOW.plusSeconds(60)).split("\\.");
+        String forged = parts[0] + "." + encode(Map.of("userId", 8, "exp", NOW.plusSeconds(60).getEpochSecond())) + "." + parts[2];
+        assertNull(interceptor.userId(forged));
+    }
+
+    @Test
+    void withoutConfiguredKeyEveryTokenIsRejected() throws Exception {
+        JwtHandshakeInterceptor unconfigured = new JwtHandshakeInterceptor(MAPPER, "", Clock.fixed(NOW, ZoneOffset.UTC));
+
+        assertNull(unconfigured.userId(token(keys, 7L, NOW.plusSeconds(60))));
+    }
+
+    // Token RS256 giống token IAM cấp
+    static String token(KeyPair keys, Long userId, Instant expiresAt) throws Exception {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "user" + userId);
+        claims.put("exp", expiresAt.getEpochSecond());
+        if (userId != null) {
+            claims.put("userId", userId);
+        }
+        String signingInput = encode(Map.of("alg", "RS256")) + "." + encode(claims);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+    }
+
+    static String publicKeyPem(KeyPair keys) {
+        return "-----BEGIN PUBLIC KEY-----\n" + Base64.getEncoder().encodeToString(keys.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----\n";
+    }
+
+    static KeyPair keyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(Map<String, ?> json) throws Exception {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(json));
+    }
+}
@@ -0,0 +1,146 @@
+package com.scar.bookvault.notification.api;
+
+import com.scar.bookvault.notification.config.ObjectMapperConfig;
+import com.scar.bookvault.notification.config.WebSocketConfig;
+import com.scar.bookvault.notification.service.PushGateway;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.autoconfigure.mail.MailSenderAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mở nhiều kết nối WebSocket rảnh tới kênh push rồi đẩy một thông báo tới từng người dùng và kiểm
+ * tra mọi kết nối đều nhận được. Ghi log heap tăng thêm trên mỗi kết nối (gồm cả phía client, chạy
+ * cùng JVM), thời gian từ lần publish đầu tới lần nhận cuối và các percentile của
+ * notification.push.latency; chỉ để so sánh giữa các lần chạy, không assert. Không chạy trong build thường (tag load); chạy bằng
+ * mvn test -Dgroups=load -Dtest.excludedGroups=, số kết nối chỉnh bằng -Dpush.load.connections
+ * (hàng chục nghìn kết nối cần nâng ulimit -n).
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = PushLoadTest.PushApp.class)
+class PushLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushLoadTest.class);
+
+    private static final int CONNECTIONS = Integer.getInteger("push.load.connections", 2000);
+    private static final KeyPair KEYS = JwtHandshakeInterceptorTest.keyPair();
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = {MongoAutoConfiguration.class, MongoDataAutoConfiguration.class,
+            KafkaAutoConfiguration.class, MailSenderAutoConfiguration.class})
+    @Import({WebSocketConfig.class, NotificationSocketHandler.class, JwtHandshakeInterceptor.class, PushGateway.class,
+            ObjectMapperConfig.class})
+    static class PushApp {
+    }
+
+    @DynamicPropertySource
+    static void jwtKey(DynamicPropertyRegistry registry) {
+        registry.add("security.jwt.publicKeyPem", () -> JwtHandshakeInterceptorTest.publicKeyPem(KEYS));
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private PushGateway pushGateway;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void idleConnectionsAndFanOut() throws Exception {
+        CountDownLatch received = new CountDownLatch(CONNECTIONS);
+        AtomicLong lastReceivedAt = new AtomicLong();
+
+        StandardWebSocketClient client = new StandardWebSocketClient();
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setOrigin("http://localhost:3000");
+
+        Instant expiresAt = Instant.now().plusSeconds(600);
+        List<CompletableFuture<WebSocketSession>> connecting = new ArrayList<>(CONNECTIONS);
+        TextWebSocketHandler handler = new TextWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                lastReceivedAt.accumulateAndGet(System.nanoTime(), Math::max);
+                received.countDown();
+            }
+        };
+        long heapBefore = usedHeap();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            String token = JwtHandshakeInterceptorTest.token(KEYS, (long) i, expiresAt);
+            connecting.add(client.execute(handler, headers,
+                    URI.create("ws://localhost:" + port + "/api/notification/v1/ws?access_token=" + token)));
+        }
+        List<WebSocketSession> sessions = new ArrayList<>(CONNECTIONS);
+        for (CompletableFuture<WebSocketSession> future : connecting) {
+            sessions.add(future.get(30, TimeUnit.SECONDS));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pushGateway.connections() < CONNECTIONS && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CONNECTIONS, pushGateway.connections());
+        long heapPerConnection = (usedHeap() - heapBefore) / CONNECTIONS;
+
+        long publishStart = System.nanoTime();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            pushGateway.publish((long) i, "LOAN_OVERDUE", 1000L + i, "Loan Overdue Reminder - BookVault", "Your loan is overdue");
+        }
+        assertTrue(received.await(30, TimeUnit.SECONDS), "every connection should receive its notification");
+        long fanOutMillis = TimeUnit.NANOSECONDS.toMillis(lastReceivedAt.get() - publishStart);
+
+        StringBuilder percentiles = new StringBuilder();
+        for (ValueAtPercentile percentile : meterRegistry.get("notification.push.latency").timer()
+                .takeSnapshot().percentileValues()) {
+            percentiles.append(String.format(" p%.0f=%.2fms", percentile.percentile() * 100,
+                    percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        logger.info("{} connections: {} bytes heap per connection, publish to last receive {} ms, push latency{}",
+                CONNECTIONS, heapPerConnection, fanOutMillis, percentiles);
+
+        for (WebSocketSession session : sessions) {
+            session.close();
+        }
+    }
+
+    // Gọi GC vài lần để số đo ít phụ thuộc vào rác còn lại; chỉ là ước lượng
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,50 @@
+package com.scar.bookvault.notification.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.notification.service.MailDispatcher;
+import com.scar.bookvault.notification.service.OutgoingEmail;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mail.MailSendException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EmailDeliveryConsumerTest {
+
+    private static final String MESSAGE = "{\"to\":\"reader@bookvault.test\",\"subject\":\"s\",\"body\":\"b\",\"firstFailedAt\":%d}";
+
+    private final MailDispatcher mailDispatcher = mock(MailDispatcher.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EmailDeliveryConsumer consumer = new EmailDeliveryConsumer(mailDispatcher, new ObjectMapper(), meterRegistry);
+
+    @Test
+    void depthFollowsRetryTopicIndex() {
+        assertEquals(0, EmailDeliveryConsumer.depth("notification.delivery"));
+        assertEquals(1, EmailDeliveryConsumer.depth("notification.delivery.retry-0"));
+        assertEquals(4, EmailDeliveryConsumer.depth("notification.delivery.retry-3"));
+    }
+
+    @Test
+    void recordsDepthAndAgeOfDeliveredRetry() throws Exception {
+        consumer.deliver(String.format(MESSAGE, System.currentTimeMillis() - 60_000), "notification.delivery.retry-1");
+
+        ArgumentCaptor<OutgoingEmail> email = ArgumentCaptor.forClass(OutgoingEmail.class);
+        verify(mailDispatcher).sendNow(email.capture());
+        assertEquals("reader@bookvault.test", email.getValue().to());
+        assertEquals(1, meterRegistry.get("notification.retry").tags("depth", "2", "outcome", "delivered").counter().count());
+        assertTrue(meterRegistry.get("notification.retry.age").tags("depth", "2").timer().totalTime(TimeUnit.SECONDS) >= 60);
+    }
+
+    @Test
+    void failedSendIsRethrownSoTheRecordMovesToTheNextRetryTopic() {
+        doThrow(new MailSendException("smtp down")).when(mailDispatcher).sendNow(any());
+
+        assertThrows(MailSendException.class, () -> consumer.deliver(String.format(MESSAGE, System.currentTimeMillis()), "notification.delivery"));
+        assertEquals(1, meterRegistry.get("notification.retry").tags("depth", "0", "outcome", "failed").counter().count());
+    }
+}
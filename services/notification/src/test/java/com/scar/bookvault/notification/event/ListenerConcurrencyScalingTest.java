@@ -0,0 +1,184 @@
+package com.scar.bookvault.notification.event;
+
+import com.scar.bookvault.notification.config.KafkaTopicsConfig;
+import com.scar.bookvault.notification.config.ObjectMapperConfig;
+import com.scar.bookvault.notification.service.DeliveryFailurePublisher;
+import com.scar.bookvault.notification.service.DigestService;
+import com.scar.bookvault.notification.service.EmailService;
+import com.scar.bookvault.notification.service.EventDeduplicator;
+import com.scar.bookvault.notification.service.NotificationService;
+import com.scar.bookvault.notification.service.NotificationTemplates;
+import com.scar.bookvault.notification.service.NotificationWriter;
+import com.scar.bookvault.notification.service.PushGateway;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Concurrency của từng listener lấy từ cấu hình và không vượt số partition KafkaTopicsConfig khai báo
+ * cho topic đó; backlog key theo loanId như loan.* được xử lý đúng thứ tự theo key khi mỗi partition
+ * có một consumer.
+ */
+@SpringJUnitConfig(ListenerConcurrencyScalingTest.ListenerConfig.class)
+@TestPropertySource(properties = {
+        "notification.kafka.loan-partitions=8",
+        "notification.kafka.concurrency.loan-created=2",
+        "notification.kafka.concurrency.loan-overdue=8"
+})
+@EmbeddedKafka(partitions = ListenerConcurrencyScalingTest.PARTITIONS, topics = ListenerConcurrencyScalingTest.KEYED)
+class ListenerConcurrencyScalingTest {
+
+    static final int PARTITIONS = 6;
+    static final String KEYED = "scaling.loan.overdue";
+
+    private static final int LOANS = 120;
+    private static final int EVENTS_PER_LOAN = 5;
+
+    @EnableKafka
+    @Configuration
+    @Import({KafkaTopicsConfig.class, ObjectMapperConfig.class, NotificationService.class, BookEventConsumer.class,
+            EventReplayConsumer.class})
+    static class ListenerConfig {
+
+        // Container chỉ được tạo để đọc cấu hình, không kết nối broker
+        @Bean
+        @SuppressWarnings("unchecked")
+        ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
+            ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+            factory.setConsumerFactory(mock(ConsumerFactory.class));
+            factory.setAutoStartup(false);
+            factory.getContainerProperties().setAckMode(AckMode.MANUAL);
+            return factory;
+        }
+    }
+
+    @MockBean
+    private EmailService emailService;
+    @MockBean
+    private NotificationWriter notificationWriter;
+    @MockBean
+    private DigestService digestService;
+    @MockBean
+    private DeliveryFailurePublisher failurePublisher;
+    @MockBean
+    private EventDeduplicator deduplicator;
+    @MockBean
+    private PushGateway pushGateway;
+    @MockBean
+    private NotificationTemplates templates;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+    @Autowired
+    private List<KafkaAdmin.NewTopics> topicGroups;
+    @Autowired
+    private List<NewTopic> topics;
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    @Test
+    void listenerConcurrencyComesFromConfigAndFitsTopicPartitions() {
+        Map<String, Integer> partitions = new HashMap<>();
+        topicGroups.forEach(group -> group.getNewTopics().forEach(topic -> partitions.put(topic.name(), topic.numPartitions())));
+        topics.forEach(topic -> partitions.put(topic.name(), topic.numPartitions()));
+        Map<String, Integer> concurrency = new HashMap<>();
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            int consumers = ((ConcurrentMessageListenerContainer<?, ?>) container).getConcurrency();
+            for (String topic : container.getContainerProperties().getTopics()) {
+                concurrency.put(topic, consumers);
+            }
+        }
+
+        for (String topic : List.of("loan.created", "loan.overdue", "loan.returned", "loan.due.reminder")) {
+            assertEquals(8, partitions.get(topic), topic);
+        }
+        assertEquals(1, partitions.get(DeliveryFailurePublisher.EVENTS_REPLAY));
+
+        assertEquals(2, concurrency.get("loan.created"));
+        assertEquals(8, concurrency.get("loan.overdue"));
+        assertEquals(3, concurrency.get("loan.returned"));
+        assertEquals(3, concurrency.get("loan.due.reminder"));
+        assertEquals(1, concurrency.get("book.created"));
+        assertEquals(1, concurrency.get(DeliveryFailurePublisher.EVENTS_REPLAY));
+
+        // Consumer vượt số partition chỉ đứng chờ
+        concurrency.forEach((topic, consumers) -> {
+            if (partitions.containsKey(topic)) {
+                assertTrue(consumers <= partitions.get(topic), topic + " has more consumers than partitions");
+            }
+        });
+    }
+
+    @Test
+    void oneConsumerPerPartitionKeepsKeyOrder() throws Exception {
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(KafkaTestUtils.producerProps(broker),
+                new StringSerializer(), new StringSerializer())) {
+            for (int seq = 0; seq < EVENTS_PER_LOAN; seq++) {
+                for (int loan = 0; loan < LOANS; loan++) {
+                    producer.send(new ProducerRecord<>(KEYED, String.valueOf(loan), String.valueOf(seq)));
+                }
+            }
+            producer.flush();
+        }
+
+        CountDownLatch processed = new CountDownLatch(LOANS * EVENTS_PER_LOAN);
+        Map<String, Integer> lastSeq = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        ContainerProperties properties = new ContainerProperties(KEYED);
+        properties.setMessageListener((MessageListener<String, String>) record -> {
+            int seq = Integer.parseInt(record.value());
+            Integer previous = lastSeq.put(record.key(), seq);
+            if (seq != (previous == null ? 0 : previous + 1)) {
+                outOfOrder.incrementAndGet();
+            }
+            processed.countDown();
+        });
+        ConcurrentMessageListenerContainer<String, String> container = new ConcurrentMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(KafkaTestUtils.consumerProps(KEYED, "false", broker),
+                        new StringDeserializer(), new StringDeserializer()),
+                properties);
+        container.setConcurrency(PARTITIONS);
+        container.start();
+        try {
+            assertTrue(processed.await(60, TimeUnit.SECONDS), "backlog should drain");
+        } finally {
+            container.stop();
+        }
+        assertEquals(0, outOfOrder.get(), "events of one loan must be processed in order");
+    }
+}
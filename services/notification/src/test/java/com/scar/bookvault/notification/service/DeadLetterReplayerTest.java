@@ -0,0 +1,145 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+class DeadLetterReplayerTest {
+
+    private final ConsumerFactory<Object, Object> consumerFactory = mock(ConsumerFactory.class);
+    private final Consumer<Object, Object> consumer = mock(Consumer.class);
+    private final KafkaTemplate<String, String> kafkaTemplate = mock(KafkaTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeadLetterReplayer replayer = new DeadLetterReplayer(consumerFactory, kafkaTemplate, meterRegistry);
+
+    @BeforeEach
+    void setUp() {
+        when(consumerFactory.createConsumer(eq(DeadLetterReplayer.REPLAY_GROUP), anyString(), any(), any(Properties.class)))
+                .thenReturn(consumer);
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    void eventsAreReplayedIntoTheServiceOwnReplayTopicWithTheirOriginalTopic() {
+        TopicPartition dlt = dltPartition(DeliveryFailurePublisher.EVENTS_DLT);
+        polls(dlt, deadLetter(dlt, 0, "loan.created"), deadLetter(dlt, 1, "book.updated"));
+
+        DeadLetterReplayer.ReplayResult result = replayer.replayEvents(10);
+
+        ArgumentCaptor<ProducerRecord<String, String>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate, times(2)).send(sent.capture());
+        for (ProducerRecord<String, String> record : sent.getAllValues()) {
+            // Không publish lại lên topic dùng chung với các service khác
+            assertEquals(DeliveryFailurePublisher.EVENTS_REPLAY, record.topic());
+        }
+        assertEquals("loan.created", header(sent.getAllValues().get(0)));
+        assertEquals("book.updated", header(sent.getAllValues().get(1)));
+        verify(consumer).commitSync(Map.of(dlt, new OffsetAndMetadata(2)));
+        assertEquals(2, result.replayed());
+        assertEquals(2, meterRegistry.get("notification.dlq.replayed").tag("topic", DeliveryFailurePublisher.EVENTS_DLT).counter().count());
+    }
+
+    @Test
+    void eventWithoutOriginalTopicStopsItsPartition() {
+        TopicPartition dlt = dltPartition(DeliveryFailurePublisher.EVENTS_DLT);
+        polls(dlt, deadLetter(dlt, 0, "loan.overdue"), deadLetter(dlt, 1, null), deadLetter(dlt, 2, "loan.returned"));
+
+        DeadLetterReplayer.ReplayResult result = replayer.replayEvents(10);
+
+        // Chỉ commit tới trước record lỗi để lần replay sau gặp lại nó
+        verify(consumer).commitSync(Map.of(dlt, new OffsetAndMetadata(1)));
+        assertEquals(1, result.replayed());
+    }
+
+    @Test
+    void failedPublishIsNotCommitted() {
+        TopicPartition dlt = dltPartition(DeliveryFailurePublisher.EVENTS_DLT);
+        polls(dlt, deadLetter(dlt, 0, "loan.overdue"));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        DeadLetterReplayer.ReplayResult result = replayer.replayEvents(10);
+
+        verify(consumer, never()).commitSync(any(Map.class));
+        assertEquals(0, result.replayed());
+    }
+
+    @Test
+    void deliveriesGoBackToTheDeliveryTopicWithoutDeadLetterHeaders() {
+        TopicPartition dlt = dltPartition(DeliveryFailurePublisher.DELIVERY_DLT);
+        polls(dlt, deadLetter(dlt, 0, "notification.delivery.retry-4"));
+
+        replayer.replayDeliveries(10);
+
+        ArgumentCaptor<ProducerRecord<String, String>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        assertEquals(DeliveryFailurePublisher.DELIVERY_TOPIC, sent.getValue().topic());
+        assertNull(sent.getValue().headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC));
+        verify(consumer).commitSync(Map.of(dlt, new OffsetAndMetadata(1)));
+    }
+
+    @Test
+    void replayIsCappedAtMax() {
+        TopicPartition dlt = dltPartition(DeliveryFailurePublisher.EVENTS_DLT);
+        polls(dlt, deadLetter(dlt, 0, "loan.created"), deadLetter(dlt, 1, "loan.created"), deadLetter(dlt, 2, "loan.created"));
+
+        DeadLetterReplayer.ReplayResult result = replayer.replayEvents(2);
+
+        verify(kafkaTemplate, times(2)).send(any(ProducerRecord.class));
+        verify(consumer).commitSync(Map.of(dlt, new OffsetAndMetadata(2)));
+        assertEquals(2, result.replayed());
+    }
+
+    private TopicPartition dltPartition(String topic) {
+        when(consumer.partitionsFor(eq(topic), any(Duration.class)))
+                .thenReturn(List.of(new PartitionInfo(topic, 0, null, null, null)));
+        return new TopicPartition(topic, 0);
+    }
+
+    private void polls(TopicPartition partition, ConsumerRecord<Object, Object>... records) {
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(partition, List.of(records))))
+                .thenReturn(ConsumerRecords.empty());
+        when(consumer.endOffsets(any())).thenReturn(Map.of(partition, (long) records.length));
+        when(consumer.beginningOffsets(any())).thenReturn(Map.of(partition, 0L));
+        when(consumer.committed(any(Set.class))).thenReturn(Map.of());
+    }
+
+    private static ConsumerRecord<Object, Object> deadLetter(TopicPartition partition, long offset, String originalTopic) {
+        ConsumerRecord<Object, Object> record = new ConsumerRecord<>(partition.topic(), partition.partition(), offset,
+                "key-" + offset, "{\"loanId\":" + offset + "}");
+        if (originalTopic != null) {
+            record.headers().add(KafkaHeaders.DLT_ORIGINAL_TOPIC, originalTopic.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    private static String header(ProducerRecord<String, String> record) {
+        return new String(record.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC).value(), StandardCharsets.UTF_8);
+    }
+}
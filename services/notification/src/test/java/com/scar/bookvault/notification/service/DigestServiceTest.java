@@ -0,0 +1,231 @@
+package com.scar.bookvault.notification.service;
+
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.MailSendException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+class DigestServiceTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final String DIGEST_ID = "user7@bookvault.com|1773075600000";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final NotificationWriter notificationWriter = mock(NotificationWriter.class);
+    private final EmailService emailService = mock(EmailService.class);
+    private final NotificationPreferences preferences = mock(NotificationPreferences.class);
+
+    @Test
+    void dailyWindowStartsAtLocalMidnight() {
+        DigestService digest = digest(Instant.parse("2026-03-10T20:30:00Z"), Duration.ofHours(24));
+
+        // 20:30 UTC là 03:30 ngày 11 giờ Việt Nam
+        assertEquals(Instant.parse("2026-03-10T17:00:00Z"), digest.windowStart(Instant.parse("2026-03-10T20:30:00Z")));
+        assertEquals(Instant.parse("2026-03-09T17:00:00Z"), digest.windowStart(Instant.parse("2026-03-10T16:59:59Z")));
+    }
+
+    @Test
+    void shorterWindowsAreAlignedWithinTheDay() {
+        DigestService digest = digest(Instant.parse("2026-03-10T05:10:00Z"), Duration.ofHours(6));
+
+        // 05:10 UTC là 12:10 giờ Việt Nam, thuộc cửa sổ 12:00-18:00
+        assertEquals(Instant.parse("2026-03-10T05:00:00Z"), digest.windowStart(Instant.parse("2026-03-10T05:10:00Z")));
+    }
+
+    @Test
+    void rejectsWindowsThatDoNotDivideADay() {
+        assertThrows(IllegalArgumentException.class, () -> digest(Instant.now(), Duration.ofHours(7)));
+    }
+
+    @Test
+    void repeatedEventsForTheSameLoanShareOneItem() {
+        DigestService digest = digest(Instant.parse("2026-03-10T05:10:00Z"), Duration.ofHours(24));
+        Runnable ack = () -> {
+        };
+
+        digest.stage("LOAN_OVERDUE", 7L, "user7@bookvault.com", "Overdue", "body", "42", ack);
+        digest.stage("LOAN_OVERDUE", 7L, "user7@bookvault.com", "Overdue", "body", "42", ack);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(notificationWriter, times(2)).upsert(eq(DigestService.COLLECTION), query.capture(), update.capture(), eq(ack));
+        assertEquals(query.getAllValues().get(0).getQueryObject(), query.getAllValues().get(1).getQueryObject());
+        assertEquals("user7@bookvault.com|" + Instant.parse("2026-03-09T17:00:00Z").toEpochMilli(),
+                query.getValue().getQueryObject().get("_id"));
+        assertTrue(update.getValue().modifies("items.LOAN_OVERDUE-42"));
+        assertTrue(update.getValue().modifies("version"));
+    }
+
+    @Test
+    void onlyUsersWhoOptedInAreDigested() {
+        DigestService digest = digest(Instant.now(), Duration.ofHours(24));
+        when(preferences.digestEnabled(7L)).thenReturn(true);
+
+        assertTrue(digest.accepts("LOAN_OVERDUE", 7L));
+        assertFalse(digest.accepts("LOAN_CREATED", 7L));
+        assertFalse(digest.accepts("LOAN_OVERDUE", 8L));
+    }
+
+    @Test
+    void combinesItemsIntoOneEmail() {
+        String body = DigestService.digestBody(List.of(
+                Map.of("subject", "Loan Overdue Reminder", "body", "Book: A"),
+                Map.of("subject", "Loan Due Reminder", "body", "Book: B")));
+
+        assertTrue(body.contains("Loan Overdue Reminder"));
+        assertTrue(body.indexOf("Book: A") < body.indexOf("Book: B"));
+    }
+
+    @Test
+    void claimNextTakesDueDigestsThatAreUnclaimedOrWhoseClaimExpired() {
+        Instant now = Instant.parse("2026-03-10T17:00:30Z");
+        DigestService digest = digest(now, Duration.ofHours(24));
+
+        digest.claimNext();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(Map.class), eq(DigestService.COLLECTION));
+        List<Document> conditions = (List<Document>) query.getValue().getQueryObject().get("$and");
+        assertEquals(new Document("dueAt", new Document("$lte", Date.from(now))), conditions.get(0));
+        assertEquals(new Document("$or", List.of(
+                new Document("claimedAt", new Document("$exists", false)),
+                new Document("claimedAt", new Document("$lt", Date.from(now.minus(Duration.ofMinutes(10))))))), conditions.get(1));
+        assertEquals(Date.from(now), update.getValue().getUpdateObject().get("$set", Document.class).get("claimedAt"));
+    }
+
+    @Test
+    void sendDueSendsOneEmailPerDigestAndDeletesItOnceStored() {
+        DigestService digest = digest(Instant.parse("2026-03-10T17:00:30Z"), Duration.ofHours(24));
+        claims(pending(3, item("LOAN_OVERDUE-42", "Overdue", "Book: A", 1), item("LOAN_DUE_REMINDER-43", "Due", "Book: B", 2)));
+        when(mongoTemplate.remove(any(Query.class), eq(DigestService.COLLECTION))).thenReturn(DeleteResult.acknowledged(1));
+
+        digest.sendDue();
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(emailService).sendNow(eq("user7@bookvault.com"), eq("Your BookVault notifications (2) - BookVault"), body.capture());
+        assertTrue(body.getValue().indexOf("Book: A") < body.getValue().indexOf("Book: B"));
+        ArgumentCaptor<Map<String, Object>> history = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Runnable> onDurable = ArgumentCaptor.forClass(Runnable.class);
+        verify(notificationWriter).write(history.capture(), onDurable.capture());
+        assertEquals(DigestService.DIGEST_TYPE, history.getValue().get("type"));
+        assertEquals(2, history.getValue().get("itemCount"));
+        assertEquals(7L, history.getValue().get("userId"));
+        // Chỉ xóa khi lịch sử đã được ghi
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+
+        onDurable.getValue().run();
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(DigestService.COLLECTION));
+        assertEquals(new Document("_id", DIGEST_ID).append("version", 3), removed.getValue().getQueryObject());
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), anyString());
+    }
+
+    @Test
+    void singleItemIsSentAsTheOriginalEmail() {
+        DigestService digest = digest(Instant.parse("2026-03-10T17:00:30Z"), Duration.ofHours(24));
+        claims(pending(1, item("LOAN_OVERDUE-42", "Overdue", "Book: A", 1)));
+
+        digest.sendDue();
+
+        verify(emailService).sendNow("user7@bookvault.com", "Overdue", "Book: A");
+        ArgumentCaptor<Map<String, Object>> history = ArgumentCaptor.forClass(Map.class);
+        verify(notificationWriter).write(history.capture(), any(Runnable.class));
+        assertEquals("LOAN_OVERDUE", history.getValue().get("type"));
+    }
+
+    @Test
+    void failedSendKeepsTheDigestForTheNextClaim() {
+        DigestService digest = digest(Instant.parse("2026-03-10T17:00:30Z"), Duration.ofHours(24));
+        claims(pending(1, item("LOAN_OVERDUE-42", "Overdue", "Book: A", 1)));
+        doThrow(new MailSendException("SMTP down")).when(emailService).sendNow(anyString(), anyString(), anyString());
+
+        assertDoesNotThrow(digest::sendDue);
+
+        verify(notificationWriter, never()).write(any(), any());
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+    }
+
+    @Test
+    void itemStagedAfterTheClaimIsKeptForTheNextPoll() {
+        DigestService digest = digest(Instant.parse("2026-03-10T17:00:30Z"), Duration.ofHours(24));
+        Map<String, Object> sentItem = item("LOAN_OVERDUE-42", "Overdue", "Book: A", 1);
+        claims(pending(1, sentItem));
+        // Upsert trong buffer của NotificationWriter tới sau khi document đã được nhận: version đã tăng
+        when(mongoTemplate.remove(any(Query.class), eq(DigestService.COLLECTION))).thenReturn(DeleteResult.acknowledged(0));
+
+        digest.sendDue();
+        ArgumentCaptor<Runnable> onDurable = ArgumentCaptor.forClass(Runnable.class);
+        verify(notificationWriter).write(any(), onDurable.capture());
+        onDurable.getValue().run();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(query.capture(), update.capture(), eq(DigestService.COLLECTION));
+        assertEquals(new Document("_id", DIGEST_ID).append("items.LOAN_OVERDUE-42.createdAt", sentItem.get("createdAt")),
+                query.getAllValues().get(0).getQueryObject());
+        assertTrue(update.getAllValues().get(0).modifies("items.LOAN_OVERDUE-42"));
+        assertEquals(new Document("_id", DIGEST_ID), query.getAllValues().get(1).getQueryObject());
+        assertTrue(update.getAllValues().get(1).modifies("claimedAt"));
+    }
+
+    private void claims(Map<String, Object> digest) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Map.class), eq(DigestService.COLLECTION))).thenReturn(digest, (Map) null);
+    }
+
+    private static Map<String, Object> pending(int version, Map<String, Object>... items) {
+        Map<String, Object> byKey = new LinkedHashMap<>();
+        for (Map<String, Object> item : items) {
+            byKey.put((String) item.remove("key"), item);
+        }
+        Map<String, Object> digest = new HashMap<>();
+        digest.put("_id", DIGEST_ID);
+        digest.put("email", "user7@bookvault.com");
+        digest.put("userId", 7L);
+        digest.put("version", version);
+        digest.put("items", byKey);
+        return digest;
+    }
+
+    private static Map<String, Object> item(String key, String subject, String body, int minute) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("key", key);
+        item.put("type", key.substring(0, key.lastIndexOf('-')));
+        item.put("subject", subject);
+        item.put("body", body);
+        item.put("createdAt", Date.from(Instant.parse("2026-03-10T08:00:00Z").plus(Duration.ofMinutes(minute))));
+        return item;
+    }
+
+    private DigestService digest(Instant now, Duration window) {
+        return new DigestService(mongoTemplate, notificationWriter, emailService, preferences, new SimpleMeterRegistry(),
+                Clock.fixed(now, ZONE), window, ZONE, Set.of("LOAN_CREATED", "EMAIL"), Duration.ofMinutes(10));
+    }
+}
@@ -0,0 +1,111 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EventDeduplicatorTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final NotificationWriter notificationWriter = mock(NotificationWriter.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EventDeduplicator deduplicator =
+            new EventDeduplicator(mongoTemplate, notificationWriter, meterRegistry, true, Duration.ofDays(7), 10_000, 0.001);
+
+    @Test
+    void newKeyIsCheckedWithoutTouchingMongo() {
+        assertFalse(deduplicator.alreadyProcessed("LOAN_CREATED:1"));
+
+        verifyNoInteractions(mongoTemplate, notificationWriter);
+        assertEquals(1, meterRegistry.get("notification.dedup").tag("result", "new").counter().count());
+    }
+
+    @Test
+    void keyIsWrittenThroughWriterAndAckWaitsForBothWrites() {
+        AtomicInteger acked = new AtomicInteger();
+        Runnable onRecordDurable = deduplicator.record("LOAN_CREATED:1", acked::incrementAndGet);
+
+        ArgumentCaptor<Runnable> onKeyDurable = ArgumentCaptor.forClass(Runnable.class);
+        verify(notificationWriter).upsert(eq(EventDeduplicator.COLLECTION), any(Query.class), any(Update.class), onKeyDurable.capture());
+        verifyNoInteractions(mongoTemplate);
+
+        onRecordDurable.run();
+        assertEquals(0, acked.get());
+        onKeyDurable.getValue().run();
+        assertEquals(1, acked.get());
+    }
+
+    @Test
+    void recordedKeyIsConfirmedAgainstMongo() {
+        deduplicator.alreadyProcessed("LOAN_CREATED:1");
+        deduplicator.record("LOAN_CREATED:1", () -> {
+        });
+        keyDurable().run();
+        when(mongoTemplate.exists(any(Query.class), eq(EventDeduplicator.COLLECTION))).thenReturn(true);
+
+        assertTrue(deduplicator.alreadyProcessed("LOAN_CREATED:1"));
+        assertEquals(1, meterRegistry.get("notification.dedup").tag("result", "duplicate").counter().count());
+    }
+
+    @Test
+    void copyArrivingBeforeTheKeyIsFlushedIsDuplicate() {
+        assertFalse(deduplicator.alreadyProcessed("LOAN_OVERDUE:3:5"));
+        deduplicator.record("LOAN_OVERDUE:3:5", () -> {
+        });
+
+        // Key còn trong buffer của writer, Mongo chưa có
+        assertTrue(deduplicator.alreadyProcessed("LOAN_OVERDUE:3:5"));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void keyInProcessingCannotBeClaimedTwice() {
+        assertFalse(deduplicator.alreadyProcessed("LOAN_CREATED:2"));
+        assertTrue(deduplicator.alreadyProcessed("LOAN_CREATED:2"));
+
+        // Lần giao lỗi (vào DLT) trả key lại cho lần replay
+        deduplicator.release("LOAN_CREATED:2");
+        assertFalse(deduplicator.alreadyProcessed("LOAN_CREATED:2"));
+    }
+
+    @Test
+    void bloomHitNotConfirmedByMongoAfterFlushIsProcessed() {
+        deduplicator.alreadyProcessed("LOAN_OVERDUE:3:6");
+        deduplicator.record("LOAN_OVERDUE:3:6", () -> {
+        });
+        keyDurable().run();
+
+        // Key đã rời inFlight nhưng Mongo không xác nhận (đã hết TTL): vẫn xử lý
+        assertFalse(deduplicator.alreadyProcessed("LOAN_OVERDUE:3:6"));
+        assertEquals(1, meterRegistry.get("notification.dedup.bloom.false.positives").counter().count());
+    }
+
+    @Test
+    void eventsWithoutLoanIdAreNotDeduplicated() {
+        Runnable onDurable = () -> {
+        };
+        assertNull(NotificationService.eventKey("LOAN_CREATED", null, null));
+        assertFalse(deduplicator.alreadyProcessed(null));
+        assertSame(onDurable, deduplicator.record(null, onDurable));
+        assertEquals("LOAN_DUE_REMINDER:4:2026-01-10:3",
+                NotificationService.eventKey("LOAN_DUE_REMINDER", 4L, "2026-01-10:3"));
+        verifyNoInteractions(mongoTemplate, notificationWriter);
+    }
+
+    private Runnable keyDurable() {
+        ArgumentCaptor<Runnable> onKeyDurable = ArgumentCaptor.forClass(Runnable.class);
+        verify(notificationWriter).upsert(eq(EventDeduplicator.COLLECTION), any(Query.class), any(Update.class), onKeyDurable.capture());
+        return onKeyDurable.getValue();
+    }
+}
@@ -0,0 +1,202 @@
+package com.scar.bookvault.notification.service;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MailDispatcherTest {
+
+    @RegisterExtension
+    static final GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeliveryFailurePublisher failurePublisher = mock(DeliveryFailurePublisher.class);
+    private MailDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    void sendsQueuedEmailsOverPooledConnections() throws InterruptedException {
+        int total = 500;
+        int connections = 4;
+        dispatcher = newDispatcher(connections, 100);
+
+        for (int i = 0; i < total; i++) {
+            dispatcher.submit(new OutgoingEmail("reader" + (i % 20) + "@bookvault.test", "Sách đến hạn trả #" + i, "Nội dung " + i));
+        }
+        assertTrue(greenMail.waitForIncomingEmail(30_000, total));
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertEquals(total, received.length);
+        assertEquals(total, sentCount());
+        // Mỗi worker gửi cả batch trên một kết nối, nên số batch phải ít hơn hẳn số email
+        assertTrue(meterRegistry.get("notification.email.batch.size").summary().count() < total);
+        // Kết nối được giữ qua các batch: mỗi worker mở tối đa một kết nối cho cả 500 email
+        double opened = meterRegistry.get("notification.email.connections.opened").counter().count();
+        assertTrue(opened >= 1 && opened <= connections, "opened " + opened + " connections");
+        assertTrue(meterRegistry.get("notification.email.connections.open").gauge().value() <= connections);
+    }
+
+    @Test
+    void preservesUtf8SubjectAndBody() throws Exception {
+        dispatcher = newDispatcher(1, 10);
+
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "Nhắc trả sách", "Cuốn \"Dế Mèn phiêu lưu ký\" sắp đến hạn"));
+
+        assertTrue(greenMail.waitForIncomingEmail(5_000, 1));
+        MimeMessage message = greenMail.getReceivedMessages()[0];
+        assertEquals("Nhắc trả sách", message.getSubject());
+        assertTrue(((String) message.getContent()).contains("Dế Mèn phiêu lưu ký"));
+        assertEquals("noreply@bookvault.test", message.getFrom()[0].toString());
+    }
+
+    @Test
+    void invalidAddressIsCountedAsRejected() throws InterruptedException {
+        dispatcher = newDispatcher(1, 10);
+
+        dispatcher.submit(new OutgoingEmail("reader@", "subject", "body"));
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "subject", "body"));
+
+        assertTrue(greenMail.waitForIncomingEmail(5_000, 1));
+        dispatcher.stop();
+        assertEquals(1, sentCount());
+        assertEquals(1, meterRegistry.get("notification.email").tag("status", "rejected").counter().count());
+        verifyNoInteractions(failurePublisher);
+    }
+
+    @Test
+    void emailIsHandedOffOnlyOnceSmtpAcceptsIt() throws InterruptedException {
+        dispatcher = newDispatcher(1, 10);
+        CountDownLatch handedOff = new CountDownLatch(1);
+        AtomicBoolean lost = new AtomicBoolean();
+
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "subject", "body", handedOff::countDown,
+                () -> lost.set(true)));
+
+        assertTrue(handedOff.await(5, TimeUnit.SECONDS));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        assertFalse(lost.get());
+    }
+
+    @Test
+    void unreachableServerHandsEmailToRetryTopic() throws InterruptedException {
+        dispatcher = unreachableDispatcher();
+        CountDownLatch handedOff = new CountDownLatch(1);
+
+        OutgoingEmail email = new OutgoingEmail("reader@bookvault.test", "subject", "body", handedOff::countDown, () -> {});
+        dispatcher.submit(email);
+
+        verify(failurePublisher, timeout(10_000)).retryEmail(email);
+        assertTrue(handedOff.await(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("notification.email").tag("status", "failed").counter().count());
+    }
+
+    @Test
+    void emailIsNotHandedOffWhenRetryTopicFails() throws InterruptedException {
+        doThrow(new IllegalStateException("broker down")).when(failurePublisher).retryEmail(any());
+        dispatcher = unreachableDispatcher();
+        CountDownLatch lost = new CountDownLatch(1);
+        AtomicBoolean handedOff = new AtomicBoolean();
+
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "subject", "body",
+                () -> handedOff.set(true), lost::countDown));
+
+        assertTrue(lost.await(10, TimeUnit.SECONDS));
+        // Event gốc không được ack, Kafka giao lại nó
+        assertFalse(handedOff.get());
+    }
+
+    @Test
+    void submitBlockedOnFullQueueFailsWhenStopped() throws Exception {
+        CountDownLatch taken = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Worker dừng ở email đầu tiên cho tới khi test cho phép, nên hàng đợi 1 chỗ đầy ở email thứ hai
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl() {
+            @Override
+            public synchronized Session getSession() {
+                taken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getSession();
+            }
+        };
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort());
+        dispatcher = new MailDispatcher(mailSender, failurePublisher, meterRegistry, 1, 1, 10,
+                Duration.ofSeconds(30), "noreply@bookvault.test");
+
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "first", "body"));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "second", "body"));
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() ->
+                dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "third", "body")));
+        CompletableFuture<Void> stopping = CompletableFuture.runAsync(() -> {
+            try {
+                dispatcher.stop();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> blocked.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, thrown.getCause());
+        release.countDown();
+        stopping.get(15, TimeUnit.SECONDS);
+        // Hai email đã được nhận vào hàng đợi vẫn được gửi khi dừng
+        assertEquals(2, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    void submitFailsAfterStop() throws InterruptedException {
+        dispatcher = newDispatcher(1, 10);
+        dispatcher.stop();
+
+        assertThrows(IllegalStateException.class, () ->
+                dispatcher.submit(new OutgoingEmail("reader@bookvault.test", "subject", "body")));
+    }
+
+    private MailDispatcher unreachableDispatcher() {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort() + 1);
+        return new MailDispatcher(mailSender, failurePublisher, meterRegistry, 10, 1, 10,
+                Duration.ofSeconds(30), "noreply@bookvault.test");
+    }
+
+    private MailDispatcher newDispatcher(int connections, int queueCapacity) {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort());
+        return new MailDispatcher(mailSender, failurePublisher, meterRegistry, queueCapacity, connections, 50,
+                Duration.ofSeconds(30), "noreply@bookvault.test");
+    }
+
+    private double sentCount() {
+        return meterRegistry.get("notification.email").tag("status", "sent").counter().count();
+    }
+}
@@ -0,0 +1,81 @@
+package com.scar.bookvault.notification.service;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class NotificationHistoryTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final NotificationHistory history = new NotificationHistory(mongoTemplate, Duration.ofDays(30), 50);
+
+    @Test
+    void returnsCursorOfLastItemWhenMoreRemain() {
+        List<Map> docs = docs(4);
+        when(mongoTemplate.find(any(Query.class), eq(Map.class), eq(NotificationWriter.COLLECTION))).thenReturn(docs);
+
+        NotificationPage page = history.page(7L, null, null, null, 3);
+
+        assertEquals(3, page.items().size());
+        Map last = docs.get(2);
+        assertEquals(((Date) last.get("createdAt")).getTime() + "-" + last.get("_id"), page.nextCursor());
+        assertEquals(last.get("_id").toString(), page.items().get(2).get("_id"));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        when(mongoTemplate.find(any(Query.class), eq(Map.class), eq(NotificationWriter.COLLECTION))).thenReturn(docs(2));
+
+        assertNull(history.page(null, null, null, null, 3).nextCursor());
+    }
+
+    @Test
+    void queryFollowsIndexOrderAndFetchesOneExtra() {
+        when(mongoTemplate.find(any(Query.class), eq(Map.class), eq(NotificationWriter.COLLECTION))).thenReturn(List.of());
+        ObjectId id = new ObjectId();
+
+        history.page(7L, null, "LOAN_OVERDUE", "1700000000000-" + id.toHexString(), 500);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Map.class), eq(NotificationWriter.COLLECTION));
+        assertEquals(51, query.getValue().getLimit());
+        assertEquals(-1, query.getValue().getSortObject().get("createdAt"));
+        assertEquals(-1, query.getValue().getSortObject().get("_id"));
+        String filter = query.getValue().getQueryObject().toJson();
+        assertTrue(filter.contains("userId"));
+        assertTrue(filter.contains("LOAN_OVERDUE"));
+        assertTrue(filter.contains(id.toHexString()));
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> history.page(null, null, null, "not-a-cursor", null));
+    }
+
+    private static List<Map> docs(int count) {
+        List<Map> docs = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("_id", new ObjectId());
+            doc.put("userId", 7L);
+            doc.put("createdAt", new Date(now - i * 1000L));
+            docs.add(doc);
+        }
+        return docs;
+    }
+}
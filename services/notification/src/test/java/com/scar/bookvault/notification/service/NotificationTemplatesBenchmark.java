@@ -0,0 +1,74 @@
+package com.scar.bookvault.notification.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thông lượng render email thông báo qua NotificationTemplates, so với String.format trước đây.
+ * Chạy bằng main (mvn test-compile rồi chạy class với classpath test), không nằm trong mvn test.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class NotificationTemplatesBenchmark {
+
+    @Param({"en", "vi"})
+    public String language;
+
+    private NotificationTemplates templates;
+    private Locale locale;
+    private final Map<String, Object> variables = Map.of(
+            "bookTitle", "Dế Mèn phiêu lưu ký",
+            "dueDate", "2026-11-02",
+            "daysUntilDue", 3);
+
+    @Setup
+    public void setUp() {
+        templates = new NotificationTemplates("en");
+        templates.warmUp();
+        locale = Locale.forLanguageTag(language);
+    }
+
+    @Benchmark
+    public NotificationTemplates.RenderedEmail template() {
+        return templates.render(NotificationTemplates.LOAN_DUE_REMINDER, locale, variables);
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format(
+                "Dear User,\n\n" +
+                "This is a reminder that your loan is due in %d days.\n\n" +
+                "Book: %s\n" +
+                "Due Date: %s\n\n" +
+                "Please make sure to return the book on time to avoid any fines.\n\n" +
+                "If you need more time, please contact the library to extend your loan.\n\n" +
+                "Thank you for using BookVault!",
+                variables.get("daysUntilDue"), variables.get("bookTitle"), variables.get("dueDate"));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(NotificationTemplatesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,49 @@
+package com.scar.bookvault.notification.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationTemplatesTest {
+
+    private final NotificationTemplates templates = new NotificationTemplates("en");
+
+    @Test
+    void englishTemplateMatchesPreviousEmail() {
+        NotificationTemplates.RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_OVERDUE, Locale.ENGLISH,
+                Map.of("bookTitle", "Clean Code", "overdueDays", 4));
+
+        assertEquals("Loan Overdue Reminder - BookVault", rendered.subject());
+        assertEquals(String.format(
+                "Dear User,\n\n" +
+                "Your loan is overdue by %d days!\n\n" +
+                "Book: %s\n\n" +
+                "Please return the book as soon as possible to avoid additional fines.\n\n" +
+                "If you have already returned the book, please ignore this message.\n\n" +
+                "Thank you for using BookVault!",
+                4, "Clean Code"), rendered.body());
+    }
+
+    @Test
+    void vietnameseTemplateIsUsedForViLocale() {
+        NotificationTemplates.RenderedEmail rendered = templates.render(NotificationTemplates.LOAN_RETURNED,
+                templates.locale("vi-VN"), Map.of("bookTitle", "Số đỏ"));
+
+        assertEquals("Trả sách thành công - BookVault", rendered.subject());
+        assertTrue(rendered.body().contains("Sách: Số đỏ"));
+    }
+
+    @Test
+    void unknownLocaleFallsBackToDefault() {
+        assertEquals(Locale.ENGLISH, templates.locale("fr"));
+        assertEquals(Locale.ENGLISH, templates.locale(null));
+    }
+
+    @Test
+    void everyTemplateExistsForEveryLocale() {
+        assertDoesNotThrow(templates::warmUp);
+    }
+}
@@ -0,0 +1,126 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class NotificationWriterTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private NotificationWriter writer;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void flushesFullBatchesWithOneBulkInsert() throws InterruptedException {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, NotificationWriter.COLLECTION)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        writer = new NotificationWriter(mongoTemplate, meterRegistry, 100, Duration.ofSeconds(10), 1000);
+
+        CountDownLatch acked = new CountDownLatch(300);
+        for (int i = 0; i < 300; i++) {
+            writer.write(doc(i), acked::countDown);
+        }
+
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        verify(bulk, times(3)).execute();
+        assertEquals(300, meterRegistry.get("notification.store.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void flushesPartialBatchAfterInterval() throws InterruptedException {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, NotificationWriter.COLLECTION)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        writer = new NotificationWriter(mongoTemplate, meterRegistry, 100, Duration.ofMillis(50), 1000);
+
+        CountDownLatch acked = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            writer.write(doc(i), acked::countDown);
+        }
+
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        verify(bulk, times(1)).execute();
+    }
+
+    @Test
+    void doesNotAcknowledgeUntilInsertSucceeds() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, NotificationWriter.COLLECTION)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenAnswer(invocation -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new DataAccessResourceFailureException("mongo down");
+            }
+            return null;
+        });
+        writer = new NotificationWriter(mongoTemplate, meterRegistry, 10, Duration.ofMillis(10), 100);
+
+        CountDownLatch acked = new CountDownLatch(1);
+        writer.write(doc(1), acked::countDown);
+
+        assertFalse(acked.await(150, TimeUnit.MILLISECONDS));
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(2, meterRegistry.get("notification.store.retries").counter().count());
+    }
+
+    @Test
+    void assignsIdBeforeInsert() throws InterruptedException {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, NotificationWriter.COLLECTION)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        writer = new NotificationWriter(mongoTemplate, meterRegistry, 10, Duration.ofMillis(10), 100);
+
+        Map<String, Object> doc = doc(1);
+        CountDownLatch acked = new CountDownLatch(1);
+        writer.write(doc, acked::countDown);
+
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        assertNotNull(doc.get("_id"));
+        verify(bulk).insert(List.of(doc));
+    }
+
+    @Test
+    void flushesBufferedDocumentsOnStop() throws InterruptedException {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, NotificationWriter.COLLECTION)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        writer = new NotificationWriter(mongoTemplate, meterRegistry, 1000, Duration.ofMinutes(1), 1000);
+
+        AtomicInteger acked = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            writer.write(doc(i), acked::incrementAndGet);
+        }
+        writer.stop();
+
+        assertEquals(20, acked.get());
+    }
+
+    private static Map<String, Object> doc(int i) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("type", "LOAN_OVERDUE");
+        doc.put("email", "reader" + i + "@bookvault.test");
+        return doc;
+    }
+}
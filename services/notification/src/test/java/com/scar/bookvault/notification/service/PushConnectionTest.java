@@ -0,0 +1,51 @@
+package com.scar.bookvault.notification.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PushConnectionTest {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final WebSocketSession session = mock(WebSocketSession.class);
+    private final List<WebSocketMessage<?>> sent = new ArrayList<>();
+
+    @Test
+    void fullBufferDropsOldestMessage() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> sent.add(invocation.getArgument(0))).when(session).sendMessage(any());
+        PushConnection connection = new PushConnection(session, 1L, 2, tasks::add, outbound -> { });
+
+        assertFalse(connection.offer(new TextMessage("a")));
+        assertFalse(connection.offer(new TextMessage("b")));
+        assertTrue(connection.offer(new TextMessage("c")));
+        assertEquals(1, tasks.size(), "one drain task per connection at a time");
+
+        tasks.poll().run();
+        assertEquals(List.of(new TextMessage("b"), new TextMessage("c")), sent);
+    }
+
+    @Test
+    void pingIsSkippedWhileMessagesArePending() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> sent.add(invocation.getArgument(0))).when(session).sendMessage(any());
+        PushConnection connection = new PushConnection(session, 1L, 1, tasks::add, outbound -> { });
+
+        connection.offer(new TextMessage("a"));
+        connection.ping(new PingMessage());
+        tasks.poll().run();
+
+        assertEquals(List.of(new TextMessage("a")), sent);
+    }
+}
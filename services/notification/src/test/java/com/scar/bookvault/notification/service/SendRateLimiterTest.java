@@ -0,0 +1,112 @@
+package com.scar.bookvault.notification.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SendRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(1_000 * SECOND);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void burstIsImmediateThenSendsAreSpacedByRate() {
+        SendRateLimiter limiter = limiter(10, 5, 100, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.reserve("user" + i + "@bookvault.com"));
+        }
+        assertEquals(SECOND / 10, limiter.reserve("user5@bookvault.com"));
+        assertEquals(2 * SECOND / 10, limiter.reserve("user6@bookvault.com"));
+        assertEquals(2, meterRegistry.get("notification.ratelimit.deferred").tag("limit", "global").counter().count());
+    }
+
+    @Test
+    void tokensRefillOverTime() {
+        SendRateLimiter limiter = limiter(10, 1, 100, 100);
+
+        assertEquals(0, limiter.reserve("a@bookvault.com"));
+        assertTrue(limiter.reserve("b@bookvault.com") > 0);
+        now.addAndGet(SECOND);
+        assertEquals(0, limiter.reserve("c@bookvault.com"));
+    }
+
+    @Test
+    void domainsAreLimitedIndependently() {
+        SendRateLimiter limiter = limiter(1000, 1000, 1, 2);
+
+        assertEquals(0, limiter.reserve("a@gmail.com"));
+        assertEquals(0, limiter.reserve("b@GMAIL.com"));
+        assertEquals(SECOND, limiter.reserve("c@gmail.com"));
+        assertEquals(0, limiter.reserve("a@bookvault.com"));
+        assertEquals(1, meterRegistry.get("notification.ratelimit.deferred").tag("limit", "domain").counter().count());
+    }
+
+    @Test
+    void domainDeferredSendHoldsGlobalTokenAtItsSendTime() {
+        SendRateLimiter limiter = limiter(10, 1, 1, 1);
+
+        assertEquals(0, limiter.reserve("a@gmail.com"));
+        assertEquals(SECOND, limiter.reserve("b@gmail.com"));
+
+        // b được gửi lúc +1s nên token chung của lượt đó đã bị giữ, c phải chờ lượt kế tiếp
+        now.addAndGet(SECOND);
+        assertEquals(SECOND / 10, limiter.reserve("c@bookvault.com"));
+    }
+
+    @Test
+    void idleDomainBucketsAreEvicted() {
+        SendRateLimiter limiter = limiter(1000, 1000, 1, 1);
+        limiter.reserve("a@gmail.com");
+        limiter.reserve("a@yahoo.com");
+
+        limiter.evictIdleDomains();
+        assertEquals(2, meterRegistry.get("notification.ratelimit.domains").gauge().value());
+
+        now.addAndGet(2 * SECOND);
+        limiter.evictIdleDomains();
+        assertEquals(0, meterRegistry.get("notification.ratelimit.domains").gauge().value());
+    }
+
+    @Test
+    void concurrentReservationsNeverOverbook() throws InterruptedException {
+        SendRateLimiter limiter = limiter(100, 10, 1000, 1000);
+        AtomicLong immediate = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            executor.execute(() -> {
+                if (limiter.reserve("user" + n + "@bookvault.com") == 0) {
+                    immediate.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Đồng hồ đứng yên nên chỉ đúng burst email được gửi ngay, phần còn lại được xếp lịch
+        assertEquals(10, immediate.get());
+        assertEquals(990, meterRegistry.get("notification.ratelimit.deferred").tag("limit", "global").counter().count());
+    }
+
+    @Test
+    void disabledLimiterNeverDefers() {
+        SendRateLimiter limiter = new SendRateLimiter(meterRegistry, false, 1, 1, 1, 1, now::get);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.reserve("a@gmail.com"));
+        }
+    }
+
+    private SendRateLimiter limiter(double globalPerSecond, int globalBurst, double domainPerSecond, int domainBurst) {
+        return new SendRateLimiter(meterRegistry, true, globalPerSecond, globalBurst, domainPerSecond, domainBurst, now::get);
+    }
+}
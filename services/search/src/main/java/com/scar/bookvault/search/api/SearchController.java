@@ -1,8 +1,16 @@
 package com.scar.bookvault.search.api;
 
 import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.service.BookFacetService;
+import com.scar.bookvault.search.service.BookSuggestion;
+import com.scar.bookvault.search.service.FacetedSearchResult;
+import com.scar.bookvault.search.service.ReindexService;
+import com.scar.bookvault.search.service.ScrollPage;
 import com.scar.bookvault.search.service.SearchService;
+import com.scar.bookvault.search.service.SuggestService;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -13,39 +21,87 @@ import java.util.Map;
 @RequestMapping("/api/search/v1")
 public class SearchController {
     
+    // Giới hạn kích thước trang và độ sâu from+size (index.max_result_window), sâu hơn thì dùng /books/scroll
+    private static final int MAX_LIMIT = 100;
+    private static final int MAX_WINDOW = 10_000;
+    
     private final SearchService searchService;
+    // Chỉ có với backend elasticsearch
+    private final ObjectProvider<ReindexService> reindexService;
+    private final ObjectProvider<BookFacetService> bookFacetService;
+    private final SuggestService suggestService;
     
-    public SearchController(SearchService searchService) {
+    public SearchController(SearchService searchService, ObjectProvider<ReindexService> reindexService,
+                            ObjectProvider<BookFacetService> bookFacetService, SuggestService suggestService) {
         this.searchService = searchService;
+        this.reindexService = reindexService;
+        this.bookFacetService = bookFacetService;
+        this.suggestService = suggestService;
     }
     
     // Tìm kiếm full-text với query parameter
     @GetMapping("/books")
     public ResponseEntity<List<BookDocument>> searchBooks(
             @RequestParam(required = false) String q,
-            @RequestParam(required = false, defaultValue = "10") int limit) {
+            @RequestParam(required = false, defaultValue = "10") int limit,
+            @RequestParam(required = false, defaultValue = "0") int offset) {
         
-        if (q == null || q.trim().isEmpty()) {
+        if (q == null || q.trim().isEmpty() || offset < 0 || offset + limit > MAX_WINDOW) {
             return ResponseEntity.badRequest().build();
         }
         
-        List<BookDocument> results = searchService.searchBooks(q);
-        return ResponseEntity.ok(results.stream()
-                .limit(limit)
-                .toList());
+        List<BookDocument> results = searchService.searchBooks(q, offset, clampLimit(limit));
+        return ResponseEntity.ok(results);
+    }
+    
+    // Gợi ý type-ahead theo prefix của title/author, thay cho full-text search mỗi lần gõ phím
+    @GetMapping("/suggest")
+    public ResponseEntity<List<BookSuggestion>> suggest(
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = "10") int size) {
+        
+        return ResponseEntity.ok(suggestService.suggest(prefix, size));
+    }
+    
+    // Phân trang sâu (search_after + point-in-time), dùng khi cần duyệt qua nhiều kết quả
+    @GetMapping("/books/scroll")
+    public ResponseEntity<ScrollPage> scrollBooks(
+            @RequestParam(required = false) String q,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(required = false) String cursor) {
+        
+        try {
+            return ResponseEntity.ok(searchService.scrollBooks(q, clampLimit(size), cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
     
     // Tìm kiếm theo title
     @GetMapping("/books/title/{title}")
-    public ResponseEntity<List<BookDocument>> searchByTitle(@PathVariable String title) {
-        List<BookDocument> results = searchService.searchByTitle(title);
+    public ResponseEntity<List<BookDocument>> searchByTitle(
+            @PathVariable String title,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "0") int offset) {
+        
+        if (offset < 0 || offset + limit > MAX_WINDOW) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<BookDocument> results = searchService.searchByTitle(title, offset, clampLimit(limit));
         return ResponseEntity.ok(results);
     }
     
     // Tìm kiếm theo author
     @GetMapping("/books/author/{author}")
-    public ResponseEntity<List<BookDocument>> searchByAuthor(@PathVariable String author) {
-        List<BookDocument> results = searchService.searchByAuthor(author);
+    public ResponseEntity<List<BookDocument>> searchByAuthor(
+            @PathVariable String author,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "0") int offset) {
+        
+        if (offset < 0 || offset + limit > MAX_WINDOW) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<BookDocument> results = searchService.searchByAuthor(author, offset, clampLimit(limit));
         return ResponseEntity.ok(results);
     }
     
@@ -64,14 +120,24 @@ public class SearchController {
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
         
-        Page<BookDocument> results = searchService.searchWithPagination(query, page, size);
+        if (!withinWindow(page, size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Page<BookDocument> results = searchService.searchWithPagination(query, page, clampLimit(size));
         return ResponseEntity.ok(results);
     }
     
     // Tìm kiếm theo category
     @GetMapping("/books/category/{category}")
-    public ResponseEntity<List<BookDocument>> searchByCategory(@PathVariable String category) {
-        List<BookDocument> results = searchService.searchByCategory(category);
+    public ResponseEntity<List<BookDocument>> searchByCategory(
+            @PathVariable String category,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "0") int offset) {
+        
+        if (offset < 0 || offset + limit > MAX_WINDOW) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<BookDocument> results = searchService.searchByCategory(category, offset, clampLimit(limit));
         return ResponseEntity.ok(results);
     }
     
@@ -104,17 +170,65 @@ public class SearchController {
         return ResponseEntity.ok().build();
     }
     
-    // Thống kê
+    // Admin: Rebuild toàn bộ index từ catalog rồi chuyển alias
+    @PostMapping("/admin/reindex")
+    public ResponseEntity<Map<String, Object>> startReindex() {
+        ReindexService reindex = reindexService.getIfAvailable();
+        if (reindex == null) {
+            return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        }
+        boolean started = reindex.start();
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT)
+                .body(reindex.status());
+    }
+    
+    // Admin: Tiến độ reindex
+    @GetMapping("/admin/reindex")
+    public ResponseEntity<Map<String, Object>> reindexStatus() {
+        ReindexService reindex = reindexService.getIfAvailable();
+        if (reindex == null) {
+            return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        }
+        return ResponseEntity.ok(reindex.status());
+    }
+    
+    // Thống kê (count + aggregation, không tải document)
     @GetMapping("/stats")
     public ResponseEntity<Map<String, Object>> getStats() {
-        long totalBooks = searchService.countBooks();
-        List<BookDocument> allBooks = searchService.getAllBooks();
-        
-        Map<String, Object> stats = Map.of(
-                "totalBooks", totalBooks,
-                "indexedBooks", allBooks.size()
-        );
+        BookFacetService facets = bookFacetService.getIfAvailable();
+        if (facets == null) {
+            // Backend embedded: chỉ có tổng số sách
+            return ResponseEntity.ok(Map.of("totalBooks", searchService.countBooks()));
+        }
+        return ResponseEntity.ok(facets.getStats());
+    }
+    
+    // Tìm kiếm kèm facet: hits và số lượng theo category/author/availability trong một query
+    @GetMapping("/books/faceted")
+    public ResponseEntity<FacetedSearchResult> searchFaceted(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String author,
+            @RequestParam(required = false) Boolean inStock,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size) {
         
-        return ResponseEntity.ok(stats);
+        if (!withinWindow(page, size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        BookFacetService facets = bookFacetService.getIfAvailable();
+        if (facets == null) {
+            return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        }
+        return ResponseEntity.ok(facets.search(q, category, author, inStock, page, clampLimit(size)));
+    }
+    
+    private static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+    
+    // page/size như offset/limit của các endpoint khác: trang âm hoặc vượt MAX_WINDOW (tính theo size đã kẹp) là 400
+    private static boolean withinWindow(int page, int size) {
+        return page >= 0 && (long) (page + 1) * clampLimit(size) <= MAX_WINDOW;
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.scar.bookvault.search.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.RestClientBuilder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.elasticsearch.RestClientBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+// Đo round-trip của mọi request tới Elasticsearch (repository, client, reindex) ở tầng HTTP
+@Configuration
+@ConditionalOnProperty(name = "search.backend", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchMetricsConfig {
+
+    private static final String START_NANOS = "search.metrics.start-nanos";
+
+    @Bean
+    public RestClientBuilderCustomizer elasticsearchTimingCustomizer(MeterRegistry meterRegistry) {
+        return new RestClientBuilderCustomizer() {
+            @Override
+            public void customize(RestClientBuilder builder) {
+            }
+
+            @Override
+            public void customize(HttpAsyncClientBuilder builder) {
+                builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) ->
+                        context.setAttribute(START_NANOS, System.nanoTime()));
+                // Chạy khi nhận được status và header, chưa gồm thời gian đọc body
+                builder.addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+                    Object start = context.getAttribute(START_NANOS);
+                    HttpRequest request = HttpCoreContext.adapt(context).getRequest();
+                    if (!(start instanceof Long startNanos) || request == null) {
+                        return;
+                    }
+                    Timer.builder("search.elasticsearch.requests")
+                            .description("Round-trip time of requests to Elasticsearch")
+                            .tag("endpoint", endpoint(request.getRequestLine().getUri()))
+                            .tag("method", request.getRequestLine().getMethod())
+                            .tag("status", String.valueOf(response.getStatusLine().getStatusCode()))
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)
+                            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                });
+            }
+        };
+    }
+
+    // API của request (_search, _bulk, _update, _doc, _pit...) thay vì cả đường dẫn, để số time series không
+    // tăng theo id hay tên index; request vào thẳng index (tạo, kiểm tra tồn tại) là "index"
+    static String endpoint(String uri) {
+        int query = uri.indexOf('?');
+        String path = query >= 0 ? uri.substring(0, query) : uri;
+        for (String segment : path.split("/")) {
+            if (segment.startsWith("_")) {
+                return segment;
+            }
+        }
+        return "index";
+    }
+}
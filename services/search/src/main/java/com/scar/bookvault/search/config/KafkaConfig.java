@@ -0,0 +1,54 @@
+package com.scar.bookvault.search.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.ExponentialBackOff;
+
+@Configuration
+public class KafkaConfig {
+
+    // Event không đọc được của mọi topic book.*; header của DeadLetterPublishingRecoverer giữ topic,
+    // partition, offset gốc và lỗi để replay sau khi sửa
+    public static final String DEAD_LETTER_TOPIC = "search.events.dlt";
+
+    // Batch lỗi được gửi lại với backoff tăng dần và không giới hạn thời gian: lỗi tạm thời (Elasticsearch
+    // không truy cập được) không được làm bỏ qua batch và commit offset. Áp dụng lại an toàn vì mỗi
+    // thay đổi có version. Chỉ record không thể xử lý (IllegalArgumentException: không đọc được, xem
+    // BookEventConsumer, hoặc bị Elasticsearch từ chối vĩnh viễn, xem RejectedChangesException) được
+    // chuyển ngay vào DLT.
+    @Bean
+    public CommonErrorHandler kafkaErrorHandler(KafkaTemplate<?, ?> kafkaTemplate) {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(kafkaTemplate,
+                (record, e) -> new TopicPartition(DEAD_LETTER_TOPIC, -1));
+        ExponentialBackOff backOff = new ExponentialBackOff(1000L, 2.0);
+        backOff.setMaxInterval(30_000L);
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, backOff);
+        errorHandler.addNotRetryableExceptions(IllegalArgumentException.class);
+        return errorHandler;
+    }
+
+    // Event của cùng một book (key là bookId) luôn vào một partition, nên tăng concurrency vẫn giữ
+    // thứ tự theo book mà BookEventConsumer dựa vào (xem md/KAFKA_PARTITIONING.md)
+    @Bean
+    public KafkaAdmin.NewTopics bookTopics(@Value("${search.kafka.book-partitions:6}") int partitions) {
+        return new KafkaAdmin.NewTopics(
+                bookTopic("book.created", partitions),
+                bookTopic("book.updated", partitions),
+                bookTopic("book.deleted", partitions),
+                bookTopic("book.rating.summary", partitions),
+                TopicBuilder.name(DEAD_LETTER_TOPIC).partitions(1).build());
+    }
+
+    private static NewTopic bookTopic(String name, int partitions) {
+        return TopicBuilder.name(name).partitions(partitions).build();
+    }
+}
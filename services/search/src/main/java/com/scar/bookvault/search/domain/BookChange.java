@@ -0,0 +1,67 @@
+package com.scar.bookvault.search.domain;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thay đổi cần áp dụng lên một BookDocument, xác định theo id.
+ *
+ * fields chỉ chứa các field thực sự có trong event, để update là partial update.
+ * version là version ngoài (lấy từ timestamp/sequence của event); 0 nghĩa là không có version
+ * và thay đổi luôn được áp dụng. deleted = true nghĩa là xóa document. replace = true nghĩa là
+ * document được tạo lại chỉ từ fields (update đến sau một lần xóa), không giữ field nào của document cũ.
+ */
+public record BookChange(Long bookId, boolean deleted, boolean replace, Long version, Map<String, Object> fields) {
+
+    public BookChange(Long bookId, Long version, Map<String, Object> fields) {
+        this(bookId, false, false, version, fields);
+    }
+
+    public BookChange {
+        if (bookId == null) {
+            throw new IllegalArgumentException("bookId is required");
+        }
+        version = version != null ? version : 0L;
+        fields = fields != null ? Collections.unmodifiableMap(new LinkedHashMap<>(fields)) : Map.of();
+    }
+
+    public static BookChange deletion(Long bookId, Long version) {
+        return new BookChange(bookId, true, false, version, Map.of());
+    }
+
+    // Version = micro giây kể từ epoch, đủ mịn để hai update liên tiếp của cùng một book không trùng version
+    public static long versionAt(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+
+    // Giá trị createdAt/updatedAt trên document: LocalDateTime theo UTC, độ chính xác mili giây
+    public static String documentDate(Instant instant) {
+        return LocalDateTime.ofInstant(instant, ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS).toString();
+    }
+
+    public boolean isVersioned() {
+        return version > 0;
+    }
+
+    // Gộp với thay đổi đến sau của cùng book: field sau ghi đè field trước. Xóa rồi update thành
+    // thay đổi replace để không giữ lại field nào của document trước khi xóa.
+    public BookChange mergeWith(BookChange later) {
+        if (!bookId.equals(later.bookId)) {
+            throw new IllegalArgumentException("Cannot merge changes of different books");
+        }
+        if (later.deleted || later.replace) {
+            return later;
+        }
+        if (deleted) {
+            return new BookChange(bookId, false, true, later.version, later.fields);
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(fields);
+        merged.putAll(later.fields);
+        return new BookChange(bookId, false, replace, Math.max(version, later.version), merged);
+    }
+}
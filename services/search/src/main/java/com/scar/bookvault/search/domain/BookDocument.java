@@ -1,11 +1,16 @@
 package com.scar.bookvault.search.domain;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.CompletionField;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Document(indexName = "books")
 public class BookDocument {
@@ -16,7 +21,10 @@ public class BookDocument {
     @Field(type = FieldType.Text, analyzer = "standard")
     private String title;
     
-    @Field(type = FieldType.Text, analyzer = "standard")
+    // author.keyword dùng cho aggregation/facet theo tác giả
+    @MultiField(
+            mainField = @Field(type = FieldType.Text, analyzer = "standard"),
+            otherFields = @InnerField(suffix = "keyword", type = FieldType.Keyword, ignoreAbove = 256))
     private String author;
     
     @Field(type = FieldType.Keyword)
@@ -37,6 +45,35 @@ public class BookDocument {
     @Field(type = FieldType.Keyword)
     private String category;
     
+    // Version ngoài của event cuối cùng đã áp dụng, dùng để bỏ qua event đến trễ
+    @Field(type = FieldType.Long)
+    private Long eventVersion;
+    
+    // Tín hiệu xếp hạng, xem PopularityRanking. popularity là tổng lượt mượn đã suy giảm tới
+    // popularityAt (epoch millis); ratingScore là điểm đánh giá đã chuẩn hóa về [0, 1]
+    @Field(type = FieldType.Double)
+    private Double popularity;
+    
+    @Field(type = FieldType.Long)
+    private Long popularityAt;
+    
+    // Offset cuối đã cộng vào popularity theo từng topic-partition, để bỏ qua record giao lại
+    @Field(type = FieldType.Object, enabled = false)
+    private Map<String, Long> signalOffsets;
+    
+    @Field(type = FieldType.Double)
+    private Double ratingAverage;
+    
+    @Field(type = FieldType.Long)
+    private Long ratingCount;
+    
+    @Field(type = FieldType.Double)
+    private Double ratingScore;
+    
+    // Input cho completion suggester (title và author), dùng cho type-ahead
+    @CompletionField(maxInputLength = 100)
+    private Completion suggest;
+    
     // Constructors
     public BookDocument() {}
     
@@ -123,6 +160,70 @@ public class BookDocument {
         this.category = category;
     }
     
+    public Long getEventVersion() {
+        return eventVersion;
+    }
+    
+    public void setEventVersion(Long eventVersion) {
+        this.eventVersion = eventVersion;
+    }
+    
+    public Double getPopularity() {
+        return popularity;
+    }
+    
+    public void setPopularity(Double popularity) {
+        this.popularity = popularity;
+    }
+    
+    public Long getPopularityAt() {
+        return popularityAt;
+    }
+    
+    public void setPopularityAt(Long popularityAt) {
+        this.popularityAt = popularityAt;
+    }
+    
+    public Map<String, Long> getSignalOffsets() {
+        return signalOffsets;
+    }
+    
+    public void setSignalOffsets(Map<String, Long> signalOffsets) {
+        this.signalOffsets = signalOffsets;
+    }
+    
+    public Double getRatingAverage() {
+        return ratingAverage;
+    }
+    
+    public void setRatingAverage(Double ratingAverage) {
+        this.ratingAverage = ratingAverage;
+    }
+    
+    public Long getRatingCount() {
+        return ratingCount;
+    }
+    
+    public void setRatingCount(Long ratingCount) {
+        this.ratingCount = ratingCount;
+    }
+    
+    public Double getRatingScore() {
+        return ratingScore;
+    }
+    
+    public void setRatingScore(Double ratingScore) {
+        this.ratingScore = ratingScore;
+    }
+    
+    public Completion getSuggest() {
+        return suggest;
+    }
+    
+    public void setSuggest(Completion suggest) {
+        this.suggest = suggest;
+    }
+    
     @Override
     public String toString() {
         return "BookDocument{" +
@@ -133,4 +234,4 @@ public class BookDocument {
                 ", quantity=" + quantity +
                 '}';
     }
-}
\ No newline at end of file
+}
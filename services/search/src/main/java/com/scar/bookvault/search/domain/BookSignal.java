@@ -0,0 +1,54 @@
+package com.scar.bookvault.search.domain;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tín hiệu xếp hạng của một book (lượt mượn, điểm đánh giá), áp dụng như partial update.
+ *
+ * fields được ghi đè nguyên giá trị. loans là các lượt mượn cộng vào popularity (xem PopularityRanking),
+ * mỗi lượt kèm vị trí record nguồn: document giữ offset cuối đã áp dụng của từng topic-partition nên
+ * record được Kafka giao lại không bị cộng hai lần. Khác với BookChange, tín hiệu không có version và
+ * không bao giờ tạo document mới: tín hiệu của book chưa có (hoặc đã bị xóa) khỏi index bị bỏ qua.
+ */
+public record BookSignal(Long bookId, Map<String, Object> fields, List<Loan> loans) {
+
+    /**
+     * copies cuốn được mượn lúc at (epoch millis), từ record offset của source (topic-partition).
+     * source null: không theo dõi offset (dữ liệu chép lại, không có record nguồn).
+     */
+    public record Loan(String source, long offset, double copies, long at) {
+    }
+
+    public BookSignal {
+        if (bookId == null) {
+            throw new IllegalArgumentException("bookId is required");
+        }
+        fields = fields != null ? Collections.unmodifiableMap(new LinkedHashMap<>(fields)) : Map.of();
+        loans = loans != null ? List.copyOf(loans) : List.of();
+    }
+
+    public static BookSignal loan(Long bookId, String source, long offset, double copies, Instant at) {
+        return new BookSignal(bookId, Map.of(), List.of(new Loan(source, offset, copies, at.toEpochMilli())));
+    }
+
+    public static BookSignal set(Long bookId, Map<String, Object> fields) {
+        return new BookSignal(bookId, fields, List.of());
+    }
+
+    // Gộp với tín hiệu đến sau của cùng book: field sau ghi đè, lượt mượn giữ nguyên thứ tự
+    public BookSignal mergeWith(BookSignal later) {
+        if (!bookId.equals(later.bookId)) {
+            throw new IllegalArgumentException("Cannot merge signals of different books");
+        }
+        Map<String, Object> mergedFields = new LinkedHashMap<>(fields);
+        mergedFields.putAll(later.fields);
+        List<Loan> mergedLoans = new ArrayList<>(loans);
+        mergedLoans.addAll(later.loans);
+        return new BookSignal(bookId, mergedFields, mergedLoans);
+    }
+}
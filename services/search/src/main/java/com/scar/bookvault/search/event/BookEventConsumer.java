@@ -1,111 +1,198 @@
 package com.scar.bookvault.search.event;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.service.RejectedChangesException;
+import com.scar.bookvault.search.service.SearchMetrics;
 import com.scar.bookvault.search.service.SearchService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class BookEventConsumer {
     
     private static final Logger logger = LoggerFactory.getLogger(BookEventConsumer.class);
     
+    // Các field của BookDocument có thể được cập nhật từ event
+    private static final List<String> DOCUMENT_FIELDS = List.of(
+            "title", "author", "isbn", "quantity", "description", "category");
+    
     private final SearchService searchService;
     private final ObjectMapper objectMapper;
+    private final SearchMetrics metrics;
+    // Múi giờ của producer, chỉ dùng cho event cũ có timestamp LocalDateTime không kèm offset
+    private final ZoneId sourceZone;
     
-    public BookEventConsumer(SearchService searchService, ObjectMapper objectMapper) {
+    public BookEventConsumer(SearchService searchService,
+                             ObjectMapper objectMapper,
+                             SearchMetrics metrics,
+                             @Value("${search.events.source-zone:Asia/Ho_Chi_Minh}") ZoneId sourceZone) {
         this.searchService = searchService;
         this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.sourceZone = sourceZone;
     }
     
-    @KafkaListener(topics = "book.created", groupId = "search-service")
-    public void handleBookCreated(String message) {
-        try {
-            logger.info("Received book.created event: {}", message);
-            
-            Map<String, Object> event = objectMapper.readValue(message, Map.class);
-            
-            BookDocument book = new BookDocument();
-            book.setId(Long.parseLong(event.get("bookId").toString()));
-            book.setTitle((String) event.get("title"));
-            book.setAuthor((String) event.get("author"));
-            book.setIsbn((String) event.get("isbn"));
-            book.setQuantity((Integer) event.get("quantity"));
-            
-            // Optional fields
-            if (event.containsKey("description")) {
-                book.setDescription((String) event.get("description"));
+    // Batch listener cho cả ba topic book.*: mỗi poll được gộp thành một request _bulk.
+    // Offset chỉ được commit khi listener trả về, tức là sau khi bulk thành công.
+    @KafkaListener(topics = {"book.created", "book.updated", "book.deleted"}, groupId = "search-service")
+    public void handleBookEvents(List<ConsumerRecord<String, String>> records) {
+        logger.info("Received batch of {} book events", records.size());
+        
+        // Chỉ xử lý tới trước record đầu tiên không đọc được: error handler commit các record trước nó,
+        // chuyển nó vào DLT (KafkaConfig) rồi giao lại phần còn lại
+        List<IndexedChange> parsed = new ArrayList<>(records.size());
+        int invalidIndex = -1;
+        IllegalArgumentException invalid = null;
+        for (int i = 0; i < records.size() && invalid == null; i++) {
+            ConsumerRecord<String, String> record = records.get(i);
+            try {
+                Map<String, Object> event = objectMapper.readValue(record.value(), Map.class);
+                parsed.add(new IndexedChange(i, toChange(record.topic(), event, sourceZone)));
+            } catch (Exception e) {
+                logger.error("Failed to parse {} event at offset {}: {}", record.topic(), record.offset(), record.value(), e);
+                invalidIndex = i;
+                invalid = new IllegalArgumentException("Unreadable " + record.topic() + " event", e);
             }
-            if (event.containsKey("category")) {
-                book.setCategory((String) event.get("category"));
+        }
+        
+        // Gộp các event của cùng một book, theo thứ tự version
+        Map<Long, BookChange> changes = new LinkedHashMap<>();
+        Map<Long, Integer> firstRecordIndex = new HashMap<>();
+        parsed.sort(Comparator.comparingLong(c -> c.change().version()));
+        for (IndexedChange indexed : parsed) {
+            BookChange change = indexed.change();
+            changes.merge(change.bookId(), change, BookChange::mergeWith);
+            firstRecordIndex.merge(change.bookId(), indexed.recordIndex(), Math::min);
+        }
+        
+        Set<Long> failed;
+        RejectedChangesException rejected = null;
+        try {
+            failed = searchService.applyChanges(new ArrayList<>(changes.values()));
+        } catch (RejectedChangesException e) {
+            rejected = e;
+            failed = e.failed();
+        }
+        BatchListenerFailedException failure = bulkFailure(failed, rejected, firstRecordIndex);
+        if (failure != null) {
+            throw failure;
+        }
+        // Timestamp của record là lúc producer gửi event
+        int applied = invalid != null ? invalidIndex : records.size();
+        records.subList(0, applied).forEach(record -> metrics.recordIndexingLag(record.topic(), record.timestamp()));
+        if (invalid != null) {
+            throw new BatchListenerFailedException(invalid.getMessage(), invalid, invalidIndex);
+        }
+        logger.info("Applied {} changes from {} book events", changes.size(), records.size());
+    }
+    
+    private record IndexedChange(int recordIndex, BookChange change) {}
+    
+    // Commit các record trước record lỗi đầu tiên, phần còn lại được gửi lại. Record đầu tiên là của
+    // book bị Elasticsearch từ chối vĩnh viễn thì mang cause IllegalArgumentException để vào DLT.
+    static BatchListenerFailedException bulkFailure(Set<Long> failed, RejectedChangesException rejected,
+                                                    Map<Long, Integer> firstRecordIndex) {
+        int failedIndex = failed.stream().mapToInt(firstRecordIndex::get).min().orElse(Integer.MAX_VALUE);
+        int rejectedIndex = rejected == null ? Integer.MAX_VALUE
+                : rejected.rejected().stream().mapToInt(firstRecordIndex::get).min().orElse(Integer.MAX_VALUE);
+        if (rejectedIndex < failedIndex) {
+            return new BatchListenerFailedException(rejected.getMessage(), rejected, rejectedIndex);
+        }
+        if (failedIndex < Integer.MAX_VALUE) {
+            return new BatchListenerFailedException("Failed to index books " + failed, failedIndex);
+        }
+        return null;
+    }
+    
+    static BookChange toChange(String topic, Map<String, Object> event, ZoneId sourceZone) {
+        return switch (topic) {
+            case "book.created" -> toChange(event, true, sourceZone);
+            case "book.updated" -> toChange(event, false, sourceZone);
+            case "book.deleted" -> BookChange.deletion(
+                    Long.parseLong(event.get("bookId").toString()), eventVersion(event, sourceZone));
+            default -> throw new IllegalArgumentException("Unexpected topic " + topic);
+        };
+    }
+    
+    static BookChange toChange(Map<String, Object> event, boolean created, ZoneId sourceZone) {
+        Long bookId = Long.parseLong(event.get("bookId").toString());
+        
+        // Chỉ gửi các field có trong event
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", bookId);
+        for (String field : DOCUMENT_FIELDS) {
+            if (event.containsKey(field)) {
+                fields.put(field, event.get(field));
             }
-            
-            searchService.indexBook(book);
-            logger.info("Successfully indexed book with ID: {}", book.getId());
-            
-        } catch (Exception e) {
-            logger.error("Failed to process book.created event: {}", message, e);
         }
+        
+        // Ngày trên document theo UTC như snapshot khi reindex
+        Instant updatedAt = event.get("updatedAt") instanceof String text ? parseInstant(text, sourceZone) : null;
+        String date = BookChange.documentDate(updatedAt != null ? updatedAt : Instant.now());
+        if (created) {
+            fields.put("createdAt", date);
+        }
+        fields.put("updatedAt", date);
+        
+        return new BookChange(bookId, eventVersion(event, sourceZone), fields);
     }
     
-    @KafkaListener(topics = "book.updated", groupId = "search-service")
-    public void handleBookUpdated(String message) {
-        try {
-            logger.info("Received book.updated event: {}", message);
-            
-            Map<String, Object> event = objectMapper.readValue(message, Map.class);
-            
-            Long bookId = Long.parseLong(event.get("bookId").toString());
-            
-            // Check if book exists in index
-            searchService.searchBooks(bookId.toString()).stream()
-                    .filter(book -> book.getId().equals(bookId))
-                    .findFirst()
-                    .ifPresent(existingBook -> {
-                        // Update fields if provided
-                        if (event.containsKey("title")) {
-                            existingBook.setTitle((String) event.get("title"));
-                        }
-                        if (event.containsKey("author")) {
-                            existingBook.setAuthor((String) event.get("author"));
-                        }
-                        if (event.containsKey("quantity")) {
-                            existingBook.setQuantity((Integer) event.get("quantity"));
-                        }
-                        if (event.containsKey("description")) {
-                            existingBook.setDescription((String) event.get("description"));
-                        }
-                        if (event.containsKey("category")) {
-                            existingBook.setCategory((String) event.get("category"));
-                        }
-                        
-                        searchService.indexBook(existingBook);
-                        logger.info("Successfully updated book with ID: {}", bookId);
-                    });
-            
-        } catch (Exception e) {
-            logger.error("Failed to process book.updated event: {}", message, e);
+    // Version ngoài của event: ưu tiên sequence/version tường minh, rồi updatedAt của book (cùng nguồn
+    // với version của snapshot khi reindex), cuối cùng là timestamp của event (book.deleted)
+    static long eventVersion(Map<String, Object> event, ZoneId sourceZone) {
+        for (String key : List.of("sequence", "version")) {
+            Object value = event.get(key);
+            if (value instanceof Number number) {
+                return number.longValue();
+            }
+        }
+        
+        Object timestamp = event.get("timestamp");
+        if (timestamp instanceof Number number) {
+            return number.longValue();
+        }
+        for (Object value : new Object[] {event.get("updatedAt"), timestamp}) {
+            if (value instanceof String text && !text.isBlank()) {
+                Instant instant = parseInstant(text, sourceZone);
+                if (instant != null) {
+                    return BookChange.versionAt(instant);
+                }
+            }
         }
+        return 0L;
     }
     
-    @KafkaListener(topics = "book.deleted", groupId = "search-service")
-    public void handleBookDeleted(String message) {
+    // Catalog gửi Instant (UTC); event cũ chỉ có LocalDateTime theo giờ địa phương của producer
+    static Instant parseInstant(String text, ZoneId sourceZone) {
+        try {
+            return OffsetDateTime.parse(text).toInstant();
+        } catch (DateTimeParseException ignored) {
+            // không có offset
+        }
         try {
-            logger.info("Received book.deleted event: {}", message);
-            
-            Map<String, Object> event = objectMapper.readValue(message, Map.class);
-            Long bookId = Long.parseLong(event.get("bookId").toString());
-            
-            searchService.deleteBookFromIndex(bookId);
-            logger.info("Successfully deleted book with ID: {} from search index", bookId);
-            
-        } catch (Exception e) {
-            logger.error("Failed to process book.deleted event: {}", message, e);
+            return LocalDateTime.parse(text).atZone(sourceZone).toInstant();
+        } catch (DateTimeParseException e) {
+            logger.warn("Unparseable event timestamp: {}", text);
+            return null;
         }
     }
-}
\ No newline at end of file
+}
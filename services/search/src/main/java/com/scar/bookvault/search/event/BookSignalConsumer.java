@@ -0,0 +1,123 @@
+package com.scar.bookvault.search.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.search.domain.BookSignal;
+import com.scar.bookvault.search.service.PopularityRanking;
+import com.scar.bookvault.search.service.RejectedChangesException;
+import com.scar.bookvault.search.service.SearchMetrics;
+import com.scar.bookvault.search.service.SearchService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cập nhật tín hiệu xếp hạng trên BookDocument từ event của borrowing và catalog.
+ *
+ * loan.created cộng số cuốn được mượn vào popularity theo thời điểm mượn, kèm topic-partition và
+ * offset của record để document bỏ qua record bị giao lại (xem BookSignal); book.rating.summary ghi đè ratingAverage/ratingCount/ratingScore. Tình trạng còn sách lấy từ
+ * quantity mà catalog gửi qua book.updated sau mỗi lần mượn/trả, nên loan.returned không cần xử lý.
+ */
+@Service
+public class BookSignalConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookSignalConsumer.class);
+
+    private final SearchService searchService;
+    private final ObjectMapper objectMapper;
+    private final SearchMetrics metrics;
+    // Múi giờ của producer cho timestamp LocalDateTime không kèm offset, như BookEventConsumer
+    private final ZoneId sourceZone;
+
+    public BookSignalConsumer(SearchService searchService, ObjectMapper objectMapper, SearchMetrics metrics,
+                              @Value("${search.events.source-zone:Asia/Ho_Chi_Minh}") ZoneId sourceZone) {
+        this.searchService = searchService;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.sourceZone = sourceZone;
+    }
+
+    // Gộp tín hiệu của cả batch theo book rồi ghi một request _bulk
+    @KafkaListener(topics = {"loan.created", "book.rating.summary"}, groupId = "search-service")
+    public void handleSignalEvents(List<ConsumerRecord<String, String>> records) {
+        // Như BookEventConsumer: chỉ xử lý tới trước record đầu tiên không đọc được, record đó vào DLT
+        Map<Long, BookSignal> signals = new LinkedHashMap<>();
+        Map<Long, Integer> firstRecordIndex = new HashMap<>();
+        int invalidIndex = -1;
+        IllegalArgumentException invalid = null;
+        for (int i = 0; i < records.size() && invalid == null; i++) {
+            ConsumerRecord<String, String> record = records.get(i);
+            try {
+                Map<String, Object> event = objectMapper.readValue(record.value(), Map.class);
+                BookSignal signal = toSignal(record, event);
+                signals.merge(signal.bookId(), signal, BookSignal::mergeWith);
+                firstRecordIndex.putIfAbsent(signal.bookId(), i);
+            } catch (Exception e) {
+                logger.error("Failed to parse {} event at offset {}: {}", record.topic(), record.offset(), record.value(), e);
+                invalidIndex = i;
+                invalid = new IllegalArgumentException("Unreadable " + record.topic() + " event", e);
+            }
+        }
+
+        Set<Long> failed;
+        RejectedChangesException rejected = null;
+        try {
+            failed = searchService.applySignals(new ArrayList<>(signals.values()));
+        } catch (RejectedChangesException e) {
+            rejected = e;
+            failed = e.failed();
+        }
+        BatchListenerFailedException failure = BookEventConsumer.bulkFailure(failed, rejected, firstRecordIndex);
+        if (failure != null) {
+            throw failure;
+        }
+        // Timestamp của record là lúc producer gửi event
+        int applied = invalid != null ? invalidIndex : records.size();
+        records.subList(0, applied).forEach(record -> metrics.recordIndexingLag(record.topic(), record.timestamp()));
+        if (invalid != null) {
+            throw new BatchListenerFailedException(invalid.getMessage(), invalid, invalidIndex);
+        }
+        logger.debug("Applied ranking signals for {} books from {} events", signals.size(), records.size());
+    }
+
+    BookSignal toSignal(ConsumerRecord<String, String> record, Map<String, Object> event) {
+        Long bookId = Long.parseLong(event.get("bookId").toString());
+        return switch (record.topic()) {
+            case "loan.created" -> {
+                int copies = event.get("quantity") instanceof Number number ? Math.max(1, number.intValue()) : 1;
+                yield BookSignal.loan(bookId, record.topic() + "-" + record.partition(), record.offset(),
+                        copies, eventTime(event));
+            }
+            case "book.rating.summary" -> ratingSignal(bookId, event);
+            default -> throw new IllegalArgumentException("Unexpected topic " + record.topic());
+        };
+    }
+
+    private static BookSignal ratingSignal(Long bookId, Map<String, Object> event) {
+        long count = event.get("ratingCount") instanceof Number number ? number.longValue() : 0L;
+        double average = event.get("ratingAverage") instanceof Number number ? number.doubleValue() : 0.0;
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("ratingCount", count);
+        fields.put("ratingAverage", count > 0 ? average : null);
+        fields.put("ratingScore", PopularityRanking.ratingScore(average, count));
+        return BookSignal.set(bookId, fields);
+    }
+
+    // Thời điểm mượn theo timestamp của event, đọc theo múi giờ của producer như version của book event
+    private Instant eventTime(Map<String, Object> event) {
+        Instant at = event.get("timestamp") instanceof String text ? BookEventConsumer.parseInstant(text, sourceZone) : null;
+        return at != null ? at : Instant.now();
+    }
+}
@@ -0,0 +1,99 @@
+package com.scar.bookvault.search.event;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Consumer lag của group search-service theo từng topic/partition: offset cuối của partition trừ
+ * offset đã commit.
+ *
+ * Khác với records-lag mà Kafka client tự báo, lag này đọc từ broker nên vẫn tăng khi consumer
+ * bị treo hoặc đã chết, và chỉ giảm khi offset được commit (tức là sau khi đã ghi vào index).
+ */
+@Component
+public class ConsumerLagMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerLagMonitor.class);
+
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+
+    private final Admin admin;
+    private final String groupId;
+    private final MultiGauge lagGauge;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "consumer-lag");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ConsumerLagMonitor(KafkaAdmin kafkaAdmin,
+                              MeterRegistry meterRegistry,
+                              @Value("${spring.kafka.consumer.group-id:search-service}") String groupId,
+                              @Value("${search.metrics.consumer-lag-interval:15s}") Duration interval) {
+        this.admin = Admin.create(kafkaAdmin.getConfigurationProperties());
+        this.groupId = groupId;
+        this.lagGauge = MultiGauge.builder("search.consumer.lag")
+                .description("Records not yet committed by the search consumer group")
+                .baseUnit("records")
+                .register(meterRegistry);
+        executor.scheduleWithFixedDelay(this::refresh, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+        admin.close(Duration.ofSeconds(5));
+    }
+
+    // Partition chưa từng được commit không có trong kết quả
+    void refresh() {
+        try {
+            Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(groupId)
+                    .partitionsToOffsetAndMetadata()
+                    .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+            committed.forEach((partition, offset) -> {
+                if (offset != null) {
+                    latest.put(partition, OffsetSpec.latest());
+                }
+            });
+            Map<TopicPartition, ListOffsetsResultInfo> endOffsets = admin.listOffsets(latest)
+                    .all()
+                    .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            List<MultiGauge.Row<?>> rows = new ArrayList<>(endOffsets.size());
+            endOffsets.forEach((partition, end) -> {
+                long lag = Math.max(0, end.offset() - committed.get(partition).offset());
+                rows.add(MultiGauge.Row.of(Tags.of("topic", partition.topic(), "partition", String.valueOf(partition.partition())), lag));
+            });
+            lagGauge.register(rows, true);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Failed to read consumer lag of group {}: {}", groupId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.scar.bookvault.search.repository;
 import com.scar.bookvault.search.domain.BookDocument;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.elasticsearch.annotations.Query;
+import org.springframework.data.elasticsearch.annotations.SourceFilters;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 import org.springframework.stereotype.Repository;
 
@@ -13,25 +13,27 @@ import java.util.Optional;
 @Repository
 public interface BookSearchRepository extends ElasticsearchRepository<BookDocument, Long> {
     
+    // Các truy vấn danh sách chỉ trả về những field UI cần (from/size đi theo Pageable)
+    
     // Tìm kiếm theo title với fuzzy search
-    List<BookDocument> findByTitleContaining(String title);
+    @SourceFilters(includes = {"id", "title", "author", "isbn", "category", "quantity"})
+    List<BookDocument> findByTitleContaining(String title, Pageable pageable);
     
     // Tìm kiếm theo author
-    List<BookDocument> findByAuthorContaining(String author);
+    @SourceFilters(includes = {"id", "title", "author", "isbn", "category", "quantity"})
+    List<BookDocument> findByAuthorContaining(String author, Pageable pageable);
     
     // Tìm kiếm theo ISBN chính xác
     Optional<BookDocument> findByIsbn(String isbn);
     
-    // Tìm kiếm full-text với custom query
-    @Query("{\"multi_match\": {\"query\": \"?0\", \"fields\": [\"title^2\", \"author\", \"description\"]}}")
-    List<BookDocument> searchByQuery(String query);
-    
     // Tìm kiếm có phân trang
+    @SourceFilters(includes = {"id", "title", "author", "isbn", "category", "quantity"})
     Page<BookDocument> findByTitleContainingOrAuthorContaining(String title, String author, Pageable pageable);
     
     // Tìm kiếm theo category
-    List<BookDocument> findByCategory(String category);
+    @SourceFilters(includes = {"id", "title", "author", "isbn", "category", "quantity"})
+    List<BookDocument> findByCategory(String category, Pageable pageable);
     
     // Kiểm tra sự tồn tại
     boolean existsByIsbn(String isbn);
-}
\ No newline at end of file
+}
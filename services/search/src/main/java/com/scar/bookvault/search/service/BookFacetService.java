@@ -0,0 +1,196 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonData;
+import com.scar.bookvault.search.domain.BookDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregation;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thống kê và faceted search dựa trên aggregation của Elasticsearch.
+ *
+ * Không đọc document nào về heap để đếm: mọi con số đều đến từ total hits và aggregation,
+ * nên bộ nhớ dùng cho stats không phụ thuộc số lượng sách.
+ */
+@Service
+@ConditionalOnProperty(name = "search.backend", havingValue = "elasticsearch", matchIfMissing = true)
+public class BookFacetService {
+
+    static final String CATEGORY = "category";
+    static final String AUTHOR = "author";
+    static final String AVAILABILITY = "availability";
+
+    private static final String IN_STOCK = "inStock";
+    private static final String OUT_OF_STOCK = "outOfStock";
+    private static final String VALUES = "values";
+
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final SearchResultCache resultCache;
+    private final SearchMetrics metrics;
+    private final int facetSize;
+
+    public BookFacetService(ElasticsearchOperations elasticsearchOperations,
+                            SearchResultCache resultCache,
+                            SearchMetrics metrics,
+                            @Value("${search.facets.size:50}") int facetSize) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.resultCache = resultCache;
+        this.metrics = metrics;
+        this.facetSize = facetSize;
+    }
+
+    // Tổng số sách, số sách còn/hết, số lượng theo category và author
+    public Map<String, Object> getStats() {
+        return metrics.timeQuery("stats", () -> resultCache.get("stats", this::loadStats), stats -> 0);
+    }
+
+    private Map<String, Object> loadStats() {
+        NativeQuery query = withFacets(NativeQuery.builder(), Map.of())
+                .withQuery(Query.of(q -> q.matchAll(m -> m)))
+                .withAggregation("totalQuantity", Aggregation.of(a -> a.sum(s -> s.field("quantity"))))
+                .withMaxResults(0)
+                .withTrackTotalHits(true)
+                .build();
+        SearchHits<BookDocument> hits = elasticsearchOperations.search(query, BookDocument.class);
+        Map<String, Aggregate> aggregates = aggregates(hits);
+        Map<String, Map<String, Long>> facets = readFacets(aggregates);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalBooks", hits.getTotalHits());
+        stats.put("indexedBooks", hits.getTotalHits());
+        stats.put(IN_STOCK, facets.get(AVAILABILITY).get(IN_STOCK));
+        stats.put(OUT_OF_STOCK, facets.get(AVAILABILITY).get(OUT_OF_STOCK));
+        stats.put("totalQuantity", (long) aggregates.get("totalQuantity").sum().value());
+        stats.put("categories", facets.get(CATEGORY));
+        stats.put("authors", facets.get(AUTHOR));
+        return stats;
+    }
+
+    // Một query duy nhất trả về cả hits và số lượng theo từng facet.
+    // Filter đã chọn đi vào post_filter, mỗi facet chỉ bị lọc bởi các filter của facet khác
+    // để người dùng vẫn thấy số lượng của các lựa chọn còn lại trong cùng facet.
+    public FacetedSearchResult search(String text, String category, String author, Boolean inStock, int page, int size) {
+        String key = SearchResultCache.key("faceted", SearchResultCache.normalize(text), category, author, inStock, page, size);
+        return metrics.timeQuery("faceted", () -> resultCache.get(key, () -> loadSearch(text, category, author, inStock, page, size)),
+                result -> result.hits().size());
+    }
+
+    private FacetedSearchResult loadSearch(String text, String category, String author, Boolean inStock, int page, int size) {
+        Map<String, Query> selected = new LinkedHashMap<>();
+        if (category != null && !category.isBlank()) {
+            selected.put(CATEGORY, Query.of(q -> q.term(t -> t.field(CATEGORY).value(category))));
+        }
+        if (author != null && !author.isBlank()) {
+            selected.put(AUTHOR, Query.of(q -> q.term(t -> t.field("author.keyword").value(author))));
+        }
+        if (inStock != null) {
+            selected.put(AVAILABILITY, inStock ? inStockQuery() : outOfStockQuery());
+        }
+
+        Query textQuery = text == null || text.isBlank()
+                ? Query.of(q -> q.matchAll(m -> m))
+                : Query.of(q -> q.multiMatch(m -> m.query(text).fields("title^2", "author", "description")));
+
+        NativeQuery query = withFacets(NativeQuery.builder(), selected)
+                .withQuery(textQuery)
+                .withFilter(allOf(selected.values().stream().toList()))
+                .withPageable(PageRequest.of(page, size))
+                .withSourceFilter(ElasticsearchSearchBackend.LIST_SOURCE_FILTER)
+                .withTrackTotalHits(true)
+                .build();
+        SearchHits<BookDocument> hits = elasticsearchOperations.search(query, BookDocument.class);
+
+        List<BookDocument> documents = hits.getSearchHits().stream().map(SearchHit::getContent).toList();
+        return new FacetedSearchResult(hits.getTotalHits(), page, size, documents, readFacets(aggregates(hits)));
+    }
+
+    private NativeQueryBuilder withFacets(NativeQueryBuilder builder, Map<String, Query> selected) {
+        Aggregation categories = Aggregation.of(a -> a.terms(t -> t.field(CATEGORY).size(facetSize)));
+        Aggregation authors = Aggregation.of(a -> a.terms(t -> t.field("author.keyword").size(facetSize)));
+        builder.withAggregation(CATEGORY, Aggregation.of(a -> a
+                .filter(othersThan(CATEGORY, selected))
+                .aggregations(VALUES, categories)));
+        builder.withAggregation(AUTHOR, Aggregation.of(a -> a
+                .filter(othersThan(AUTHOR, selected))
+                .aggregations(VALUES, authors)));
+        builder.withAggregation(AVAILABILITY, Aggregation.of(a -> a
+                .filter(othersThan(AVAILABILITY, selected))
+                .aggregations(IN_STOCK, Aggregation.of(f -> f.filter(inStockQuery())))
+                .aggregations(OUT_OF_STOCK, Aggregation.of(f -> f.filter(outOfStockQuery())))));
+        return builder;
+    }
+
+    private static Map<String, Map<String, Long>> readFacets(Map<String, Aggregate> aggregates) {
+        Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+        facets.put(CATEGORY, termCounts(aggregates.get(CATEGORY)));
+        facets.put(AUTHOR, termCounts(aggregates.get(AUTHOR)));
+
+        Map<String, Aggregate> availability = aggregates.get(AVAILABILITY).filter().aggregations();
+        Map<String, Long> availabilityCounts = new LinkedHashMap<>();
+        availabilityCounts.put(IN_STOCK, availability.get(IN_STOCK).filter().docCount());
+        availabilityCounts.put(OUT_OF_STOCK, availability.get(OUT_OF_STOCK).filter().docCount());
+        facets.put(AVAILABILITY, availabilityCounts);
+        return facets;
+    }
+
+    private static Map<String, Long> termCounts(Aggregate facet) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        Aggregate values = facet.filter().aggregations().get(VALUES);
+        // Field chưa có mapping (index cũ chưa reindex) trả về unmapped terms
+        if (!values.isSterms()) {
+            return counts;
+        }
+        for (StringTermsBucket bucket : values.sterms().buckets().array()) {
+            counts.put(bucket.key().stringValue(), bucket.docCount());
+        }
+        return counts;
+    }
+
+    private static Map<String, Aggregate> aggregates(SearchHits<BookDocument> hits) {
+        Map<String, Aggregate> aggregates = new LinkedHashMap<>();
+        if (hits.getAggregations() instanceof ElasticsearchAggregations aggregations) {
+            for (Map.Entry<String, ElasticsearchAggregation> entry : aggregations.aggregationsAsMap().entrySet()) {
+                aggregates.put(entry.getKey(), entry.getValue().aggregation().getAggregate());
+            }
+        }
+        return aggregates;
+    }
+
+    private static Query othersThan(String facet, Map<String, Query> selected) {
+        return allOf(selected.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(facet))
+                .map(Map.Entry::getValue)
+                .toList());
+    }
+
+    private static Query allOf(List<Query> filters) {
+        if (filters.isEmpty()) {
+            return Query.of(q -> q.matchAll(m -> m));
+        }
+        return Query.of(q -> q.bool(b -> b.filter(filters)));
+    }
+
+    private static Query inStockQuery() {
+        return Query.of(q -> q.range(r -> r.field("quantity").gte(JsonData.of(1))));
+    }
+
+    private static Query outOfStockQuery() {
+        return Query.of(q -> q.bool(b -> b.mustNot(inStockQuery())));
+    }
+}
@@ -0,0 +1,8 @@
+package com.scar.bookvault.search.service;
+
+// Một gợi ý type-ahead: text hiển thị và field nguồn (title hoặc author)
+public record BookSuggestion(String text, String type) {
+
+    public static final String TITLE = "title";
+    public static final String AUTHOR = "author";
+}
@@ -0,0 +1,607 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Script;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.VersionType;
+import co.elastic.clients.elasticsearch._types.query_dsl.FunctionBoostMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.FunctionScoreMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.search.CompletionSuggestOption;
+import co.elastic.clients.elasticsearch.core.search.Suggestion;
+import co.elastic.clients.json.JsonData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import com.scar.bookvault.search.repository.BookSearchRepository;
+import com.scar.bookvault.search.repository.OffsetPageRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilterBuilder;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Backend mặc định: index books trên Elasticsearch (alias books, xem ReindexService)
+@Component
+@ConditionalOnProperty(name = "search.backend", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchSearchBackend implements SearchBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchSearchBackend.class);
+
+    // Số lần thử lại từng item khi bulk thất bại một phần
+    private static final int MAX_ITEM_RETRIES = 3;
+
+    static final String INDEX_NAME = "books";
+
+    // Version của các lần xóa theo bookId, dùng chung cho mọi index books-v* (không đổi khi reindex)
+    static final String TOMBSTONE_INDEX = "books-tombstones";
+
+    // Các field UI cần cho danh sách kết quả
+    static final SourceFilter LIST_SOURCE_FILTER = new FetchSourceFilterBuilder()
+            .withIncludes("id", "title", "author", "isbn", "category", "quantity")
+            .build();
+
+    // Các field scan cần để dựng dữ liệu gợi ý trong bộ nhớ
+    private static final SourceFilter SCAN_SOURCE_FILTER = new FetchSourceFilterBuilder()
+            .withIncludes("id", "title", "author", "popularity", "popularityAt")
+            .build();
+
+    private static final Duration PIT_KEEP_ALIVE = Duration.ofMinutes(2);
+
+    private static final String SUGGEST_FIELD = "suggest";
+
+    // Partial update theo id: bỏ qua nếu document đã có version mới hơn hoặc bằng,
+    // scripted upsert để event update đến khi chưa có document vẫn tạo được document.
+    // replace (update sau khi xóa trong cùng batch) bỏ hết field cũ trước khi ghi.
+    // Field suggest (completion) được tính lại khi title hoặc author thay đổi.
+    static final String APPLY_CHANGE_SCRIPT = """
+            if (params.version > 0 && ctx._source.eventVersion != null && ctx._source.eventVersion >= params.version) {
+                ctx.op = 'noop';
+            } else {
+                if (params.replace) {
+                    ctx._source.clear();
+                }
+                ctx._source.putAll(params.fields);
+                if (params.version > 0) {
+                    ctx._source.eventVersion = params.version;
+                }
+                if (params.fields.containsKey('title') || params.fields.containsKey('author')) {
+                    def inputs = [];
+                    if (ctx._source.title != null && ctx._source.title != '') {
+                        inputs.add(ctx._source.title);
+                    }
+                    if (ctx._source.author != null && ctx._source.author != '') {
+                        inputs.add(ctx._source.author);
+                    }
+                    ctx._source.suggest = ['input': inputs];
+                }
+            }
+            """;
+
+    // Xóa có version: bỏ qua nếu document đã có version mới hơn, không tạo document khi chưa có
+    static final String APPLY_DELETE_SCRIPT = """
+            if (ctx.op == 'create' || (ctx._source.eventVersion != null && ctx._source.eventVersion >= params.version)) {
+                ctx.op = 'noop';
+            } else {
+                ctx.op = 'delete';
+            }
+            """;
+
+    // Tín hiệu xếp hạng chỉ cập nhật document đã có: với document chưa có, scripted upsert
+    // chạy với ctx.op = 'create' và được đổi thành noop để không tạo document rỗng.
+    // Lượt mượn có offset không lớn hơn offset đã áp dụng của cùng source là record giao lại và bị bỏ qua;
+    // popularity được cộng như PopularityRanking.addLoan.
+    static final String APPLY_SIGNAL_SCRIPT = """
+            if (ctx.op == 'create') {
+                ctx.op = 'noop';
+            } else {
+                boolean changed = !params.fields.isEmpty();
+                ctx._source.putAll(params.fields);
+                for (loan in params.loans) {
+                    if (loan.source != null) {
+                        if (ctx._source.signalOffsets == null) {
+                            ctx._source.signalOffsets = [:];
+                        }
+                        def applied = ctx._source.signalOffsets[loan.source];
+                        long offset = ((Number) loan.offset).longValue();
+                        if (applied != null && ((Number) applied).longValue() >= offset) {
+                            continue;
+                        }
+                        ctx._source.signalOffsets[loan.source] = offset;
+                    }
+                    long loanAt = ((Number) loan.at).longValue();
+                    boolean hasPopularity = ctx._source.popularity != null && ctx._source.popularityAt != null;
+                    double value = hasPopularity ? ((Number) ctx._source.popularity).doubleValue() : 0.0;
+                    long at = hasPopularity ? ((Number) ctx._source.popularityAt).longValue() : loanAt;
+                    double copies = ((Number) loan.copies).doubleValue();
+                    if (loanAt > at) {
+                        ctx._source.popularity = value * Math.exp(-params.lambda * (loanAt - at)) + copies;
+                        ctx._source.popularityAt = loanAt;
+                    } else {
+                        ctx._source.popularity = value + copies * Math.exp(-params.lambda * (at - loanAt));
+                        ctx._source.popularityAt = at;
+                    }
+                    changed = true;
+                }
+                if (!changed) {
+                    ctx.op = 'noop';
+                }
+            }
+            """;
+
+    // 1 + wp * log1p(số lượt mượn đã suy giảm tới now), xem PopularityRanking.decayedLoans.
+    // Tính bằng double trong script vì factor của field_value_factor là float.
+    static final String POPULARITY_SCORE_SCRIPT = """
+            double loans = 0.0;
+            if (doc.containsKey('popularity') && doc['popularity'].size() > 0
+                    && doc.containsKey('popularityAt') && doc['popularityAt'].size() > 0) {
+                loans = doc['popularity'].value * Math.exp(-params.lambda * (params.now - doc['popularityAt'].value));
+            }
+            return 1.0 + params.weight * Math.log1p(loans);
+            """;
+
+    private final BookSearchRepository bookSearchRepository;
+    private final ElasticsearchClient elasticsearchClient;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final ObjectMapper objectMapper;
+    private final PopularityRanking ranking;
+
+    public ElasticsearchSearchBackend(BookSearchRepository bookSearchRepository,
+                                      ElasticsearchClient elasticsearchClient,
+                                      ElasticsearchOperations elasticsearchOperations,
+                                      ObjectMapper objectMapper,
+                                      PopularityRanking ranking) {
+        this.bookSearchRepository = bookSearchRepository;
+        this.elasticsearchClient = elasticsearchClient;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.objectMapper = objectMapper;
+        this.ranking = ranking;
+    }
+
+    @Override
+    public List<BookDocument> search(String query, int offset, int limit) {
+        NativeQuery nativeQuery = NativeQuery.builder()
+                .withQuery(rankedQuery(fullTextQuery(query), Instant.now()))
+                .withSourceFilter(LIST_SOURCE_FILTER)
+                .withPageable(new OffsetPageRequest(offset, limit))
+                .build();
+        return elasticsearchOperations.search(nativeQuery, BookDocument.class).getSearchHits().stream()
+                .map(SearchHit::getContent)
+                .toList();
+    }
+
+    @Override
+    public List<BookDocument> findByTitle(String title, int offset, int limit) {
+        return bookSearchRepository.findByTitleContaining(title, new OffsetPageRequest(offset, limit));
+    }
+
+    @Override
+    public List<BookDocument> findByAuthor(String author, int offset, int limit) {
+        return bookSearchRepository.findByAuthorContaining(author, new OffsetPageRequest(offset, limit));
+    }
+
+    @Override
+    public List<BookDocument> findByCategory(String category, int offset, int limit) {
+        return bookSearchRepository.findByCategory(category, new OffsetPageRequest(offset, limit));
+    }
+
+    @Override
+    public Page<BookDocument> findByTitleOrAuthor(String text, int page, int size) {
+        return bookSearchRepository.findByTitleContainingOrAuthorContaining(text, text, PageRequest.of(page, size));
+    }
+
+    @Override
+    public Optional<BookDocument> findByIsbn(String isbn) {
+        return bookSearchRepository.findByIsbn(isbn);
+    }
+
+    @Override
+    public Optional<BookDocument> findById(Long id) {
+        return bookSearchRepository.findById(id);
+    }
+
+    // search_after trên một point-in-time thay vì from/size.
+    // nextCursor null khi đã hết kết quả (PIT được đóng).
+    @Override
+    public ScrollPage scroll(String query, int size, String cursor) {
+        ScrollCursor position = cursor != null ? ScrollCursor.decode(cursor, objectMapper) : null;
+        String pitId = position != null
+                ? position.pit()
+                : elasticsearchOperations.openPointInTime(IndexCoordinates.of(INDEX_NAME), PIT_KEEP_ALIVE);
+        Instant rankedAt = position != null ? position.rankedAtOrNow() : Instant.now();
+
+        NativeQueryBuilder builder = NativeQuery.builder()
+                .withQuery(rankedQuery(fullTextQuery(query), rankedAt))
+                .withSort(SortOptions.of(o -> o.score(sc -> sc.order(SortOrder.Desc))))
+                .withPointInTime(new org.springframework.data.elasticsearch.core.query.Query.PointInTime(pitId, PIT_KEEP_ALIVE))
+                .withSourceFilter(LIST_SOURCE_FILTER)
+                .withMaxResults(size)
+                .withTrackTotalHits(false);
+        if (position != null) {
+            builder.withSearchAfter(position.searchAfter());
+        }
+        SearchHits<BookDocument> hits = elasticsearchOperations.search(builder.build(), BookDocument.class);
+
+        List<BookDocument> items = hits.getSearchHits().stream().map(SearchHit::getContent).toList();
+        String currentPit = hits.getPointInTimeId() != null ? hits.getPointInTimeId() : pitId;
+        if (items.size() < size) {
+            elasticsearchOperations.closePointInTime(currentPit);
+            return new ScrollPage(items, null);
+        }
+        List<Object> lastSortValues = hits.getSearchHit(hits.getSearchHits().size() - 1).getSortValues();
+        return new ScrollPage(items, new ScrollCursor(currentPit, lastSortValues, rankedAt.toEpochMilli()).encode(objectMapper));
+    }
+
+    private static Query fullTextQuery(String query) {
+        if (query == null || query.isBlank()) {
+            return Query.of(q -> q.matchAll(m -> m));
+        }
+        return Query.of(q -> q.multiMatch(m -> m.query(query).fields("title^2", "author", "description")));
+    }
+
+    // Nhân điểm full-text với các tín hiệu có sẵn trên document (popularity, ratingScore, quantity).
+    // Chỉ tính trên các document đã khớp query, không cần join hay truy vấn phụ.
+    private Query rankedQuery(Query textQuery, Instant rankedAt) {
+        Map<String, JsonData> params = Map.of(
+                "lambda", JsonData.of(ranking.lambdaPerMilli()),
+                "now", JsonData.of(rankedAt.toEpochMilli()),
+                "weight", JsonData.of(ranking.popularityWeight()));
+        Script popularityScript = Script.of(s -> s.inline(i -> i.lang("painless").source(POPULARITY_SCORE_SCRIPT).params(params)));
+        return Query.of(q -> q.functionScore(fs -> fs
+                .query(textQuery)
+                .functions(f -> f.scriptScore(ss -> ss.script(popularityScript)))
+                .functions(f -> f
+                        .fieldValueFactor(v -> v.field("ratingScore").missing(PopularityRanking.defaultRatingScore()))
+                        .weight(ranking.ratingWeight()))
+                .functions(f -> f
+                        .filter(fq -> fq.range(r -> r.field("quantity").gte(JsonData.of(1))))
+                        .weight(ranking.availabilityWeight()))
+                .scoreMode(FunctionScoreMode.Sum)
+                .boostMode(FunctionBoostMode.Multiply)));
+    }
+
+    // Completion suggester trên field suggest
+    @Override
+    public List<BookSuggestion> suggest(String prefix, int size) {
+        SearchResponse<Map> response;
+        try {
+            response = elasticsearchClient.search(s -> s
+                    .index(INDEX_NAME)
+                    .size(0)
+                    .source(src -> src.filter(f -> f.includes("title", "author")))
+                    .suggest(sg -> sg.suggesters(SUGGEST_FIELD, fs -> fs
+                            .prefix(prefix)
+                            .completion(c -> c.field(SUGGEST_FIELD).size(size).skipDuplicates(true)))), Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Completion suggest failed for prefix " + prefix, e);
+        }
+
+        Set<BookSuggestion> suggestions = new LinkedHashSet<>();
+        for (Suggestion<Map> suggestion : response.suggest().getOrDefault(SUGGEST_FIELD, List.of())) {
+            for (CompletionSuggestOption<Map> option : suggestion.completion().options()) {
+                Object title = option.source() != null ? option.source().get("title") : null;
+                String type = option.text().equalsIgnoreCase(String.valueOf(title)) ? BookSuggestion.TITLE : BookSuggestion.AUTHOR;
+                suggestions.add(new BookSuggestion(option.text(), type));
+            }
+        }
+        return List.copyOf(suggestions);
+    }
+
+    @Override
+    public long count() {
+        return bookSearchRepository.count();
+    }
+
+    // Áp dụng một thay đổi bằng một request riêng
+    public void applyChange(BookChange change) {
+        Set<Long> failed = applyChanges(List.of(change), INDEX_NAME);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Failed to apply change to book " + change.bookId());
+        }
+    }
+
+    @Override
+    public Set<Long> apply(List<BookChange> changes) {
+        return applyChanges(changes, INDEX_NAME);
+    }
+
+    // Áp dụng nhiều thay đổi trong một request _bulk vào index chỉ định (vd: index mới khi reindex).
+    // Item lỗi tạm thời được thử lại từng cái; trả về id các book vẫn không áp dụng được. Item bị từ
+    // chối vĩnh viễn không được thử lại mà báo bằng RejectedChangesException.
+    public Set<Long> applyChanges(List<BookChange> changes, String indexName) {
+        Set<Long> failed = new LinkedHashSet<>(writeTombstones(changes));
+        Map<Long, Long> tombstones = readTombstones(changes);
+        Map<Long, BulkOperation> operations = new LinkedHashMap<>();
+        for (BookChange change : changes) {
+            if (failed.contains(change.bookId())) {
+                continue;
+            }
+            Long deletedAt = tombstones.get(change.bookId());
+            if (deletedAt != null && deletedAt >= change.version()) {
+                // Event đến trễ của book đã bị xóa ở version mới hơn: không tạo lại document
+                continue;
+            }
+            operations.put(change.bookId(), toBulkOperation(change));
+        }
+        try {
+            failed.addAll(bulk(operations, indexName));
+        } catch (RejectedChangesException e) {
+            failed.addAll(e.failed());
+            throw new RejectedChangesException(e.rejected(), failed);
+        }
+        return failed;
+    }
+
+    // Ghi version của các lần xóa trước khi xóa document. Version ngoài của tombstone là version
+    // của event nên tombstone chỉ tăng; conflict nghĩa là đã có tombstone mới hơn.
+    private Set<Long> writeTombstones(List<BookChange> changes) {
+        List<BulkOperation> operations = changes.stream()
+                .filter(change -> change.deleted() && change.isVersioned())
+                .map(change -> BulkOperation.of(op -> op.index(i -> i
+                        .index(TOMBSTONE_INDEX)
+                        .id(change.bookId().toString())
+                        .version(change.version())
+                        .versionType(VersionType.External)
+                        .document(Map.of("eventVersion", change.version())))))
+                .toList();
+        if (operations.isEmpty()) {
+            return Set.of();
+        }
+
+        BulkResponse response;
+        try {
+            response = elasticsearchClient.bulk(b -> b.operations(operations));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write tombstones for " + operations.size() + " books", e);
+        }
+        Set<Long> failed = new LinkedHashSet<>();
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() != null && !"version_conflict_engine_exception".equals(item.error().type())) {
+                logger.warn("Tombstone for book {} failed: {}", item.id(), item.error().reason());
+                failed.add(Long.valueOf(item.id()));
+            }
+        }
+        return failed;
+    }
+
+    // Version xóa mới nhất của các book sắp được cập nhật (GET theo id nên thấy ngay, không cần refresh)
+    private Map<Long, Long> readTombstones(List<BookChange> changes) {
+        List<String> ids = changes.stream()
+                .filter(change -> !change.deleted() && change.isVersioned())
+                .map(change -> change.bookId().toString())
+                .toList();
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+
+        MgetResponse<Map> response;
+        try {
+            response = elasticsearchClient.mget(m -> m.index(TOMBSTONE_INDEX).ids(ids), Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read tombstones for " + ids.size() + " books", e);
+        }
+        Map<Long, Long> tombstones = new HashMap<>();
+        for (MultiGetResponseItem<Map> item : response.docs()) {
+            if (item.isFailure()) {
+                // Chưa có lần xóa nào thì index tombstone chưa tồn tại
+                if ("index_not_found_exception".equals(item.failure().error().type())) {
+                    continue;
+                }
+                throw new IllegalStateException("Failed to read tombstone of book " + item.failure().id()
+                        + ": " + item.failure().error().reason());
+            }
+            if (item.result().found() && item.result().version() != null) {
+                tombstones.put(Long.valueOf(item.result().id()), item.result().version());
+            }
+        }
+        return tombstones;
+    }
+
+    @Override
+    public Set<Long> applySignals(List<BookSignal> signals) {
+        return applySignals(signals, INDEX_NAME);
+    }
+
+    // Tín hiệu xếp hạng cũng đi theo _bulk, gộp theo book; item của book không có trong index là noop, không phải lỗi
+    public Set<Long> applySignals(List<BookSignal> signals, String indexName) {
+        Map<Long, BookSignal> merged = new LinkedHashMap<>();
+        signals.forEach(signal -> merged.merge(signal.bookId(), signal, BookSignal::mergeWith));
+        Map<Long, BulkOperation> operations = new LinkedHashMap<>();
+        merged.forEach((bookId, signal) -> operations.put(bookId, toBulkOperation(signal)));
+        return bulk(operations, indexName);
+    }
+
+    private Set<Long> bulk(Map<Long, BulkOperation> operations, String indexName) {
+        if (operations.isEmpty()) {
+            return Set.of();
+        }
+
+        BulkResponse response;
+        try {
+            response = elasticsearchClient.bulk(b -> b.index(indexName).operations(new ArrayList<>(operations.values())));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Bulk request for " + operations.size() + " books failed", e);
+        }
+        if (!response.errors()) {
+            return Set.of();
+        }
+
+        Set<Long> failed = new LinkedHashSet<>();
+        Set<Long> rejected = new LinkedHashSet<>();
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() == null || item.id() == null) {
+                continue;
+            }
+            Long bookId = Long.valueOf(item.id());
+            // Lỗi 4xx (trừ conflict và 429) lặp lại y hệt ở mọi lần gửi nên không thử lại
+            if (!isRetryable(item.status())) {
+                logger.error("Bulk item for book {} rejected with {}: {}", bookId, item.status(), item.error().reason());
+                rejected.add(bookId);
+                continue;
+            }
+            logger.warn("Bulk item for book {} failed: {}", bookId, item.error().reason());
+            BulkOperation operation = operations.get(bookId);
+            if (operation != null && !retry(bookId, operation, indexName)) {
+                failed.add(bookId);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            throw new RejectedChangesException(rejected, failed);
+        }
+        return failed;
+    }
+
+    static boolean isRetryable(int status) {
+        return status == 409 || status == 429 || status >= 500;
+    }
+
+    private boolean retry(Long bookId, BulkOperation operation, String indexName) {
+        for (int attempt = 1; attempt <= MAX_ITEM_RETRIES; attempt++) {
+            try {
+                BulkResponse response = elasticsearchClient.bulk(b -> b.index(indexName).operations(operation));
+                if (!response.errors()) {
+                    return true;
+                }
+                logger.warn("Retry {}/{} for book {} failed: {}", attempt, MAX_ITEM_RETRIES, bookId,
+                        response.items().get(0).error().reason());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Retry {}/{} for book {} failed: {}", attempt, MAX_ITEM_RETRIES, bookId, e.getMessage());
+            }
+            try {
+                Thread.sleep(100L << attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private BulkOperation toBulkOperation(BookChange change) {
+        String id = change.bookId().toString();
+        if (change.deleted() && !change.isVersioned()) {
+            return BulkOperation.of(op -> op.delete(d -> d.id(id)));
+        }
+        if (change.deleted()) {
+            Script script = Script.of(s -> s.inline(i -> i.lang("painless").source(APPLY_DELETE_SCRIPT)
+                    .params(Map.of("version", JsonData.of(change.version())))));
+            return BulkOperation.of(op -> op.update(u -> u
+                    .id(id)
+                    .retryOnConflict(3)
+                    .action(a -> a
+                            .script(script)
+                            .scriptedUpsert(true)
+                            .upsert(Map.of()))));
+        }
+        return BulkOperation.of(op -> op.update(u -> u
+                .id(id)
+                .retryOnConflict(3)
+                .action(a -> a
+                        .script(applyScript(change))
+                        .scriptedUpsert(true)
+                        .upsert(Map.of()))));
+    }
+
+    private BulkOperation toBulkOperation(BookSignal signal) {
+        Map<String, JsonData> params = Map.of(
+                "fields", JsonData.of(signal.fields()),
+                "loans", JsonData.of(signal.loans()),
+                "lambda", JsonData.of(ranking.lambdaPerMilli()));
+        Script script = Script.of(s -> s.inline(i -> i.lang("painless").source(APPLY_SIGNAL_SCRIPT).params(params)));
+        return BulkOperation.of(op -> op.update(u -> u
+                .id(signal.bookId().toString())
+                .retryOnConflict(3)
+                .action(a -> a
+                        .script(script)
+                        .scriptedUpsert(true)
+                        .upsert(Map.of()))));
+    }
+
+    private Script applyScript(BookChange change) {
+        Map<String, JsonData> params = Map.of(
+                "fields", JsonData.of(change.fields()),
+                "version", JsonData.of(change.version()),
+                "replace", JsonData.of(change.replace()));
+        return Script.of(s -> s.inline(i -> i.lang("painless").source(APPLY_CHANGE_SCRIPT).params(params)));
+    }
+
+    @Override
+    public BookDocument save(BookDocument book) {
+        book.setSuggest(completionOf(book.getTitle(), book.getAuthor()));
+        return bookSearchRepository.save(book);
+    }
+
+    // Giá trị field suggest cho một book, giống APPLY_CHANGE_SCRIPT
+    private static Completion completionOf(String title, String author) {
+        List<String> inputs = new ArrayList<>(2);
+        if (title != null && !title.isBlank()) {
+            inputs.add(title);
+        }
+        if (author != null && !author.isBlank()) {
+            inputs.add(author);
+        }
+        return inputs.isEmpty() ? null : new Completion(inputs.toArray(String[]::new));
+    }
+
+    @Override
+    public void delete(Long id) {
+        bookSearchRepository.deleteById(id);
+    }
+
+    @Override
+    public void scan(Consumer<BookDocument> consumer) {
+        ensureSuggestMapping();
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(Query.of(q -> q.matchAll(m -> m)))
+                .withSourceFilter(SCAN_SOURCE_FILTER)
+                .withPageable(PageRequest.of(0, 1000))
+                .build();
+        try (SearchHitsIterator<BookDocument> hits = elasticsearchOperations.searchForStream(query, BookDocument.class)) {
+            while (hits.hasNext()) {
+                consumer.accept(hits.next().getContent());
+            }
+        }
+    }
+
+    // Index tạo trước khi có field suggest: thêm mapping completion (document cũ có suggest sau reindex)
+    private void ensureSuggestMapping() {
+        IndexOperations indexOps = elasticsearchOperations.indexOps(BookDocument.class);
+        if (indexOps.exists()) {
+            indexOps.putMapping();
+        }
+    }
+}
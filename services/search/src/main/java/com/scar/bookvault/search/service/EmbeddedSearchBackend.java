@@ -0,0 +1,766 @@
+package com.scar.bookvault.search.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Backend nhúng trong process: inverted index trong bộ nhớ, không cần Elasticsearch.
+ *
+ * Dùng cho test, CI và triển khai một node. Mỗi lô thay đổi được ghi (fsync) vào changes.log
+ * trước khi áp dụng, nên khi consumer commit offset thì thay đổi đã bền; định kỳ toàn bộ
+ * document được ghi ra snapshot.json (version của các lần xóa ra tombstones.json) và log được
+ * làm rỗng. Khi khởi động: đọc snapshot rồi replay log.
+ *
+ * Full-text dùng BM25 trên title (x2), author, description và lấy điểm field cao nhất như
+ * multi_match best_fields; tokenizer tách theo ký tự không phải chữ/số và lowercase như
+ * analyzer standard. Điểm full-text được nhân với hệ số của PopularityRanking như function_score
+ * của Elasticsearch.
+ */
+@Component
+@ConditionalOnProperty(name = "search.backend", havingValue = "embedded")
+public class EmbeddedSearchBackend implements SearchBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedSearchBackend.class);
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{M}\\p{N}]+");
+    private static final Map<String, Double> FULL_TEXT_FIELDS = Map.of("title", 2.0, "author", 1.0, "description", 1.0);
+    private static final List<String> CONTAINING_FIELDS = List.of("title", "author");
+    private static final int MAX_GRAM = 3;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final PopularityRanking ranking;
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path tombstonesFile;
+    private final int snapshotEvery;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object writeLock = new Object();
+
+    private final Map<Long, BookDocument> documents = new HashMap<>();
+    // book id -> version của lần xóa, để event đến trễ không tạo lại book đã xóa
+    private final Map<Long, Long> tombstones = new HashMap<>();
+    // field -> term -> (book id -> số lần xuất hiện)
+    private final Map<String, Map<String, Map<Long, Integer>>> postings = new HashMap<>();
+    // field -> (book id -> số token)
+    private final Map<String, Map<Long, Integer>> fieldLengths = new HashMap<>();
+    private final Map<String, Long> totalFieldLengths = new HashMap<>();
+    // field -> n-gram (1 tới MAX_GRAM ký tự) của text lowercase -> book id, lọc ứng viên cho truy vấn Containing
+    private final Map<String, Map<String, Set<Long>>> grams = new HashMap<>();
+    private final Map<String, Set<Long>> byCategory = new HashMap<>();
+    private final Map<String, Long> byIsbn = new HashMap<>();
+    // title/author lowercase -> gợi ý và số book dùng text đó
+    private final NavigableMap<String, Map<BookSuggestion, Integer>> suggestions = new TreeMap<>();
+
+    private FileChannel log;
+    private int loggedChanges;
+
+    public EmbeddedSearchBackend(ObjectMapper objectMapper,
+                                 PopularityRanking ranking,
+                                 @Value("${search.embedded.data-dir:./data/search}") String dataDir,
+                                 @Value("${search.embedded.snapshot-every:10000}") int snapshotEvery) throws IOException {
+        this.objectMapper = objectMapper.copy()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.ranking = ranking;
+        Path directory = Path.of(dataDir);
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve("snapshot.json");
+        this.logFile = directory.resolve("changes.log");
+        this.tombstonesFile = directory.resolve("tombstones.json");
+        this.snapshotEvery = snapshotEvery;
+        recover();
+    }
+
+    // Đóng log mà không ghi snapshot, như process bị dừng đột ngột (dùng trong test khôi phục)
+    void abandon() throws IOException {
+        synchronized (writeLock) {
+            log.close();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            writeSnapshot();
+            log.close();
+        }
+    }
+
+    @Override
+    public List<BookDocument> search(String query, int offset, int limit) {
+        return page(rank(query, Instant.now()), offset, limit).stream().map(Scored::document).toList();
+    }
+
+    @Override
+    public List<BookDocument> findByTitle(String title, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return views(page(new ArrayList<>(containing("title", title)), offset, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<BookDocument> findByAuthor(String author, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return views(page(new ArrayList<>(containing("author", author)), offset, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<BookDocument> findByCategory(String category, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            List<BookDocument> matches = new ArrayList<>();
+            for (Long id : new TreeSet<>(byCategory.getOrDefault(category, Set.of()))) {
+                matches.add(listView(documents.get(id)));
+            }
+            return page(matches, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Page<BookDocument> findByTitleOrAuthor(String text, int page, int size) {
+        lock.readLock().lock();
+        try {
+            Set<Long> matches = containing("title", text);
+            matches.addAll(containing("author", text));
+            List<BookDocument> content = views(page(new ArrayList<>(matches), page * size, size));
+            return new PageImpl<>(content, PageRequest.of(page, size), matches.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<BookDocument> findByIsbn(String isbn) {
+        lock.readLock().lock();
+        try {
+            Long id = byIsbn.get(isbn);
+            return id != null ? Optional.of(copy(documents.get(id))) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<BookDocument> findById(Long id) {
+        lock.readLock().lock();
+        try {
+            BookDocument document = documents.get(id);
+            return document != null ? Optional.of(copy(document)) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Không có point-in-time: cursor giữ (điểm, id) của hit cuối như search_after,
+    // nên book thêm/xóa giữa hai trang không làm lệch vị trí như offset
+    @Override
+    public ScrollPage scroll(String query, int size, String cursor) {
+        ScrollCursor position = cursor != null ? ScrollCursor.decode(cursor, objectMapper) : null;
+        Instant rankedAt = position != null ? position.rankedAtOrNow() : Instant.now();
+        List<Scored> ranked = query == null || query.isBlank() ? rankAll(rankedAt) : rank(query, rankedAt);
+        int start = 0;
+        if (position != null) {
+            List<Object> after = position.searchAfter();
+            if (after == null || after.size() != 2 || !(after.get(0) instanceof Number) || !(after.get(1) instanceof Number)) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            double afterScore = ((Number) after.get(0)).doubleValue();
+            long afterId = ((Number) after.get(1)).longValue();
+            while (start < ranked.size() && !isAfter(ranked.get(start), afterScore, afterId)) {
+                start++;
+            }
+        }
+        List<Scored> items = ranked.subList(start, Math.min(start + size, ranked.size()));
+        List<BookDocument> documents = items.stream().map(Scored::document).toList();
+        if (items.size() < size || start + size >= ranked.size()) {
+            return new ScrollPage(documents, null);
+        }
+        Scored last = items.get(items.size() - 1);
+        return new ScrollPage(documents,
+                new ScrollCursor(null, List.of(last.score(), last.document().getId()), rankedAt.toEpochMilli()).encode(objectMapper));
+    }
+
+    @Override
+    public List<BookSuggestion> suggest(String prefix, int size) {
+        String key = prefix.stripLeading().toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            Map<BookSuggestion, Integer> matches = new HashMap<>();
+            for (Map<BookSuggestion, Integer> entry : suggestions.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+                matches.putAll(entry);
+            }
+            return matches.entrySet().stream()
+                    .sorted(Map.Entry.<BookSuggestion, Integer>comparingByValue().reversed()
+                            .thenComparing(entry -> entry.getKey().text()))
+                    .limit(size)
+                    .map(Map.Entry::getKey)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<Long> apply(List<BookChange> changes) {
+        if (changes.isEmpty()) {
+            return Set.of();
+        }
+        synchronized (writeLock) {
+            appendToLog(changes);
+            lock.writeLock().lock();
+            try {
+                changes.forEach(this::applyInMemory);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (loggedChanges >= snapshotEvery) {
+                writeSnapshot();
+            }
+        }
+        return Set.of();
+    }
+
+    @Override
+    public Set<Long> applySignals(List<BookSignal> signals) {
+        if (signals.isEmpty()) {
+            return Set.of();
+        }
+        synchronized (writeLock) {
+            appendToLog(signals);
+            lock.writeLock().lock();
+            try {
+                signals.forEach(this::applyInMemory);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (loggedChanges >= snapshotEvery) {
+                writeSnapshot();
+            }
+        }
+        return Set.of();
+    }
+
+    // Ghi đè toàn bộ document như index của Elasticsearch
+    @Override
+    public BookDocument save(BookDocument book) {
+        Map<String, Object> fields = objectMapper.convertValue(book, MAP_TYPE);
+        fields.remove("suggest");
+        apply(List.of(new BookChange(book.getId(), 0L, fields)));
+        return book;
+    }
+
+    @Override
+    public void delete(Long id) {
+        apply(List.of(BookChange.deletion(id, 0L)));
+    }
+
+    @Override
+    public void scan(Consumer<BookDocument> consumer) {
+        List<BookDocument> all;
+        lock.readLock().lock();
+        try {
+            all = documents.values().stream().map(document -> {
+                BookDocument view = listView(document);
+                view.setPopularity(document.getPopularity());
+                view.setPopularityAt(document.getPopularityAt());
+                return view;
+            }).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+        all.forEach(consumer);
+    }
+
+    // Cùng quy tắc với APPLY_CHANGE_SCRIPT của Elasticsearch
+    private void applyInMemory(BookChange change) {
+        BookDocument current = documents.get(change.bookId());
+        if (change.isVersioned() && current != null && current.getEventVersion() != null
+                && current.getEventVersion() >= change.version()) {
+            return;
+        }
+        if (change.deleted()) {
+            if (change.isVersioned()) {
+                tombstones.merge(change.bookId(), change.version(), Math::max);
+            }
+            if (current != null) {
+                unindex(current);
+                documents.remove(change.bookId());
+            }
+            return;
+        }
+        if (change.isVersioned() && tombstones.getOrDefault(change.bookId(), 0L) >= change.version()) {
+            return;
+        }
+
+        Map<String, Object> source = current != null && !change.replace()
+                ? objectMapper.convertValue(current, MAP_TYPE)
+                : new LinkedHashMap<>();
+        source.putAll(change.fields());
+        source.put("id", change.bookId());
+        if (change.isVersioned()) {
+            source.put("eventVersion", change.version());
+        }
+        replace(current, source);
+    }
+
+    // Cùng quy tắc với APPLY_SIGNAL_SCRIPT: không tạo document mới, bỏ qua lượt mượn có offset đã áp dụng
+    private void applyInMemory(BookSignal signal) {
+        BookDocument current = documents.get(signal.bookId());
+        if (current == null) {
+            return;
+        }
+        Map<String, Object> source = objectMapper.convertValue(current, MAP_TYPE);
+        source.putAll(signal.fields());
+        BookDocument updated = objectMapper.convertValue(source, BookDocument.class);
+        Map<String, Long> offsets = updated.getSignalOffsets() != null
+                ? new HashMap<>(updated.getSignalOffsets()) : new HashMap<>();
+        for (BookSignal.Loan loan : signal.loans()) {
+            if (loan.source() != null) {
+                Long applied = offsets.get(loan.source());
+                if (applied != null && applied >= loan.offset()) {
+                    continue;
+                }
+                offsets.put(loan.source(), loan.offset());
+            }
+            PopularityRanking.Popularity popularity = ranking.addLoan(
+                    updated.getPopularity(), updated.getPopularityAt(), loan.copies(), loan.at());
+            updated.setPopularity(popularity.value());
+            updated.setPopularityAt(popularity.at());
+        }
+        if (!offsets.isEmpty()) {
+            updated.setSignalOffsets(offsets);
+        }
+        replace(current, updated);
+    }
+
+    private void replace(BookDocument current, Map<String, Object> source) {
+        replace(current, objectMapper.convertValue(source, BookDocument.class));
+    }
+
+    private void replace(BookDocument current, BookDocument updated) {
+        updated.setSuggest(null);
+
+        if (current != null) {
+            unindex(current);
+        }
+        documents.put(updated.getId(), updated);
+        index(updated);
+    }
+
+    private void index(BookDocument document) {
+        Long id = document.getId();
+        for (String field : FULL_TEXT_FIELDS.keySet()) {
+            List<String> tokens = tokenize(fieldValue(document, field));
+            for (String token : tokens) {
+                postings.computeIfAbsent(field, f -> new HashMap<>())
+                        .computeIfAbsent(token, t -> new HashMap<>())
+                        .merge(id, 1, Integer::sum);
+            }
+            fieldLengths.computeIfAbsent(field, f -> new HashMap<>()).put(id, tokens.size());
+            totalFieldLengths.merge(field, (long) tokens.size(), Long::sum);
+        }
+        for (String field : CONTAINING_FIELDS) {
+            for (String gram : grams(fieldValue(document, field))) {
+                grams.computeIfAbsent(field, f -> new HashMap<>())
+                        .computeIfAbsent(gram, g -> new HashSet<>())
+                        .add(id);
+            }
+        }
+        if (document.getCategory() != null) {
+            byCategory.computeIfAbsent(document.getCategory(), c -> new HashSet<>()).add(id);
+        }
+        if (document.getIsbn() != null) {
+            byIsbn.put(document.getIsbn(), id);
+        }
+        updateSuggestion(document.getTitle(), BookSuggestion.TITLE, 1);
+        updateSuggestion(document.getAuthor(), BookSuggestion.AUTHOR, 1);
+    }
+
+    private void unindex(BookDocument document) {
+        Long id = document.getId();
+        for (String field : FULL_TEXT_FIELDS.keySet()) {
+            Map<String, Map<Long, Integer>> fieldPostings = postings.getOrDefault(field, Map.of());
+            for (String token : new HashSet<>(tokenize(fieldValue(document, field)))) {
+                Map<Long, Integer> docs = fieldPostings.get(token);
+                if (docs != null) {
+                    docs.remove(id);
+                    if (docs.isEmpty()) {
+                        fieldPostings.remove(token);
+                    }
+                }
+            }
+            Integer length = fieldLengths.getOrDefault(field, new HashMap<>()).remove(id);
+            if (length != null) {
+                totalFieldLengths.merge(field, (long) -length, Long::sum);
+            }
+        }
+        for (String field : CONTAINING_FIELDS) {
+            Map<String, Set<Long>> fieldGrams = grams.getOrDefault(field, Map.of());
+            for (String gram : grams(fieldValue(document, field))) {
+                Set<Long> ids = fieldGrams.get(gram);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        fieldGrams.remove(gram);
+                    }
+                }
+            }
+        }
+        if (document.getCategory() != null) {
+            Set<Long> ids = byCategory.get(document.getCategory());
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    byCategory.remove(document.getCategory());
+                }
+            }
+        }
+        if (document.getIsbn() != null) {
+            byIsbn.remove(document.getIsbn(), id);
+        }
+        updateSuggestion(document.getTitle(), BookSuggestion.TITLE, -1);
+        updateSuggestion(document.getAuthor(), BookSuggestion.AUTHOR, -1);
+    }
+
+    private void updateSuggestion(String text, String type, int delta) {
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        String key = text.stripLeading().toLowerCase(Locale.ROOT);
+        Map<BookSuggestion, Integer> entry = suggestions.computeIfAbsent(key, k -> new HashMap<>());
+        BookSuggestion suggestion = new BookSuggestion(text, type);
+        if (entry.merge(suggestion, delta, Integer::sum) <= 0) {
+            entry.remove(suggestion);
+        }
+        if (entry.isEmpty()) {
+            suggestions.remove(key);
+        }
+    }
+
+    // BM25 từng field, điểm của document là điểm field cao nhất (sau khi nhân trọng số)
+    private List<Scored> rank(String query, Instant rankedAt) {
+        List<String> terms = tokenize(query);
+        lock.readLock().lock();
+        try {
+            int totalDocs = documents.size();
+            Map<Long, Double> scores = new HashMap<>();
+            for (Map.Entry<String, Double> field : FULL_TEXT_FIELDS.entrySet()) {
+                Map<String, Map<Long, Integer>> fieldPostings = postings.getOrDefault(field.getKey(), Map.of());
+                Map<Long, Integer> lengths = fieldLengths.getOrDefault(field.getKey(), Map.of());
+                double avgLength = totalDocs == 0 ? 0 : (double) totalFieldLengths.getOrDefault(field.getKey(), 0L) / totalDocs;
+                Map<Long, Double> fieldScores = new HashMap<>();
+                for (String term : terms) {
+                    Map<Long, Integer> docs = fieldPostings.get(term);
+                    if (docs == null) {
+                        continue;
+                    }
+                    double idf = Math.log(1 + (totalDocs - docs.size() + 0.5) / (docs.size() + 0.5));
+                    for (Map.Entry<Long, Integer> posting : docs.entrySet()) {
+                        double tf = posting.getValue();
+                        double norm = avgLength == 0 ? 1 : lengths.getOrDefault(posting.getKey(), 0) / avgLength;
+                        double score = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * norm));
+                        fieldScores.merge(posting.getKey(), score, Double::sum);
+                    }
+                }
+                fieldScores.forEach((id, score) -> scores.merge(id, score * field.getValue(), Math::max));
+            }
+
+            List<Scored> ranked = new ArrayList<>(scores.size());
+            scores.forEach((id, score) -> ranked.add(scored(documents.get(id), score, rankedAt)));
+            return sortByScore(ranked);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Như match_all: mọi book có điểm full-text 1, thứ tự chỉ theo tín hiệu xếp hạng
+    private List<Scored> rankAll(Instant rankedAt) {
+        lock.readLock().lock();
+        try {
+            List<Scored> ranked = new ArrayList<>(documents.size());
+            documents.values().forEach(document -> ranked.add(scored(document, 1.0, rankedAt)));
+            return sortByScore(ranked);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Scored scored(BookDocument document, double textScore, Instant rankedAt) {
+        double boost = ranking.boost(document.getPopularity(), document.getPopularityAt(), document.getRatingScore(), document.getQuantity(), rankedAt);
+        return new Scored(listView(document), textScore * boost);
+    }
+
+    private static List<Scored> sortByScore(List<Scored> ranked) {
+        ranked.sort(Comparator.comparingDouble(Scored::score).reversed()
+                .thenComparing(scored -> scored.document().getId()));
+        return ranked;
+    }
+
+    private static boolean isAfter(Scored scored, double afterScore, long afterId) {
+        return scored.score() < afterScore || (scored.score() == afterScore && scored.document().getId() > afterId);
+    }
+
+    // Tương đương *value* (query_string) của truy vấn Containing: khớp khi một token nằm trong field.
+    // Ứng viên là giao các n-gram của token, sau đó kiểm tra lại chuỗi con. Gọi khi đang giữ read lock.
+    private Set<Long> containing(String field, String value) {
+        Map<String, Set<Long>> fieldGrams = grams.getOrDefault(field, Map.of());
+        Set<Long> matches = new TreeSet<>();
+        for (String token : tokenize(value)) {
+            List<Set<Long>> postingsOfGrams = new ArrayList<>();
+            for (String gram : queryGrams(token)) {
+                postingsOfGrams.add(fieldGrams.getOrDefault(gram, Set.of()));
+            }
+            postingsOfGrams.sort(Comparator.comparingInt(Set::size));
+            for (Long id : postingsOfGrams.get(0)) {
+                if (matches.contains(id) || !postingsOfGrams.stream().allMatch(ids -> ids.contains(id))) {
+                    continue;
+                }
+                String text = fieldValue(documents.get(id), field);
+                if (text != null && text.toLowerCase(Locale.ROOT).contains(token)) {
+                    matches.add(id);
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Mọi chuỗi con độ dài 1 tới MAX_GRAM của text lowercase
+    private static Set<String> grams(String text) {
+        if (text == null || text.isEmpty()) {
+            return Set.of();
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> result = new HashSet<>();
+        for (int length = 1; length <= MAX_GRAM; length++) {
+            for (int i = 0; i + length <= lower.length(); i++) {
+                result.add(lower.substring(i, i + length));
+            }
+        }
+        return result;
+    }
+
+    // Token ngắn tra thẳng, token dài hơn tra mọi n-gram độ dài MAX_GRAM của nó
+    private static List<String> queryGrams(String token) {
+        if (token.length() <= MAX_GRAM) {
+            return List.of(token);
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i + MAX_GRAM <= token.length(); i++) {
+            result.add(token.substring(i, i + MAX_GRAM));
+        }
+        return result;
+    }
+
+    private List<BookDocument> views(List<Long> ids) {
+        return ids.stream().map(id -> listView(documents.get(id))).toList();
+    }
+
+    private static <T> List<T> page(List<T> items, int offset, int limit) {
+        if (offset >= items.size()) {
+            return List.of();
+        }
+        return items.subList(offset, Math.min(offset + limit, items.size()));
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static String fieldValue(BookDocument document, String field) {
+        return switch (field) {
+            case "title" -> document.getTitle();
+            case "author" -> document.getAuthor();
+            case "description" -> document.getDescription();
+            default -> null;
+        };
+    }
+
+    // Cùng các field với source filter của Elasticsearch cho danh sách kết quả
+    private static BookDocument listView(BookDocument document) {
+        BookDocument view = new BookDocument();
+        view.setId(document.getId());
+        view.setTitle(document.getTitle());
+        view.setAuthor(document.getAuthor());
+        view.setIsbn(document.getIsbn());
+        view.setCategory(document.getCategory());
+        view.setQuantity(document.getQuantity());
+        return view;
+    }
+
+    private BookDocument copy(BookDocument document) {
+        return objectMapper.convertValue(objectMapper.convertValue(document, MAP_TYPE), BookDocument.class);
+    }
+
+    // Mỗi dòng là một BookChange hoặc một BookSignal (phân biệt bằng field loans)
+    private void appendToLog(List<?> changes) {
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (Object change : changes) {
+                lines.append(objectMapper.writeValueAsString(change)).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+            loggedChanges += changes.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write search change log", e);
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            List<BookDocument> all;
+            Map<Long, Long> deleted;
+            lock.readLock().lock();
+            try {
+                all = new ArrayList<>(documents.values());
+                deleted = new HashMap<>(tombstones);
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Replay log trên hai file này là idempotent (theo version) nên không cần ghi cùng lúc
+            writeAtomically(tombstonesFile, objectMapper.writeValueAsBytes(deleted));
+            writeAtomically(snapshotFile, objectMapper.writeValueAsBytes(all));
+            log.truncate(0);
+            log.force(true);
+            loggedChanges = 0;
+        } catch (IOException e) {
+            // Log vẫn còn nguyên nên không mất dữ liệu, thử lại ở lần ghi sau
+            logger.warn("Failed to write search snapshot: {}", e.getMessage());
+        }
+    }
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content));
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void recover() throws IOException {
+        if (Files.exists(tombstonesFile)) {
+            tombstones.putAll(objectMapper.readValue(tombstonesFile.toFile(), new TypeReference<Map<Long, Long>>() {}));
+        }
+        if (Files.exists(snapshotFile)) {
+            List<BookDocument> snapshot = objectMapper.readValue(snapshotFile.toFile(), new TypeReference<List<BookDocument>>() {});
+            for (BookDocument document : snapshot) {
+                documents.put(document.getId(), document);
+                index(document);
+            }
+        }
+        int replayed = 0;
+        if (Files.exists(logFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JsonNode entry = objectMapper.readTree(line);
+                        if (entry.has("loans")) {
+                            applyInMemory(objectMapper.treeToValue(entry, BookSignal.class));
+                        } else {
+                            applyInMemory(objectMapper.treeToValue(entry, BookChange.class));
+                        }
+                        replayed++;
+                    } catch (IOException e) {
+                        // Dòng cuối bị ghi dở khi process dừng đột ngột: lô đó chưa được ack
+                        logger.warn("Ignoring unreadable change log entry: {}", e.getMessage());
+                        break;
+                    }
+                }
+            }
+        }
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Gộp log đã replay vào snapshot, cũng bỏ luôn dòng ghi dở (nếu có) trước khi ghi tiếp
+        if (log.size() > 0) {
+            writeSnapshot();
+        }
+        logger.info("Embedded search index loaded: {} books, {} changes replayed", documents.size(), replayed);
+    }
+
+    private record Scored(BookDocument document, double score) {
+    }
+}
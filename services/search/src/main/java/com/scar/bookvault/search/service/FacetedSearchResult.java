@@ -0,0 +1,14 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookDocument;
+
+import java.util.List;
+import java.util.Map;
+
+// Kết quả tìm kiếm kèm số lượng theo từng facet (category, author, availability)
+public record FacetedSearchResult(long total,
+                                  int page,
+                                  int size,
+                                  List<BookDocument> hits,
+                                  Map<String, Map<String, Long>> facets) {
+}
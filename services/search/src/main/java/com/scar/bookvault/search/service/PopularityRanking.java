@@ -0,0 +1,109 @@
+package com.scar.bookvault.search.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Trọng số xếp hạng theo độ phổ biến, điểm đánh giá và tình trạng còn sách.
+ *
+ * Điểm cuối = điểm full-text x (1 + wp * log1p(loans) + wr * ratingScore + wa * [quantity > 0]).
+ * popularity của document là tổng lượt mượn đã suy giảm theo half-life, tính tới thời điểm popularityAt,
+ * nên loans = popularity * exp(-lambda * (now - popularityAt)) mà không phải ghi lại document nào theo
+ * thời gian. Mỗi lượt mượn mới đưa popularity về thời điểm mượn trước khi cộng, giá trị luôn cỡ số lượt
+ * mượn gần đây và không tràn số dù service chạy bao lâu. popularity và popularityAt luôn được ghi cùng
+ * nhau; popularity không kèm popularityAt không được tính. Mọi tín hiệu nằm sẵn trên BookDocument,
+ * lúc truy vấn không cần join.
+ */
+@Component
+public class PopularityRanking {
+
+    // Điểm đánh giá 1-10 của catalog, làm mượt bằng PRIOR_COUNT lượt đánh giá ở mức trung bình
+    private static final double MIN_POINTS = 1.0;
+    private static final double MAX_POINTS = 10.0;
+    private static final double PRIOR_MEAN = 5.5;
+    private static final double PRIOR_COUNT = 5.0;
+
+    private final double lambdaPerMilli;
+    private final double popularityWeight;
+    private final double ratingWeight;
+    private final double availabilityWeight;
+
+    public PopularityRanking(@Value("${search.ranking.popularity-half-life:30d}") Duration popularityHalfLife,
+                             @Value("${search.ranking.popularity-weight:1.0}") double popularityWeight,
+                             @Value("${search.ranking.rating-weight:0.5}") double ratingWeight,
+                             @Value("${search.ranking.availability-weight:0.25}") double availabilityWeight) {
+        if (popularityHalfLife.isZero() || popularityHalfLife.isNegative()) {
+            throw new IllegalArgumentException("Popularity half-life must be positive");
+        }
+        this.lambdaPerMilli = Math.log(2) / popularityHalfLife.toMillis();
+        this.popularityWeight = popularityWeight;
+        this.ratingWeight = ratingWeight;
+        this.availabilityWeight = availabilityWeight;
+    }
+
+    /**
+     * Giá trị đã suy giảm của popularity lúc at, quy về một thời điểm.
+     */
+    public record Popularity(double value, long at) {
+    }
+
+    // Cộng copies lượt mượn lúc loanAt (epoch millis), giống APPLY_SIGNAL_SCRIPT của ElasticsearchSearchBackend.
+    // Lượt mượn mới hơn thì đưa popularity về loanAt rồi cộng; lượt cũ hơn (đến trễ) thì suy giảm nó về at.
+    public Popularity addLoan(Double popularity, Long popularityAt, double copies, long loanAt) {
+        if (popularity == null || popularityAt == null) {
+            return new Popularity(copies, loanAt);
+        }
+        double value = popularity;
+        long at = popularityAt;
+        if (loanAt > at) {
+            return new Popularity(value * Math.exp(-lambdaPerMilli * (loanAt - at)) + copies, loanAt);
+        }
+        return new Popularity(value + copies * Math.exp(-lambdaPerMilli * (at - loanAt)), at);
+    }
+
+    // Số lượt mượn đã suy giảm tới now của một document
+    public double decayedLoans(Double popularity, Long popularityAt, Instant now) {
+        if (popularity == null || popularityAt == null) {
+            return 0.0;
+        }
+        return popularity * Math.exp(-lambdaPerMilli * (now.toEpochMilli() - popularityAt));
+    }
+
+    // Hệ số nhân điểm full-text, giống function_score của ElasticsearchSearchBackend
+    public double boost(Double popularity, Long popularityAt, Double ratingScore, Integer quantity, Instant now) {
+        double loans = decayedLoans(popularity, popularityAt, now);
+        double rating = ratingScore != null ? ratingScore : defaultRatingScore();
+        double available = quantity != null && quantity > 0 ? 1.0 : 0.0;
+        return 1.0 + popularityWeight * Math.log1p(loans) + ratingWeight * rating + availabilityWeight * available;
+    }
+
+    // Trung bình Bayes của điểm đánh giá, chuẩn hóa về [0, 1]; book ít đánh giá nằm gần mức trung bình
+    public static double ratingScore(double average, long count) {
+        double smoothed = (average * count + PRIOR_MEAN * PRIOR_COUNT) / (count + PRIOR_COUNT);
+        return Math.min(1.0, Math.max(0.0, (smoothed - MIN_POINTS) / (MAX_POINTS - MIN_POINTS)));
+    }
+
+    // Book chưa có đánh giá
+    public static double defaultRatingScore() {
+        return ratingScore(0.0, 0);
+    }
+
+    public double lambdaPerMilli() {
+        return lambdaPerMilli;
+    }
+
+    public double popularityWeight() {
+        return popularityWeight;
+    }
+
+    public double ratingWeight() {
+        return ratingWeight;
+    }
+
+    public double availabilityWeight() {
+        return availabilityWeight;
+    }
+}
@@ -0,0 +1,448 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.index.Settings;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilterBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rebuild toàn bộ index books từ catalog mà không downtime.
+ *
+ * Đọc catalog bằng keyset paging, ghi vào index mới có version (books-v{timestamp}) bằng các
+ * request _bulk song song, trong lúc đó các event book.* vẫn được áp dụng vào index đang dùng
+ * và được ghi lại để replay vào index mới. Cuối cùng alias books được chuyển sang index mới
+ * trong một request _aliases duy nhất. Tín hiệu xếp hạng (popularity, rating) không có trong
+ * catalog nên được chép từ index cũ sang trước khi chuyển alias.
+ */
+@Service
+@ConditionalOnProperty(name = "search.backend", havingValue = "elasticsearch", matchIfMissing = true)
+public class ReindexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReindexService.class);
+
+    private static final String BOOKS_PATH = "/api/catalog/v1/books";
+
+    private final SearchService searchService;
+    private final ElasticsearchSearchBackend elasticsearchBackend;
+    private final ElasticsearchClient elasticsearchClient;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final RestClient catalogClient;
+    private final int batchSize;
+    private final int parallelism;
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "reindex-job"));
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong indexedDocs = new AtomicLong();
+    private final AtomicLong totalDocs = new AtomicLong();
+    private final AtomicLong startedAtMillis = new AtomicLong();
+    private final AtomicReference<String> targetIndex = new AtomicReference<>();
+    private final AtomicReference<String> lastResult = new AtomicReference<>("never run");
+
+    // Kết quả chuyển alias: index cũ và những gì đã ghi lại tới lúc chuyển
+    private record Swapped(List<String> oldIndices, List<BookChange> changes, List<BookSignal> signals) {
+    }
+
+    public ReindexService(SearchService searchService,
+                          ElasticsearchSearchBackend elasticsearchBackend,
+                          ElasticsearchClient elasticsearchClient,
+                          ElasticsearchOperations elasticsearchOperations,
+                          RestClient.Builder restClientBuilder,
+                          MeterRegistry meterRegistry,
+                          @Value("${search.reindex.catalog-url:http://catalog:8081}") String catalogUrl,
+                          @Value("${search.reindex.batch-size:500}") int batchSize,
+                          @Value("${search.reindex.parallelism:4}") int parallelism) {
+        this.searchService = searchService;
+        this.elasticsearchBackend = elasticsearchBackend;
+        this.elasticsearchClient = elasticsearchClient;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.catalogClient = restClientBuilder.baseUrl(catalogUrl).build();
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+
+        Gauge.builder("search.reindex.running", running, r -> r.get() ? 1 : 0)
+                .description("1 while a full reindex is in progress")
+                .register(meterRegistry);
+        Gauge.builder("search.reindex.docs.indexed", indexedDocs, AtomicLong::get)
+                .description("Documents written to the new index by the current reindex")
+                .register(meterRegistry);
+        Gauge.builder("search.reindex.docs.total", totalDocs, AtomicLong::get)
+                .description("Books reported by catalog at the start of the current reindex")
+                .register(meterRegistry);
+        Gauge.builder("search.reindex.progress.ratio", this, ReindexService::progress)
+                .register(meterRegistry);
+        Gauge.builder("search.reindex.eta.seconds", this, ReindexService::etaSeconds)
+                .register(meterRegistry);
+        Gauge.builder("search.reindex.buffered.events", searchService, SearchService::capturedCount)
+                .description("Live book events captured for replay into the new index")
+                .register(meterRegistry);
+    }
+
+    // Trả về false nếu đang có một lần reindex khác chạy
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        jobExecutor.submit(() -> {
+            try {
+                reindex();
+            } catch (Exception e) {
+                logger.error("Reindex into {} failed", targetIndex.get(), e);
+                lastResult.set("failed: " + e.getMessage());
+                searchService.stopCapture();
+                searchService.stopSignalCapture();
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("targetIndex", targetIndex.get());
+        status.put("indexedDocs", indexedDocs.get());
+        status.put("totalDocs", totalDocs.get());
+        status.put("progress", progress());
+        status.put("etaSeconds", etaSeconds());
+        status.put("bufferedEvents", searchService.capturedCount());
+        status.put("lastResult", lastResult.get());
+        return status;
+    }
+
+    private void reindex() throws Exception {
+        String newIndex = ElasticsearchSearchBackend.INDEX_NAME + "-v" + System.currentTimeMillis();
+        targetIndex.set(newIndex);
+        indexedDocs.set(0);
+        totalDocs.set(countCatalogBooks());
+        startedAtMillis.set(System.currentTimeMillis());
+        logger.info("Starting reindex of {} books into {}", totalDocs.get(), newIndex);
+
+        createIndex(newIndex);
+        searchService.startCapture();
+
+        Swapped swapped;
+        try {
+            backfill(newIndex);
+
+            // Replay các event đến trong lúc backfill; version đảm bảo event cũ hơn snapshot bị bỏ qua
+            replay(searchService.drainCaptured(), newIndex);
+
+            // Tín hiệu đến trong lúc chép được ghi lại tới lúc chuyển alias rồi áp dụng lại; signalOffsets
+            // làm cho tín hiệu đã có trong bản chép bị bỏ qua
+            searchService.startSignalCapture();
+            carryOverSignals(newIndex);
+            replaySignals(searchService.drainCapturedSignals(), newIndex);
+            elasticsearchClient.indices().putSettings(p -> p
+                    .index(newIndex)
+                    .settings(s -> s.refreshInterval(t -> t.time("1s"))));
+            elasticsearchClient.indices().refresh(r -> r.index(newIndex));
+
+            swapped = searchService.whileWritesPaused(() ->
+                    new Swapped(swapAlias(newIndex), searchService.stopCapture(), searchService.stopSignalCapture()));
+        } catch (Exception e) {
+            // Alias chưa đổi nên index đang dùng không bị ảnh hưởng, chỉ cần bỏ index dở dang
+            searchService.stopSignalCapture();
+            deleteIndexQuietly(newIndex);
+            throw e;
+        }
+
+        // Event và tín hiệu được áp dụng vào index cũ giữa lần replay trước và lúc chuyển alias
+        replay(swapped.changes(), newIndex);
+        replaySignals(swapped.signals(), newIndex);
+        searchService.invalidateCachedResults();
+        for (String oldIndex : swapped.oldIndices()) {
+            deleteIndexQuietly(oldIndex);
+        }
+
+        lastResult.set("completed: " + indexedDocs.get() + " docs into " + newIndex);
+        logger.info("Reindex completed: {} docs into {}, old indices {} removed", indexedDocs.get(), newIndex, swapped.oldIndices());
+    }
+
+    private void createIndex(String indexName) throws IOException {
+        IndexOperations bookIndexOps = elasticsearchOperations.indexOps(BookDocument.class);
+        Document mapping = bookIndexOps.createMapping(BookDocument.class);
+        Settings settings = bookIndexOps.createSettings(BookDocument.class);
+        elasticsearchOperations.indexOps(IndexCoordinates.of(indexName)).create(settings, mapping);
+
+        // Tắt refresh trong lúc nạp dữ liệu
+        elasticsearchClient.indices().putSettings(p -> p
+                .index(indexName)
+                .settings(s -> s.refreshInterval(t -> t.time("-1"))));
+    }
+
+    private void backfill(String indexName) throws Exception {
+        ExecutorService bulkExecutor = Executors.newFixedThreadPool(parallelism, r -> new Thread(r, "reindex-bulk"));
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            long afterId = 0;
+            while (true) {
+                // Dừng đọc catalog ngay khi một lô bulk lỗi thay vì tiếp tục nạp các trang sau
+                checkCompleted(futures);
+                List<Map<String, Object>> books = fetchPage(afterId);
+                if (books.isEmpty()) {
+                    break;
+                }
+                afterId = Long.parseLong(books.get(books.size() - 1).get("id").toString());
+
+                List<BookChange> changes = books.stream().map(ReindexService::toChange).toList();
+                inFlight.acquire();
+                futures.add(bulkExecutor.submit(() -> {
+                    try {
+                        Set<Long> failed = elasticsearchBackend.applyChanges(changes, indexName);
+                        if (!failed.isEmpty()) {
+                            throw new IllegalStateException("Failed to index books " + failed);
+                        }
+                        indexedDocs.addAndGet(changes.size());
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+                if (books.size() < batchSize) {
+                    break;
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            bulkExecutor.shutdownNow();
+        }
+    }
+
+    // Ném lỗi của lô bulk đã xong (nếu có) và bỏ các lô đã xong khỏi danh sách
+    private static void checkCompleted(List<Future<?>> futures) throws Exception {
+        Iterator<Future<?>> iterator = futures.iterator();
+        while (iterator.hasNext()) {
+            Future<?> future = iterator.next();
+            if (future.isDone()) {
+                future.get();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void replay(List<BookChange> captured, String indexName) {
+        if (captured.isEmpty()) {
+            return;
+        }
+        // Gộp theo book như consumer, rồi áp dụng theo từng lô
+        Map<Long, BookChange> merged = new LinkedHashMap<>();
+        captured.stream()
+                .sorted((a, b) -> Long.compare(a.version(), b.version()))
+                .forEach(change -> merged.merge(change.bookId(), change, BookChange::mergeWith));
+        List<BookChange> changes = new ArrayList<>(merged.values());
+        for (int from = 0; from < changes.size(); from += batchSize) {
+            List<BookChange> batch = changes.subList(from, Math.min(from + batchSize, changes.size()));
+            Set<Long> failed = elasticsearchBackend.applyChanges(batch, indexName);
+            if (!failed.isEmpty()) {
+                throw new IllegalStateException("Failed to replay events for books " + failed);
+            }
+        }
+        logger.info("Replayed {} buffered book events into {}", captured.size(), indexName);
+    }
+
+    // Đọc tín hiệu xếp hạng của index đang dùng (sau refresh) và ghi nguyên giá trị vào index mới
+    private void carryOverSignals(String indexName) throws IOException {
+        String alias = ElasticsearchSearchBackend.INDEX_NAME;
+        if (!elasticsearchClient.indices().exists(e -> e.index(alias)).value()) {
+            return;
+        }
+        elasticsearchClient.indices().refresh(r -> r.index(alias));
+
+        List<String> signalFields = List.of("popularity", "ratingAverage", "ratingCount", "ratingScore");
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(Query.of(q -> q.bool(b -> b
+                        .should(signalFields.stream()
+                                .map(field -> Query.of(sq -> sq.exists(ex -> ex.field(field))))
+                                .toList())
+                        .minimumShouldMatch("1"))))
+                .withSourceFilter(new FetchSourceFilterBuilder()
+                        .withIncludes("id", "popularity", "popularityAt", "signalOffsets", "ratingAverage", "ratingCount", "ratingScore")
+                        .build())
+                .withPageable(PageRequest.of(0, batchSize))
+                .build();
+
+        long copied = 0;
+        List<BookSignal> batch = new ArrayList<>(batchSize);
+        try (SearchHitsIterator<BookDocument> hits = elasticsearchOperations.searchForStream(query, BookDocument.class, IndexCoordinates.of(alias))) {
+            while (hits.hasNext()) {
+                batch.add(signalsOf(hits.next().getContent()));
+                if (batch.size() == batchSize) {
+                    copied += applySignals(batch, indexName);
+                    batch.clear();
+                }
+            }
+        }
+        copied += applySignals(batch, indexName);
+        logger.info("Carried over ranking signals of {} books into {}", copied, indexName);
+    }
+
+    private void replaySignals(List<BookSignal> captured, String indexName) {
+        Map<Long, BookSignal> merged = new LinkedHashMap<>();
+        captured.forEach(signal -> merged.merge(signal.bookId(), signal, BookSignal::mergeWith));
+        List<BookSignal> signals = new ArrayList<>(merged.values());
+        for (int from = 0; from < signals.size(); from += batchSize) {
+            applySignals(signals.subList(from, Math.min(from + batchSize, signals.size())), indexName);
+        }
+    }
+
+    private int applySignals(List<BookSignal> signals, String indexName) {
+        Set<Long> failed = elasticsearchBackend.applySignals(signals, indexName);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Failed to copy ranking signals of books " + failed);
+        }
+        return signals.size();
+    }
+
+    private static BookSignal signalsOf(BookDocument book) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("popularity", book.getPopularity());
+        fields.put("popularityAt", book.getPopularityAt());
+        fields.put("signalOffsets", book.getSignalOffsets());
+        fields.put("ratingAverage", book.getRatingAverage());
+        fields.put("ratingCount", book.getRatingCount());
+        fields.put("ratingScore", book.getRatingScore());
+        fields.values().removeIf(Objects::isNull);
+        return BookSignal.set(book.getId(), fields);
+    }
+
+    // Chuyển alias books sang index mới trong một request; lần đầu books còn là index thật thì xóa nó luôn
+    private List<String> swapAlias(String newIndex) throws IOException {
+        String alias = ElasticsearchSearchBackend.INDEX_NAME;
+        List<Action> actions = new ArrayList<>();
+        List<String> oldIndices = new ArrayList<>();
+
+        boolean aliasExists = elasticsearchClient.indices().existsAlias(e -> e.name(alias)).value();
+        if (aliasExists) {
+            oldIndices.addAll(elasticsearchClient.indices().getAlias(g -> g.name(alias)).result().keySet());
+            for (String oldIndex : oldIndices) {
+                actions.add(Action.of(a -> a.remove(r -> r.index(oldIndex).alias(alias))));
+            }
+        } else if (elasticsearchClient.indices().exists(e -> e.index(alias)).value()) {
+            actions.add(Action.of(a -> a.removeIndex(r -> r.index(alias))));
+        }
+        actions.add(Action.of(a -> a.add(add -> add.index(newIndex).alias(alias))));
+
+        elasticsearchClient.indices().updateAliases(u -> u.actions(actions));
+        logger.info("Alias {} now points to {}", alias, newIndex);
+        return oldIndices;
+    }
+
+    private List<Map<String, Object>> fetchPage(long afterId) {
+        List<Map<String, Object>> page = catalogClient.get()
+                .uri(BOOKS_PATH + "/after?afterId={afterId}&size={size}", afterId, batchSize)
+                .retrieve()
+                .body(new ParameterizedTypeReference<>() {});
+        return page != null ? page : List.of();
+    }
+
+    private long countCatalogBooks() {
+        Map<String, Object> page = catalogClient.get()
+                .uri(BOOKS_PATH + "/paged?page=0&size=1")
+                .retrieve()
+                .body(new ParameterizedTypeReference<>() {});
+        Object total = page != null ? page.get("totalElements") : null;
+        return total instanceof Number number ? number.longValue() : 0L;
+    }
+
+    // Snapshot từ catalog có version = updatedAt, nên event mới hơn (timestamp sau updatedAt) vẫn thắng khi replay
+    static BookChange toChange(Map<String, Object> book) {
+        Long id = Long.parseLong(book.get("id").toString());
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", id);
+        for (String field : List.of("title", "author", "isbn", "quantity", "description", "category")) {
+            if (book.containsKey(field)) {
+                fields.put(field, book.get(field));
+            }
+        }
+        Instant createdAt = parseInstant(book.get("createdAt"));
+        Instant updatedAt = parseInstant(book.get("updatedAt"));
+        if (createdAt != null) {
+            fields.put("createdAt", BookChange.documentDate(createdAt));
+        }
+        if (updatedAt != null) {
+            fields.put("updatedAt", BookChange.documentDate(updatedAt));
+        }
+        return new BookChange(id, updatedAt != null ? BookChange.versionAt(updatedAt) : 0L, fields);
+    }
+
+    // Catalog trả OffsetDateTime dạng số giây (Jackson mặc định) hoặc chuỗi ISO
+    private static Instant parseInstant(Object value) {
+        if (value instanceof Number number) {
+            double seconds = number.doubleValue();
+            long wholeSeconds = (long) Math.floor(seconds);
+            return Instant.ofEpochSecond(wholeSeconds, Math.round((seconds - wholeSeconds) * 1_000_000) * 1_000);
+        }
+        if (value instanceof String text && !text.isBlank()) {
+            return OffsetDateTime.parse(text).toInstant();
+        }
+        return null;
+    }
+
+    private double progress() {
+        long total = totalDocs.get();
+        return total > 0 ? Math.min(1.0, (double) indexedDocs.get() / total) : 0.0;
+    }
+
+    private double etaSeconds() {
+        long indexed = indexedDocs.get();
+        long remaining = totalDocs.get() - indexed;
+        if (!running.get() || indexed == 0 || remaining <= 0) {
+            return 0.0;
+        }
+        double elapsedSeconds = (System.currentTimeMillis() - startedAtMillis.get()) / 1000.0;
+        return remaining * (elapsedSeconds / indexed);
+    }
+
+    private void deleteIndexQuietly(String indexName) {
+        if (indexName == null) {
+            return;
+        }
+        try {
+            elasticsearchClient.indices().delete(d -> d.index(indexName).ignoreUnavailable(true));
+        } catch (Exception e) {
+            logger.warn("Failed to delete index {}", indexName, e);
+        }
+    }
+}
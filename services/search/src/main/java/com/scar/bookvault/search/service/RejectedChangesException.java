@@ -0,0 +1,30 @@
+package com.scar.bookvault.search.service;
+
+import java.util.Set;
+
+/**
+ * Elasticsearch từ chối vĩnh viễn thay đổi của một số book (lỗi 4xx như mapper_parsing_exception
+ * hay lỗi script): gửi lại cũng không bao giờ thành công. Các thay đổi khác trong cùng request đã
+ * được áp dụng; failed là những book lỗi tạm thời (429/5xx) sau khi đã thử lại.
+ *
+ * Là IllegalArgumentException để error handler của Kafka chuyển record vào DLT thay vì thử lại.
+ */
+public class RejectedChangesException extends IllegalArgumentException {
+
+    private final Set<Long> rejected;
+    private final Set<Long> failed;
+
+    public RejectedChangesException(Set<Long> rejected, Set<Long> failed) {
+        super("Changes rejected for books " + rejected);
+        this.rejected = Set.copyOf(rejected);
+        this.failed = Set.copyOf(failed);
+    }
+
+    public Set<Long> rejected() {
+        return rejected;
+    }
+
+    public Set<Long> failed() {
+        return failed;
+    }
+}
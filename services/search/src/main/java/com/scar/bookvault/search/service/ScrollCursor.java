@@ -0,0 +1,37 @@
+package com.scar.bookvault.search.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+// Vị trí trong phân trang sâu: point-in-time id và sort values của hit cuối, mã hóa base64 cho client.
+// rankedAt (epoch millis) giữ cố định thời điểm tính decay của popularity cho mọi trang của một lần scroll.
+record ScrollCursor(String pit, List<Object> searchAfter, long rankedAt) {
+
+    // Cursor cũ không có rankedAt thì tính theo thời điểm hiện tại
+    Instant rankedAtOrNow() {
+        return rankedAt > 0 ? Instant.ofEpochMilli(rankedAt) : Instant.now();
+    }
+
+    String encode(ObjectMapper objectMapper) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(this));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode scroll cursor", e);
+        }
+    }
+
+    static ScrollCursor decode(String cursor, ObjectMapper objectMapper) {
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(cursor.getBytes(StandardCharsets.US_ASCII));
+            return objectMapper.readValue(json, ScrollCursor.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
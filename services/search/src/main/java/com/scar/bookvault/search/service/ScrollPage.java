@@ -0,0 +1,9 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookDocument;
+
+import java.util.List;
+
+// Một trang của phân trang sâu; gửi lại nextCursor để lấy trang tiếp theo
+public record ScrollPage(List<BookDocument> items, String nextCursor) {
+}
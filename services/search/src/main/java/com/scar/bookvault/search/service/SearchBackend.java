@@ -0,0 +1,59 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Nơi lưu và truy vấn index sách phía sau SearchService.
+ *
+ * Chọn bằng search.backend: elasticsearch (mặc định) hoặc embedded (index trong process,
+ * không cần Elasticsearch). Các truy vấn danh sách chỉ cần trả về id, title, author, isbn,
+ * category và quantity.
+ */
+public interface SearchBackend {
+
+    // Full-text trên title (x2), author và description, kết quả theo độ liên quan
+    List<BookDocument> search(String query, int offset, int limit);
+
+    List<BookDocument> findByTitle(String title, int offset, int limit);
+
+    List<BookDocument> findByAuthor(String author, int offset, int limit);
+
+    List<BookDocument> findByCategory(String category, int offset, int limit);
+
+    Page<BookDocument> findByTitleOrAuthor(String text, int page, int size);
+
+    Optional<BookDocument> findByIsbn(String isbn);
+
+    Optional<BookDocument> findById(Long id);
+
+    // Phân trang sâu; cursor null là trang đầu
+    ScrollPage scroll(String query, int size, String cursor);
+
+    // Gợi ý title/author theo prefix
+    List<BookSuggestion> suggest(String prefix, int size);
+
+    long count();
+
+    // Áp dụng thay đổi theo id như script của Elasticsearch: bỏ qua thay đổi có version cũ hơn
+    // document. Trả về id các book không áp dụng được.
+    Set<Long> apply(List<BookChange> changes);
+
+    // Cập nhật tín hiệu xếp hạng của các book đã có trong index; tín hiệu của book không có bị bỏ qua.
+    // Trả về id các book không áp dụng được.
+    Set<Long> applySignals(List<BookSignal> signals);
+
+    BookDocument save(BookDocument book);
+
+    void delete(Long id);
+
+    // Duyệt toàn bộ book (ít nhất id, title, author, popularity), dùng để dựng dữ liệu trong bộ nhớ
+    void scan(Consumer<BookDocument> consumer);
+}
@@ -0,0 +1,99 @@
+package com.scar.bookvault.search.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Metric cho SLO của search: thời gian truy vấn theo loại và số kết quả, độ trễ indexing.
+ *
+ * search.query là thời gian người gọi thấy (kể cả khi trả từ cache), có histogram để tính
+ * percentile bên Prometheus. search.indexing.lag là thời gian từ lúc event được gửi lên Kafka
+ * tới lúc thay đổi đã ghi vào index; với Elasticsearch cần cộng thêm refresh interval để ra
+ * thời điểm thay đổi hiện ra với truy vấn.
+ */
+@Component
+public class SearchMetrics {
+
+    private final MeterRegistry meterRegistry;
+    // Độ trễ của event được index gần nhất, theo topic
+    private final Map<String, AtomicLong> lastIndexingLagMillis = new ConcurrentHashMap<>();
+
+    public SearchMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Đo một truy vấn; tag results theo nhóm số kết quả để không tăng số time series theo limit
+    public <T> T timeQuery(String type, Supplier<T> query, ToIntFunction<T> resultCount) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        String results = "none";
+        try {
+            T result = query.get();
+            outcome = "success";
+            results = resultBucket(resultCount.applyAsInt(result));
+            return result;
+        } finally {
+            Timer.builder("search.query")
+                    .description("Search query latency as seen by callers, including cache hits")
+                    .tag("type", type)
+                    .tag("results", results)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Gọi sau khi batch đã được ghi vào index, với timestamp (epoch millis) của từng record
+    public void recordIndexingLag(String topic, long eventTimestampMillis) {
+        // Record không có timestamp (NO_TIMESTAMP = -1)
+        if (eventTimestampMillis <= 0) {
+            return;
+        }
+        long lagMillis = Math.max(0, System.currentTimeMillis() - eventTimestampMillis);
+        Timer.builder("search.indexing.lag")
+                .description("Time from the event being produced to the change being written to the index")
+                .tag("topic", topic)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry)
+                .record(Duration.ofMillis(lagMillis));
+        lastIndexingLagMillis.computeIfAbsent(topic, this::registerLagGauge).set(lagMillis);
+    }
+
+    private AtomicLong registerLagGauge(String topic) {
+        AtomicLong lag = new AtomicLong();
+        Gauge.builder("search.indexing.lag.last", lag, value -> value.get() / 1000.0)
+                .description("Indexing lag of the most recently indexed event")
+                .tag("topic", topic)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        return lag;
+    }
+
+    static String resultBucket(int count) {
+        if (count == 0) {
+            return "0";
+        }
+        if (count <= 10) {
+            return "1-10";
+        }
+        if (count <= 50) {
+            return "11-50";
+        }
+        if (count <= 100) {
+            return "51-100";
+        }
+        return "100+";
+    }
+}
@@ -0,0 +1,422 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Cache kết quả tìm kiếm (LRU, giới hạn số entry) dùng chung cho các query đọc của search service.
+ *
+ * Các entry của cùng một query (mọi trang) thuộc một family. Family ghi lại các tag mà một thay đổi
+ * có thể ảnh hưởng tới kết quả: id các book đã có trong kết quả, từ khóa của query full-text,
+ * category được lọc, hoặc ANY với kết quả phụ thuộc toàn bộ index (thống kê, facet). Thay đổi của
+ * một book chỉ làm cũ các family có tag trùng với book đó, mọi trang của family cùng cũ vì thứ tự
+ * bị dịch. Thay đổi chỉ ảnh hưởng thứ hạng (quantity, popularity) của book chưa có trong trang nào
+ * đã cache được phản ánh sau ttl.
+ *
+ * Request gặp entry cũ (chưa quá ttl + max-stale) nhận ngay bản cũ, còn việc load lại chạy nền và
+ * chỉ một lần cho mỗi key; chỉ request không có bản nào dùng được mới phải chờ Elasticsearch.
+ */
+@Component
+public class SearchResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchResultCache.class);
+
+    // Tag của kết quả phụ thuộc mọi thay đổi; mọi thay đổi đều mang tag này
+    static final String ANY = "*";
+
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_CAPACITY = 100;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long maxStaleNanos;
+    private final Duration refreshDelay;
+
+    // entries, families và familiesByTag được đồng bộ theo entries
+    private final Map<String, Entry> entries;
+    private final Map<String, Family> families = new HashMap<>();
+    private final Map<String, Set<String>> familiesByTag = new HashMap<>();
+    private final Map<String, Loading> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final ScheduledExecutorService executor;
+    private final Executor refresher;
+
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+    private final Counter savedSeconds;
+
+    @Autowired
+    public SearchResultCache(MeterRegistry meterRegistry,
+                             @Value("${search.cache.max-entries:1000}") int maxEntries,
+                             @Value("${search.cache.ttl:60s}") Duration ttl,
+                             @Value("${search.cache.max-stale:5s}") Duration maxStale,
+                             @Value("${search.cache.refresh-delay:1s}") Duration refreshDelay) {
+        // Hàng đợi đầy thì bỏ qua lần load lại, request sau sẽ thử lại
+        this(meterRegistry, maxEntries, ttl, maxStale, refreshDelay,
+                new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY),
+                        Thread.ofPlatform().name("search-cache-refresh-", 0).daemon(true).factory()));
+    }
+
+    SearchResultCache(MeterRegistry meterRegistry, int maxEntries, Duration ttl, Duration maxStale,
+                      Duration refreshDelay, Executor refresher) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.maxStaleNanos = maxStale.toNanos();
+        this.refreshDelay = refreshDelay;
+        this.refresher = refresher;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > SearchResultCache.this.maxEntries) {
+                    detach(eldest.getKey(), eldest.getValue().family());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "search-cache-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.hits = requests(meterRegistry, "hit");
+        this.staleHits = requests(meterRegistry, "stale");
+        this.misses = requests(meterRegistry, "miss");
+        this.savedSeconds = Counter.builder("search.cache.saved.latency")
+                .description("Thời gian query Elasticsearch tiết kiệm được nhờ cache")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("search.cache.hit.ratio", this, SearchResultCache::hitRatio)
+                .description("Tỉ lệ request được trả từ cache (kể cả stale)")
+                .register(meterRegistry);
+        Gauge.builder("search.cache.size", this, SearchResultCache::size)
+                .register(meterRegistry);
+        Gauge.builder("search.cache.generation", generation, AtomicLong::get)
+                .register(meterRegistry);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("search.cache.requests")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    // Kết quả phụ thuộc toàn bộ index (thống kê, facet): mọi thay đổi đều làm cũ
+    public <T> T get(String key, Supplier<T> loader) {
+        return get(key, key, Set.of(ANY), loader, value -> List.of());
+    }
+
+    /**
+     * Lấy kết quả theo key, gọi loader khi chưa có hoặc entry đã cũ.
+     *
+     * family là key của query không kèm phân trang, tags là các tag biết trước khi query
+     * (từ khóa, category), books lấy ra các book trong kết quả để thay đổi của chúng làm cũ family.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, String family, Set<String> tags, Supplier<T> loader,
+                     Function<T, ? extends Collection<BookDocument>> books) {
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        boolean servable = false;
+        if (entry != null) {
+            long age = now - entry.loadedAt();
+            if (!entry.stale() && age <= ttlNanos) {
+                hits.increment();
+                savedSeconds.increment(entry.loadNanos() / 1e9);
+                return (T) entry.value();
+            }
+            servable = age <= ttlNanos + maxStaleNanos;
+        }
+
+        // Còn bản cũ dùng được: trả ngay và load lại ở nền, request khác cùng key không load thêm
+        if (servable) {
+            staleHits.increment();
+            savedSeconds.increment(entry.loadNanos() / 1e9);
+            load(key, family, tags, loader, books, refresher);
+            return (T) entry.value();
+        }
+
+        misses.increment();
+        try {
+            return (T) load(key, family, tags, loader, books, Runnable::run).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+
+    // Làm cũ các family có tag trùng. Làm thêm một lần sau refresh-delay vì thay đổi chỉ
+    // hiện ra với search sau khi Elasticsearch refresh index, query chạy trong khoảng đó
+    // có thể đã cache lại dữ liệu trước thay đổi.
+    public void invalidate(Collection<String> tags) {
+        Set<String> affected = new HashSet<>(tags);
+        affected.add(ANY);
+        markStale(affected);
+        executor.schedule(() -> markStale(affected), refreshDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Mọi entry hiện có trở thành cũ (ví dụ khi alias chuyển sang index khác)
+    public void invalidateAll() {
+        markAllStale();
+        executor.schedule(this::markAllStale, refreshDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        if (refresher instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    public static String bookTag(Long bookId) {
+        return "book:" + bookId;
+    }
+
+    public static String categoryTag(String category) {
+        return "category:" + category;
+    }
+
+    // Query dạng "containing" khớp theo chuỗi con nên phụ thuộc mọi thay đổi của field
+    public static String fieldTag(String field) {
+        return "field:" + field;
+    }
+
+    // Từ khóa của query full-text, tách như analyzer standard (chữ và số, lowercase)
+    public static Set<String> termTags(String text) {
+        Set<String> tags = new LinkedHashSet<>();
+        for (String term : normalize(text).split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                tags.add("term:" + term);
+            }
+        }
+        return tags;
+    }
+
+    // Các tag một thay đổi có thể ảnh hưởng: chính book đó, và với field tìm kiếm thì các query
+    // mà giá trị mới có thể khớp (giá trị cũ chỉ ảnh hưởng kết quả đã chứa book)
+    public static Set<String> tagsOf(BookChange change) {
+        Set<String> tags = new LinkedHashSet<>();
+        tags.add(bookTag(change.bookId()));
+        if (!change.deleted()) {
+            for (String field : List.of("title", "author", "description")) {
+                Object value = change.fields().get(field);
+                if (value != null) {
+                    tags.add(fieldTag(field));
+                    tags.addAll(termTags(value.toString()));
+                }
+            }
+            Object category = change.fields().get("category");
+            if (category != null) {
+                tags.add(categoryTag(category.toString()));
+            }
+        }
+        return tags;
+    }
+
+    public static Set<String> tagsOf(BookDocument book) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("title", book.getTitle());
+        fields.put("author", book.getAuthor());
+        fields.put("description", book.getDescription());
+        fields.put("category", book.getCategory());
+        fields.values().removeIf(value -> value == null);
+        return tagsOf(new BookChange(book.getId(), 0L, fields));
+    }
+
+    // Chuẩn hóa phần full-text của key: bỏ khoảng trắng thừa, không phân biệt hoa thường
+    // (analyzer của Elasticsearch cũng lowercase). Filter dạng keyword giữ nguyên.
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    public static String key(String kind, Object... parts) {
+        StringBuilder key = new StringBuilder(kind);
+        for (Object part : parts) {
+            key.append('\u0000').append(part);
+        }
+        return key.toString();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // Các request cùng key trong lúc đang load dùng chung một kết quả.
+    // runner là Runnable::run khi người gọi chờ kết quả, refresher khi load lại ở nền.
+    private <T> CompletableFuture<Object> load(String key, String family, Set<String> tags, Supplier<T> loader,
+                                               Function<T, ? extends Collection<BookDocument>> books, Executor runner) {
+        Loading created = new Loading();
+        Loading existing;
+        synchronized (entries) {
+            existing = inFlight.putIfAbsent(key, created);
+        }
+        if (existing != null) {
+            return existing.result;
+        }
+
+        try {
+            runner.execute(() -> fill(key, family, tags, loader, books, created));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Cache refresh queue full, keeping stale result for now");
+            synchronized (entries) {
+                inFlight.remove(key, created);
+            }
+            created.result.completeExceptionally(e);
+        }
+        return created.result;
+    }
+
+    private <T> void fill(String key, String family, Set<String> tags, Supplier<T> loader,
+                          Function<T, ? extends Collection<BookDocument>> books, Loading loading) {
+        long start = System.nanoTime();
+        try {
+            T value = loader.get();
+            long end = System.nanoTime();
+            Set<String> resultTags = new HashSet<>(tags);
+            for (BookDocument book : books.apply(value)) {
+                resultTags.add(bookTag(book.getId()));
+            }
+            synchronized (entries) {
+                Family members = families.computeIfAbsent(family, name -> new Family());
+                for (String tag : resultTags) {
+                    if (members.tags.add(tag)) {
+                        familiesByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(family);
+                    }
+                }
+                members.keys.add(key);
+                // Thay đổi đến trong lúc query có thể chưa có trong kết quả
+                boolean stale = loading.allInvalidated
+                        || loading.invalidatedTags.stream().anyMatch(members.tags::contains);
+                entries.put(key, new Entry(value, family, stale, end, end - start));
+                inFlight.remove(key, loading);
+            }
+            loading.result.complete(value);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to load search result: {}", e.getMessage());
+            synchronized (entries) {
+                inFlight.remove(key, loading);
+            }
+            loading.result.completeExceptionally(e);
+        }
+    }
+
+    private void markStale(Set<String> tags) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Set<String> affected = new HashSet<>();
+            for (String tag : tags) {
+                affected.addAll(familiesByTag.getOrDefault(tag, Set.of()));
+            }
+            for (String family : affected) {
+                for (String key : families.get(family).keys) {
+                    entries.computeIfPresent(key, (k, entry) -> entry.asStale());
+                }
+            }
+            for (Loading loading : inFlight.values()) {
+                loading.invalidatedTags.addAll(tags);
+            }
+        }
+    }
+
+    private void markAllStale() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.replaceAll((key, entry) -> entry.asStale());
+            for (Loading loading : inFlight.values()) {
+                loading.allInvalidated = true;
+            }
+        }
+    }
+
+    // Gọi khi entry bị đẩy ra; family không còn entry nào thì bỏ khỏi chỉ mục tag
+    private void detach(String key, String family) {
+        Family members = families.get(family);
+        if (members == null) {
+            return;
+        }
+        members.keys.remove(key);
+        if (members.keys.isEmpty()) {
+            families.remove(family);
+            for (String tag : members.tags) {
+                Set<String> tagged = familiesByTag.get(tag);
+                if (tagged != null && tagged.remove(family) && tagged.isEmpty()) {
+                    familiesByTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    private double hitRatio() {
+        double served = hits.count() + staleHits.count();
+        double total = served + misses.count();
+        return total == 0 ? 0 : served / total;
+    }
+
+    private record Entry(Object value, String family, boolean stale, long loadedAt, long loadNanos) {
+
+        Entry asStale() {
+            return stale ? this : new Entry(value, family, true, loadedAt, loadNanos);
+        }
+    }
+
+    private static final class Family {
+        final Set<String> keys = new HashSet<>();
+        final Set<String> tags = new HashSet<>();
+    }
+
+    // Một lần load đang chạy và các tag bị làm cũ trong lúc đó (đồng bộ theo entries)
+    private static final class Loading {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final Set<String> invalidatedTags = new HashSet<>();
+        boolean allInvalidated;
+    }
+}
@@ -1,86 +1,279 @@
 package com.scar.bookvault.search.service;
 
+import com.scar.bookvault.search.domain.BookChange;
 import com.scar.bookvault.search.domain.BookDocument;
-import com.scar.bookvault.search.repository.BookSearchRepository;
+import com.scar.bookvault.search.domain.BookSignal;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 @Service
 public class SearchService {
     
-    private final BookSearchRepository bookSearchRepository;
+    private final SearchBackend searchBackend;
+    private final SearchResultCache resultCache;
+    private final SuggestService suggestService;
+    private final SearchMetrics metrics;
     
-    public SearchService(BookSearchRepository bookSearchRepository) {
-        this.bookSearchRepository = bookSearchRepository;
+    // Khác null trong lúc reindex
+    private volatile Queue<BookChange> captureBuffer;
+    private volatile Queue<BookSignal> signalCaptureBuffer;
+    // Ghi vào index và ghi lại vào buffer là một bước (read lock); chuyển alias và dừng ghi lại là
+    // một bước (write lock), nên thay đổi ghi vào index cũ không thể lọt giữa hai bước đó
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    
+    public SearchService(SearchBackend searchBackend,
+                         SearchResultCache resultCache,
+                         SuggestService suggestService,
+                         SearchMetrics metrics) {
+        this.searchBackend = searchBackend;
+        this.resultCache = resultCache;
+        this.suggestService = suggestService;
+        this.metrics = metrics;
     }
     
-    // Tìm kiếm full-text với query string
-    public List<BookDocument> searchBooks(String query) {
+    // Tìm kiếm full-text với query string, from/size được đẩy xuống backend
+    public List<BookDocument> searchBooks(String query, int offset, int limit) {
         if (query == null || query.trim().isEmpty()) {
             return List.of();
         }
-        return bookSearchRepository.searchByQuery(query);
+        String text = SearchResultCache.normalize(query);
+        return metrics.timeQuery("query", () -> resultCache.get(
+                SearchResultCache.key("query", text, offset, limit), SearchResultCache.key("query", text),
+                SearchResultCache.termTags(text),
+                () -> searchBackend.search(query, offset, limit), books -> books), List::size);
     }
     
     // Tìm kiếm theo title
-    public List<BookDocument> searchByTitle(String title) {
-        return bookSearchRepository.findByTitleContaining(title);
+    public List<BookDocument> searchByTitle(String title, int offset, int limit) {
+        String text = SearchResultCache.normalize(title);
+        return metrics.timeQuery("title", () -> resultCache.get(
+                SearchResultCache.key("title", text, offset, limit), SearchResultCache.key("title", text),
+                Set.of(SearchResultCache.fieldTag("title")),
+                () -> searchBackend.findByTitle(title, offset, limit), books -> books), List::size);
     }
     
     // Tìm kiếm theo author
-    public List<BookDocument> searchByAuthor(String author) {
-        return bookSearchRepository.findByAuthorContaining(author);
+    public List<BookDocument> searchByAuthor(String author, int offset, int limit) {
+        String text = SearchResultCache.normalize(author);
+        return metrics.timeQuery("author", () -> resultCache.get(
+                SearchResultCache.key("author", text, offset, limit), SearchResultCache.key("author", text),
+                Set.of(SearchResultCache.fieldTag("author")),
+                () -> searchBackend.findByAuthor(author, offset, limit), books -> books), List::size);
     }
     
     // Tìm kiếm theo ISBN
     public Optional<BookDocument> findByIsbn(String isbn) {
-        return bookSearchRepository.findByIsbn(isbn);
+        return metrics.timeQuery("isbn", () -> searchBackend.findByIsbn(isbn), book -> book.isPresent() ? 1 : 0);
     }
     
     // Tìm kiếm phân trang
     public Page<BookDocument> searchWithPagination(String query, int page, int size) {
-        Pageable pageable = PageRequest.of(page, size);
-        return bookSearchRepository.findByTitleContainingOrAuthorContaining(query, query, pageable);
+        String text = SearchResultCache.normalize(query);
+        return metrics.timeQuery("paged", () -> resultCache.get(
+                SearchResultCache.key("paged", text, page, size), SearchResultCache.key("paged", text),
+                Set.of(SearchResultCache.fieldTag("title"), SearchResultCache.fieldTag("author")),
+                () -> searchBackend.findByTitleOrAuthor(query, page, size), Page::getContent), Page::getNumberOfElements);
     }
     
     // Tìm kiếm theo category
-    public List<BookDocument> searchByCategory(String category) {
-        return bookSearchRepository.findByCategory(category);
+    public List<BookDocument> searchByCategory(String category, int offset, int limit) {
+        // category là keyword nên giữ nguyên hoa thường trong key
+        return metrics.timeQuery("category", () -> resultCache.get(
+                SearchResultCache.key("category", category, offset, limit), SearchResultCache.key("category", category),
+                Set.of(SearchResultCache.categoryTag(category)),
+                () -> searchBackend.findByCategory(category, offset, limit), books -> books), List::size);
+    }
+    
+    // Phân trang sâu, cursor null là trang đầu; nextCursor null khi đã hết kết quả
+    public ScrollPage scrollBooks(String query, int size, String cursor) {
+        return metrics.timeQuery("scroll", () -> searchBackend.scroll(query, size, cursor), page -> page.items().size());
     }
     
     // Index một book mới hoặc cập nhật
     public BookDocument indexBook(BookDocument book) {
-        return bookSearchRepository.save(book);
+        BookDocument saved = searchBackend.save(book);
+        resultCache.invalidate(SearchResultCache.tagsOf(saved));
+        suggestService.onIndexed(saved);
+        return saved;
+    }
+    
+    // Áp dụng một thay đổi theo id (partial update / upsert), chỉ gửi các field đã thay đổi
+    public void applyChange(BookChange change) {
+        Set<Long> failed = applyChanges(List.of(change));
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Failed to apply change to book " + change.bookId());
+        }
+    }
+    
+    // Áp dụng nhiều thay đổi một lần (mỗi book tối đa một thay đổi).
+    // Trả về id các book không áp dụng được; thay đổi bị từ chối vĩnh viễn được báo bằng
+    // RejectedChangesException sau khi phần còn lại đã được áp dụng.
+    public Set<Long> applyChanges(List<BookChange> changes) {
+        Set<Long> failed;
+        RejectedChangesException rejected = null;
+        swapLock.readLock().lock();
+        try {
+            try {
+                failed = searchBackend.apply(changes);
+            } catch (RejectedChangesException e) {
+                rejected = e;
+                failed = e.failed();
+            }
+            Queue<BookChange> buffer = captureBuffer;
+            if (buffer != null) {
+                // Thay đổi bị từ chối sẽ lại bị từ chối khi replay vào index mới
+                buffer.addAll(rejected == null ? changes : applicable(changes, BookChange::bookId, rejected));
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        resultCache.invalidate(changes.stream().flatMap(change -> SearchResultCache.tagsOf(change).stream()).toList());
+        Set<Long> notApplied = notApplied(failed, rejected);
+        suggestService.onChanges(notApplied.isEmpty() ? changes
+                : changes.stream().filter(change -> !notApplied.contains(change.bookId())).toList());
+        if (rejected != null) {
+            throw rejected;
+        }
+        return failed;
+    }
+    
+    // Cập nhật tín hiệu xếp hạng (lượt mượn, đánh giá). Trả về id các book không áp dụng được; tín hiệu
+    // bị từ chối vĩnh viễn được báo bằng RejectedChangesException như applyChanges.
+    public Set<Long> applySignals(List<BookSignal> signals) {
+        Set<Long> failed;
+        RejectedChangesException rejected = null;
+        swapLock.readLock().lock();
+        try {
+            try {
+                failed = searchBackend.applySignals(signals);
+            } catch (RejectedChangesException e) {
+                rejected = e;
+                failed = e.failed();
+            }
+            Queue<BookSignal> buffer = signalCaptureBuffer;
+            if (buffer != null) {
+                buffer.addAll(rejected == null ? signals : applicable(signals, BookSignal::bookId, rejected));
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        resultCache.invalidate(signals.stream().map(signal -> SearchResultCache.bookTag(signal.bookId())).toList());
+        Set<Long> notApplied = notApplied(failed, rejected);
+        suggestService.onSignals(notApplied.isEmpty() ? signals
+                : signals.stream().filter(signal -> !notApplied.contains(signal.bookId())).toList());
+        if (rejected != null) {
+            throw rejected;
+        }
+        return failed;
+    }
+    
+    private static <T> List<T> applicable(List<T> items, Function<T, Long> bookId, RejectedChangesException rejected) {
+        return items.stream().filter(item -> !rejected.rejected().contains(bookId.apply(item))).toList();
+    }
+    
+    private static Set<Long> notApplied(Set<Long> failed, RejectedChangesException rejected) {
+        if (rejected == null) {
+            return failed;
+        }
+        Set<Long> all = new HashSet<>(failed);
+        all.addAll(rejected.rejected());
+        return all;
+    }
+    
+    // Ghi lại tín hiệu trong lúc reindex chép tín hiệu từ index cũ sang index mới
+    public void startSignalCapture() {
+        signalCaptureBuffer = new ConcurrentLinkedQueue<>();
+    }
+    
+    public List<BookSignal> drainCapturedSignals() {
+        return drain(signalCaptureBuffer);
+    }
+    
+    public List<BookSignal> stopSignalCapture() {
+        List<BookSignal> remaining = drainCapturedSignals();
+        signalCaptureBuffer = null;
+        return remaining;
+    }
+    
+    // Bắt đầu ghi lại các thay đổi từ event trong lúc reindex để replay vào index mới
+    public void startCapture() {
+        captureBuffer = new ConcurrentLinkedQueue<>();
+    }
+    
+    // Lấy ra các thay đổi đã ghi lại từ lần gọi trước
+    public List<BookChange> drainCaptured() {
+        return drain(captureBuffer);
+    }
+    
+    private static <T> List<T> drain(Queue<T> buffer) {
+        List<T> drained = new ArrayList<>();
+        if (buffer != null) {
+            T item;
+            while ((item = buffer.poll()) != null) {
+                drained.add(item);
+            }
+        }
+        return drained;
+    }
+    
+    public List<BookChange> stopCapture() {
+        List<BookChange> remaining = drainCaptured();
+        captureBuffer = null;
+        return remaining;
+    }
+    
+    // Chạy swap (chuyển alias, dừng ghi lại) khi không có thay đổi nào đang được ghi vào index
+    public <T> T whileWritesPaused(Callable<T> swap) throws Exception {
+        swapLock.writeLock().lock();
+        try {
+            return swap.call();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+    
+    // Gọi khi alias books được chuyển sang index khác
+    public void invalidateCachedResults() {
+        resultCache.invalidateAll();
+    }
+    
+    public int capturedCount() {
+        Queue<BookChange> buffer = captureBuffer;
+        return buffer != null ? buffer.size() : 0;
     }
     
     // Xóa book khỏi index
     public void deleteBookFromIndex(Long bookId) {
-        bookSearchRepository.deleteById(bookId);
+        searchBackend.delete(bookId);
+        resultCache.invalidate(List.of(SearchResultCache.bookTag(bookId)));
+        suggestService.onChanges(List.of(BookChange.deletion(bookId, 0L)));
     }
     
     // Cập nhật số lượng sách
     public void updateBookQuantity(Long bookId, Integer newQuantity) {
-        Optional<BookDocument> optionalBook = bookSearchRepository.findById(bookId);
-        if (optionalBook.isPresent()) {
-            BookDocument book = optionalBook.get();
-            book.setQuantity(newQuantity);
-            book.setUpdatedAt(java.time.LocalDateTime.now());
-            bookSearchRepository.save(book);
+        if (searchBackend.findById(bookId).isPresent()) {
+            String updatedAt = BookChange.documentDate(Instant.now());
+            searchBackend.apply(List.of(new BookChange(bookId, 0L, Map.of("quantity", newQuantity, "updatedAt", updatedAt))));
+            resultCache.invalidate(List.of(SearchResultCache.bookTag(bookId)));
         }
     }
     
-    // Lấy tất cả books (cho admin)
-    public List<BookDocument> getAllBooks() {
-        return (List<BookDocument>) bookSearchRepository.findAll();
-    }
-    
     // Đếm tổng số books
     public long countBooks() {
-        return bookSearchRepository.count();
+        return searchBackend.count();
     }
-}
\ No newline at end of file
+}
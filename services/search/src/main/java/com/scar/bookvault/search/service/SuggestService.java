@@ -0,0 +1,213 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gợi ý type-ahead cho title và author.
+ *
+ * Prefix ngắn được trả từ {@link SuggestionTrie} trong bộ nhớ, prefix dài hơn hỏi backend
+ * (completion suggester trên Elasticsearch). Trie được dựng lại từ các thay đổi và tín hiệu mà
+ * SearchService đã ghi được vào index; title/author xếp theo tổng lượt mượn đã suy giảm của các book
+ * mang text đó, cùng công thức với xếp hạng kết quả tìm kiếm.
+ */
+@Service
+public class SuggestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SuggestService.class);
+
+    private static final long LOAD_RETRY_SECONDS = 30;
+
+    private final SearchBackend searchBackend;
+    private final SearchMetrics metrics;
+    private final PopularityRanking ranking;
+    private final int trieDepth;
+    private final int maxSize;
+
+    // title, author và popularity của mọi book trong index, nguồn để dựng lại trie
+    private final Map<Long, Source> books = new ConcurrentHashMap<>();
+    // Book bị xóa trong lúc đang đọc snapshot từ index, để snapshot không thêm lại
+    private final Set<Long> deletedWhileLoading = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "suggest-trie");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile SuggestionTrie trie;
+    private volatile boolean loaded;
+
+    public SuggestService(SearchBackend searchBackend,
+                          SearchMetrics metrics,
+                          PopularityRanking ranking,
+                          @Value("${search.suggest.trie-depth:3}") int trieDepth,
+                          @Value("${search.suggest.max-size:10}") int maxSize,
+                          @Value("${search.suggest.rebuild-interval:1s}") Duration rebuildInterval) {
+        this.searchBackend = searchBackend;
+        this.metrics = metrics;
+        this.ranking = ranking;
+        this.trieDepth = trieDepth;
+        this.maxSize = maxSize;
+        this.trie = SuggestionTrie.empty(trieDepth);
+        executor.scheduleWithFixedDelay(this::rebuildIfDirty,
+                rebuildInterval.toMillis(), rebuildInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PostConstruct
+    void start() {
+        executor.execute(this::loadFromIndex);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    // Tối đa size gợi ý cho prefix, title/author phổ biến hơn đứng trước
+    public List<BookSuggestion> suggest(String prefix, int size) {
+        if (prefix == null || prefix.isBlank()) {
+            return List.of();
+        }
+        int limit = Math.max(1, Math.min(size, maxSize));
+        return metrics.timeQuery("suggest", () -> lookup(prefix, limit), List::size);
+    }
+
+    private List<BookSuggestion> lookup(String prefix, int limit) {
+        if (loaded) {
+            List<BookSuggestion> cached = trie.lookup(prefix, limit);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return searchBackend.suggest(prefix, limit);
+    }
+
+    // Cập nhật nguồn của trie theo các thay đổi đã ghi vào index; trie được dựng lại ở lần chạy kế tiếp.
+    // Thay đổi không ghi được (bulk lỗi) không được truyền vào đây.
+    public void onChanges(List<BookChange> changes) {
+        for (BookChange change : changes) {
+            if (change.deleted()) {
+                books.remove(change.bookId());
+                if (!loaded) {
+                    deletedWhileLoading.add(change.bookId());
+                }
+                dirty.set(true);
+                continue;
+            }
+            Map<String, Object> fields = change.fields();
+            if (!fields.containsKey("title") && !fields.containsKey("author")) {
+                continue;
+            }
+            books.compute(change.bookId(), (id, current) -> {
+                Source updated = current != null ? current : new Source(null, null, null, null);
+                String title = fields.containsKey("title") ? (String) fields.get("title") : updated.title();
+                String author = fields.containsKey("author") ? (String) fields.get("author") : updated.author();
+                return new Source(title, author, updated.popularity(), updated.popularityAt());
+            });
+            dirty.set(true);
+        }
+    }
+
+    // Tín hiệu đã ghi vào index; tín hiệu của book chưa có trong nguồn bị bỏ qua như ở backend
+    public void onSignals(List<BookSignal> signals) {
+        for (BookSignal signal : signals) {
+            Map<String, Object> fields = signal.fields();
+            boolean setsPopularity = fields.get("popularity") instanceof Number;
+            if (!setsPopularity && signal.loans().isEmpty()) {
+                continue;
+            }
+            books.computeIfPresent(signal.bookId(), (id, current) -> {
+                Double value = setsPopularity ? ((Number) fields.get("popularity")).doubleValue() : current.popularity();
+                Long at = setsPopularity
+                        ? (fields.get("popularityAt") instanceof Number number ? Long.valueOf(number.longValue()) : null)
+                        : current.popularityAt();
+                // Offset đã áp dụng chỉ có trên document; record giao lại chỉ lệch trọng số gợi ý tới lần nạp sau
+                for (BookSignal.Loan loan : signal.loans()) {
+                    PopularityRanking.Popularity popularity = ranking.addLoan(value, at, loan.copies(), loan.at());
+                    value = popularity.value();
+                    at = popularity.at();
+                }
+                return new Source(current.title(), current.author(), value, at);
+            });
+            dirty.set(true);
+        }
+    }
+
+    public void onIndexed(BookDocument book) {
+        books.put(book.getId(), Source.of(book));
+        dirty.set(true);
+    }
+
+    // Đọc title/author của toàn bộ index một lần khi khởi động, sau đó chỉ cập nhật theo thay đổi
+    void loadFromIndex() {
+        try {
+            searchBackend.scan(book -> {
+                if (!deletedWhileLoading.contains(book.getId())) {
+                    // Thay đổi từ event đến trong lúc đọc mới hơn snapshot
+                    books.putIfAbsent(book.getId(), Source.of(book));
+                }
+            });
+            loaded = true;
+            deletedWhileLoading.clear();
+            dirty.set(true);
+            rebuildIfDirty();
+            logger.info("Suggestion trie loaded with {} books", books.size());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to load suggestions from index, retrying in {}s: {}", LOAD_RETRY_SECONDS, e.getMessage());
+            executor.schedule(this::loadFromIndex, LOAD_RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    void rebuildIfDirty() {
+        if (!loaded || !dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            Map<BookSuggestion, Double> weights = new HashMap<>();
+            for (Source book : books.values()) {
+                double loans = ranking.decayedLoans(book.popularity(), book.popularityAt(), now);
+                addWeight(weights, book.title(), BookSuggestion.TITLE, loans);
+                addWeight(weights, book.author(), BookSuggestion.AUTHOR, loans);
+            }
+            trie = SuggestionTrie.build(weights, trieDepth, maxSize);
+        } catch (RuntimeException e) {
+            dirty.set(true);
+            logger.warn("Failed to rebuild suggestion trie: {}", e.getMessage());
+        }
+    }
+
+    // Author có nhiều sách được mượn cộng dồn lượt mượn của mọi sách
+    private static void addWeight(Map<BookSuggestion, Double> weights, String text, String type, double loans) {
+        if (text != null && !text.isBlank()) {
+            weights.merge(new BookSuggestion(text, type), loans, Double::sum);
+        }
+    }
+
+    private record Source(String title, String author, Double popularity, Long popularityAt) {
+
+        static Source of(BookDocument book) {
+            return new Source(book.getTitle(), book.getAuthor(), book.getPopularity(), book.getPopularityAt());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.scar.bookvault.search.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Trie bất biến cho các prefix ngắn (tối đa maxDepth ký tự), mỗi node giữ sẵn top-K gợi ý.
+ *
+ * Prefix ngắn là loại được gõ nhiều nhất và cũng khớp nhiều document nhất, nên trả lời
+ * chúng từ bộ nhớ; prefix dài hơn đi xuống completion suggester của Elasticsearch.
+ */
+final class SuggestionTrie {
+
+    private final Node root;
+    private final int maxDepth;
+
+    private SuggestionTrie(Node root, int maxDepth) {
+        this.root = root;
+        this.maxDepth = maxDepth;
+    }
+
+    static SuggestionTrie empty(int maxDepth) {
+        return new SuggestionTrie(new Node(), maxDepth);
+    }
+
+    // weights: độ phổ biến của text, text phổ biến hơn đứng trước
+    static SuggestionTrie build(Map<BookSuggestion, Double> weights, int maxDepth, int topK) {
+        List<Map.Entry<BookSuggestion, Double>> ranked = new ArrayList<>(weights.entrySet());
+        ranked.sort(Comparator.<Map.Entry<BookSuggestion, Double>>comparingDouble(Map.Entry::getValue).reversed()
+                .thenComparing(entry -> entry.getKey().text()));
+
+        Node root = new Node();
+        // Duyệt theo thứ tự hạng nên mỗi node chỉ cần nhận K gợi ý đầu tiên
+        for (Map.Entry<BookSuggestion, Double> entry : ranked) {
+            String key = normalize(entry.getKey().text());
+            Node node = root;
+            for (int i = 0; i < Math.min(key.length(), maxDepth); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+                if (node.top.size() < topK) {
+                    node.top.add(entry.getKey());
+                }
+            }
+        }
+        return new SuggestionTrie(root, maxDepth);
+    }
+
+    // Prefix dài hơn maxDepth không có trong trie, trả về null để gọi Elasticsearch
+    List<BookSuggestion> lookup(String prefix, int size) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || key.length() > maxDepth) {
+            return null;
+        }
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        if (node == null) {
+            return List.of();
+        }
+        return node.top.subList(0, Math.min(size, node.top.size()));
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.stripLeading().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final List<BookSuggestion> top = new ArrayList<>();
+    }
+}
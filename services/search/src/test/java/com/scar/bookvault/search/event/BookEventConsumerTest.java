@@ -1,70 +1,250 @@
 package com.scar.bookvault.search.event;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.service.RejectedChangesException;
+import com.scar.bookvault.search.service.SearchMetrics;
 import com.scar.bookvault.search.service.SearchService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
-import org.mockito.Mockito;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
 public class BookEventConsumerTest {
+    private static final ZoneId SOURCE_ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    
     private SearchService searchService;
     private ObjectMapper objectMapper;
+    private SimpleMeterRegistry meterRegistry;
     private BookEventConsumer consumer;
+    private long offset;
 
     @BeforeEach
     void setup() {
         searchService = mock(SearchService.class);
         objectMapper = new ObjectMapper();
-        consumer = new BookEventConsumer(searchService, objectMapper);
+        meterRegistry = new SimpleMeterRegistry();
+        consumer = new BookEventConsumer(searchService, objectMapper, new SearchMetrics(meterRegistry), SOURCE_ZONE);
+        when(searchService.applyChanges(anyList())).thenReturn(Set.of());
     }
 
     @Test
     void handleBookCreated_indexesDocument() throws Exception {
-        String msg = objectMapper.writeValueAsString(java.util.Map.of(
+        ConsumerRecord<String, String> record = record("book.created", Map.of(
                 "bookId", 1L,
                 "title", "Test",
                 "author", "Author",
                 "isbn", "ISBN",
                 "quantity", 3
         ));
-        ArgumentCaptor<BookDocument> captor = ArgumentCaptor.forClass(BookDocument.class);
 
-        consumer.handleBookCreated(msg);
+        consumer.handleBookEvents(List.of(record));
 
-        verify(searchService, times(1)).indexBook(captor.capture());
-        BookDocument doc = captor.getValue();
-        assertEquals(1L, doc.getId());
-        assertEquals("Test", doc.getTitle());
+        BookChange change = singleAppliedChange();
+        assertEquals(1L, change.bookId());
+        assertFalse(change.deleted());
+        assertEquals("Test", change.fields().get("title"));
+        assertEquals(3, change.fields().get("quantity"));
     }
 
     @Test
-    void handleBookUpdated_updatesDocument() throws Exception {
-        BookDocument existing = new BookDocument();
-        existing.setId(2L);
-        existing.setTitle("Old");
-        when(searchService.searchBooks("2")).thenReturn(List.of(existing));
-
-        String msg = objectMapper.writeValueAsString(java.util.Map.of(
+    void handleBookUpdated_appliesPartialChangeById() throws Exception {
+        ConsumerRecord<String, String> record = record("book.updated", Map.of(
                 "bookId", 2L,
-                "title", "New"
+                "title", "New",
+                "timestamp", "2024-05-01T10:00:00.123456"
         ));
 
-        consumer.handleBookUpdated(msg);
-        verify(searchService, times(1)).indexBook(Mockito.argThat(doc -> doc.getId().equals(2L) && "New".equals(doc.getTitle())));
+        consumer.handleBookEvents(List.of(record));
+
+        verify(searchService, never()).searchBooks(anyString(), anyInt(), anyInt());
+        BookChange change = singleAppliedChange();
+        assertEquals(2L, change.bookId());
+        assertEquals("New", change.fields().get("title"));
+        assertFalse(change.fields().containsKey("author"));
+        assertFalse(change.fields().containsKey("createdAt"));
+        assertTrue(change.isVersioned());
     }
 
     @Test
     void handleBookDeleted_removesDocument() throws Exception {
-        String msg = objectMapper.writeValueAsString(java.util.Map.of("bookId", 3L));
-        consumer.handleBookDeleted(msg);
-        verify(searchService, times(1)).deleteBookFromIndex(3L);
+        consumer.handleBookEvents(List.of(record("book.deleted", Map.of("bookId", 3L))));
+
+        BookChange change = singleAppliedChange();
+        assertEquals(3L, change.bookId());
+        assertTrue(change.deleted());
+    }
+
+    @Test
+    void eventsForSameBook_areCollapsedIntoOneChange() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.updated", Map.of("bookId", 4L, "quantity", 2, "timestamp", "2024-05-01T10:00:02")),
+                record("book.created", Map.of("bookId", 4L, "title", "Created", "quantity", 5, "timestamp", "2024-05-01T10:00:01")),
+                record("book.updated", Map.of("bookId", 5L, "title", "Other", "timestamp", "2024-05-01T10:00:03"))
+        );
+
+        consumer.handleBookEvents(records);
+
+        List<BookChange> changes = appliedChanges();
+        assertEquals(2, changes.size());
+        BookChange merged = changes.stream().filter(c -> c.bookId() == 4L).findFirst().orElseThrow();
+        assertEquals("Created", merged.fields().get("title"));
+        assertEquals(2, merged.fields().get("quantity"));
+    }
+
+    @Test
+    void failedBulkItems_failFromFirstAffectedRecord() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.updated", Map.of("bookId", 6L, "title", "Ok")),
+                record("book.updated", Map.of("bookId", 7L, "title", "Broken")),
+                record("book.updated", Map.of("bookId", 8L, "title", "Ok too"))
+        );
+        when(searchService.applyChanges(anyList())).thenReturn(Set.of(7L));
+
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleBookEvents(records));
+
+        assertEquals(1, ex.getIndex());
+    }
+
+    @Test
+    void rejectedBulkItem_isDeadLetteredAtItsRecord() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.updated", Map.of("bookId", 6L, "title", "Ok")),
+                record("book.updated", Map.of("bookId", 7L, "title", "Unmappable")),
+                record("book.updated", Map.of("bookId", 8L, "title", "Elasticsearch busy"))
+        );
+        when(searchService.applyChanges(anyList())).thenThrow(new RejectedChangesException(Set.of(7L), Set.of(8L)));
+
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleBookEvents(records));
+
+        // Record 7 vào DLT (IllegalArgumentException), record 8 được gửi lại sau đó
+        assertEquals(1, ex.getIndex());
+        assertInstanceOf(IllegalArgumentException.class, ex.getCause());
+    }
+
+    @Test
+    void transientFailureBeforeRejectedItem_isRetriedFirst() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.updated", Map.of("bookId", 6L, "title", "Elasticsearch busy")),
+                record("book.updated", Map.of("bookId", 7L, "title", "Unmappable"))
+        );
+        when(searchService.applyChanges(anyList())).thenThrow(new RejectedChangesException(Set.of(7L), Set.of(6L)));
+
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleBookEvents(records));
+
+        assertEquals(0, ex.getIndex());
+        assertFalse(ex.getCause() instanceof IllegalArgumentException);
     }
-}
 
+    @Test
+    void deleteFollowedByUpdate_recreatesBookWithoutOldFields() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.deleted", Map.of("bookId", 12L, "timestamp", "2024-05-01T03:00:01Z")),
+                record("book.updated", Map.of("bookId", 12L, "title", "Again", "updatedAt", "2024-05-01T03:00:02Z"))
+        );
+        
+        consumer.handleBookEvents(records);
+        
+        BookChange change = singleAppliedChange();
+        assertFalse(change.deleted());
+        assertTrue(change.replace());
+        assertEquals("Again", change.fields().get("title"));
+    }
+    
+    @Test
+    void unreadableRecord_isFailedAsNotRetryableAfterApplyingEarlierRecords() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("book.updated", Map.of("bookId", 10L, "title", "Ok")),
+                new ConsumerRecord<>("book.updated", 0, offset++, "11", "{not json"),
+                record("book.updated", Map.of("bookId", 12L, "title", "Later"))
+        );
+        
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleBookEvents(records));
+        
+        assertEquals(1, ex.getIndex());
+        assertInstanceOf(IllegalArgumentException.class, ex.getCause());
+        assertEquals(10L, singleAppliedChange().bookId());
+    }
+    
+    @Test
+    void eventVersion_followsEventTimestamp() {
+        long earlier = BookEventConsumer.eventVersion(Map.of("timestamp", "2024-05-01T10:00:00.123456"), SOURCE_ZONE);
+        long later = BookEventConsumer.eventVersion(Map.of("timestamp", "2024-05-01T10:00:00.123457"), SOURCE_ZONE);
+        long explicit = BookEventConsumer.eventVersion(Map.of("sequence", 42, "timestamp", "2024-05-01T10:00:00"), SOURCE_ZONE);
+
+        assertTrue(later > earlier);
+        assertEquals(42L, explicit);
+        assertEquals(0L, BookEventConsumer.eventVersion(Map.of(), SOURCE_ZONE));
+    }
+
+    @Test
+    void eventVersion_usesBookUpdatedAtInUtcLikeReindexSnapshot() {
+        Instant updatedAt = Instant.parse("2024-05-01T03:00:00.000001Z");
+        
+        long version = BookEventConsumer.eventVersion(Map.of(
+                "updatedAt", updatedAt.toString(),
+                "timestamp", "2024-05-01T03:00:05Z"), SOURCE_ZONE);
+        
+        assertEquals(BookChange.versionAt(updatedAt), version);
+    }
+    
+    @Test
+    void eventVersion_readsLocalTimestampInSourceZone() {
+        long local = BookEventConsumer.eventVersion(Map.of("timestamp", "2024-05-01T10:00:00"), SOURCE_ZONE);
+        
+        assertEquals(BookChange.versionAt(Instant.parse("2024-05-01T03:00:00Z")), local);
+    }
+    
+    @Test
+    void indexedEventsRecordIndexingLagFromRecordTimestamp() throws Exception {
+        long producedAt = System.currentTimeMillis() - 2_000;
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("book.updated", 0, offset++, producedAt,
+                TimestampType.CREATE_TIME, 0, 0, "9", objectMapper.writeValueAsString(Map.of("bookId", 9L, "title", "Lag")),
+                new RecordHeaders(), Optional.empty());
+
+        consumer.handleBookEvents(List.of(record));
+
+        Timer lag = meterRegistry.get("search.indexing.lag").tag("topic", "book.updated").timer();
+        assertEquals(1, lag.count());
+        assertTrue(lag.totalTime(TimeUnit.MILLISECONDS) >= 2_000);
+    }
+
+    private ConsumerRecord<String, String> record(String topic, Map<String, Object> event) throws Exception {
+        return new ConsumerRecord<>(topic, 0, offset++, event.get("bookId").toString(),
+                objectMapper.writeValueAsString(event));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BookChange> appliedChanges() {
+        ArgumentCaptor<List<BookChange>> captor = ArgumentCaptor.forClass(List.class);
+        verify(searchService, times(1)).applyChanges(captor.capture());
+        return captor.getValue();
+    }
+
+    private BookChange singleAppliedChange() {
+        List<BookChange> changes = appliedChanges();
+        assertEquals(1, changes.size());
+        return changes.get(0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.scar.bookvault.search.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.search.domain.BookSignal;
+import com.scar.bookvault.search.service.SearchMetrics;
+import com.scar.bookvault.search.service.SearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class BookSignalConsumerTest {
+
+    private SearchService searchService;
+    private ObjectMapper objectMapper;
+    private BookSignalConsumer consumer;
+    private long offset;
+
+    @BeforeEach
+    void setup() {
+        searchService = mock(SearchService.class);
+        objectMapper = new ObjectMapper();
+        consumer = new BookSignalConsumer(searchService, objectMapper, new SearchMetrics(new SimpleMeterRegistry()),
+                ZoneId.of("Asia/Ho_Chi_Minh"));
+        when(searchService.applySignals(anyList())).thenReturn(Set.of());
+    }
+
+    @Test
+    void loanAndRatingForSameBook_areMergedIntoOneSignal() throws Exception {
+        consumer.handleSignalEvents(List.of(
+                record("loan.created", Map.of("bookId", 7L, "quantity", 2)),
+                record("book.rating.summary", Map.of("bookId", 7L, "ratingAverage", 4.5, "ratingCount", 10))
+        ));
+
+        List<BookSignal> signals = appliedSignals();
+        assertEquals(1, signals.size());
+        assertEquals(2.0, signals.get(0).loans().get(0).copies());
+        assertEquals(10L, signals.get(0).fields().get("ratingCount"));
+    }
+
+    @Test
+    void unreadableRecord_isFailedAsNotRetryableAfterApplyingEarlierRecords() throws Exception {
+        List<ConsumerRecord<String, String>> records = List.of(
+                record("loan.created", Map.of("bookId", 10L)),
+                new ConsumerRecord<>("book.rating.summary", 0, offset++, "11", "{\"ratingCount\": 3}"),
+                record("loan.created", Map.of("bookId", 12L))
+        );
+
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleSignalEvents(records));
+
+        assertEquals(1, ex.getIndex());
+        assertInstanceOf(IllegalArgumentException.class, ex.getCause());
+        List<BookSignal> signals = appliedSignals();
+        assertEquals(1, signals.size());
+        assertEquals(10L, signals.get(0).bookId());
+    }
+
+    private ConsumerRecord<String, String> record(String topic, Map<String, Object> event) throws Exception {
+        return new ConsumerRecord<>(topic, 0, offset++, event.get("bookId").toString(),
+                objectMapper.writeValueAsString(event));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BookSignal> appliedSignals() {
+        ArgumentCaptor<List<BookSignal>> captor = ArgumentCaptor.forClass(List.class);
+        verify(searchService).applySignals(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,168 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.scar.bookvault.search.domain.BookDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class BookFacetServiceTest {
+
+    private ElasticsearchOperations operations;
+    private BookFacetService facetService;
+
+    @BeforeEach
+    void setUp() {
+        operations = mock(ElasticsearchOperations.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SearchResultCache cache = new SearchResultCache(meterRegistry, 10, Duration.ofMinutes(1), Duration.ofSeconds(5), Duration.ofMinutes(1));
+        facetService = new BookFacetService(operations, cache, new SearchMetrics(meterRegistry), 20);
+    }
+
+    @Test
+    void eachFacetIsFilteredOnlyByTheOtherSelections() {
+        respondWith(3, facets(Map.of("software", 2L, "fiction", 1L), Map.of("Robert Martin", 2L), 2, 1));
+
+        facetService.search("clean", "software", "Robert Martin", null, 0, 10);
+
+        NativeQuery query = capturedQuery();
+        assertEquals(List.of("category", "author.keyword"), filterFields(query.getFilter()));
+        Map<String, Aggregation> aggregations = query.getAggregations();
+        assertEquals(List.of("author.keyword"), filterFields(aggregations.get(BookFacetService.CATEGORY).filter()));
+        assertEquals(List.of("category"), filterFields(aggregations.get(BookFacetService.AUTHOR).filter()));
+        assertEquals(List.of("category", "author.keyword"), filterFields(aggregations.get(BookFacetService.AVAILABILITY).filter()));
+        assertEquals("author.keyword",
+                aggregations.get(BookFacetService.AUTHOR).aggregations().get("values").terms().field());
+        assertEquals(20, aggregations.get(BookFacetService.AUTHOR).aggregations().get("values").terms().size().intValue());
+    }
+
+    @Test
+    void availabilitySelectionFiltersHitsButNotItsOwnCounts() {
+        respondWith(2, facets(Map.of(), Map.of(), 2, 1));
+
+        facetService.search(null, null, null, true, 0, 10);
+
+        NativeQuery query = capturedQuery();
+        assertEquals(List.of("range"), filterFields(query.getFilter()));
+        assertEquals(List.of(), filterFields(query.getAggregations().get(BookFacetService.AVAILABILITY).filter()));
+        assertEquals(List.of("range"), filterFields(query.getAggregations().get(BookFacetService.CATEGORY).filter()));
+    }
+
+    @Test
+    void facetedResponseIsReadIntoCountsPerFacet() {
+        BookDocument book = new BookDocument(1L, "Clean Code", "Robert Martin", "ISBN-1", 2);
+        respondWith(3, facets(Map.of("software", 2L), Map.of("Robert Martin", 2L, "Frank Herbert", 1L), 2, 1), book);
+
+        FacetedSearchResult result = facetService.search("code", null, null, null, 0, 10);
+
+        assertEquals(3, result.total());
+        assertEquals(List.of(book), result.hits());
+        assertEquals(Map.of("software", 2L), result.facets().get(BookFacetService.CATEGORY));
+        assertEquals(Map.of("Robert Martin", 2L, "Frank Herbert", 1L), result.facets().get(BookFacetService.AUTHOR));
+        assertEquals(Map.of("inStock", 2L, "outOfStock", 1L), result.facets().get(BookFacetService.AVAILABILITY));
+    }
+
+    @Test
+    void unmappedTermsGiveEmptyFacet() {
+        Map<String, Aggregate> aggregates = facets(Map.of(), Map.of(), 0, 0);
+        aggregates.put(BookFacetService.AUTHOR, filterOf(0, Map.of("values", Aggregate.of(a -> a.umterms(u -> u.buckets(b -> b.array(List.of())))))));
+        respondWith(0, aggregates);
+
+        FacetedSearchResult result = facetService.search("code", null, null, null, 0, 10);
+
+        assertEquals(Map.of(), result.facets().get(BookFacetService.AUTHOR));
+    }
+
+    @Test
+    void statsComeFromTotalHitsAndAggregationsWithoutFetchingDocuments() {
+        Map<String, Aggregate> aggregates = facets(Map.of("software", 2L, "fiction", 1L), Map.of("Robert Martin", 2L), 2, 1);
+        aggregates.put("totalQuantity", Aggregate.of(a -> a.sum(s -> s.value(12.0))));
+        respondWith(3, aggregates);
+
+        Map<String, Object> stats = facetService.getStats();
+        facetService.getStats();
+
+        NativeQuery query = capturedQuery();
+        assertEquals(0, query.getMaxResults().intValue());
+        assertEquals(3L, stats.get("totalBooks"));
+        assertEquals(2L, stats.get("inStock"));
+        assertEquals(1L, stats.get("outOfStock"));
+        assertEquals(12L, stats.get("totalQuantity"));
+        assertEquals(Map.of("software", 2L, "fiction", 1L), stats.get("categories"));
+        assertEquals(Map.of("Robert Martin", 2L), stats.get("authors"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respondWith(long total, Map<String, Aggregate> aggregates, BookDocument... books) {
+        SearchHits<BookDocument> hits = mock(SearchHits.class);
+        when(hits.getTotalHits()).thenReturn(total);
+        when(hits.getAggregations()).thenReturn(new ElasticsearchAggregations(aggregates));
+        List<SearchHit<BookDocument>> searchHits = new ArrayList<>();
+        for (BookDocument book : books) {
+            SearchHit<BookDocument> hit = mock(SearchHit.class);
+            when(hit.getContent()).thenReturn(book);
+            searchHits.add(hit);
+        }
+        when(hits.getSearchHits()).thenReturn(searchHits);
+        when(operations.search(any(NativeQuery.class), eq(BookDocument.class))).thenReturn(hits);
+    }
+
+    // Lần gọi thứ hai cùng tham số được trả từ cache nên chỉ có đúng một query
+    private NativeQuery capturedQuery() {
+        ArgumentCaptor<NativeQuery> captor = ArgumentCaptor.forClass(NativeQuery.class);
+        verify(operations, times(1)).search(captor.capture(), eq(BookDocument.class));
+        return captor.getValue();
+    }
+
+    private static Map<String, Aggregate> facets(Map<String, Long> categories, Map<String, Long> authors, long inStock, long outOfStock) {
+        Map<String, Aggregate> aggregates = new LinkedHashMap<>();
+        aggregates.put(BookFacetService.CATEGORY, filterOf(0, Map.of("values", terms(categories))));
+        aggregates.put(BookFacetService.AUTHOR, filterOf(0, Map.of("values", terms(authors))));
+        aggregates.put(BookFacetService.AVAILABILITY, filterOf(inStock + outOfStock, Map.of(
+                "inStock", filterOf(inStock, Map.of()),
+                "outOfStock", filterOf(outOfStock, Map.of()))));
+        return aggregates;
+    }
+
+    private static Aggregate filterOf(long docCount, Map<String, Aggregate> subAggregations) {
+        return Aggregate.of(a -> a.filter(f -> f.docCount(docCount).aggregations(subAggregations)));
+    }
+
+    private static Aggregate terms(Map<String, Long> counts) {
+        List<StringTermsBucket> buckets = counts.entrySet().stream()
+                .map(entry -> StringTermsBucket.of(b -> b.key(FieldValue.of(entry.getKey())).docCount(entry.getValue())))
+                .toList();
+        return Aggregate.of(a -> a.sterms(t -> t.buckets(b -> b.array(buckets)).sumOtherDocCount(0L)));
+    }
+
+    // Field của từng filter trong bool (term), hoặc loại query với filter khác (range, bool)
+    private static List<String> filterFields(Query filter) {
+        if (filter == null || filter.isMatchAll()) {
+            return List.of();
+        }
+        return filter.bool().filter().stream()
+                .map(query -> query.isTerm() ? query.term().field() : query._kind().jsonValue())
+                .toList();
+    }
+}
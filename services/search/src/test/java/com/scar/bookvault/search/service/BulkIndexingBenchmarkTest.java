@@ -0,0 +1,108 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.repository.BookSearchRepository;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.repository.support.ElasticsearchRepositoryFactory;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Thông lượng index event book.* theo từng record (một request mỗi event, như listener cũ) so với
+ * _bulk theo batch của BookEventConsumer. Không chạy trong build thường (tag load); chạy bằng
+ * mvn test -Dgroups=load -Dtest.excludedGroups=, cần Docker. Số event chỉnh bằng
+ * -Dsearch.benchmark.events, kích thước batch bằng -Dsearch.benchmark.batch-size.
+ */
+@Tag("load")
+@Testcontainers(disabledWithoutDocker = true)
+class BulkIndexingBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexingBenchmarkTest.class);
+
+    private static final int EVENTS = Integer.getInteger("search.benchmark.events", 5000);
+    private static final int BATCH_SIZE = Integer.getInteger("search.benchmark.batch-size", 500);
+
+    @Container
+    static ElasticsearchContainer elasticsearch =
+            new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:8.11.0")
+                    .withEnv("xpack.security.enabled", "false");
+
+    private static RestClient restClient;
+    private static ElasticsearchClient client;
+    private static ElasticsearchSearchBackend backend;
+
+    @BeforeAll
+    static void setUp() {
+        restClient = RestClient.builder(HttpHost.create("http://" + elasticsearch.getHttpHostAddress())).build();
+        client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()));
+        ElasticsearchTemplate template = new ElasticsearchTemplate(client);
+        BookSearchRepository repository = new ElasticsearchRepositoryFactory(template).getRepository(BookSearchRepository.class);
+        backend = new ElasticsearchSearchBackend(repository, client, template, JsonMapper.builder().findAndAddModules().build(),
+                SearchBackendContractTest.RANKING);
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        restClient.close();
+    }
+
+    @Test
+    void bulkBatchesAgainstPerRecordRequests() throws Exception {
+        // Tạo index và mapping, làm nóng JIT của client trước khi đo
+        for (long id = 1; id <= 200; id++) {
+            backend.applyChange(change(id));
+        }
+
+        long start = System.nanoTime();
+        for (long id = 1; id <= EVENTS; id++) {
+            backend.applyChange(change(id));
+        }
+        long perRecordNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<BookChange> batch = new ArrayList<>(BATCH_SIZE);
+        for (long id = EVENTS + 1; id <= 2L * EVENTS; id++) {
+            batch.add(change(id));
+            if (batch.size() == BATCH_SIZE || id == 2L * EVENTS) {
+                assertTrue(backend.apply(batch).isEmpty());
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        long bulkNanos = System.nanoTime() - start;
+
+        double perRecordRate = EVENTS / (perRecordNanos / 1e9);
+        double bulkRate = EVENTS / (bulkNanos / 1e9);
+        logger.info("Indexed {} events: per-record {} events/s, bulk({}) {} events/s, x{}", EVENTS,
+                Math.round(perRecordRate), BATCH_SIZE, Math.round(bulkRate), String.format("%.1f", bulkRate / perRecordRate));
+
+        client.indices().refresh(r -> r.index(ElasticsearchSearchBackend.INDEX_NAME));
+        assertEquals(2L * EVENTS, client.count(c -> c.index(ElasticsearchSearchBackend.INDEX_NAME)).count());
+    }
+
+    private static BookChange change(long id) {
+        return new BookChange(id, id, Map.of(
+                "id", id,
+                "title", "Book " + id,
+                "author", "Author " + (id % 50),
+                "quantity", (int) (id % 7)));
+    }
+}
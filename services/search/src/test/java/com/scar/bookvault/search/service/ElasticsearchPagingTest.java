@@ -0,0 +1,135 @@
+package com.scar.bookvault.search.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.repository.BookSearchRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Request mà ElasticsearchSearchBackend gửi đi khi phân trang: from/size và source filter cho các
+ * truy vấn danh sách, point-in-time + search_after cho scroll. Không cần Elasticsearch.
+ */
+class ElasticsearchPagingTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private BookSearchRepository repository;
+    private ElasticsearchOperations operations;
+    private ElasticsearchSearchBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(BookSearchRepository.class);
+        operations = mock(ElasticsearchOperations.class);
+        backend = new ElasticsearchSearchBackend(repository, null, operations, objectMapper,
+                new PopularityRanking(Duration.ofDays(30), 1.0, 0.5, 0.25));
+    }
+
+    @Test
+    void fullTextSearchPushesOffsetLimitAndSourceFilter() {
+        respondWith(null, List.of());
+
+        backend.search("java", 20, 10);
+
+        NativeQuery query = capturedQuery();
+        assertEquals(20, query.getPageable().getOffset());
+        assertEquals(10, query.getPageable().getPageSize());
+        assertEquals(List.of("id", "title", "author", "isbn", "category", "quantity"),
+                Arrays.asList(query.getSourceFilter().getIncludes()));
+    }
+
+    @Test
+    void fieldQueriesPassOffsetAndLimitToRepository() {
+        backend.findByTitle("clean", 5, 5);
+        backend.findByCategory("software", 7, 3);
+
+        ArgumentCaptor<Pageable> title = ArgumentCaptor.forClass(Pageable.class);
+        verify(repository).findByTitleContaining(eq("clean"), title.capture());
+        assertEquals(5, title.getValue().getOffset());
+        assertEquals(5, title.getValue().getPageSize());
+        ArgumentCaptor<Pageable> category = ArgumentCaptor.forClass(Pageable.class);
+        verify(repository).findByCategory(eq("software"), category.capture());
+        assertEquals(7, category.getValue().getOffset());
+        assertEquals(3, category.getValue().getPageSize());
+    }
+
+    @Test
+    void firstScrollPageOpensPointInTimeAndReturnsCursorAfterLastHit() {
+        when(operations.openPointInTime(eq(IndexCoordinates.of(ElasticsearchSearchBackend.INDEX_NAME)), any(Duration.class)))
+                .thenReturn("pit-1");
+        respondWith("pit-2", List.of(hit(1L, 2.5), hit(2L, 1.5)));
+
+        ScrollPage page = backend.scroll("java", 2, null);
+
+        NativeQuery query = capturedQuery();
+        assertEquals("pit-1", query.getPointInTime().id());
+        assertEquals(2, query.getMaxResults().intValue());
+        assertNull(query.getSearchAfter());
+        assertFalse(query.getTrackTotalHits());
+        assertEquals(2, page.items().size());
+        ScrollCursor cursor = ScrollCursor.decode(page.nextCursor(), objectMapper);
+        assertEquals("pit-2", cursor.pit());
+        assertEquals(List.of(1.5), cursor.searchAfter());
+        verify(operations, never()).closePointInTime(anyString());
+    }
+
+    @Test
+    void nextScrollPageSearchesAfterCursorAndClosesPointInTimeWhenExhausted() {
+        String cursor = new ScrollCursor("pit-2", List.of(1.5), 1_700_000_000_000L).encode(objectMapper);
+        respondWith("pit-2", List.of(hit(3L, 1.0)));
+
+        ScrollPage page = backend.scroll("java", 2, cursor);
+
+        NativeQuery query = capturedQuery();
+        assertEquals("pit-2", query.getPointInTime().id());
+        assertEquals(List.of(1.5), query.getSearchAfter());
+        assertEquals(List.of(3L), page.items().stream().map(BookDocument::getId).toList());
+        assertNull(page.nextCursor());
+        verify(operations, never()).openPointInTime(any(), any());
+        verify(operations).closePointInTime("pit-2");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respondWith(String pitId, List<SearchHit<BookDocument>> searchHits) {
+        SearchHits<BookDocument> hits = mock(SearchHits.class);
+        when(hits.getSearchHits()).thenReturn(searchHits);
+        when(hits.getSearchHit(anyInt())).thenAnswer(invocation -> searchHits.get(invocation.getArgument(0)));
+        when(hits.getPointInTimeId()).thenReturn(pitId);
+        when(operations.search(any(NativeQuery.class), eq(BookDocument.class))).thenReturn(hits);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SearchHit<BookDocument> hit(Long id, double score) {
+        BookDocument book = new BookDocument();
+        book.setId(id);
+        SearchHit<BookDocument> hit = mock(SearchHit.class);
+        when(hit.getContent()).thenReturn(book);
+        when(hit.getSortValues()).thenReturn(new ArrayList<>(List.of(score)));
+        return hit;
+    }
+
+    private NativeQuery capturedQuery() {
+        ArgumentCaptor<NativeQuery> captor = ArgumentCaptor.forClass(NativeQuery.class);
+        verify(operations).search(captor.capture(), eq(BookDocument.class));
+        return captor.getValue();
+    }
+}
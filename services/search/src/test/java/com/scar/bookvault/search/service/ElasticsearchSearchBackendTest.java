@@ -0,0 +1,63 @@
+package com.scar.bookvault.search.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.scar.bookvault.search.repository.BookSearchRepository;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.repository.support.ElasticsearchRepositoryFactory;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Chạy bộ test chung trên Elasticsearch thật. Chỉ chạy khi có Docker.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ElasticsearchSearchBackendTest extends SearchBackendContractTest {
+
+    @Container
+    static ElasticsearchContainer elasticsearch =
+            new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:8.11.0")
+                    .withEnv("xpack.security.enabled", "false");
+
+    private static RestClient restClient;
+    private static ElasticsearchClient client;
+    private static ElasticsearchSearchBackend backend;
+
+    @BeforeAll
+    static void setUp() {
+        restClient = RestClient.builder(HttpHost.create("http://" + elasticsearch.getHttpHostAddress())).build();
+        client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()));
+        ElasticsearchTemplate template = new ElasticsearchTemplate(client);
+        BookSearchRepository repository = new ElasticsearchRepositoryFactory(template).getRepository(BookSearchRepository.class);
+        backend = new ElasticsearchSearchBackend(repository, client, template, JsonMapper.builder().findAndAddModules().build(), RANKING);
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        restClient.close();
+    }
+
+    @BeforeEach
+    void clearIndex() throws Exception {
+        client.deleteByQuery(d -> d.index(ElasticsearchSearchBackend.INDEX_NAME).query(q -> q.matchAll(m -> m)).refresh(true));
+        client.indices().delete(d -> d.index(ElasticsearchSearchBackend.TOMBSTONE_INDEX).ignoreUnavailable(true));
+    }
+
+    @Override
+    protected SearchBackend backend() {
+        return backend;
+    }
+
+    @Override
+    protected void refresh() throws Exception {
+        client.indices().refresh(r -> r.index(ElasticsearchSearchBackend.INDEX_NAME));
+    }
+}
@@ -0,0 +1,86 @@
+package com.scar.bookvault.search.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddedSearchBackendTest extends SearchBackendContractTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    @TempDir
+    Path dataDir;
+
+    private EmbeddedSearchBackend backend;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        backend = new EmbeddedSearchBackend(objectMapper, RANKING, dataDir.toString(), 3);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        backend.close();
+    }
+
+    @Override
+    protected SearchBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void changesSurviveRestartFromSnapshotAndLog() throws Exception {
+        for (long id = 1; id <= 4; id++) {
+            apply(book(id, "Book " + id, "Author", "ISBN-" + id, "software", null));
+        }
+        apply(new BookChange(2L, 5L, Map.of("quantity", 9)), BookChange.deletion(4L, 0L));
+
+        // Mô phỏng process dừng đột ngột: đóng log mà không ghi snapshot, thêm một dòng log ghi dở
+        backend.abandon();
+        Files.writeString(dataDir.resolve("changes.log"), "{\"bookId\":", StandardOpenOption.APPEND);
+        backend = new EmbeddedSearchBackend(objectMapper, RANKING, dataDir.toString(), 3);
+
+        assertEquals(3, backend.count());
+        assertEquals(9, backend.findById(2L).orElseThrow().getQuantity());
+        assertTrue(backend.findById(4L).isEmpty());
+        assertEquals(List.of(1L), backend.search("book 1", 0, 1).stream().map(BookDocument::getId).toList());
+        assertEquals(List.of(1L, 2L, 3L), backend.findByTitle("ook", 0, 10).stream().map(BookDocument::getId).toList());
+    }
+
+    @Test
+    void containingQueriesUseIndexThatFollowsChanges() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null),
+                book(2L, "Dune", "Frank Herbert", "ISBN-2", "fiction", null));
+
+        assertEquals(List.of(1L), ids(backend.findByTitle("lea", 0, 10)));
+        assertEquals(List.of(2L), ids(backend.findByTitle("du", 0, 10)));
+
+        apply(new BookChange(1L, 5L, Map.of("title", "Refactoring")));
+
+        assertEquals(List.of(), ids(backend.findByTitle("clean", 0, 10)));
+        assertEquals(List.of(1L), ids(backend.findByTitle("factor", 0, 10)));
+        assertEquals(List.of(1L), ids(backend.findByAuthor("mart", 0, 10)));
+        assertEquals(2L, backend.findByTitleOrAuthor("r", 0, 10).getTotalElements());
+
+        apply(BookChange.deletion(2L, 6L));
+
+        assertEquals(List.of(), ids(backend.findByAuthor("herbert", 0, 10)));
+    }
+
+    private static List<Long> ids(List<BookDocument> books) {
+        return books.stream().map(BookDocument::getId).toList();
+    }
+}
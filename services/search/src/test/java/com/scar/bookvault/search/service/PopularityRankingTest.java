@@ -0,0 +1,78 @@
+package com.scar.bookvault.search.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PopularityRankingTest {
+
+    private final PopularityRanking ranking = new PopularityRanking(Duration.ofDays(30), 1.0, 0.5, 0.25);
+
+    @Test
+    void loanLosesHalfItsWeightAfterOneHalfLife() {
+        Instant borrowedAt = Instant.parse("2026-03-01T00:00:00Z");
+        PopularityRanking.Popularity popularity = ranking.addLoan(null, null, 1, borrowedAt.toEpochMilli());
+
+        assertEquals(1.0, ranking.decayedLoans(popularity.value(), popularity.at(), borrowedAt), 1e-9);
+        assertEquals(0.5, ranking.decayedLoans(popularity.value(), popularity.at(), borrowedAt.plus(Duration.ofDays(30))), 1e-9);
+    }
+
+    @Test
+    void lateLoanIsDecayedToTheLatestLoan() {
+        Instant latest = Instant.parse("2026-03-31T00:00:00Z");
+        PopularityRanking.Popularity popularity = ranking.addLoan(null, null, 1, latest.toEpochMilli());
+        popularity = ranking.addLoan(popularity.value(), popularity.at(), 1, latest.minus(Duration.ofDays(30)).toEpochMilli());
+
+        assertEquals(latest.toEpochMilli(), popularity.at());
+        assertEquals(1.5, popularity.value(), 1e-9);
+    }
+
+    @Test
+    void popularityStaysFiniteLongAfterLastLoan() {
+        Instant now = Instant.parse("2200-01-01T00:00:00Z");
+        long lastLoanAt = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+        PopularityRanking.Popularity popularity = ranking.addLoan(5.0, lastLoanAt, 2, now.toEpochMilli());
+
+        assertEquals(2.0, popularity.value(), 1e-9);
+        assertTrue(Double.isFinite(ranking.boost(popularity.value(), popularity.at(), null, 1, now)));
+    }
+
+    @Test
+    void popularityWithoutTimestampIsNotCounted() {
+        Instant now = Instant.parse("2026-06-01T00:00:00Z");
+
+        assertEquals(0.0, ranking.decayedLoans(5.0, null, now), 1e-9);
+        assertEquals(2.0, ranking.addLoan(5.0, null, 2, now.toEpochMilli()).value(), 1e-9);
+    }
+
+    @Test
+    void recentLoansOutweighOlderOnes() {
+        Instant now = Instant.parse("2026-06-01T00:00:00Z");
+        long recentAt = now.minus(Duration.ofDays(1)).toEpochMilli();
+        long oldAt = now.minus(Duration.ofDays(180)).toEpochMilli();
+        double recent = ranking.boost(1.0, recentAt, null, 1, now);
+        double old = ranking.boost(1.0, oldAt, null, 1, now);
+
+        assertTrue(recent > old);
+    }
+
+    @Test
+    void fewRatingsStayCloseToTheMiddleOfTheScale() {
+        double single = PopularityRanking.ratingScore(10.0, 1);
+        double many = PopularityRanking.ratingScore(10.0, 200);
+
+        assertEquals(0.5, PopularityRanking.defaultRatingScore(), 1e-9);
+        assertTrue(single > 0.5 && single < many);
+        assertTrue(many <= 1.0);
+    }
+
+    @Test
+    void unavailableBookGetsNoAvailabilityBoost() {
+        Instant now = Instant.now();
+
+        assertEquals(0.25, ranking.boost(null, null, null, 3, now) - ranking.boost(null, null, null, 0, now), 1e-9);
+    }
+}
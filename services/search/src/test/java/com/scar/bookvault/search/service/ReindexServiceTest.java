@@ -0,0 +1,46 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReindexServiceTest {
+
+    @Test
+    void catalogBookBecomesChangeVersionedByUpdatedAt() {
+        Map<String, Object> book = Map.of(
+                "id", 7,
+                "title", "Title",
+                "author", "Author",
+                "isbn", "ISBN-7",
+                "quantity", 2,
+                "createdAt", 1714557600.5,
+                "updatedAt", "2024-05-01T10:00:00.000001Z");
+
+        BookChange change = ReindexService.toChange(book);
+
+        assertEquals(7L, change.bookId());
+        assertEquals("Title", change.fields().get("title"));
+        assertEquals("2024-05-01T10:00:00.500", change.fields().get("createdAt"));
+        assertEquals(BookChange.versionAt(OffsetDateTime.parse("2024-05-01T10:00:00.000001Z").toInstant()),
+                change.version());
+    }
+
+    @Test
+    void laterEventWinsOverSnapshotOfSameState() {
+        BookChange snapshot = ReindexService.toChange(Map.of(
+                "id", 1, "quantity", 3, "updatedAt", "2024-05-01T10:00:00.000001Z"));
+        BookChange event = new BookChange(1L,
+                BookChange.versionAt(OffsetDateTime.parse("2024-05-01T10:00:00.000002Z").toInstant()),
+                Map.of("quantity", 2));
+
+        BookChange merged = snapshot.mergeWith(event);
+
+        assertEquals(2, merged.fields().get("quantity"));
+        assertEquals(event.version(), merged.version());
+    }
+}
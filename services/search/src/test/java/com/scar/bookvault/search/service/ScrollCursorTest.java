@@ -0,0 +1,28 @@
+package com.scar.bookvault.search.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScrollCursorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void cursorRoundTripsPitAndSortValues() {
+        ScrollCursor cursor = new ScrollCursor("pit-id", List.of(1.5, 42), 1_700_000_000_000L);
+
+        ScrollCursor decoded = ScrollCursor.decode(cursor.encode(objectMapper), objectMapper);
+
+        assertEquals("pit-id", decoded.pit());
+        assertEquals(List.of(1.5, 42), decoded.searchAfter());
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode("not a cursor!", objectMapper));
+    }
+}
@@ -0,0 +1,246 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Các test chung mà mọi SearchBackend phải qua, mỗi backend có một lớp con.
+ */
+abstract class SearchBackendContractTest {
+
+    protected static final PopularityRanking RANKING = new PopularityRanking(Duration.ofDays(30), 1.0, 0.5, 0.25);
+
+    protected abstract SearchBackend backend();
+
+    // Đợi thay đổi hiện ra với truy vấn (Elasticsearch cần refresh)
+    protected void refresh() throws Exception {
+    }
+
+    @Test
+    void fullTextRanksTitleMatchAboveDescriptionMatch() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", "Craftsmanship"),
+                book(2L, "The Pragmatic Programmer", "Andrew Hunt", "ISBN-2", "software", "Mentions clean code once"),
+                book(3L, "Dune", "Frank Herbert", "ISBN-3", "fiction", "Desert planet"));
+
+        List<Long> ids = ids(backend().search("clean code", 0, 10));
+
+        assertEquals(List.of(1L, 2L), ids);
+    }
+
+    @Test
+    void fieldQueriesMatchTitleAuthorCategoryAndIsbn() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null),
+                book(2L, "Clean Architecture", "Robert Martin", "ISBN-2", "software", null),
+                book(3L, "Dune", "Frank Herbert", "ISBN-3", "fiction", null));
+
+        assertEquals(List.of(1L, 2L), sorted(ids(backend().findByTitle("clean", 0, 10))));
+        assertEquals(List.of(3L), ids(backend().findByAuthor("herbert", 0, 10)));
+        assertEquals(List.of(1L, 2L), sorted(ids(backend().findByCategory("software", 0, 10))));
+        assertEquals(List.of(), ids(backend().findByCategory("Software", 0, 10)));
+        assertEquals(3L, backend().findByIsbn("ISBN-3").orElseThrow().getId());
+        assertEquals(1L, backend().findByTitleOrAuthor("herbert", 0, 10).getTotalElements());
+        assertEquals(3L, backend().count());
+    }
+
+    @Test
+    void offsetAndLimitArePushedToBackend() throws Exception {
+        List<BookChange> books = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            books.add(book(id, "Java " + id, "Author", "ISBN-" + id, "software", null));
+        }
+        apply(books.toArray(BookChange[]::new));
+
+        List<Long> all = ids(backend().findByCategory("software", 0, 10));
+        assertEquals(all.subList(2, 4), ids(backend().findByCategory("software", 2, 2)));
+        assertEquals(List.of(), backend().findByCategory("software", 5, 2));
+    }
+
+    @Test
+    void partialChangeKeepsOtherFieldsAndOlderVersionIsIgnored() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null));
+        apply(new BookChange(1L, 20L, Map.of("quantity", 7)));
+        apply(new BookChange(1L, 10L, Map.of("quantity", 1, "title", "Stale")));
+
+        BookDocument book = backend().findById(1L).orElseThrow();
+        assertEquals(7, book.getQuantity());
+        assertEquals("Clean Code", book.getTitle());
+        assertEquals(20L, book.getEventVersion());
+    }
+
+    @Test
+    void deletionRemovesBookFromEveryQuery() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null));
+        apply(BookChange.deletion(1L, 0L));
+
+        assertTrue(backend().findById(1L).isEmpty());
+        assertTrue(backend().findByIsbn("ISBN-1").isEmpty());
+        assertEquals(List.of(), backend().search("clean", 0, 10));
+        assertEquals(List.of(), backend().findByCategory("software", 0, 10));
+    }
+
+    @Test
+    void lateUpdateDoesNotRecreateDeletedBook() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null));
+        apply(BookChange.deletion(1L, 30L));
+        apply(new BookChange(1L, 20L, Map.of("id", 1L, "title", "Stale", "quantity", 3)));
+
+        assertTrue(backend().findById(1L).isEmpty());
+        assertEquals(0L, backend().count());
+
+        apply(new BookChange(1L, 40L, Map.of("id", 1L, "title", "Restored", "quantity", 3)));
+        assertEquals("Restored", backend().findById(1L).orElseThrow().getTitle());
+    }
+
+    @Test
+    void updateAfterDeletionInSameBatchRecreatesBookFromScratch() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", "Craftsmanship"));
+        BookChange recreated = BookChange.deletion(1L, 30L)
+                .mergeWith(new BookChange(1L, 40L, Map.of("id", 1L, "title", "Clean Code", "quantity", 2)));
+        apply(recreated);
+
+        BookDocument book = backend().findById(1L).orElseThrow();
+        assertEquals(2, book.getQuantity());
+        assertNull(book.getDescription());
+        assertNull(book.getCategory());
+    }
+
+    @Test
+    void olderDeletionKeepsNewerBook() throws Exception {
+        apply(new BookChange(1L, 20L, Map.of("id", 1L, "title", "Clean Code", "quantity", 1)));
+        apply(BookChange.deletion(1L, 10L));
+
+        assertEquals("Clean Code", backend().findById(1L).orElseThrow().getTitle());
+    }
+
+    @Test
+    void scrollVisitsEveryMatchOnce() throws Exception {
+        List<BookChange> books = new ArrayList<>();
+        for (long id = 1; id <= 7; id++) {
+            books.add(book(id, "Java volume " + id, "Author", "ISBN-" + id, "software", null));
+        }
+        apply(books.toArray(BookChange[]::new));
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            ScrollPage page = backend().scroll("java", 3, cursor);
+            seen.addAll(ids(page.items()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), sorted(seen));
+    }
+
+    @Test
+    void suggestMatchesTitleAndAuthorPrefixes() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null),
+                book(2L, "Refactoring", "Martin Fowler", "ISBN-2", "software", null));
+
+        assertEquals(List.of(new BookSuggestion("Clean Code", BookSuggestion.TITLE)), backend().suggest("clea", 5));
+        assertEquals(List.of(new BookSuggestion("Martin Fowler", BookSuggestion.AUTHOR)), backend().suggest("Mart", 5));
+    }
+
+    @Test
+    void popularityBreaksTiesBetweenEquallyRelevantBooks() throws Exception {
+        apply(book(1L, "Java Basics", "Author", "ISBN-1", "software", null),
+                book(2L, "Java Recipes", "Author", "ISBN-2", "software", null));
+
+        Instant now = Instant.now();
+        assertTrue(backend().applySignals(List.of(
+                BookSignal.loan(2L, "loan.created-0", 1, 1, now),
+                BookSignal.loan(2L, "loan.created-0", 2, 1, now))).isEmpty());
+        refresh();
+
+        assertEquals(List.of(2L, 1L), ids(backend().search("java", 0, 10)));
+        assertEquals(2.0, RANKING.decayedLoans(stored(2L).getPopularity(), stored(2L).getPopularityAt(), now), 1e-9);
+    }
+
+    @Test
+    void redeliveredLoansAreCountedOnce() throws Exception {
+        apply(book(1L, "Java Basics", "Author", "ISBN-1", "software", null));
+        Instant now = Instant.now();
+
+        backend().applySignals(List.of(
+                BookSignal.loan(1L, "loan.created-0", 5, 1, now),
+                BookSignal.loan(1L, "loan.created-1", 3, 2, now)));
+        refresh();
+        // Kafka giao lại cả hai record, cùng một record mới hơn của partition 0
+        backend().applySignals(List.of(
+                BookSignal.loan(1L, "loan.created-0", 5, 1, now),
+                BookSignal.loan(1L, "loan.created-1", 3, 2, now),
+                BookSignal.loan(1L, "loan.created-0", 6, 1, now)));
+        refresh();
+
+        assertEquals(4.0, RANKING.decayedLoans(stored(1L).getPopularity(), stored(1L).getPopularityAt(), now), 1e-9);
+    }
+
+    @Test
+    void popularityStaysFiniteFarFromLegacyEpoch() throws Exception {
+        apply(book(1L, "Java Basics", "Author", "ISBN-1", "software", null));
+        Instant future = Instant.parse("2200-01-01T00:00:00Z");
+
+        backend().applySignals(List.of(BookSignal.loan(1L, "loan.created-0", 1, 3, future)));
+        refresh();
+
+        assertEquals(3.0, stored(1L).getPopularity(), 1e-9);
+        assertEquals(3.0, RANKING.decayedLoans(stored(1L).getPopularity(), stored(1L).getPopularityAt(), future), 1e-9);
+    }
+
+    @Test
+    void signalsNeverCreateBooks() throws Exception {
+        apply(book(1L, "Clean Code", "Robert Martin", "ISBN-1", "software", null));
+
+        assertTrue(backend().applySignals(List.of(
+                BookSignal.set(1L, Map.of("ratingScore", 0.9, "ratingCount", 3L)),
+                BookSignal.loan(99L, "loan.created-0", 1, 1, Instant.now()))).isEmpty());
+        refresh();
+
+        assertTrue(backend().findById(99L).isEmpty());
+        assertEquals(1L, backend().count());
+        BookDocument book = backend().findById(1L).orElseThrow();
+        assertEquals(0.9, book.getRatingScore());
+        assertEquals("Clean Code", book.getTitle());
+    }
+
+    protected void apply(BookChange... changes) throws Exception {
+        assertTrue(backend().apply(List.of(changes)).isEmpty());
+        refresh();
+    }
+
+    private BookDocument stored(Long id) {
+        return backend().findById(id).orElseThrow();
+    }
+
+    protected static BookChange book(Long id, String title, String author, String isbn, String category, String description) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", id);
+        fields.put("title", title);
+        fields.put("author", author);
+        fields.put("isbn", isbn);
+        fields.put("category", category);
+        fields.put("quantity", 1);
+        if (description != null) {
+            fields.put("description", description);
+        }
+        return new BookChange(id, 1L, fields);
+    }
+
+    private static List<Long> ids(List<BookDocument> books) {
+        return books.stream().map(BookDocument::getId).toList();
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        return ids.stream().sorted().toList();
+    }
+}
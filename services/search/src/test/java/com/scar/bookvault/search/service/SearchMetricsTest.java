@@ -0,0 +1,41 @@
+package com.scar.bookvault.search.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SearchMetrics metrics = new SearchMetrics(meterRegistry);
+
+    @Test
+    void queryTimerIsTaggedByTypeAndResultBucket() {
+        metrics.timeQuery("title", () -> List.of(1, 2, 3), List::size);
+        metrics.timeQuery("title", () -> List.<Integer>of(), List::size);
+
+        assertEquals(1, meterRegistry.get("search.query").tags("type", "title", "results", "1-10", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("search.query").tags("type", "title", "results", "0", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void failedQueryIsRecordedAsError() {
+        assertThrows(IllegalStateException.class, () -> metrics.timeQuery("query", () -> {
+            throw new IllegalStateException("backend down");
+        }, (List<Object> list) -> list.size()));
+
+        assertEquals(1, meterRegistry.get("search.query").tags("type", "query", "outcome", "error").timer().count());
+    }
+
+    @Test
+    void resultBucketsHaveBoundedCardinality() {
+        assertEquals("0", SearchMetrics.resultBucket(0));
+        assertEquals("1-10", SearchMetrics.resultBucket(10));
+        assertEquals("11-50", SearchMetrics.resultBucket(11));
+        assertEquals("51-100", SearchMetrics.resultBucket(100));
+        assertEquals("100+", SearchMetrics.resultBucket(5_000));
+    }
+}
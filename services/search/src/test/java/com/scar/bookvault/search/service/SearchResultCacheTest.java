@@ -0,0 +1,179 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchResultCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    // Lần load lại ở nền chỉ chạy khi test gọi refresh()
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private SearchResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = newCache(10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.stop();
+    }
+
+    @Test
+    void repeatedQueryIsServedFromCache() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("q", () -> "result-" + loads.incrementAndGet());
+        String second = cache.get("q", () -> "result-" + loads.incrementAndGet());
+
+        assertEquals("result-1", second);
+        assertEquals(1, loads.get());
+        assertEquals(0.5, meterRegistry.get("search.cache.hit.ratio").gauge().value());
+    }
+
+    @Test
+    void staleResultIsServedImmediatelyAndReloadedInBackgroundOnce() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("q", () -> "result-" + loads.incrementAndGet());
+        cache.invalidateAll();
+
+        assertEquals("result-1", cache.get("q", () -> "result-" + loads.incrementAndGet()));
+        assertEquals("result-1", cache.get("q", () -> fail("should not query while a reload is in flight")));
+        assertEquals(1, refreshes.size());
+        assertEquals(1, loads.get());
+
+        refresh();
+
+        assertEquals("result-2", cache.get("q", () -> fail("reloaded result should be fresh")));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void failedBackgroundReloadKeepsServingStaleResult() {
+        cache.get("q", () -> "old");
+        cache.invalidateAll();
+
+        cache.get("q", () -> {
+            throw new IllegalStateException("Elasticsearch unavailable");
+        });
+        refresh();
+
+        assertEquals("old", cache.get("q", () -> "new"));
+        refresh();
+        assertEquals("new", cache.get("q", () -> "unexpected"));
+    }
+
+    @Test
+    void changeOnlyInvalidatesQueriesItCanAffect() {
+        cacheBooks("category:software:0", "category:software", Set.of(SearchResultCache.categoryTag("software")), 1L, 2L);
+        cacheBooks("category:software:2", "category:software", Set.of(SearchResultCache.categoryTag("software")), 3L);
+        cacheBooks("query:dune:0", "query:dune", SearchResultCache.termTags("dune"), 9L);
+
+        cache.invalidate(SearchResultCache.tagsOf(new BookChange(2L, 5L, Map.of("quantity", 0))));
+
+        // Cả hai trang của family có book 2 đều cũ, query khác vẫn lấy từ cache
+        assertStale("category:software:0");
+        assertStale("category:software:2");
+        assertFresh("query:dune:0");
+    }
+
+    @Test
+    void newBookInvalidatesQueriesItMatches() {
+        cacheBooks("query:dune:0", "query:dune", SearchResultCache.termTags("dune"), 9L);
+        cacheBooks("query:java:0", "query:java", SearchResultCache.termTags("java"), 1L);
+        cacheBooks("category:fiction:0", "category:fiction", Set.of(SearchResultCache.categoryTag("fiction")), 9L);
+        cacheBooks("category:software:0", "category:software", Set.of(SearchResultCache.categoryTag("software")), 1L);
+        cache.get("stats", () -> "stats");
+
+        cache.invalidate(SearchResultCache.tagsOf(new BookChange(7L, 1L,
+                Map.of("title", "Children of Dune", "author", "Frank Herbert", "category", "fiction"))));
+
+        assertStale("query:dune:0");
+        assertStale("category:fiction:0");
+        assertStale("stats");
+        assertFresh("query:java:0");
+        assertFresh("category:software:0");
+    }
+
+    @Test
+    void changeDuringLoadMarksLoadedResultStale() {
+        cache.get("q", "q", Set.of(), () -> {
+            cache.invalidate(List.of(SearchResultCache.bookTag(1L)));
+            return List.of(book(1L));
+        }, books -> books);
+
+        assertStale("q");
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        cache.stop();
+        cache = newCache(2);
+
+        cache.get("a", () -> "a");
+        cache.get("b", () -> "b");
+        cache.get("a", () -> "a");
+        cache.get("c", () -> "c");
+
+        assertEquals(2, cache.size());
+        assertEquals("b-reloaded", cache.get("b", () -> "b-reloaded"));
+    }
+
+    @Test
+    void keyIgnoresCaseAndExtraWhitespaceOfQueryText() {
+        assertEquals(SearchResultCache.normalize("  Clean   Code "), SearchResultCache.normalize("clean code"));
+    }
+
+    private SearchResultCache newCache(int maxEntries) {
+        return new SearchResultCache(meterRegistry, maxEntries, Duration.ofMinutes(1), Duration.ofSeconds(5), Duration.ofMinutes(1),
+                refreshes::add);
+    }
+
+    private void refresh() {
+        List<Runnable> pending = new ArrayList<>(refreshes);
+        refreshes.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    private void cacheBooks(String key, String family, Set<String> tags, Long... ids) {
+        List<BookDocument> books = new ArrayList<>();
+        for (Long id : ids) {
+            books.add(book(id));
+        }
+        cache.get(key, family, tags, () -> books, result -> result);
+    }
+
+    // Entry cũ được trả ngay và xếp một lần load lại ở nền
+    private void assertStale(String key) {
+        refreshes.clear();
+        cache.get(key, () -> fail("stale entry should be served without waiting"));
+        assertEquals(1, refreshes.size(), key + " should be stale");
+        refreshes.clear();
+    }
+
+    private void assertFresh(String key) {
+        cache.get(key, () -> fail(key + " should still be cached"));
+        assertTrue(refreshes.isEmpty(), key + " should be fresh");
+    }
+
+    private static BookDocument book(Long id) {
+        BookDocument book = new BookDocument();
+        book.setId(id);
+        return book;
+    }
+}
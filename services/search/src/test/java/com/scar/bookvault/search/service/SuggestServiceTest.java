@@ -0,0 +1,134 @@
+package com.scar.bookvault.search.service;
+
+import com.scar.bookvault.search.domain.BookChange;
+import com.scar.bookvault.search.domain.BookDocument;
+import com.scar.bookvault.search.domain.BookSignal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SuggestServiceTest {
+
+    private static final PopularityRanking RANKING = new PopularityRanking(Duration.ofDays(30), 1.0, 0.5, 0.25);
+
+    private SearchBackend backend;
+    private SearchMetrics metrics;
+    private SuggestService suggestService;
+
+    @BeforeEach
+    void setUp() {
+        backend = mock(SearchBackend.class);
+        metrics = new SearchMetrics(new SimpleMeterRegistry());
+        // Dựng lại trie bằng tay trong test
+        suggestService = new SuggestService(backend, metrics, RANKING, 3, 10, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        suggestService.stop();
+    }
+
+    @Test
+    void suggestionsAreRankedByLoansNotByNumberOfBooks() {
+        loadIndex(
+                book(1L, "Data Science", "Joel Grus", 0),
+                book(2L, "Data Science", "Joel Grus", 0),
+                book(3L, "Data Science", "Joel Grus", 0),
+                book(4L, "Dune", "Frank Herbert", 5));
+
+        assertEquals(List.of(
+                new BookSuggestion("Dune", BookSuggestion.TITLE),
+                new BookSuggestion("Data Science", BookSuggestion.TITLE)), suggestService.suggest("d", 10));
+    }
+
+    @Test
+    void authorCollectsLoansOfAllTheirBooks() {
+        loadIndex(
+                book(1L, "Dune", "Frank Herbert", 2),
+                book(2L, "Dune Messiah", "Frank Herbert", 2),
+                book(3L, "Fahrenheit 451", "Ray Bradbury", 3));
+
+        assertEquals(List.of(
+                new BookSuggestion("Frank Herbert", BookSuggestion.AUTHOR),
+                new BookSuggestion("Fahrenheit 451", BookSuggestion.TITLE)), suggestService.suggest("f", 10));
+    }
+
+    @Test
+    void loanSignalsReorderSuggestions() {
+        loadIndex(book(1L, "Dune", "Frank Herbert", 1), book(2L, "Data Science", "Joel Grus", 0));
+
+        suggestService.onSignals(List.of(BookSignal.loan(2L, "loan.created-0", 1, 3, Instant.now())));
+        suggestService.rebuildIfDirty();
+
+        assertEquals(new BookSuggestion("Data Science", BookSuggestion.TITLE), suggestService.suggest("d", 1).get(0));
+    }
+
+    @Test
+    void changesThatFailedToIndexAreNotSuggested() {
+        loadIndex(book(1L, "Dune", "Frank Herbert", 0));
+        SearchService searchService = new SearchService(backend,
+                new SearchResultCache(new SimpleMeterRegistry(), 10, Duration.ofMinutes(1), Duration.ofSeconds(5), Duration.ofMinutes(1)),
+                suggestService, metrics);
+        when(backend.apply(any())).thenReturn(Set.of(2L));
+        when(backend.applySignals(any())).thenReturn(Set.of(1L));
+
+        searchService.applyChanges(List.of(
+                new BookChange(1L, 2L, Map.of("title", "Dune Messiah")),
+                new BookChange(2L, 2L, Map.of("title", "Dubliners", "author", "James Joyce"))));
+        searchService.applySignals(List.of(BookSignal.loan(1L, "loan.created-0", 1, 1, Instant.now())));
+        suggestService.rebuildIfDirty();
+
+        assertEquals(List.of(new BookSuggestion("Dune Messiah", BookSuggestion.TITLE)), suggestService.suggest("du", 10));
+    }
+
+    @Test
+    void deletedBookIsNoLongerSuggested() {
+        loadIndex(book(1L, "Dune", "Frank Herbert", 0), book(2L, "Data Science", "Joel Grus", 0));
+
+        suggestService.onChanges(List.of(BookChange.deletion(1L, 2L)));
+        suggestService.rebuildIfDirty();
+
+        assertEquals(List.of(new BookSuggestion("Data Science", BookSuggestion.TITLE)), suggestService.suggest("d", 10));
+    }
+
+    @Test
+    void prefixLongerThanTrieDepthIsAskedFromBackend() {
+        loadIndex(book(1L, "Dune", "Frank Herbert", 0));
+        when(backend.suggest("dune", 5)).thenReturn(List.of(new BookSuggestion("Dune", BookSuggestion.TITLE)));
+
+        assertEquals(List.of(new BookSuggestion("Dune", BookSuggestion.TITLE)), suggestService.suggest("dune", 5));
+        verify(backend).suggest("dune", 5);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadIndex(BookDocument... books) {
+        doAnswer(invocation -> {
+            Consumer<BookDocument> consumer = invocation.getArgument(0);
+            for (BookDocument book : books) {
+                consumer.accept(book);
+            }
+            return null;
+        }).when(backend).scan(any(Consumer.class));
+        suggestService.loadFromIndex();
+    }
+
+    // loans lượt mượn tại thời điểm hiện tại
+    private static BookDocument book(Long id, String title, String author, int loans) {
+        BookDocument book = new BookDocument(id, title, author, "ISBN-" + id, 1);
+        book.setPopularity((double) loans);
+        book.setPopularityAt(Instant.now().toEpochMilli());
+        return book;
+    }
+}
@@ -0,0 +1,36 @@
+package com.scar.bookvault.search.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuggestionTrieTest {
+
+    private final SuggestionTrie trie = SuggestionTrie.build(Map.of(
+            new BookSuggestion("Clean Code", BookSuggestion.TITLE), 1.0,
+            new BookSuggestion("Clean Architecture", BookSuggestion.TITLE), 1.0,
+            new BookSuggestion("Robert C. Martin", BookSuggestion.AUTHOR), 2.0,
+            new BookSuggestion("Refactoring", BookSuggestion.TITLE), 1.0,
+            new BookSuggestion("Code Complete", BookSuggestion.TITLE), 1.0), 3, 2);
+
+    @Test
+    void shortPrefixReturnsTopSuggestionsByWeightThenText() {
+        assertEquals(List.of(
+                new BookSuggestion("Robert C. Martin", BookSuggestion.AUTHOR),
+                new BookSuggestion("Refactoring", BookSuggestion.TITLE)), trie.lookup("r", 10));
+        assertEquals(List.of(new BookSuggestion("Clean Architecture", BookSuggestion.TITLE)), trie.lookup("CL", 1));
+    }
+
+    @Test
+    void unknownPrefixHasNoSuggestions() {
+        assertEquals(List.of(), trie.lookup("xyz", 10));
+    }
+
+    @Test
+    void prefixLongerThanDepthIsNotAnsweredByTrie() {
+        assertNull(trie.lookup("clea", 10));
+    }
+}